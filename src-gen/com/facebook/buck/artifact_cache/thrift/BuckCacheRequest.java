@@ -34,7 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @SuppressWarnings({"cast", "rawtypes", "serial", "unchecked"})
-@Generated(value = "Autogenerated by Thrift Compiler (0.9.3)", date = "2017-03-12")
+@Generated(value = "Autogenerated by Thrift Compiler (0.9.3)", date = "2026-10-16")
 public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheRequest, BuckCacheRequest._Fields>, java.io.Serializable, Cloneable, Comparable<BuckCacheRequest> {
   private static final org.apache.thrift.protocol.TStruct STRUCT_DESC = new org.apache.thrift.protocol.TStruct("BuckCacheRequest");
 
@@ -42,6 +42,7 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
   private static final org.apache.thrift.protocol.TField PAYLOADS_FIELD_DESC = new org.apache.thrift.protocol.TField("payloads", org.apache.thrift.protocol.TType.LIST, (short)100);
   private static final org.apache.thrift.protocol.TField FETCH_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("fetchRequest", org.apache.thrift.protocol.TType.STRUCT, (short)101);
   private static final org.apache.thrift.protocol.TField STORE_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("storeRequest", org.apache.thrift.protocol.TType.STRUCT, (short)102);
+  private static final org.apache.thrift.protocol.TField MULTI_FETCH_REQUEST_FIELD_DESC = new org.apache.thrift.protocol.TField("multiFetchRequest", org.apache.thrift.protocol.TType.STRUCT, (short)103);
 
   private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
   static {
@@ -57,6 +58,7 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
   public List<PayloadInfo> payloads; // optional
   public BuckCacheFetchRequest fetchRequest; // optional
   public BuckCacheStoreRequest storeRequest; // optional
+  public BuckCacheMultiFetchRequest multiFetchRequest; // optional
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   public enum _Fields implements org.apache.thrift.TFieldIdEnum {
@@ -67,7 +69,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     TYPE((short)1, "type"),
     PAYLOADS((short)100, "payloads"),
     FETCH_REQUEST((short)101, "fetchRequest"),
-    STORE_REQUEST((short)102, "storeRequest");
+    STORE_REQUEST((short)102, "storeRequest"),
+    MULTI_FETCH_REQUEST((short)103, "multiFetchRequest");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -90,6 +93,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           return FETCH_REQUEST;
         case 102: // STORE_REQUEST
           return STORE_REQUEST;
+        case 103: // MULTI_FETCH_REQUEST
+          return MULTI_FETCH_REQUEST;
         default:
           return null;
       }
@@ -130,7 +135,7 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
   }
 
   // isset id assignments
-  private static final _Fields optionals[] = {_Fields.TYPE,_Fields.PAYLOADS,_Fields.FETCH_REQUEST,_Fields.STORE_REQUEST};
+  private static final _Fields optionals[] = {_Fields.TYPE,_Fields.PAYLOADS,_Fields.FETCH_REQUEST,_Fields.STORE_REQUEST,_Fields.MULTI_FETCH_REQUEST};
   public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
   static {
     Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
@@ -143,6 +148,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheFetchRequest.class)));
     tmpMap.put(_Fields.STORE_REQUEST, new org.apache.thrift.meta_data.FieldMetaData("storeRequest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheStoreRequest.class)));
+    tmpMap.put(_Fields.MULTI_FETCH_REQUEST, new org.apache.thrift.meta_data.FieldMetaData("multiFetchRequest", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheMultiFetchRequest.class)));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(BuckCacheRequest.class, metaDataMap);
   }
@@ -172,6 +179,9 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     if (other.isSetStoreRequest()) {
       this.storeRequest = new BuckCacheStoreRequest(other.storeRequest);
     }
+    if (other.isSetMultiFetchRequest()) {
+      this.multiFetchRequest = new BuckCacheMultiFetchRequest(other.multiFetchRequest);
+    }
   }
 
   public BuckCacheRequest deepCopy() {
@@ -185,6 +195,7 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     this.payloads = null;
     this.fetchRequest = null;
     this.storeRequest = null;
+    this.multiFetchRequest = null;
   }
 
   /**
@@ -306,6 +317,30 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     }
   }
 
+  public BuckCacheMultiFetchRequest getMultiFetchRequest() {
+    return this.multiFetchRequest;
+  }
+
+  public BuckCacheRequest setMultiFetchRequest(BuckCacheMultiFetchRequest multiFetchRequest) {
+    this.multiFetchRequest = multiFetchRequest;
+    return this;
+  }
+
+  public void unsetMultiFetchRequest() {
+    this.multiFetchRequest = null;
+  }
+
+  /** Returns true if field multiFetchRequest is set (has been assigned a value) and false otherwise */
+  public boolean isSetMultiFetchRequest() {
+    return this.multiFetchRequest != null;
+  }
+
+  public void setMultiFetchRequestIsSet(boolean value) {
+    if (!value) {
+      this.multiFetchRequest = null;
+    }
+  }
+
   public void setFieldValue(_Fields field, Object value) {
     switch (field) {
     case TYPE:
@@ -340,6 +375,14 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       }
       break;
 
+    case MULTI_FETCH_REQUEST:
+      if (value == null) {
+        unsetMultiFetchRequest();
+      } else {
+        setMultiFetchRequest((BuckCacheMultiFetchRequest)value);
+      }
+      break;
+
     }
   }
 
@@ -357,6 +400,9 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     case STORE_REQUEST:
       return getStoreRequest();
 
+    case MULTI_FETCH_REQUEST:
+      return getMultiFetchRequest();
+
     }
     throw new IllegalStateException();
   }
@@ -376,6 +422,8 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       return isSetFetchRequest();
     case STORE_REQUEST:
       return isSetStoreRequest();
+    case MULTI_FETCH_REQUEST:
+      return isSetMultiFetchRequest();
     }
     throw new IllegalStateException();
   }
@@ -429,6 +477,15 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         return false;
     }
 
+    boolean this_present_multiFetchRequest = true && this.isSetMultiFetchRequest();
+    boolean that_present_multiFetchRequest = true && that.isSetMultiFetchRequest();
+    if (this_present_multiFetchRequest || that_present_multiFetchRequest) {
+      if (!(this_present_multiFetchRequest && that_present_multiFetchRequest))
+        return false;
+      if (!this.multiFetchRequest.equals(that.multiFetchRequest))
+        return false;
+    }
+
     return true;
   }
 
@@ -456,6 +513,11 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     if (present_storeRequest)
       list.add(storeRequest);
 
+    boolean present_multiFetchRequest = true && (isSetMultiFetchRequest());
+    list.add(present_multiFetchRequest);
+    if (present_multiFetchRequest)
+      list.add(multiFetchRequest);
+
     return list.hashCode();
   }
 
@@ -507,6 +569,16 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         return lastComparison;
       }
     }
+    lastComparison = Boolean.valueOf(isSetMultiFetchRequest()).compareTo(other.isSetMultiFetchRequest());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetMultiFetchRequest()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.multiFetchRequest, other.multiFetchRequest);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
     return 0;
   }
 
@@ -566,6 +638,16 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       }
       first = false;
     }
+    if (isSetMultiFetchRequest()) {
+      if (!first) sb.append(", ");
+      sb.append("multiFetchRequest:");
+      if (this.multiFetchRequest == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.multiFetchRequest);
+      }
+      first = false;
+    }
     sb.append(")");
     return sb.toString();
   }
@@ -579,6 +661,9 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
     if (storeRequest != null) {
       storeRequest.validate();
     }
+    if (multiFetchRequest != null) {
+      multiFetchRequest.validate();
+    }
   }
 
   private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
@@ -626,14 +711,14 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           case 100: // PAYLOADS
             if (schemeField.type == org.apache.thrift.protocol.TType.LIST) {
               {
-                org.apache.thrift.protocol.TList _list34 = iprot.readListBegin();
-                struct.payloads = new ArrayList<PayloadInfo>(_list34.size);
-                PayloadInfo _elem35;
-                for (int _i36 = 0; _i36 < _list34.size; ++_i36)
+                org.apache.thrift.protocol.TList _list50 = iprot.readListBegin();
+                struct.payloads = new ArrayList<PayloadInfo>(_list50.size);
+                PayloadInfo _elem51;
+                for (int _i52 = 0; _i52 < _list50.size; ++_i52)
                 {
-                  _elem35 = new PayloadInfo();
-                  _elem35.read(iprot);
-                  struct.payloads.add(_elem35);
+                  _elem51 = new PayloadInfo();
+                  _elem51.read(iprot);
+                  struct.payloads.add(_elem51);
                 }
                 iprot.readListEnd();
               }
@@ -660,6 +745,15 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
             }
             break;
+          case 103: // MULTI_FETCH_REQUEST
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.multiFetchRequest = new BuckCacheMultiFetchRequest();
+              struct.multiFetchRequest.read(iprot);
+              struct.setMultiFetchRequestIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
           default:
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
         }
@@ -687,9 +781,9 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           oprot.writeFieldBegin(PAYLOADS_FIELD_DESC);
           {
             oprot.writeListBegin(new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, struct.payloads.size()));
-            for (PayloadInfo _iter37 : struct.payloads)
+            for (PayloadInfo _iter53 : struct.payloads)
             {
-              _iter37.write(oprot);
+              _iter53.write(oprot);
             }
             oprot.writeListEnd();
           }
@@ -710,6 +804,13 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
           oprot.writeFieldEnd();
         }
       }
+      if (struct.multiFetchRequest != null) {
+        if (struct.isSetMultiFetchRequest()) {
+          oprot.writeFieldBegin(MULTI_FETCH_REQUEST_FIELD_DESC);
+          struct.multiFetchRequest.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
       oprot.writeFieldStop();
       oprot.writeStructEnd();
     }
@@ -740,16 +841,19 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       if (struct.isSetStoreRequest()) {
         optionals.set(3);
       }
-      oprot.writeBitSet(optionals, 4);
+      if (struct.isSetMultiFetchRequest()) {
+        optionals.set(4);
+      }
+      oprot.writeBitSet(optionals, 5);
       if (struct.isSetType()) {
         oprot.writeI32(struct.type.getValue());
       }
       if (struct.isSetPayloads()) {
         {
           oprot.writeI32(struct.payloads.size());
-          for (PayloadInfo _iter38 : struct.payloads)
+          for (PayloadInfo _iter54 : struct.payloads)
           {
-            _iter38.write(oprot);
+            _iter54.write(oprot);
           }
         }
       }
@@ -759,26 +863,29 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
       if (struct.isSetStoreRequest()) {
         struct.storeRequest.write(oprot);
       }
+      if (struct.isSetMultiFetchRequest()) {
+        struct.multiFetchRequest.write(oprot);
+      }
     }
 
     @Override
     public void read(org.apache.thrift.protocol.TProtocol prot, BuckCacheRequest struct) throws org.apache.thrift.TException {
       TTupleProtocol iprot = (TTupleProtocol) prot;
-      BitSet incoming = iprot.readBitSet(4);
+      BitSet incoming = iprot.readBitSet(5);
       if (incoming.get(0)) {
         struct.type = com.facebook.buck.artifact_cache.thrift.BuckCacheRequestType.findByValue(iprot.readI32());
         struct.setTypeIsSet(true);
       }
       if (incoming.get(1)) {
         {
-          org.apache.thrift.protocol.TList _list39 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
-          struct.payloads = new ArrayList<PayloadInfo>(_list39.size);
-          PayloadInfo _elem40;
-          for (int _i41 = 0; _i41 < _list39.size; ++_i41)
+          org.apache.thrift.protocol.TList _list55 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
+          struct.payloads = new ArrayList<PayloadInfo>(_list55.size);
+          PayloadInfo _elem56;
+          for (int _i57 = 0; _i57 < _list55.size; ++_i57)
           {
-            _elem40 = new PayloadInfo();
-            _elem40.read(iprot);
-            struct.payloads.add(_elem40);
+            _elem56 = new PayloadInfo();
+            _elem56.read(iprot);
+            struct.payloads.add(_elem56);
           }
         }
         struct.setPayloadsIsSet(true);
@@ -793,6 +900,11 @@ public class BuckCacheRequest implements org.apache.thrift.TBase<BuckCacheReques
         struct.storeRequest.read(iprot);
         struct.setStoreRequestIsSet(true);
       }
+      if (incoming.get(4)) {
+        struct.multiFetchRequest = new BuckCacheMultiFetchRequest();
+        struct.multiFetchRequest.read(iprot);
+        struct.setMultiFetchRequestIsSet(true);
+      }
     }
   }
 
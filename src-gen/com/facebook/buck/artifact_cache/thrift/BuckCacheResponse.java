@@ -34,7 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @SuppressWarnings({"cast", "rawtypes", "serial", "unchecked"})
-@Generated(value = "Autogenerated by Thrift Compiler (0.9.3)", date = "2017-03-12")
+@Generated(value = "Autogenerated by Thrift Compiler (0.9.3)", date = "2026-10-16")
 public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheResponse, BuckCacheResponse._Fields>, java.io.Serializable, Cloneable, Comparable<BuckCacheResponse> {
   private static final org.apache.thrift.protocol.TStruct STRUCT_DESC = new org.apache.thrift.protocol.TStruct("BuckCacheResponse");
 
@@ -44,6 +44,7 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
   private static final org.apache.thrift.protocol.TField PAYLOADS_FIELD_DESC = new org.apache.thrift.protocol.TField("payloads", org.apache.thrift.protocol.TType.LIST, (short)100);
   private static final org.apache.thrift.protocol.TField FETCH_RESPONSE_FIELD_DESC = new org.apache.thrift.protocol.TField("fetchResponse", org.apache.thrift.protocol.TType.STRUCT, (short)101);
   private static final org.apache.thrift.protocol.TField STORE_RESPONSE_FIELD_DESC = new org.apache.thrift.protocol.TField("storeResponse", org.apache.thrift.protocol.TType.STRUCT, (short)102);
+  private static final org.apache.thrift.protocol.TField MULTI_FETCH_RESPONSE_FIELD_DESC = new org.apache.thrift.protocol.TField("multiFetchResponse", org.apache.thrift.protocol.TType.STRUCT, (short)103);
 
   private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
   static {
@@ -61,6 +62,7 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
   public List<PayloadInfo> payloads; // optional
   public BuckCacheFetchResponse fetchResponse; // optional
   public BuckCacheStoreResponse storeResponse; // optional
+  public BuckCacheMultiFetchResponse multiFetchResponse; // optional
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   public enum _Fields implements org.apache.thrift.TFieldIdEnum {
@@ -73,7 +75,8 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     TYPE((short)10, "type"),
     PAYLOADS((short)100, "payloads"),
     FETCH_RESPONSE((short)101, "fetchResponse"),
-    STORE_RESPONSE((short)102, "storeResponse");
+    STORE_RESPONSE((short)102, "storeResponse"),
+    MULTI_FETCH_RESPONSE((short)103, "multiFetchResponse");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -100,6 +103,8 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
           return FETCH_RESPONSE;
         case 102: // STORE_RESPONSE
           return STORE_RESPONSE;
+        case 103: // MULTI_FETCH_RESPONSE
+          return MULTI_FETCH_RESPONSE;
         default:
           return null;
       }
@@ -142,7 +147,7 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
   // isset id assignments
   private static final int __WASSUCCESSFUL_ISSET_ID = 0;
   private byte __isset_bitfield = 0;
-  private static final _Fields optionals[] = {_Fields.WAS_SUCCESSFUL,_Fields.ERROR_MESSAGE,_Fields.TYPE,_Fields.PAYLOADS,_Fields.FETCH_RESPONSE,_Fields.STORE_RESPONSE};
+  private static final _Fields optionals[] = {_Fields.WAS_SUCCESSFUL,_Fields.ERROR_MESSAGE,_Fields.TYPE,_Fields.PAYLOADS,_Fields.FETCH_RESPONSE,_Fields.STORE_RESPONSE,_Fields.MULTI_FETCH_RESPONSE};
   public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
   static {
     Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
@@ -159,6 +164,8 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheFetchResponse.class)));
     tmpMap.put(_Fields.STORE_RESPONSE, new org.apache.thrift.meta_data.FieldMetaData("storeResponse", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
         new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheStoreResponse.class)));
+    tmpMap.put(_Fields.MULTI_FETCH_RESPONSE, new org.apache.thrift.meta_data.FieldMetaData("multiFetchResponse", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.StructMetaData(org.apache.thrift.protocol.TType.STRUCT, BuckCacheMultiFetchResponse.class)));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(BuckCacheResponse.class, metaDataMap);
   }
@@ -193,6 +200,9 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     if (other.isSetStoreResponse()) {
       this.storeResponse = new BuckCacheStoreResponse(other.storeResponse);
     }
+    if (other.isSetMultiFetchResponse()) {
+      this.multiFetchResponse = new BuckCacheMultiFetchResponse(other.multiFetchResponse);
+    }
   }
 
   public BuckCacheResponse deepCopy() {
@@ -209,6 +219,7 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     this.payloads = null;
     this.fetchResponse = null;
     this.storeResponse = null;
+    this.multiFetchResponse = null;
   }
 
   public boolean isWasSuccessful() {
@@ -377,6 +388,30 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     }
   }
 
+  public BuckCacheMultiFetchResponse getMultiFetchResponse() {
+    return this.multiFetchResponse;
+  }
+
+  public BuckCacheResponse setMultiFetchResponse(BuckCacheMultiFetchResponse multiFetchResponse) {
+    this.multiFetchResponse = multiFetchResponse;
+    return this;
+  }
+
+  public void unsetMultiFetchResponse() {
+    this.multiFetchResponse = null;
+  }
+
+  /** Returns true if field multiFetchResponse is set (has been assigned a value) and false otherwise */
+  public boolean isSetMultiFetchResponse() {
+    return this.multiFetchResponse != null;
+  }
+
+  public void setMultiFetchResponseIsSet(boolean value) {
+    if (!value) {
+      this.multiFetchResponse = null;
+    }
+  }
+
   public void setFieldValue(_Fields field, Object value) {
     switch (field) {
     case WAS_SUCCESSFUL:
@@ -427,6 +462,14 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
       }
       break;
 
+    case MULTI_FETCH_RESPONSE:
+      if (value == null) {
+        unsetMultiFetchResponse();
+      } else {
+        setMultiFetchResponse((BuckCacheMultiFetchResponse)value);
+      }
+      break;
+
     }
   }
 
@@ -450,6 +493,9 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     case STORE_RESPONSE:
       return getStoreResponse();
 
+    case MULTI_FETCH_RESPONSE:
+      return getMultiFetchResponse();
+
     }
     throw new IllegalStateException();
   }
@@ -473,6 +519,8 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
       return isSetFetchResponse();
     case STORE_RESPONSE:
       return isSetStoreResponse();
+    case MULTI_FETCH_RESPONSE:
+      return isSetMultiFetchResponse();
     }
     throw new IllegalStateException();
   }
@@ -544,6 +592,15 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
         return false;
     }
 
+    boolean this_present_multiFetchResponse = true && this.isSetMultiFetchResponse();
+    boolean that_present_multiFetchResponse = true && that.isSetMultiFetchResponse();
+    if (this_present_multiFetchResponse || that_present_multiFetchResponse) {
+      if (!(this_present_multiFetchResponse && that_present_multiFetchResponse))
+        return false;
+      if (!this.multiFetchResponse.equals(that.multiFetchResponse))
+        return false;
+    }
+
     return true;
   }
 
@@ -581,6 +638,11 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     if (present_storeResponse)
       list.add(storeResponse);
 
+    boolean present_multiFetchResponse = true && (isSetMultiFetchResponse());
+    list.add(present_multiFetchResponse);
+    if (present_multiFetchResponse)
+      list.add(multiFetchResponse);
+
     return list.hashCode();
   }
 
@@ -652,6 +714,16 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
         return lastComparison;
       }
     }
+    lastComparison = Boolean.valueOf(isSetMultiFetchResponse()).compareTo(other.isSetMultiFetchResponse());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetMultiFetchResponse()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.multiFetchResponse, other.multiFetchResponse);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
     return 0;
   }
 
@@ -727,6 +799,16 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
       }
       first = false;
     }
+    if (isSetMultiFetchResponse()) {
+      if (!first) sb.append(", ");
+      sb.append("multiFetchResponse:");
+      if (this.multiFetchResponse == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.multiFetchResponse);
+      }
+      first = false;
+    }
     sb.append(")");
     return sb.toString();
   }
@@ -740,6 +822,9 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
     if (storeResponse != null) {
       storeResponse.validate();
     }
+    if (multiFetchResponse != null) {
+      multiFetchResponse.validate();
+    }
   }
 
   private void writeObject(java.io.ObjectOutputStream out) throws java.io.IOException {
@@ -805,14 +890,14 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
           case 100: // PAYLOADS
             if (schemeField.type == org.apache.thrift.protocol.TType.LIST) {
               {
-                org.apache.thrift.protocol.TList _list42 = iprot.readListBegin();
-                struct.payloads = new ArrayList<PayloadInfo>(_list42.size);
-                PayloadInfo _elem43;
-                for (int _i44 = 0; _i44 < _list42.size; ++_i44)
+                org.apache.thrift.protocol.TList _list58 = iprot.readListBegin();
+                struct.payloads = new ArrayList<PayloadInfo>(_list58.size);
+                PayloadInfo _elem59;
+                for (int _i60 = 0; _i60 < _list58.size; ++_i60)
                 {
-                  _elem43 = new PayloadInfo();
-                  _elem43.read(iprot);
-                  struct.payloads.add(_elem43);
+                  _elem59 = new PayloadInfo();
+                  _elem59.read(iprot);
+                  struct.payloads.add(_elem59);
                 }
                 iprot.readListEnd();
               }
@@ -839,6 +924,15 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
             }
             break;
+          case 103: // MULTI_FETCH_RESPONSE
+            if (schemeField.type == org.apache.thrift.protocol.TType.STRUCT) {
+              struct.multiFetchResponse = new BuckCacheMultiFetchResponse();
+              struct.multiFetchResponse.read(iprot);
+              struct.setMultiFetchResponseIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
           default:
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
         }
@@ -878,9 +972,9 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
           oprot.writeFieldBegin(PAYLOADS_FIELD_DESC);
           {
             oprot.writeListBegin(new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, struct.payloads.size()));
-            for (PayloadInfo _iter45 : struct.payloads)
+            for (PayloadInfo _iter61 : struct.payloads)
             {
-              _iter45.write(oprot);
+              _iter61.write(oprot);
             }
             oprot.writeListEnd();
           }
@@ -901,6 +995,13 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
           oprot.writeFieldEnd();
         }
       }
+      if (struct.multiFetchResponse != null) {
+        if (struct.isSetMultiFetchResponse()) {
+          oprot.writeFieldBegin(MULTI_FETCH_RESPONSE_FIELD_DESC);
+          struct.multiFetchResponse.write(oprot);
+          oprot.writeFieldEnd();
+        }
+      }
       oprot.writeFieldStop();
       oprot.writeStructEnd();
     }
@@ -937,7 +1038,10 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
       if (struct.isSetStoreResponse()) {
         optionals.set(5);
       }
-      oprot.writeBitSet(optionals, 6);
+      if (struct.isSetMultiFetchResponse()) {
+        optionals.set(6);
+      }
+      oprot.writeBitSet(optionals, 7);
       if (struct.isSetWasSuccessful()) {
         oprot.writeBool(struct.wasSuccessful);
       }
@@ -950,9 +1054,9 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
       if (struct.isSetPayloads()) {
         {
           oprot.writeI32(struct.payloads.size());
-          for (PayloadInfo _iter46 : struct.payloads)
+          for (PayloadInfo _iter62 : struct.payloads)
           {
-            _iter46.write(oprot);
+            _iter62.write(oprot);
           }
         }
       }
@@ -962,12 +1066,15 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
       if (struct.isSetStoreResponse()) {
         struct.storeResponse.write(oprot);
       }
+      if (struct.isSetMultiFetchResponse()) {
+        struct.multiFetchResponse.write(oprot);
+      }
     }
 
     @Override
     public void read(org.apache.thrift.protocol.TProtocol prot, BuckCacheResponse struct) throws org.apache.thrift.TException {
       TTupleProtocol iprot = (TTupleProtocol) prot;
-      BitSet incoming = iprot.readBitSet(6);
+      BitSet incoming = iprot.readBitSet(7);
       if (incoming.get(0)) {
         struct.wasSuccessful = iprot.readBool();
         struct.setWasSuccessfulIsSet(true);
@@ -982,14 +1089,14 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
       }
       if (incoming.get(3)) {
         {
-          org.apache.thrift.protocol.TList _list47 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
-          struct.payloads = new ArrayList<PayloadInfo>(_list47.size);
-          PayloadInfo _elem48;
-          for (int _i49 = 0; _i49 < _list47.size; ++_i49)
+          org.apache.thrift.protocol.TList _list63 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
+          struct.payloads = new ArrayList<PayloadInfo>(_list63.size);
+          PayloadInfo _elem64;
+          for (int _i65 = 0; _i65 < _list63.size; ++_i65)
           {
-            _elem48 = new PayloadInfo();
-            _elem48.read(iprot);
-            struct.payloads.add(_elem48);
+            _elem64 = new PayloadInfo();
+            _elem64.read(iprot);
+            struct.payloads.add(_elem64);
           }
         }
         struct.setPayloadsIsSet(true);
@@ -1004,6 +1111,11 @@ public class BuckCacheResponse implements org.apache.thrift.TBase<BuckCacheRespo
         struct.storeResponse.read(iprot);
         struct.setStoreResponseIsSet(true);
       }
+      if (incoming.get(6)) {
+        struct.multiFetchResponse = new BuckCacheMultiFetchResponse();
+        struct.multiFetchResponse.read(iprot);
+        struct.setMultiFetchResponseIsSet(true);
+      }
     }
   }
 
@@ -34,7 +34,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 @SuppressWarnings({"cast", "rawtypes", "serial", "unchecked"})
-@Generated(value = "Autogenerated by Thrift Compiler (0.9.3)", date = "2017-06-18")
+@Generated(value = "Autogenerated by Thrift Compiler (0.9.3)", date = "2026-10-17")
 public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, BuildJobState._Fields>, java.io.Serializable, Cloneable, Comparable<BuildJobState> {
   private static final org.apache.thrift.protocol.TStruct STRUCT_DESC = new org.apache.thrift.protocol.TStruct("BuildJobState");
 
@@ -42,6 +42,7 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
   private static final org.apache.thrift.protocol.TField FILE_HASHES_FIELD_DESC = new org.apache.thrift.protocol.TField("fileHashes", org.apache.thrift.protocol.TType.LIST, (short)2);
   private static final org.apache.thrift.protocol.TField TARGET_GRAPH_FIELD_DESC = new org.apache.thrift.protocol.TField("targetGraph", org.apache.thrift.protocol.TType.STRUCT, (short)3);
   private static final org.apache.thrift.protocol.TField TOP_LEVEL_TARGETS_FIELD_DESC = new org.apache.thrift.protocol.TField("topLevelTargets", org.apache.thrift.protocol.TType.LIST, (short)4);
+  private static final org.apache.thrift.protocol.TField RULE_DURATIONS_MILLIS_FIELD_DESC = new org.apache.thrift.protocol.TField("ruleDurationsMillis", org.apache.thrift.protocol.TType.MAP, (short)5);
 
   private static final Map<Class<? extends IScheme>, SchemeFactory> schemes = new HashMap<Class<? extends IScheme>, SchemeFactory>();
   static {
@@ -53,13 +54,15 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
   public List<BuildJobStateFileHashes> fileHashes; // optional
   public BuildJobStateTargetGraph targetGraph; // optional
   public List<String> topLevelTargets; // optional
+  public Map<String,Long> ruleDurationsMillis; // optional
 
   /** The set of fields this struct contains, along with convenience methods for finding and manipulating them. */
   public enum _Fields implements org.apache.thrift.TFieldIdEnum {
     CELLS((short)1, "cells"),
     FILE_HASHES((short)2, "fileHashes"),
     TARGET_GRAPH((short)3, "targetGraph"),
-    TOP_LEVEL_TARGETS((short)4, "topLevelTargets");
+    TOP_LEVEL_TARGETS((short)4, "topLevelTargets"),
+    RULE_DURATIONS_MILLIS((short)5, "ruleDurationsMillis");
 
     private static final Map<String, _Fields> byName = new HashMap<String, _Fields>();
 
@@ -82,6 +85,8 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
           return TARGET_GRAPH;
         case 4: // TOP_LEVEL_TARGETS
           return TOP_LEVEL_TARGETS;
+        case 5: // RULE_DURATIONS_MILLIS
+          return RULE_DURATIONS_MILLIS;
         default:
           return null;
       }
@@ -122,7 +127,7 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
   }
 
   // isset id assignments
-  private static final _Fields optionals[] = {_Fields.CELLS,_Fields.FILE_HASHES,_Fields.TARGET_GRAPH,_Fields.TOP_LEVEL_TARGETS};
+  private static final _Fields optionals[] = {_Fields.CELLS,_Fields.FILE_HASHES,_Fields.TARGET_GRAPH,_Fields.TOP_LEVEL_TARGETS,_Fields.RULE_DURATIONS_MILLIS};
   public static final Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> metaDataMap;
   static {
     Map<_Fields, org.apache.thrift.meta_data.FieldMetaData> tmpMap = new EnumMap<_Fields, org.apache.thrift.meta_data.FieldMetaData>(_Fields.class);
@@ -138,6 +143,10 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
     tmpMap.put(_Fields.TOP_LEVEL_TARGETS, new org.apache.thrift.meta_data.FieldMetaData("topLevelTargets", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
         new org.apache.thrift.meta_data.ListMetaData(org.apache.thrift.protocol.TType.LIST, 
             new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.STRING))));
+    tmpMap.put(_Fields.RULE_DURATIONS_MILLIS, new org.apache.thrift.meta_data.FieldMetaData("ruleDurationsMillis", org.apache.thrift.TFieldRequirementType.OPTIONAL, 
+        new org.apache.thrift.meta_data.MapMetaData(org.apache.thrift.protocol.TType.MAP, 
+            new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.STRING), 
+            new org.apache.thrift.meta_data.FieldValueMetaData(org.apache.thrift.protocol.TType.I64))));
     metaDataMap = Collections.unmodifiableMap(tmpMap);
     org.apache.thrift.meta_data.FieldMetaData.addStructMetaDataMap(BuildJobState.class, metaDataMap);
   }
@@ -178,6 +187,10 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
       List<String> __this__topLevelTargets = new ArrayList<String>(other.topLevelTargets);
       this.topLevelTargets = __this__topLevelTargets;
     }
+    if (other.isSetRuleDurationsMillis()) {
+      Map<String,Long> __this__ruleDurationsMillis = new HashMap<String,Long>(other.ruleDurationsMillis);
+      this.ruleDurationsMillis = __this__ruleDurationsMillis;
+    }
   }
 
   public BuildJobState deepCopy() {
@@ -190,6 +203,7 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
     this.fileHashes = null;
     this.targetGraph = null;
     this.topLevelTargets = null;
+    this.ruleDurationsMillis = null;
   }
 
   public int getCellsSize() {
@@ -329,6 +343,41 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
     }
   }
 
+  public int getRuleDurationsMillisSize() {
+    return (this.ruleDurationsMillis == null) ? 0 : this.ruleDurationsMillis.size();
+  }
+
+  public void putToRuleDurationsMillis(String key, long val) {
+    if (this.ruleDurationsMillis == null) {
+      this.ruleDurationsMillis = new HashMap<String,Long>();
+    }
+    this.ruleDurationsMillis.put(key, val);
+  }
+
+  public Map<String,Long> getRuleDurationsMillis() {
+    return this.ruleDurationsMillis;
+  }
+
+  public BuildJobState setRuleDurationsMillis(Map<String,Long> ruleDurationsMillis) {
+    this.ruleDurationsMillis = ruleDurationsMillis;
+    return this;
+  }
+
+  public void unsetRuleDurationsMillis() {
+    this.ruleDurationsMillis = null;
+  }
+
+  /** Returns true if field ruleDurationsMillis is set (has been assigned a value) and false otherwise */
+  public boolean isSetRuleDurationsMillis() {
+    return this.ruleDurationsMillis != null;
+  }
+
+  public void setRuleDurationsMillisIsSet(boolean value) {
+    if (!value) {
+      this.ruleDurationsMillis = null;
+    }
+  }
+
   public void setFieldValue(_Fields field, Object value) {
     switch (field) {
     case CELLS:
@@ -363,6 +412,14 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
       }
       break;
 
+    case RULE_DURATIONS_MILLIS:
+      if (value == null) {
+        unsetRuleDurationsMillis();
+      } else {
+        setRuleDurationsMillis((Map<String,Long>)value);
+      }
+      break;
+
     }
   }
 
@@ -380,6 +437,9 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
     case TOP_LEVEL_TARGETS:
       return getTopLevelTargets();
 
+    case RULE_DURATIONS_MILLIS:
+      return getRuleDurationsMillis();
+
     }
     throw new IllegalStateException();
   }
@@ -399,6 +459,8 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
       return isSetTargetGraph();
     case TOP_LEVEL_TARGETS:
       return isSetTopLevelTargets();
+    case RULE_DURATIONS_MILLIS:
+      return isSetRuleDurationsMillis();
     }
     throw new IllegalStateException();
   }
@@ -452,6 +514,15 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
         return false;
     }
 
+    boolean this_present_ruleDurationsMillis = true && this.isSetRuleDurationsMillis();
+    boolean that_present_ruleDurationsMillis = true && that.isSetRuleDurationsMillis();
+    if (this_present_ruleDurationsMillis || that_present_ruleDurationsMillis) {
+      if (!(this_present_ruleDurationsMillis && that_present_ruleDurationsMillis))
+        return false;
+      if (!this.ruleDurationsMillis.equals(that.ruleDurationsMillis))
+        return false;
+    }
+
     return true;
   }
 
@@ -479,6 +550,11 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
     if (present_topLevelTargets)
       list.add(topLevelTargets);
 
+    boolean present_ruleDurationsMillis = true && (isSetRuleDurationsMillis());
+    list.add(present_ruleDurationsMillis);
+    if (present_ruleDurationsMillis)
+      list.add(ruleDurationsMillis);
+
     return list.hashCode();
   }
 
@@ -530,6 +606,16 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
         return lastComparison;
       }
     }
+    lastComparison = Boolean.valueOf(isSetRuleDurationsMillis()).compareTo(other.isSetRuleDurationsMillis());
+    if (lastComparison != 0) {
+      return lastComparison;
+    }
+    if (isSetRuleDurationsMillis()) {
+      lastComparison = org.apache.thrift.TBaseHelper.compareTo(this.ruleDurationsMillis, other.ruleDurationsMillis);
+      if (lastComparison != 0) {
+        return lastComparison;
+      }
+    }
     return 0;
   }
 
@@ -589,6 +675,16 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
       }
       first = false;
     }
+    if (isSetRuleDurationsMillis()) {
+      if (!first) sb.append(", ");
+      sb.append("ruleDurationsMillis:");
+      if (this.ruleDurationsMillis == null) {
+        sb.append("null");
+      } else {
+        sb.append(this.ruleDurationsMillis);
+      }
+      first = false;
+    }
     sb.append(")");
     return sb.toString();
   }
@@ -702,6 +798,26 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
               org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
             }
             break;
+          case 5: // RULE_DURATIONS_MILLIS
+            if (schemeField.type == org.apache.thrift.protocol.TType.MAP) {
+              {
+                org.apache.thrift.protocol.TMap _map80 = iprot.readMapBegin();
+                struct.ruleDurationsMillis = new HashMap<String,Long>(2*_map80.size);
+                String _key81;
+                long _val82;
+                for (int _i83 = 0; _i83 < _map80.size; ++_i83)
+                {
+                  _key81 = iprot.readString();
+                  _val82 = iprot.readI64();
+                  struct.ruleDurationsMillis.put(_key81, _val82);
+                }
+                iprot.readMapEnd();
+              }
+              struct.setRuleDurationsMillisIsSet(true);
+            } else { 
+              org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
+            }
+            break;
           default:
             org.apache.thrift.protocol.TProtocolUtil.skip(iprot, schemeField.type);
         }
@@ -722,10 +838,10 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
           oprot.writeFieldBegin(CELLS_FIELD_DESC);
           {
             oprot.writeMapBegin(new org.apache.thrift.protocol.TMap(org.apache.thrift.protocol.TType.I32, org.apache.thrift.protocol.TType.STRUCT, struct.cells.size()));
-            for (Map.Entry<Integer, BuildJobStateCell> _iter80 : struct.cells.entrySet())
+            for (Map.Entry<Integer, BuildJobStateCell> _iter84 : struct.cells.entrySet())
             {
-              oprot.writeI32(_iter80.getKey());
-              _iter80.getValue().write(oprot);
+              oprot.writeI32(_iter84.getKey());
+              _iter84.getValue().write(oprot);
             }
             oprot.writeMapEnd();
           }
@@ -737,9 +853,9 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
           oprot.writeFieldBegin(FILE_HASHES_FIELD_DESC);
           {
             oprot.writeListBegin(new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, struct.fileHashes.size()));
-            for (BuildJobStateFileHashes _iter81 : struct.fileHashes)
+            for (BuildJobStateFileHashes _iter85 : struct.fileHashes)
             {
-              _iter81.write(oprot);
+              _iter85.write(oprot);
             }
             oprot.writeListEnd();
           }
@@ -758,15 +874,30 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
           oprot.writeFieldBegin(TOP_LEVEL_TARGETS_FIELD_DESC);
           {
             oprot.writeListBegin(new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRING, struct.topLevelTargets.size()));
-            for (String _iter82 : struct.topLevelTargets)
+            for (String _iter86 : struct.topLevelTargets)
             {
-              oprot.writeString(_iter82);
+              oprot.writeString(_iter86);
             }
             oprot.writeListEnd();
           }
           oprot.writeFieldEnd();
         }
       }
+      if (struct.ruleDurationsMillis != null) {
+        if (struct.isSetRuleDurationsMillis()) {
+          oprot.writeFieldBegin(RULE_DURATIONS_MILLIS_FIELD_DESC);
+          {
+            oprot.writeMapBegin(new org.apache.thrift.protocol.TMap(org.apache.thrift.protocol.TType.STRING, org.apache.thrift.protocol.TType.I64, struct.ruleDurationsMillis.size()));
+            for (Map.Entry<String, Long> _iter87 : struct.ruleDurationsMillis.entrySet())
+            {
+              oprot.writeString(_iter87.getKey());
+              oprot.writeI64(_iter87.getValue());
+            }
+            oprot.writeMapEnd();
+          }
+          oprot.writeFieldEnd();
+        }
+      }
       oprot.writeFieldStop();
       oprot.writeStructEnd();
     }
@@ -797,23 +928,26 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
       if (struct.isSetTopLevelTargets()) {
         optionals.set(3);
       }
-      oprot.writeBitSet(optionals, 4);
+      if (struct.isSetRuleDurationsMillis()) {
+        optionals.set(4);
+      }
+      oprot.writeBitSet(optionals, 5);
       if (struct.isSetCells()) {
         {
           oprot.writeI32(struct.cells.size());
-          for (Map.Entry<Integer, BuildJobStateCell> _iter83 : struct.cells.entrySet())
+          for (Map.Entry<Integer, BuildJobStateCell> _iter88 : struct.cells.entrySet())
           {
-            oprot.writeI32(_iter83.getKey());
-            _iter83.getValue().write(oprot);
+            oprot.writeI32(_iter88.getKey());
+            _iter88.getValue().write(oprot);
           }
         }
       }
       if (struct.isSetFileHashes()) {
         {
           oprot.writeI32(struct.fileHashes.size());
-          for (BuildJobStateFileHashes _iter84 : struct.fileHashes)
+          for (BuildJobStateFileHashes _iter89 : struct.fileHashes)
           {
-            _iter84.write(oprot);
+            _iter89.write(oprot);
           }
         }
       }
@@ -823,9 +957,19 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
       if (struct.isSetTopLevelTargets()) {
         {
           oprot.writeI32(struct.topLevelTargets.size());
-          for (String _iter85 : struct.topLevelTargets)
+          for (String _iter90 : struct.topLevelTargets)
+          {
+            oprot.writeString(_iter90);
+          }
+        }
+      }
+      if (struct.isSetRuleDurationsMillis()) {
+        {
+          oprot.writeI32(struct.ruleDurationsMillis.size());
+          for (Map.Entry<String, Long> _iter91 : struct.ruleDurationsMillis.entrySet())
           {
-            oprot.writeString(_iter85);
+            oprot.writeString(_iter91.getKey());
+            oprot.writeI64(_iter91.getValue());
           }
         }
       }
@@ -834,33 +978,33 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
     @Override
     public void read(org.apache.thrift.protocol.TProtocol prot, BuildJobState struct) throws org.apache.thrift.TException {
       TTupleProtocol iprot = (TTupleProtocol) prot;
-      BitSet incoming = iprot.readBitSet(4);
+      BitSet incoming = iprot.readBitSet(5);
       if (incoming.get(0)) {
         {
-          org.apache.thrift.protocol.TMap _map86 = new org.apache.thrift.protocol.TMap(org.apache.thrift.protocol.TType.I32, org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
-          struct.cells = new HashMap<Integer,BuildJobStateCell>(2*_map86.size);
-          int _key87;
-          BuildJobStateCell _val88;
-          for (int _i89 = 0; _i89 < _map86.size; ++_i89)
+          org.apache.thrift.protocol.TMap _map92 = new org.apache.thrift.protocol.TMap(org.apache.thrift.protocol.TType.I32, org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
+          struct.cells = new HashMap<Integer,BuildJobStateCell>(2*_map92.size);
+          int _key93;
+          BuildJobStateCell _val94;
+          for (int _i95 = 0; _i95 < _map92.size; ++_i95)
           {
-            _key87 = iprot.readI32();
-            _val88 = new BuildJobStateCell();
-            _val88.read(iprot);
-            struct.cells.put(_key87, _val88);
+            _key93 = iprot.readI32();
+            _val94 = new BuildJobStateCell();
+            _val94.read(iprot);
+            struct.cells.put(_key93, _val94);
           }
         }
         struct.setCellsIsSet(true);
       }
       if (incoming.get(1)) {
         {
-          org.apache.thrift.protocol.TList _list90 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
-          struct.fileHashes = new ArrayList<BuildJobStateFileHashes>(_list90.size);
-          BuildJobStateFileHashes _elem91;
-          for (int _i92 = 0; _i92 < _list90.size; ++_i92)
+          org.apache.thrift.protocol.TList _list96 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRUCT, iprot.readI32());
+          struct.fileHashes = new ArrayList<BuildJobStateFileHashes>(_list96.size);
+          BuildJobStateFileHashes _elem97;
+          for (int _i98 = 0; _i98 < _list96.size; ++_i98)
           {
-            _elem91 = new BuildJobStateFileHashes();
-            _elem91.read(iprot);
-            struct.fileHashes.add(_elem91);
+            _elem97 = new BuildJobStateFileHashes();
+            _elem97.read(iprot);
+            struct.fileHashes.add(_elem97);
           }
         }
         struct.setFileHashesIsSet(true);
@@ -872,17 +1016,32 @@ public class BuildJobState implements org.apache.thrift.TBase<BuildJobState, Bui
       }
       if (incoming.get(3)) {
         {
-          org.apache.thrift.protocol.TList _list93 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRING, iprot.readI32());
-          struct.topLevelTargets = new ArrayList<String>(_list93.size);
-          String _elem94;
-          for (int _i95 = 0; _i95 < _list93.size; ++_i95)
+          org.apache.thrift.protocol.TList _list99 = new org.apache.thrift.protocol.TList(org.apache.thrift.protocol.TType.STRING, iprot.readI32());
+          struct.topLevelTargets = new ArrayList<String>(_list99.size);
+          String _elem100;
+          for (int _i101 = 0; _i101 < _list99.size; ++_i101)
           {
-            _elem94 = iprot.readString();
-            struct.topLevelTargets.add(_elem94);
+            _elem100 = iprot.readString();
+            struct.topLevelTargets.add(_elem100);
           }
         }
         struct.setTopLevelTargetsIsSet(true);
       }
+      if (incoming.get(4)) {
+        {
+          org.apache.thrift.protocol.TMap _map102 = new org.apache.thrift.protocol.TMap(org.apache.thrift.protocol.TType.STRING, org.apache.thrift.protocol.TType.I64, iprot.readI32());
+          struct.ruleDurationsMillis = new HashMap<String,Long>(2*_map102.size);
+          String _key103;
+          long _val104;
+          for (int _i105 = 0; _i105 < _map102.size; ++_i105)
+          {
+            _key103 = iprot.readString();
+            _val104 = iprot.readI64();
+            struct.ruleDurationsMillis.put(_key103, _val104);
+          }
+        }
+        struct.setRuleDurationsMillisIsSet(true);
+      }
     }
   }
 
@@ -25,12 +25,16 @@ import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.slb.NoHealthyServersException;
+import com.facebook.buck.util.MoreCollectors;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.Optional;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -90,47 +94,108 @@ public abstract class AbstractNetworkCache implements ArtifactCache {
     }
   }
 
+  /**
+   * Fetches a batch of artifacts in a single request. Only called when {@link
+   * #isMultiFetchSupported()} returns true; by default, fetches each artifact on its own.
+   *
+   * @return one result for each key in {@code ruleKeys}, in the same order.
+   */
+  protected ImmutableList<CacheResult> multiFetchImpl(
+      ImmutableList<RuleKey> ruleKeys,
+      ImmutableList<LazyPath> outputs,
+      ImmutableList<HttpArtifactCacheEvent.Finished.Builder> eventBuilders)
+      throws IOException {
+    ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+    for (int i = 0; i < ruleKeys.size(); i++) {
+      results.add(fetchImpl(ruleKeys.get(i), outputs.get(i), eventBuilders.get(i)));
+    }
+    return results.build();
+  }
+
+  /** @return whether {@link #multiFetchImpl} can be used to look up several keys at once. */
+  protected boolean isMultiFetchSupported() {
+    return false;
+  }
+
   @Override
   public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
-    HttpArtifactCacheEvent.Started startedEvent =
-        HttpArtifactCacheEvent.newFetchStartedEvent(ruleKey);
-    buckEventBus.post(startedEvent);
-    HttpArtifactCacheEvent.Finished.Builder eventBuilder =
-        HttpArtifactCacheEvent.newFinishedEventBuilder(startedEvent);
-    eventBuilder.getFetchBuilder().setRequestedRuleKey(ruleKey);
-
+    HttpArtifactCacheEvent.Finished.Builder eventBuilder = startFetch(ruleKey);
     CacheResult result = null;
     try {
       result = fetchImpl(ruleKey, output, eventBuilder);
       return result;
     } catch (IOException e) {
-      String msg = String.format("%s: %s", e.getClass().getName(), e.getMessage());
-      if (isNoHealthyServersException(e)) {
-        if (!isNoHealthyServersSeen) {
-          isNoHealthyServersSeen = true;
-          buckEventBus.post(
-              ConsoleEvent.warning(
-                  "\n"
-                      + "Failed to fetch %s over %s:\n"
-                      + "Buck encountered a critical network failure.\n"
-                      + "Please check your network connection and retry."
-                      + "\n",
-                  ruleKey, name));
-        }
-      } else {
-        reportFailure(e, "fetch(%s): %s", ruleKey, msg);
-      }
-      result = CacheResult.error(name, mode, msg);
+      result = handleFetchFailure(e, ruleKey.toString());
       return result;
     } finally {
-      HttpArtifactCacheEventFetchData.Builder fetchBuilder =
-          eventBuilder.getFetchBuilder().setFetchResult(result);
-      if (result.getType() == CacheResultType.ERROR && result.cacheError().isPresent()) {
-        fetchBuilder.setErrorMessage(result.cacheError());
+      finishFetch(eventBuilder, result);
+    }
+  }
+
+  @Override
+  public ImmutableList<CacheResult> multiFetch(
+      ImmutableList<RuleKey> ruleKeys, ImmutableList<LazyPath> outputs) {
+    if (!isMultiFetchSupported() || ruleKeys.size() == 1) {
+      return ArtifactCache.super.multiFetch(ruleKeys, outputs);
+    }
+    Preconditions.checkArgument(ruleKeys.size() == outputs.size());
+    ImmutableList<HttpArtifactCacheEvent.Finished.Builder> eventBuilders =
+        ruleKeys.stream().map(this::startFetch).collect(MoreCollectors.toImmutableList());
+
+    ImmutableList<CacheResult> results;
+    try {
+      results = multiFetchImpl(ruleKeys, outputs, eventBuilders);
+      Preconditions.checkState(results.size() == ruleKeys.size());
+    } catch (IOException e) {
+      results =
+          ImmutableList.copyOf(
+              Collections.nCopies(ruleKeys.size(), handleFetchFailure(e, ruleKeys.toString())));
+    }
+    for (int i = 0; i < ruleKeys.size(); i++) {
+      finishFetch(eventBuilders.get(i), results.get(i));
+    }
+    return results;
+  }
+
+  private HttpArtifactCacheEvent.Finished.Builder startFetch(RuleKey ruleKey) {
+    HttpArtifactCacheEvent.Started startedEvent =
+        HttpArtifactCacheEvent.newFetchStartedEvent(ruleKey);
+    buckEventBus.post(startedEvent);
+    HttpArtifactCacheEvent.Finished.Builder eventBuilder =
+        HttpArtifactCacheEvent.newFinishedEventBuilder(startedEvent);
+    eventBuilder.getFetchBuilder().setRequestedRuleKey(ruleKey);
+    return eventBuilder;
+  }
+
+  private CacheResult handleFetchFailure(IOException e, String ruleKeys) {
+    String msg = String.format("%s: %s", e.getClass().getName(), e.getMessage());
+    if (isNoHealthyServersException(e)) {
+      if (!isNoHealthyServersSeen) {
+        isNoHealthyServersSeen = true;
+        buckEventBus.post(
+            ConsoleEvent.warning(
+                "\n"
+                    + "Failed to fetch %s over %s:\n"
+                    + "Buck encountered a critical network failure.\n"
+                    + "Please check your network connection and retry."
+                    + "\n",
+                ruleKeys, name));
       }
+    } else {
+      reportFailure(e, "fetch(%s): %s", ruleKeys, msg);
+    }
+    return CacheResult.error(name, mode, msg);
+  }
 
-      buckEventBus.post(eventBuilder.build());
+  private void finishFetch(
+      HttpArtifactCacheEvent.Finished.Builder eventBuilder, CacheResult result) {
+    HttpArtifactCacheEventFetchData.Builder fetchBuilder =
+        eventBuilder.getFetchBuilder().setFetchResult(result);
+    if (result.getType() == CacheResultType.ERROR && result.cacheError().isPresent()) {
+      fetchBuilder.setErrorMessage(result.cacheError());
     }
+
+    buckEventBus.post(eventBuilder.build());
   }
 
   @Override
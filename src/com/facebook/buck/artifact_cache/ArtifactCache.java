@@ -19,6 +19,8 @@ package com.facebook.buck.artifact_cache;
 import com.facebook.buck.io.BorrowablePath;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.rules.RuleKey;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 
@@ -39,6 +41,24 @@ public interface ArtifactCache extends AutoCloseable {
     return Futures.immediateFuture(fetch(ruleKey, output));
   }
 
+  /**
+   * Fetch a batch of cached artifacts. Caches which can look up several keys in a single round trip
+   * should override this; the default simply fetches each key in turn.
+   *
+   * @param ruleKeys cache fetch keys
+   * @param outputs paths to store the artifacts to, one for each key in {@code ruleKeys}
+   * @return one result for each key in {@code ruleKeys}, in the same order.
+   */
+  default ImmutableList<CacheResult> multiFetch(
+      ImmutableList<RuleKey> ruleKeys, ImmutableList<LazyPath> outputs) {
+    Preconditions.checkArgument(ruleKeys.size() == outputs.size());
+    ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+    for (int i = 0; i < ruleKeys.size(); i++) {
+      results.add(fetch(ruleKeys.get(i), outputs.get(i)));
+    }
+    return results.build();
+  }
+
   /**
    * Store the artifact at path specified by output to cache, such that it can later be fetched
    * using ruleKey as the lookup key. If any internal errors occur, fail silently and continue
@@ -28,6 +28,7 @@ import com.facebook.buck.slb.SingleUriService;
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.util.AsyncCloseable;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.base.CharMatcher;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -303,7 +304,8 @@ public class ArtifactCaches implements ArtifactCacheFactory {
               projectFilesystem,
               cacheDir,
               dirCacheConfig.getCacheReadMode(),
-              dirCacheConfig.getMaxSizeBytes());
+              dirCacheConfig.getMaxSizeBytes(),
+              MostExecutors.newSingleThreadExecutor("DirArtifactCache eviction"));
 
       if (!buckEventBus.isPresent()) {
         return dirArtifactCache;
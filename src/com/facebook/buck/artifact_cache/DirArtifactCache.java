@@ -32,6 +32,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.io.ByteStreams;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
@@ -43,28 +44,42 @@ import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardCopyOption;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
+/**
+ * An {@link ArtifactCache} in a local directory.
+ *
+ * <p>Writable caches keep a {@link DirArtifactCacheIndex} of the size and recency of their
+ * artifacts. When the cache grows past its maximum size, its least recently used artifacts are
+ * evicted on the eviction executor, without walking the cache directory.
+ */
 public class DirArtifactCache implements ArtifactCache {
 
   private static final Logger LOG = Logger.get(DirArtifactCache.class);
 
   private static final ArtifactCacheMode CACHE_MODE = ArtifactCacheMode.dir;
-  // Ratio of bytes stored to max size that expresses how many bytes need to be stored after we
-  // attempt to delete old files.
-  private static final float STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER = 0.5f;
   // How much of the max size to leave if we decide to delete old files.
   private static final float MAX_BYTES_TRIM_RATIO = 2 / 3f;
   private static final String TMP_EXTENSION = ".tmp";
+  private static final String METADATA_EXTENSION = ".metadata";
+  private static final long MAX_EVICTION_WAIT_SECONDS = 10;
 
   private final String name;
   private final ProjectFilesystem filesystem;
   private final Path cacheDir;
   private final Optional<Long> maxCacheSizeBytes;
   private final CacheReadMode cacheMode;
-  private long bytesSinceLastDeleteOldFiles;
+  private final Optional<DirArtifactCacheIndex> index;
+  private final ExecutorService evictionExecutor;
+  private final AtomicBoolean evictionScheduled = new AtomicBoolean(false);
 
   public DirArtifactCache(
       String name,
@@ -73,17 +88,46 @@ public class DirArtifactCache implements ArtifactCache {
       CacheReadMode cacheMode,
       Optional<Long> maxCacheSizeBytes)
       throws IOException {
+    this(
+        name,
+        filesystem,
+        cacheDir,
+        cacheMode,
+        maxCacheSizeBytes,
+        MoreExecutors.newDirectExecutorService());
+  }
+
+  /** @param evictionExecutor runs evictions, and is shut down when this cache is closed */
+  public DirArtifactCache(
+      String name,
+      ProjectFilesystem filesystem,
+      Path cacheDir,
+      CacheReadMode cacheMode,
+      Optional<Long> maxCacheSizeBytes,
+      ExecutorService evictionExecutor)
+      throws IOException {
     this.name = name;
     this.filesystem = filesystem;
     this.cacheDir = cacheDir;
     this.maxCacheSizeBytes = maxCacheSizeBytes;
     this.cacheMode = cacheMode;
-    this.bytesSinceLastDeleteOldFiles = 0L;
+    this.evictionExecutor = evictionExecutor;
 
     // Check first, as mkdirs will fail if the path is a symlink.
     if (!filesystem.isDirectory(cacheDir)) {
       filesystem.mkdirs(cacheDir);
     }
+
+    if (cacheMode.isWritable()) {
+      DirArtifactCacheIndex index = DirArtifactCacheIndex.open(filesystem, cacheDir);
+      this.index = Optional.of(index);
+      if (!index.existed()) {
+        // A cache written by an older version of buck: index what is already there, once.
+        evictionExecutor.execute(this::reindex);
+      }
+    } else {
+      this.index = Optional.empty();
+    }
   }
 
   @Override
@@ -95,7 +139,7 @@ public class DirArtifactCache implements ArtifactCache {
       try (DataInputStream in =
           new DataInputStream(
               filesystem.newFileInputStream(
-                  getPathForRuleKey(ruleKey, Optional.of(".metadata"))))) {
+                  getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION))))) {
         int sz = in.readInt();
         for (int i = 0; i < sz; i++) {
           String key = in.readUTF();
@@ -111,8 +155,10 @@ public class DirArtifactCache implements ArtifactCache {
 
       result =
           CacheResult.hit(name, CACHE_MODE, metadata.build(), filesystem.getFileSize(output.get()));
+      index.ifPresent(index -> index.recordHit(ruleKey.toString()));
     } catch (NoSuchFileException e) {
       result = CacheResult.miss();
+      index.ifPresent(DirArtifactCacheIndex::recordMiss);
     } catch (IOException e) {
       LOG.warn(e, "Artifact fetch(%s, %s) error", ruleKey, output);
       result =
@@ -137,7 +183,7 @@ public class DirArtifactCache implements ArtifactCache {
       Optional<Path> borrowedAndStoredArtifactPath = Optional.empty();
       for (RuleKey ruleKey : info.getRuleKeys()) {
         Path artifactPath = getPathForRuleKey(ruleKey, Optional.empty());
-        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(".metadata"));
+        Path metadataPath = getPathForRuleKey(ruleKey, Optional.of(METADATA_EXTENSION));
 
         if (filesystem.exists(artifactPath) && filesystem.exists(metadataPath)) {
           continue;
@@ -158,7 +204,7 @@ public class DirArtifactCache implements ArtifactCache {
             storeArtifactOutput(borrowedAndStoredArtifactPath.get(), artifactPath);
           }
         }
-        bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
+        long storedBytes = filesystem.getFileSize(artifactPath);
 
         // Now, write the meta data artifact.
         Path tmp = filesystem.createTempFile(getPreparedTempFolder(), "metadata", TMP_EXTENSION);
@@ -173,26 +219,51 @@ public class DirArtifactCache implements ArtifactCache {
             }
           }
           filesystem.move(tmp, metadataPath, StandardCopyOption.REPLACE_EXISTING);
-          bytesSinceLastDeleteOldFiles += filesystem.getFileSize(metadataPath);
+          storedBytes += filesystem.getFileSize(metadataPath);
         } finally {
           filesystem.deleteFileAtPathIfExists(tmp);
         }
+        index.get().recordStore(ruleKey.toString(), storedBytes);
       }
 
     } catch (IOException e) {
       LOG.warn(e, "Artifact store(%s, %s) error", info.getRuleKeys(), output);
     }
 
-    if (maxCacheSizeBytes.isPresent()
-        && bytesSinceLastDeleteOldFiles
-            > (maxCacheSizeBytes.get() * STORED_TO_MAX_BYTES_RATIO_TRIM_TRIGGER)) {
-      bytesSinceLastDeleteOldFiles = 0L;
-      deleteOldFiles();
+    if (isOverMaxSize() && evictionScheduled.compareAndSet(false, true)) {
+      evictionExecutor.execute(
+          () -> {
+            evictionScheduled.set(false);
+            evictLeastRecentlyUsed();
+          });
     }
 
     return Futures.immediateFuture(null);
   }
 
+  private boolean isOverMaxSize() {
+    return maxCacheSizeBytes.isPresent()
+        && index.isPresent()
+        && index.get().getTotalBytes() > maxCacheSizeBytes.get();
+  }
+
+  private void evictLeastRecentlyUsed() {
+    if (!isOverMaxSize()) {
+      return;
+    }
+    for (String ruleKey :
+        index.get().evict((long) (maxCacheSizeBytes.get() * MAX_BYTES_TRIM_RATIO))) {
+      RuleKey key = new RuleKey(ruleKey);
+      try {
+        filesystem.deleteFileAtPathIfExists(getPathForRuleKey(key, Optional.empty()));
+        filesystem.deleteFileAtPathIfExists(
+            getPathForRuleKey(key, Optional.of(METADATA_EXTENSION)));
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to evict artifact %s from %s.", ruleKey, cacheDir);
+      }
+    }
+  }
+
   private Path getPathToTempFolder() {
     return cacheDir.resolve("tmp");
   }
@@ -237,7 +308,6 @@ public class DirArtifactCache implements ArtifactCache {
     try {
       filesystem.copyFile(output, tmp);
       filesystem.move(tmp, artifactPath);
-      bytesSinceLastDeleteOldFiles += filesystem.getFileSize(artifactPath);
     } finally {
       filesystem.deleteFileAtPathIfExists(tmp);
     }
@@ -250,13 +320,23 @@ public class DirArtifactCache implements ArtifactCache {
 
   @Override
   public void close() {
-    // Do a cache clean up on exit only if cache was written to.
-    if (bytesSinceLastDeleteOldFiles > 0) {
-      deleteOldFiles();
+    evictionExecutor.shutdown();
+    try {
+      if (!evictionExecutor.awaitTermination(MAX_EVICTION_WAIT_SECONDS, TimeUnit.SECONDS)) {
+        LOG.warn("Timed out waiting for evictions from %s to finish.", cacheDir);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
     }
+    // The index knows exactly what to evict, so this is cheap even for a large cache.
+    evictLeastRecentlyUsed();
+    index.ifPresent(DirArtifactCacheIndex::close);
   }
 
-  /** Deletes files that haven't been accessed recently from the directory cache. */
+  /**
+   * Deletes files that haven't been accessed recently from the directory cache, by walking the
+   * whole cache directory, and then indexes what is left.
+   */
   @VisibleForTesting
   void deleteOldFiles() {
     if (!maxCacheSizeBytes.isPresent()) {
@@ -271,12 +351,45 @@ public class DirArtifactCache implements ArtifactCache {
     } catch (IOException e) {
       LOG.error(e, "Failed to clean path [%s].", cacheDirInFs);
     }
+    reindex();
+  }
+
+  /** Rebuilds the index from the files in the cache directory, ordered by their last access. */
+  private void reindex() {
+    if (!index.isPresent()) {
+      return;
+    }
+    Map<String, Long> sizesByKey = new HashMap<>();
+    Map<String, Long> lastAccessMillisByKey = new HashMap<>();
+    for (Path file : getAllFilesInCache()) {
+      String fileName = file.getFileName().toString();
+      String ruleKey =
+          fileName.endsWith(METADATA_EXTENSION)
+              ? fileName.substring(0, fileName.length() - METADATA_EXTENSION.length())
+              : fileName;
+      try {
+        BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+        sizesByKey.merge(ruleKey, attributes.size(), Long::sum);
+        lastAccessMillisByKey.merge(ruleKey, attributes.lastAccessTime().toMillis(), Math::max);
+      } catch (IOException e) {
+        LOG.debug(e, "Not indexing %s.", file);
+      }
+    }
+    Map<String, Long> sizesLeastRecentlyUsedFirst = new LinkedHashMap<>();
+    sizesByKey
+        .keySet()
+        .stream()
+        .sorted(Comparator.comparing(lastAccessMillisByKey::get))
+        .forEach(ruleKey -> sizesLeastRecentlyUsedFirst.put(ruleKey, sizesByKey.get(ruleKey)));
+    index.get().replaceArtifacts(sizesLeastRecentlyUsedFirst);
   }
 
   @VisibleForTesting
   List<Path> getAllFilesInCache() {
     final List<Path> allFiles = new ArrayList<>();
     final Path tempFolderPath = getPathToTempFolder();
+    final Path indexFolderPath =
+        filesystem.resolve(cacheDir.resolve(DirArtifactCacheIndex.INDEX_DIR_NAME));
     try {
       Files.walkFileTree(
           filesystem.resolve(cacheDir),
@@ -287,8 +400,9 @@ public class DirArtifactCache implements ArtifactCache {
             @Override
             public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs)
                 throws IOException {
-              // do not work with files in temp folder as they will be moved later
-              if (dir.equals(tempFolderPath)) {
+              // do not work with files in temp folder as they will be moved later, nor with the
+              // index, which is not an artifact
+              if (dir.equals(tempFolderPath) || dir.equals(indexFolderPath)) {
                 return FileVisitResult.SKIP_SUBTREE;
               }
               return super.preVisitDirectory(dir, attrs);
@@ -338,6 +452,11 @@ public class DirArtifactCache implements ArtifactCache {
     };
   }
 
+  @VisibleForTesting
+  Optional<DirArtifactCacheIndex> getIndex() {
+    return index;
+  }
+
   @VisibleForTesting
   Path getCacheDir() {
     return cacheDir;
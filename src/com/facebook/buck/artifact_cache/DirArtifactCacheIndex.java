@@ -0,0 +1,428 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.artifact_cache;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * Size and recency of every artifact in a {@link DirArtifactCache}, so that the cache can evict its
+ * least recently used artifacts without walking the cache directory.
+ *
+ * <p>The index is kept as an append-only journal in the cache directory, with one tab-separated
+ * record per line:
+ *
+ * <ul>
+ *   <li>{@code S <rule key> <bytes>}: an artifact was stored.
+ *   <li>{@code A <rule key>}: an artifact was fetched.
+ *   <li>{@code E <rule key> <bytes>}: an artifact was evicted.
+ *   <li>{@code C <hits> <misses> <evicted artifacts> <evicted bytes>}: counters to add up.
+ * </ul>
+ *
+ * Opening the index replays the journal, and the journal is rewritten as a snapshot of the current
+ * state once it grows well past the number of artifacts. Buck processes sharing a cache directory
+ * each append to the journal, holding a lock on the index directory while they do. Before writing,
+ * a process first replays the records others appended since it last read the journal, so that a
+ * snapshot keeps every process's records. Fetches are recorded in batches rather than one by one.
+ */
+public class DirArtifactCacheIndex implements Closeable {
+
+  private static final Logger LOG = Logger.get(DirArtifactCacheIndex.class);
+
+  /** Directory of the cache directory that holds the journal, and that is not part of the cache. */
+  static final String INDEX_DIR_NAME = ".index";
+
+  private static final String JOURNAL_FILE_NAME = "journal";
+  private static final String LOCK_FILE_NAME = "lock";
+  private static final int MIN_JOURNAL_LINES_TO_COMPACT = 10000;
+  private static final int MAX_JOURNAL_LINES_PER_ARTIFACT = 4;
+  private static final int MAX_PENDING_RECORDS = 1000;
+  private static final Splitter FIELD_SPLITTER = Splitter.on('\t');
+
+  /** File locks are held on behalf of the whole JVM, so indexes in one process take turns. */
+  private static final Object JOURNAL_LOCK = new Object();
+
+  private final ProjectFilesystem filesystem;
+  private final Path journalPath;
+  private final Path lockPath;
+  private final boolean existed;
+
+  /** Artifact sizes by rule key, least recently used first. */
+  private final LinkedHashMap<String, Long> sizesByKey = new LinkedHashMap<>(16, 0.75f, true);
+
+  /** Records applied to this index, but not yet appended to the journal. */
+  private final List<String> pendingRecords = new ArrayList<>();
+
+  private long totalBytes;
+  private long hits;
+  private long misses;
+  private long evictedArtifacts;
+  private long evictedBytes;
+  private long unsavedHits;
+  private long unsavedMisses;
+  private int journalLines;
+
+  /** How far into the journal this index has read, and which file it was. */
+  private long journalOffset;
+
+  @Nullable private Object journalFileKey;
+
+  private DirArtifactCacheIndex(ProjectFilesystem filesystem, Path cacheDir) {
+    this.filesystem = filesystem;
+    this.journalPath = cacheDir.resolve(INDEX_DIR_NAME).resolve(JOURNAL_FILE_NAME);
+    this.lockPath = cacheDir.resolve(INDEX_DIR_NAME).resolve(LOCK_FILE_NAME);
+    this.existed = filesystem.isFile(journalPath);
+    if (existed) {
+      withJournalLock("read", this::catchUp);
+    }
+  }
+
+  /** Opens the index of the cache in {@code cacheDir}, which is empty if it has no journal yet. */
+  public static DirArtifactCacheIndex open(ProjectFilesystem filesystem, Path cacheDir) {
+    return new DirArtifactCacheIndex(filesystem, cacheDir);
+  }
+
+  /** @return whether the cache already had a journal when this index was opened. */
+  public boolean existed() {
+    return existed;
+  }
+
+  public synchronized int getArtifactCount() {
+    return sizesByKey.size();
+  }
+
+  public synchronized long getTotalBytes() {
+    return totalBytes;
+  }
+
+  public synchronized long getHits() {
+    return hits;
+  }
+
+  public synchronized long getMisses() {
+    return misses;
+  }
+
+  public synchronized long getEvictedArtifacts() {
+    return evictedArtifacts;
+  }
+
+  public synchronized long getEvictedBytes() {
+    return evictedBytes;
+  }
+
+  public synchronized void recordStore(String ruleKey, long bytes) {
+    Long previous = sizesByKey.put(ruleKey, bytes);
+    totalBytes += bytes - (previous == null ? 0 : previous);
+    pendingRecords.add("S\t" + ruleKey + '\t' + bytes);
+    flush();
+  }
+
+  public synchronized void recordHit(String ruleKey) {
+    hits++;
+    unsavedHits++;
+    // Looking the key up marks it as the most recently used one.
+    if (sizesByKey.get(ruleKey) != null) {
+      pendingRecords.add("A\t" + ruleKey);
+      if (pendingRecords.size() >= MAX_PENDING_RECORDS) {
+        flush();
+      }
+    }
+  }
+
+  public synchronized void recordMiss() {
+    misses++;
+    unsavedMisses++;
+  }
+
+  /**
+   * Removes the least recently used artifacts from the index until their total size is at most
+   * {@code maxBytesAfterEviction}.
+   *
+   * @return the rule keys of the removed artifacts, whose files the caller should delete.
+   */
+  public synchronized ImmutableList<String> evict(long maxBytesAfterEviction) {
+    ImmutableList.Builder<String> evicted = ImmutableList.builder();
+    Iterator<Map.Entry<String, Long>> entries = sizesByKey.entrySet().iterator();
+    while (totalBytes > maxBytesAfterEviction && entries.hasNext()) {
+      Map.Entry<String, Long> entry = entries.next();
+      entries.remove();
+      totalBytes -= entry.getValue();
+      evictedArtifacts++;
+      evictedBytes += entry.getValue();
+      evicted.add(entry.getKey());
+      pendingRecords.add("E\t" + entry.getKey() + '\t' + entry.getValue());
+    }
+    flush();
+    return evicted.build();
+  }
+
+  /**
+   * Replaces the contents of the index, e.g. with the result of a full scan of the cache directory.
+   * Records other processes appended to the journal since this index last read it are replayed on
+   * top.
+   *
+   * @param sizesByKey artifact sizes by rule key, least recently used first
+   */
+  public synchronized void replaceArtifacts(Map<String, Long> sizesByKey) {
+    if (sizesByKey.isEmpty() && !filesystem.exists(journalPath)) {
+      // Leave empty caches alone until something gets stored in them.
+      return;
+    }
+    withJournalLock(
+        "compact",
+        () -> {
+          this.sizesByKey.clear();
+          this.sizesByKey.putAll(sizesByKey);
+          totalBytes = sizesByKey.values().stream().mapToLong(Long::longValue).sum();
+          pendingRecords.clear();
+          catchUp();
+          writeSnapshot();
+        });
+  }
+
+  @Override
+  public synchronized void close() {
+    flush();
+  }
+
+  /** Appends the pending records and counters to the journal, compacting it if it got too long. */
+  private void flush() {
+    if (pendingRecords.isEmpty() && unsavedHits == 0 && unsavedMisses == 0) {
+      return;
+    }
+    withJournalLock(
+        "append to",
+        () -> {
+          catchUp();
+          List<String> records = new ArrayList<>(pendingRecords);
+          if (unsavedHits > 0 || unsavedMisses > 0) {
+            records.add("C\t" + unsavedHits + '\t' + unsavedMisses + "\t0\t0");
+          }
+          filesystem.mkdirs(journalPath.getParent());
+          try (Writer journal =
+              new OutputStreamWriter(
+                  filesystem.newFileOutputStream(journalPath, /* append */ true),
+                  Charsets.UTF_8)) {
+            for (String record : records) {
+              journal.write(record);
+              journal.write('\n');
+            }
+          }
+          // Nobody else writes to the journal while the lock is held.
+          markJournalRead();
+          journalLines += records.size();
+          pendingRecords.clear();
+          unsavedHits = 0;
+          unsavedMisses = 0;
+
+          if (journalLines > MIN_JOURNAL_LINES_TO_COMPACT
+              && journalLines > MAX_JOURNAL_LINES_PER_ARTIFACT * sizesByKey.size()) {
+            writeSnapshot();
+          }
+        });
+    // Records that could not be written are dropped rather than retried on every fetch.
+    pendingRecords.clear();
+  }
+
+  /**
+   * Replays the records appended to the journal since this index last read it. If another process
+   * has replaced the journal with a snapshot, starts over from that snapshot, and reapplies the
+   * changes this index hasn't written yet.
+   */
+  private void catchUp() throws IOException {
+    BasicFileAttributes attributes;
+    try {
+      attributes =
+          Files.readAttributes(filesystem.resolve(journalPath), BasicFileAttributes.class);
+    } catch (NoSuchFileException e) {
+      return;
+    }
+    if (journalOffset > attributes.size()
+        || (journalOffset > 0 && !Objects.equals(journalFileKey, attributes.fileKey()))) {
+      sizesByKey.clear();
+      totalBytes = 0;
+      hits = unsavedHits;
+      misses = unsavedMisses;
+      evictedArtifacts = 0;
+      evictedBytes = 0;
+      journalLines = 0;
+      journalOffset = 0;
+      replayLines(readJournalFrom(0));
+      for (String record : pendingRecords) {
+        replayLine(record);
+      }
+    } else {
+      replayLines(readJournalFrom(journalOffset));
+    }
+    journalFileKey = attributes.fileKey();
+  }
+
+  /** @return the complete lines of the journal after {@code offset}. */
+  private List<String> readJournalFrom(long offset) throws IOException {
+    byte[] bytes;
+    try (FileChannel channel =
+        FileChannel.open(filesystem.resolve(journalPath), StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, channel.size() - offset));
+      while (buffer.hasRemaining()) {
+        if (channel.read(buffer, offset + buffer.position()) < 0) {
+          break;
+        }
+      }
+      bytes = buffer.array();
+    }
+    int end = bytes.length;
+    while (end > 0 && bytes[end - 1] != '\n') {
+      // Most likely the last record of a process that died while writing it.
+      end--;
+    }
+    journalOffset = offset + end;
+    List<String> lines = new ArrayList<>();
+    for (String line : new String(bytes, 0, end, Charsets.UTF_8).split("\n")) {
+      if (!line.isEmpty()) {
+        lines.add(line);
+      }
+    }
+    return lines;
+  }
+
+  private void replayLines(List<String> lines) {
+    for (String line : lines) {
+      replayLine(line);
+    }
+    journalLines += lines.size();
+  }
+
+  private void replayLine(String line) {
+    try {
+      replayRecord(FIELD_SPLITTER.splitToList(line));
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      LOG.debug("Ignoring malformed artifact cache index record: %s", line);
+    }
+  }
+
+  private void replayRecord(List<String> fields) {
+    switch (fields.get(0)) {
+      case "S":
+        {
+          long bytes = Long.parseLong(fields.get(2));
+          Long previous = sizesByKey.put(fields.get(1), bytes);
+          totalBytes += bytes - (previous == null ? 0 : previous);
+          break;
+        }
+      case "A":
+        sizesByKey.get(fields.get(1));
+        break;
+      case "E":
+        {
+          long bytes = Long.parseLong(fields.get(2));
+          Long previous = sizesByKey.remove(fields.get(1));
+          totalBytes -= previous == null ? 0 : previous;
+          evictedArtifacts++;
+          evictedBytes += bytes;
+          break;
+        }
+      case "C":
+        hits += Long.parseLong(fields.get(1));
+        misses += Long.parseLong(fields.get(2));
+        evictedArtifacts += Long.parseLong(fields.get(3));
+        evictedBytes += Long.parseLong(fields.get(4));
+        break;
+      default:
+        throw new IndexOutOfBoundsException("Unknown record type " + fields.get(0));
+    }
+  }
+
+  /** Rewrites the journal as a snapshot of this index. Must be called holding the lock. */
+  private void writeSnapshot() throws IOException {
+    List<String> lines = new ArrayList<>(sizesByKey.size() + 1);
+    lines.add("C\t" + hits + '\t' + misses + '\t' + evictedArtifacts + '\t' + evictedBytes);
+    for (Map.Entry<String, Long> entry : sizesByKey.entrySet()) {
+      lines.add("S\t" + entry.getKey() + '\t' + entry.getValue());
+    }
+    filesystem.mkdirs(journalPath.getParent());
+    Path tmpPath = filesystem.createTempFile(journalPath.getParent(), JOURNAL_FILE_NAME, ".tmp");
+    try {
+      filesystem.writeLinesToPath(lines, tmpPath);
+      filesystem.move(
+          tmpPath,
+          journalPath,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      filesystem.deleteFileAtPathIfExists(tmpPath);
+    }
+    markJournalRead();
+    journalLines = lines.size();
+    pendingRecords.clear();
+    unsavedHits = 0;
+    unsavedMisses = 0;
+  }
+
+  /** Records that this index has seen everything in the journal. Must hold the lock. */
+  private void markJournalRead() throws IOException {
+    BasicFileAttributes attributes =
+        Files.readAttributes(filesystem.resolve(journalPath), BasicFileAttributes.class);
+    journalOffset = attributes.size();
+    journalFileKey = attributes.fileKey();
+  }
+
+  private void withJournalLock(String action, JournalOperation operation) {
+    synchronized (JOURNAL_LOCK) {
+      try {
+        filesystem.mkdirs(lockPath.getParent());
+        try (FileChannel channel =
+                FileChannel.open(
+                    filesystem.resolve(lockPath),
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE);
+            FileLock lock = channel.lock()) {
+          operation.run();
+        }
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to %s the artifact cache index at %s.", action, journalPath);
+      }
+    }
+  }
+
+  private interface JournalOperation {
+    void run() throws IOException;
+  }
+}
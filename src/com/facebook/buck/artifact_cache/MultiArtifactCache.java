@@ -22,11 +22,14 @@ import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.util.MoreCollectors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 
@@ -98,6 +101,57 @@ public class MultiArtifactCache implements ArtifactCache {
         MoreExecutors.directExecutor());
   }
 
+  /**
+   * Fetch a batch of artifacts. Each encapsulated ArtifactCache is only asked for the keys missed
+   * by all of the caches before it, and hits are stored to those earlier writable caches.
+   */
+  @Override
+  public ImmutableList<CacheResult> multiFetch(
+      ImmutableList<RuleKey> ruleKeys, ImmutableList<LazyPath> outputs) {
+    Preconditions.checkArgument(ruleKeys.size() == outputs.size());
+    CacheResult[] results = new CacheResult[ruleKeys.size()];
+    Arrays.fill(results, CacheResult.miss());
+    List<Integer> pending = new ArrayList<>();
+    for (int i = 0; i < ruleKeys.size(); i++) {
+      pending.add(i);
+    }
+
+    // This is the list of higher-priority caches that we should write the artifacts to.
+    ImmutableList.Builder<ArtifactCache> cachesToFill = ImmutableList.builder();
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (pending.isEmpty()) {
+        break;
+      }
+      ImmutableList<CacheResult> batchResults =
+          artifactCache.multiFetch(
+              pending.stream().map(ruleKeys::get).collect(MoreCollectors.toImmutableList()),
+              pending.stream().map(outputs::get).collect(MoreCollectors.toImmutableList()));
+      List<Integer> stillPending = new ArrayList<>();
+      for (int i = 0; i < pending.size(); i++) {
+        int index = pending.get(i);
+        CacheResult result = batchResults.get(i);
+        results[index] = result;
+        if (!result.getType().isSuccess()) {
+          stillPending.add(index);
+          continue;
+        }
+        // Propagate the artifact to previous writable caches.
+        storeToCaches(
+            cachesToFill.build(),
+            ArtifactInfo.builder()
+                .addRuleKeys(ruleKeys.get(index))
+                .setMetadata(result.getMetadata())
+                .build(),
+            BorrowablePath.notBorrowablePath(outputs.get(index).getUnchecked()));
+      }
+      pending = stillPending;
+      if (artifactCache.getCacheReadMode().isWritable()) {
+        cachesToFill.add(artifactCache);
+      }
+    }
+    return ImmutableList.copyOf(results);
+  }
+
   private static ListenableFuture<Void> storeToCaches(
       ImmutableList<ArtifactCache> caches, ArtifactInfo info, BorrowablePath output) {
     // TODO(cjhopman): support BorrowablePath with multiple writable caches.
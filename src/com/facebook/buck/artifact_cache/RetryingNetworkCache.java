@@ -23,8 +23,12 @@ import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.slb.NoHealthyServersException;
+import com.facebook.buck.util.MoreCollectors;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.util.ArrayList;
 import java.util.List;
@@ -69,6 +73,49 @@ public class RetryingNetworkCache implements ArtifactCache {
     Preconditions.checkNotNull(
         lastCacheResult,
         "One error should have happened, therefore lastCacheResult should be non null.");
+    return reportFailedFetch(ruleKey, lastCacheResult, allCacheErrors);
+  }
+
+  @Override
+  public ImmutableList<CacheResult> multiFetch(
+      ImmutableList<RuleKey> ruleKeys, ImmutableList<LazyPath> outputs) {
+    List<CacheResult> results = new ArrayList<>(delegate.multiFetch(ruleKeys, outputs));
+    ListMultimap<Integer, String> allCacheErrors = ArrayListMultimap.create();
+    List<Integer> failed = new ArrayList<>();
+    for (int retryCount = 1; ; retryCount++) {
+      failed.clear();
+      for (int i = 0; i < results.size(); i++) {
+        CacheResult cacheResult = results.get(i);
+        if (cacheResult.getType() == CacheResultType.ERROR) {
+          failed.add(i);
+          cacheResult.cacheError().ifPresent(allCacheErrors.get(i)::add);
+        }
+      }
+      if (failed.isEmpty() || retryCount >= maxFetchRetries) {
+        break;
+      }
+      LOG.debug(
+          "Failed to fetch %d of %d artifacts after %d/%d attempts.",
+          failed.size(), results.size(), retryCount, maxFetchRetries);
+      // Only the failed keys are retried, still as a single batch.
+      ImmutableList<CacheResult> retried =
+          delegate.multiFetch(
+              failed.stream().map(ruleKeys::get).collect(MoreCollectors.toImmutableList()),
+              failed.stream().map(outputs::get).collect(MoreCollectors.toImmutableList()));
+      for (int i = 0; i < failed.size(); i++) {
+        results.set(failed.get(i), retried.get(i));
+      }
+    }
+    for (int index : failed) {
+      results.set(
+          index,
+          reportFailedFetch(ruleKeys.get(index), results.get(index), allCacheErrors.get(index)));
+    }
+    return ImmutableList.copyOf(results);
+  }
+
+  private CacheResult reportFailedFetch(
+      RuleKey ruleKey, CacheResult lastCacheResult, List<String> allCacheErrors) {
     String msg = String.join("\n", allCacheErrors);
     if (!msg.contains(NoHealthyServersException.class.getName())) {
       buckEventBus.post(
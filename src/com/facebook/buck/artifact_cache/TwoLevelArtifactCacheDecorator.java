@@ -29,6 +29,7 @@ import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.AsyncFunction;
@@ -36,6 +37,8 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 
 /**
@@ -113,16 +116,66 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
   @Override
   public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
     CacheResult fetchResult = delegate.fetch(ruleKey, output);
+    Optional<String> contentHashKey = getContentHashKey(fetchResult);
+    if (!contentHashKey.isPresent()) {
+      return fetchResult;
+    }
+    CacheResult outputFileFetchResult =
+        delegate.fetch(new RuleKey(contentHashKey.get()), output);
+    return combineResults(fetchResult, contentHashKey.get(), outputFileFetchResult);
+  }
+
+  @Override
+  public ImmutableList<CacheResult> multiFetch(
+      ImmutableList<RuleKey> ruleKeys, ImmutableList<LazyPath> outputs) {
+    ImmutableList<CacheResult> fetchResults = delegate.multiFetch(ruleKeys, outputs);
+
+    // Look up the artifacts of all first-level hits in a single second-level batch.
+    List<Integer> secondLevelIndices = new ArrayList<>();
+    ImmutableList.Builder<RuleKey> secondLevelKeys = ImmutableList.builder();
+    ImmutableList.Builder<LazyPath> secondLevelOutputs = ImmutableList.builder();
+    for (int i = 0; i < fetchResults.size(); i++) {
+      Optional<String> contentHashKey = getContentHashKey(fetchResults.get(i));
+      if (contentHashKey.isPresent()) {
+        secondLevelIndices.add(i);
+        secondLevelKeys.add(new RuleKey(contentHashKey.get()));
+        secondLevelOutputs.add(outputs.get(i));
+      }
+    }
+    if (secondLevelIndices.isEmpty()) {
+      return fetchResults;
+    }
+
+    ImmutableList<CacheResult> outputFileFetchResults =
+        delegate.multiFetch(secondLevelKeys.build(), secondLevelOutputs.build());
+    List<CacheResult> results = new ArrayList<>(fetchResults);
+    for (int i = 0; i < secondLevelIndices.size(); i++) {
+      int index = secondLevelIndices.get(i);
+      CacheResult fetchResult = fetchResults.get(index);
+      results.set(
+          index,
+          combineResults(
+              fetchResult,
+              fetchResult.getMetadata().get(METADATA_KEY),
+              outputFileFetchResults.get(i)));
+    }
+    return ImmutableList.copyOf(results);
+  }
+
+  private static Optional<String> getContentHashKey(CacheResult fetchResult) {
     if (!fetchResult.getType().isSuccess()) {
       LOG.verbose("Missed first-level lookup.");
-      return fetchResult;
+      return Optional.empty();
     } else if (!fetchResult.getMetadata().containsKey(METADATA_KEY)) {
       LOG.verbose("Found a single-level entry.");
-      return fetchResult;
+      return Optional.empty();
     }
     LOG.verbose("Found a first-level artifact with metadata: %s", fetchResult.getMetadata());
-    String contentHashKey = fetchResult.getMetadata().get(METADATA_KEY);
-    CacheResult outputFileFetchResult = delegate.fetch(new RuleKey(contentHashKey), output);
+    return Optional.of(fetchResult.getMetadata().get(METADATA_KEY));
+  }
+
+  private CacheResult combineResults(
+      CacheResult fetchResult, String contentHashKey, CacheResult outputFileFetchResult) {
     outputFileFetchResult = outputFileFetchResult.withTwoLevelContentHashKey(contentHashKey);
 
     if (!outputFileFetchResult.getType().isSuccess()) {
@@ -146,8 +199,7 @@ public class TwoLevelArtifactCacheDecorator implements ArtifactCache, CacheDecor
 
     // Note: in the case of a hit, we return fetchResult, rather than outputFileFetchResult,
     // so that the client gets the correct metadata.
-    fetchResult = fetchResult.withTwoLevelContentHashKey(contentHashKey);
-    return fetchResult;
+    return fetchResult.withTwoLevelContentHashKey(contentHashKey);
   }
 
   @Override
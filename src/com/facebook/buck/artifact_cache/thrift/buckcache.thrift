@@ -14,6 +14,7 @@ enum BuckCacheRequestType {
   UNKNOWN = 0,
   FETCH = 100,
   STORE = 101,
+  MULTI_FETCH = 102,
 }
 
 struct RuleKey {
@@ -75,6 +76,20 @@ struct BuckCacheFetchResponse {
   100: optional binary payload;
 }
 
+struct BuckCacheMultiFetchRequest {
+  1: optional list<RuleKey> ruleKeys;
+  2: optional string repository;
+  3: optional string scheduleType;
+  4: optional bool distributedBuildModeEnabled;
+}
+
+struct BuckCacheMultiFetchResponse {
+  // One entry per requested RuleKey, in the same order as the request.
+  // Payloads for the entries where artifactExists is true are passed out of
+  // band, in the same order.
+  1: optional list<BuckCacheFetchResponse> results;
+}
+
 struct PayloadInfo {
   1: optional i64 sizeBytes;
 }
@@ -85,6 +100,7 @@ struct BuckCacheRequest {
   100: optional list<PayloadInfo> payloads;
   101: optional BuckCacheFetchRequest fetchRequest;
   102: optional BuckCacheStoreRequest storeRequest;
+  103: optional BuckCacheMultiFetchRequest multiFetchRequest;
 }
 
 struct BuckCacheResponse {
@@ -96,4 +112,5 @@ struct BuckCacheResponse {
   100: optional list<PayloadInfo> payloads;
   101: optional BuckCacheFetchResponse fetchResponse;
   102: optional BuckCacheStoreResponse storeResponse;
+  103: optional BuckCacheMultiFetchResponse multiFetchResponse;
 }
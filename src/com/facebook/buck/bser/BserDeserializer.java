@@ -108,7 +108,12 @@ public class BserDeserializer {
     }
   }
 
-  private ByteBuffer readBserBuffer(InputStream inputStream) throws IOException {
+  /**
+   * Reads the next BSER-encoded value from the stream, without decoding it.
+   *
+   * @return a buffer positioned at the start of the encoded value, in native byte order.
+   */
+  public static ByteBuffer readBserBuffer(InputStream inputStream) throws IOException {
     ByteBuffer sniffBuffer = ByteBuffer.allocate(SNIFF_BUFFER_SIZE).order(ByteOrder.nativeOrder());
     Preconditions.checkState(sniffBuffer.hasArray());
 
@@ -168,7 +173,7 @@ public class BserDeserializer {
     return bserBuffer;
   }
 
-  private int deserializeIntLen(ByteBuffer buffer, byte type) throws IOException {
+  private static int deserializeIntLen(ByteBuffer buffer, byte type) throws IOException {
     long value = deserializeNumber(buffer, type).longValue();
     if (value > Integer.MAX_VALUE) {
       throw new IOException(
@@ -179,7 +184,7 @@ public class BserDeserializer {
     return (int) value;
   }
 
-  private Number deserializeNumber(ByteBuffer buffer, byte type) throws IOException {
+  private static Number deserializeNumber(ByteBuffer buffer, byte type) throws IOException {
     switch (type) {
       case BSER_INT8:
         return buffer.get();
@@ -103,4 +103,6 @@ public interface AbstractCommandRunnerParams {
   Optional<InvocationInfo> getInvocationInfo();
 
   Optional<RuleKeyCacheRecycler<RuleKey>> getDefaultRuleKeyFactoryCacheRecycler();
+
+  Optional<QueryResultCache> getQueryResultCache();
 }
@@ -490,6 +490,10 @@ public class BuckConfig implements ConfigPathGetter {
     return getBooleanValue(LOG_SECTION, "process_tracker_deep_enabled", false);
   }
 
+  public boolean isEventCoalescingForSlowListenersEnabled() {
+    return getBooleanValue(LOG_SECTION, "coalesce_events_for_slow_listeners", false);
+  }
+
   public boolean isRuleKeyLoggerEnabled() {
     return getBooleanValue(LOG_SECTION, "rule_key_logger_enabled", false);
   }
@@ -586,6 +590,14 @@ public class BuckConfig implements ConfigPathGetter {
     return getBooleanValue("cache", "action_graph_cache_check_enabled", false);
   }
 
+  /**
+   * @return whether a changed target graph should reuse the build rules of unchanged subgraphs from
+   *     the previous action graph instead of rebuilding the action graph from scratch.
+   */
+  public boolean isIncrementalActionGraphEnabled() {
+    return getBooleanValue("cache", "incremental_action_graph", false);
+  }
+
   public Optional<String> getRepository() {
     return config.get("cache", "repository");
   }
@@ -1067,6 +1079,11 @@ public class BuckConfig implements ConfigPathGetter {
         .orElse(FileHashCacheMode.DEFAULT);
   }
 
+  /** @return whether source file hashes should be persisted in buck-out across runs. */
+  public boolean isPersistentFileHashCacheEnabled() {
+    return getBooleanValue("build", "persistent_file_hash_cache", false);
+  }
+
   public Config getConfig() {
     return config;
   }
@@ -20,6 +20,8 @@ import static com.facebook.buck.util.concurrent.MoreFutures.propagateCauseIfInst
 
 import com.facebook.buck.graph.AbstractBreadthFirstTraversal;
 import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal;
+import com.facebook.buck.graph.BreadthFirstFrontiers;
+import com.facebook.buck.graph.CompactDirectedAcyclicGraph;
 import com.facebook.buck.graph.DirectedAcyclicGraph;
 import com.facebook.buck.graph.GraphTraversable;
 import com.facebook.buck.graph.MutableDirectedGraph;
@@ -30,9 +32,10 @@ import com.facebook.buck.model.BuildFileTree;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetException;
 import com.facebook.buck.model.FilesystemBackedBuildFileTree;
+import com.facebook.buck.parser.BuildFileSpec;
 import com.facebook.buck.parser.ParserMessages;
 import com.facebook.buck.parser.PerBuildState;
-import com.facebook.buck.query.NoopQueryEvaluator;
+import com.facebook.buck.query.ParallelQueryEvaluator;
 import com.facebook.buck.query.QueryBuildTarget;
 import com.facebook.buck.query.QueryEnvironment;
 import com.facebook.buck.query.QueryException;
@@ -46,6 +49,7 @@ import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.rules.TargetNodes;
 import com.facebook.buck.util.MoreCollectors;
 import com.facebook.buck.util.MoreExceptions;
+import com.facebook.buck.util.concurrent.MostExecutors;
 import com.google.common.base.Functions;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
@@ -57,26 +61,37 @@ import com.google.common.collect.Iterables;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.function.Function;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+import javax.annotation.Nullable;
 
 /**
  * The environment of a Buck query that can evaluate queries to produce a result.
  *
  * <p>The query language is documented at docs/command/query.soy
+ *
+ * <p>Traversals such as {@code deps}, {@code rdeps} and {@code allpaths} run over a dense-id index
+ * of the target graph loaded so far, using bitsets for visited sets and expanding large frontiers
+ * in parallel. Ids follow the order of {@link QueryTarget}s, so results come out in the same order
+ * as they would from walking sorted sets of targets.
  */
 public class BuckQueryEnvironment implements QueryEnvironment {
 
@@ -88,12 +103,23 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   private final QueryEnvironment.TargetEvaluator queryTargetEvaluator;
 
   private final ImmutableMap<Cell, BuildFileTree> buildFileTrees;
-  private final Map<BuildTarget, QueryTarget> buildTargetToQueryTarget = new HashMap<>();
+  private final Map<BuildTarget, QueryTarget> buildTargetToQueryTarget = new ConcurrentHashMap<>();
 
-  // Query execution is single threaded, however the buildTransitiveClosure implementation
-  // traverses the graph in parallel.
+  // Operands of set operations are evaluated concurrently, and the buildTransitiveClosure
+  // implementation traverses the graph in parallel.
   private MutableDirectedGraph<TargetNode<?, ?>> graph = MutableDirectedGraph.createConcurrent();
   private Map<BuildTarget, TargetNode<?, ?>> targetsToNodes = new ConcurrentHashMap<>();
+  // Targets whose transitive closure has been added to the graph, along with its edges.
+  private final Set<BuildTarget> closedBuildTargets = ConcurrentHashMap.newKeySet();
+  // Held while the graph grows or is indexed, so that each sees the graph as a whole.
+  private final Object graphLock = new Object();
+
+  /** Index of {@link #graph}, rebuilt on first use after the graph grows. */
+  @Nullable private volatile CompactDirectedAcyclicGraph<QueryTarget> index;
+
+  // What the results of the queries evaluated so far depend on, for the QueryResultCache.
+  private final Set<BuildTarget> touchedBuildTargets = ConcurrentHashMap.newKeySet();
+  private volatile boolean resolvedFilePaths = false;
 
   private BuckQueryEnvironment(
       Cell rootCell,
@@ -116,7 +142,8 @@ public class BuckQueryEnvironment implements QueryEnvironment {
                             cell.getFilesystem(), cell.getBuildFileName())));
     this.executor = executor;
     this.targetPatternEvaluator = targetPatternEvaluator;
-    this.queryTargetEvaluator = new TargetEvaluator(targetPatternEvaluator, executor);
+    this.queryTargetEvaluator =
+        new TargetEvaluator(targetPatternEvaluator, executor, touchedBuildTargets);
   }
 
   public static BuckQueryEnvironment from(
@@ -179,7 +206,16 @@ public class BuckQueryEnvironment implements QueryEnvironment {
     Set<String> targetLiterals = new HashSet<>();
     expr.collectTargetPatterns(targetLiterals);
     preloadTargetPatterns(targetLiterals);
-    return new NoopQueryEvaluator().eval(expr, this);
+    // Operands block on parsing, so they get threads of their own rather than the parser's.
+    ListeningExecutorService operandExecutor =
+        MoreExecutors.listeningDecorator(
+            MostExecutors.newMultiThreadExecutor(
+                "query-operands", Runtime.getRuntime().availableProcessors()));
+    try {
+      return new ParallelQueryEvaluator(operandExecutor).eval(expr, this);
+    } finally {
+      operandExecutor.shutdownNow();
+    }
   }
 
   public ImmutableSet<QueryTarget> evaluateQuery(String query)
@@ -187,6 +223,30 @@ public class BuckQueryEnvironment implements QueryEnvironment {
     return evaluateQuery(QueryExpression.parse(query, this));
   }
 
+  /**
+   * @return the targets whose build files the results of the queries evaluated so far were
+   *     computed from.
+   */
+  ImmutableSet<BuildTarget> getTouchedBuildTargets() {
+    return ImmutableSet.<BuildTarget>builder()
+        .addAll(touchedBuildTargets)
+        .addAll(targetsToNodes.keySet())
+        .build();
+  }
+
+  /** @return the specs of the build files the target patterns were looked up in. */
+  ImmutableSet<BuildFileSpec> getResolvedBuildFileSpecs() {
+    return targetPatternEvaluator.getResolvedBuildFileSpecs();
+  }
+
+  /**
+   * @return whether the results of the queries evaluated so far depend on which files exist, not
+   *     only on the contents of build files.
+   */
+  boolean hasResolvedFilePaths() {
+    return resolvedFilePaths || targetPatternEvaluator.hasResolvedFilePatterns();
+  }
+
   TargetNode<?, ?> getNode(QueryTarget target) throws QueryException {
     if (!(target instanceof QueryBuildTarget)) {
       throw new IllegalArgumentException(
@@ -194,20 +254,17 @@ public class BuckQueryEnvironment implements QueryEnvironment {
               "Expected %s to be a build target but it was an instance of %s",
               target, target.getClass().getName()));
     }
+    BuildTarget buildTarget = ((QueryBuildTarget) target).getBuildTarget();
+    touchedBuildTargets.add(buildTarget);
     try {
-      return parserState.getTargetNode(((QueryBuildTarget) target).getBuildTarget());
+      return parserState.getTargetNode(buildTarget);
     } catch (BuildTargetException | BuildFileParseException e) {
       throw new QueryException(e, "Error getting target node for %s\n%s", target, e.getMessage());
     }
   }
 
   private QueryTarget getOrCreateQueryBuildTarget(BuildTarget buildTarget) {
-    if (buildTargetToQueryTarget.containsKey(buildTarget)) {
-      return buildTargetToQueryTarget.get(buildTarget);
-    }
-    QueryBuildTarget queryBuildTarget = QueryBuildTarget.of(buildTarget);
-    buildTargetToQueryTarget.put(buildTarget, queryBuildTarget);
-    return queryBuildTarget;
+    return buildTargetToQueryTarget.computeIfAbsent(buildTarget, QueryBuildTarget::of);
   }
 
   public ImmutableSet<QueryTarget> getTargetsFromTargetNodes(
@@ -238,6 +295,14 @@ public class BuckQueryEnvironment implements QueryEnvironment {
 
   @Override
   public ImmutableSet<QueryTarget> getFwdDeps(Iterable<QueryTarget> targets) throws QueryException {
+    CompactDirectedAcyclicGraph<QueryTarget> index = getIndex();
+    Optional<int[]> ids = getIds(index, targets);
+    if (ids.isPresent()) {
+      return getTargets(
+          index,
+          BreadthFirstFrontiers.next(
+              index, ids.get(), BreadthFirstFrontiers.Direction.OUTGOING, id -> true));
+    }
     ImmutableSet.Builder<QueryTarget> result = new ImmutableSet.Builder<>();
     for (QueryTarget target : targets) {
       TargetNode<?, ?> node = getNode(target);
@@ -248,6 +313,14 @@ public class BuckQueryEnvironment implements QueryEnvironment {
 
   @Override
   public Set<QueryTarget> getReverseDeps(Iterable<QueryTarget> targets) throws QueryException {
+    CompactDirectedAcyclicGraph<QueryTarget> index = getIndex();
+    Optional<int[]> ids = getIds(index, targets);
+    if (ids.isPresent()) {
+      return getTargets(
+          index,
+          BreadthFirstFrontiers.next(
+              index, ids.get(), BreadthFirstFrontiers.Direction.INCOMING, id -> true));
+    }
     Set<QueryTarget> result = new LinkedHashSet<>();
     for (QueryTarget target : targets) {
       TargetNode<?, ?> node = getNode(target);
@@ -289,7 +362,23 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   }
 
   @Override
-  public void buildTransitiveClosure(Set<QueryTarget> targets, int maxDepth) throws QueryException {
+  public void buildTransitiveClosure(Set<QueryTarget> targets, int maxDepth)
+      throws QueryException {
+    // Concurrently evaluated operands only wait for each other when they need new targets loaded.
+    if (targets
+        .stream()
+        .allMatch(
+            target ->
+                !(target instanceof QueryBuildTarget)
+                    || closedBuildTargets.contains(((QueryBuildTarget) target).getBuildTarget()))) {
+      return;
+    }
+    synchronized (graphLock) {
+      loadTransitiveClosure(targets);
+    }
+  }
+
+  private void loadTransitiveClosure(Set<QueryTarget> targets) throws QueryException {
     // Filter QueryTargets that are build targets and not yet present in the build target graph.
     ImmutableSet<BuildTarget> newBuildTargets =
         targets
@@ -298,6 +387,9 @@ public class BuckQueryEnvironment implements QueryEnvironment {
             .map(target -> ((QueryBuildTarget) target).getBuildTarget())
             .filter(buildTarget -> !targetsToNodes.containsKey(buildTarget))
             .collect(MoreCollectors.toImmutableSet());
+    if (!newBuildTargets.isEmpty()) {
+      index = null;
+    }
 
     // TODO(mkosiba): This looks more and more like the Parser.buildTargetGraph method. Unify the
     // two.
@@ -357,18 +449,186 @@ public class BuckQueryEnvironment implements QueryEnvironment {
               Preconditions.checkNotNull(
                   targetsToNodes.get(dep), "Couldn't find TargetNode for %s", dep));
         }
+        closedBuildTargets.add(buildTarget);
       }
     } catch (AcyclicDepthFirstPostOrderTraversal.CycleException e) {
       throw new QueryException(e, e.getMessage());
     }
 
     for (BuildTarget buildTarget : jobsCache.keySet()) {
-      if (!buildTargetToQueryTarget.containsKey(buildTarget)) {
-        buildTargetToQueryTarget.put(buildTarget, QueryBuildTarget.of(buildTarget));
+      getOrCreateQueryBuildTarget(buildTarget);
+    }
+  }
+
+  @Override
+  public ImmutableSet<QueryTarget> getDepsUpToDepth(Set<QueryTarget> targets, int maxDepth)
+      throws QueryException {
+    CompactDirectedAcyclicGraph<QueryTarget> index = getIndex();
+    Optional<int[]> roots = getIds(index, targets);
+    if (!roots.isPresent()) {
+      return QueryEnvironment.super.getDepsUpToDepth(targets, maxDepth);
+    }
+
+    BitSet visited = new BitSet(index.getNodeCount());
+    ImmutableSet.Builder<QueryTarget> result = ImmutableSet.builder();
+    int[] current = roots.get();
+    visit(index, current, visited, result);
+    for (int i = 0; i < maxDepth && current.length > 0; i++) {
+      current =
+          BreadthFirstFrontiers.next(
+              index, current, BreadthFirstFrontiers.Direction.OUTGOING, id -> !visited.get(id));
+      visit(index, current, visited, result);
+    }
+    return result.build();
+  }
+
+  @Override
+  public ImmutableSet<QueryTarget> getReverseDepsInUniverse(
+      Set<QueryTarget> universe, Set<QueryTarget> targets, int maxDepth) throws QueryException {
+    CompactDirectedAcyclicGraph<QueryTarget> index = getIndex();
+    Optional<int[]> universeIds = getIds(index, universe);
+    if (!universeIds.isPresent()) {
+      return QueryEnvironment.super.getReverseDepsInUniverse(universe, targets, maxDepth);
+    }
+
+    BitSet inUniverse =
+        BreadthFirstFrontiers.reachable(
+            index, universeIds.get(), BreadthFirstFrontiers.Direction.OUTGOING);
+    BitSet visited = new BitSet(index.getNodeCount());
+    ImmutableSet.Builder<QueryTarget> result = ImmutableSet.builder();
+    // Targets that are not in the index are not in the universe either.
+    int[] current = targets.stream().mapToInt(index::getNodeId).filter(id -> id >= 0).toArray();
+    // Iterating maxDepth+1 times because the first one processes the given targets.
+    for (int i = 0; i <= maxDepth; i++) {
+      int[] currentInUniverse = filter(current, inUniverse::get);
+      int[] next =
+          BreadthFirstFrontiers.next(
+              index,
+              filter(currentInUniverse, id -> !visited.get(id)),
+              BreadthFirstFrontiers.Direction.INCOMING,
+              id -> true);
+      visit(index, currentInUniverse, visited, result);
+      if (next.length == 0) {
+        break;
+      }
+      current = next;
+    }
+    return result.build();
+  }
+
+  @Override
+  public ImmutableSet<QueryTarget> getAllPaths(Set<QueryTarget> from, Set<QueryTarget> to)
+      throws QueryException {
+    CompactDirectedAcyclicGraph<QueryTarget> index = getIndex();
+    Optional<int[]> fromIds = getIds(index, from);
+    if (!fromIds.isPresent()) {
+      return QueryEnvironment.super.getAllPaths(from, to);
+    }
+
+    BitSet reachable =
+        BreadthFirstFrontiers.reachable(
+            index, fromIds.get(), BreadthFirstFrontiers.Direction.OUTGOING);
+    BitSet inResult = new BitSet(index.getNodeCount());
+    ImmutableSet.Builder<QueryTarget> result = ImmutableSet.builder();
+    // Start from the targets in both sets, in the order of the smaller one as the set based
+    // implementation does.
+    IntStream.Builder worklistBuilder = IntStream.builder();
+    for (QueryTarget target :
+        reachable.cardinality() > to.size() ? to : getTransitiveClosure(from)) {
+      int id = index.getNodeId(target);
+      if (id >= 0 && reachable.get(id) && to.contains(target)) {
+        worklistBuilder.add(id);
+      }
+    }
+    int[] worklist = worklistBuilder.build().toArray();
+    visit(index, worklist, inResult, result);
+    while (worklist.length > 0) {
+      worklist =
+          BreadthFirstFrontiers.next(
+              index,
+              worklist,
+              BreadthFirstFrontiers.Direction.INCOMING,
+              id -> reachable.get(id) && !inResult.get(id));
+      visit(index, worklist, inResult, result);
+    }
+    return result.build();
+  }
+
+  /**
+   * Returns the index of the graph loaded so far, in which the ids of the targets follow their
+   * order.
+   */
+  private CompactDirectedAcyclicGraph<QueryTarget> getIndex() {
+    CompactDirectedAcyclicGraph<QueryTarget> index = this.index;
+    if (index != null) {
+      return index;
+    }
+    synchronized (graphLock) {
+      if (this.index != null) {
+        return this.index;
+      }
+      TreeMap<String, TargetNode<?, ?>> nodesByName = new TreeMap<>();
+      for (TargetNode<?, ?> node : graph.getNodes()) {
+        nodesByName.put(node.getBuildTarget().toString(), node);
+      }
+      index =
+          CompactDirectedAcyclicGraph.copyOf(
+              nodesByName
+                  .values()
+                  .stream()
+                  .map(node -> getOrCreateQueryBuildTarget(node.getBuildTarget()))
+                  .collect(MoreCollectors.toImmutableList()),
+              target ->
+                  getTargetsFromTargetNodes(
+                          graph.getOutgoingNodesFor(
+                              targetsToNodes.get(((QueryBuildTarget) target).getBuildTarget())))
+                      .iterator());
+      this.index = index;
+    }
+    return index;
+  }
+
+  /** Returns the ids of {@code targets}, or nothing if any of them is not in {@code index}. */
+  private static Optional<int[]> getIds(
+      CompactDirectedAcyclicGraph<QueryTarget> index, Iterable<QueryTarget> targets) {
+    int[] ids = new int[Iterables.size(targets)];
+    int i = 0;
+    for (QueryTarget target : targets) {
+      ids[i] = index.getNodeId(target);
+      if (ids[i++] < 0) {
+        return Optional.empty();
+      }
+    }
+    return Optional.of(ids);
+  }
+
+  private static ImmutableSet<QueryTarget> getTargets(
+      CompactDirectedAcyclicGraph<QueryTarget> index, int[] ids) {
+    ImmutableSet.Builder<QueryTarget> result = ImmutableSet.builder();
+    for (int id : ids) {
+      result.add(index.getNode(id));
+    }
+    return result.build();
+  }
+
+  /** Adds the targets in {@code ids} that were not visited yet to {@code result}. */
+  private static void visit(
+      CompactDirectedAcyclicGraph<QueryTarget> index,
+      int[] ids,
+      BitSet visited,
+      ImmutableSet.Builder<QueryTarget> result) {
+    for (int id : ids) {
+      if (!visited.get(id)) {
+        visited.set(id);
+        result.add(index.getNode(id));
       }
     }
   }
 
+  private static int[] filter(int[] ids, IntPredicate predicate) {
+    return Arrays.stream(ids).filter(predicate).toArray();
+  }
+
   private Optional<ListenableFuture<Void>> discoverNewTargetsConcurrently(
       BuildTarget buildTarget, ConcurrentHashMap<BuildTarget, ListenableFuture<Void>> jobsCache)
       throws InterruptedException, QueryException, BuildFileParseException, BuildTargetException {
@@ -423,6 +683,7 @@ public class BuckQueryEnvironment implements QueryEnvironment {
 
   @Override
   public ImmutableSet<QueryTarget> getBuildFiles(Set<QueryTarget> targets) throws QueryException {
+    resolvedFilePaths = true;
     final ProjectFilesystem cellFilesystem = rootCell.getFilesystem();
     final Path rootPath = cellFilesystem.getRootPath();
     Preconditions.checkState(rootPath.isAbsolute());
@@ -448,6 +709,7 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   @Override
   public ImmutableSet<QueryTarget> getFileOwners(ImmutableList<String> files)
       throws QueryException {
+    resolvedFilePaths = true;
     try {
       OwnersReport report = ownersReportBuilder.build(buildFileTrees, executor, files);
       return getTargetsFromTargetNodes(report.owners.keySet());
@@ -487,18 +749,34 @@ public class BuckQueryEnvironment implements QueryEnvironment {
   private static class TargetEvaluator implements QueryEnvironment.TargetEvaluator {
     private final TargetPatternEvaluator evaluator;
     private final ListeningExecutorService executor;
+    private final Set<BuildTarget> touchedBuildTargets;
 
-    private TargetEvaluator(TargetPatternEvaluator evaluator, ListeningExecutorService executor) {
+    private TargetEvaluator(
+        TargetPatternEvaluator evaluator,
+        ListeningExecutorService executor,
+        Set<BuildTarget> touchedBuildTargets) {
       this.evaluator = evaluator;
       this.executor = executor;
+      this.touchedBuildTargets = touchedBuildTargets;
     }
 
     @Override
     public ImmutableSet<QueryTarget> evaluateTarget(String target) throws QueryException {
       try {
-        return ImmutableSet.copyOf(
-            Iterables.concat(
-                evaluator.resolveTargetPatterns(ImmutableList.of(target), executor).values()));
+        ImmutableMap<String, ImmutableSet<QueryTarget>> resolved;
+        // The patterns of a query are preloaded, so this is mostly a lookup in the evaluator's
+        // cache, which is not thread safe.
+        synchronized (evaluator) {
+          resolved = evaluator.resolveTargetPatterns(ImmutableList.of(target), executor);
+        }
+        ImmutableSet<QueryTarget> targets =
+            ImmutableSet.copyOf(Iterables.concat(resolved.values()));
+        for (QueryTarget queryTarget : targets) {
+          if (queryTarget instanceof QueryBuildTarget) {
+            touchedBuildTargets.add(((QueryBuildTarget) queryTarget).getBuildTarget());
+          }
+        }
+        return targets;
       } catch (BuildTargetException
           | BuildFileParseException
           | InterruptedException
@@ -41,6 +41,7 @@ import com.facebook.buck.distributed.thrift.RuleKeyLogEntry;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.listener.DistBuildClientEventListener;
+import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal.CycleException;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.BuildFileParseException;
 import com.facebook.buck.jvm.java.JavaBuckConfig;
@@ -66,11 +67,14 @@ import com.facebook.buck.rules.CachingBuildEngineDelegate;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.DefaultSourcePathResolver;
 import com.facebook.buck.rules.LocalCachingBuildEngineDelegate;
+import com.facebook.buck.rules.RuleDurationHistory;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.rules.SourcePathResolver;
 import com.facebook.buck.rules.SourcePathRuleFinder;
+import com.facebook.buck.rules.TargetGraph;
 import com.facebook.buck.rules.TargetGraphAndBuildTargets;
+import com.facebook.buck.rules.TargetGraphHashing;
 import com.facebook.buck.rules.TargetNode;
 import com.facebook.buck.rules.TargetNodeFactory;
 import com.facebook.buck.rules.coercer.ConstructorArgMarshaller;
@@ -78,6 +82,8 @@ import com.facebook.buck.rules.coercer.DefaultTypeCoercerFactory;
 import com.facebook.buck.rules.coercer.PathTypeCoercer;
 import com.facebook.buck.rules.coercer.TypeCoercerFactory;
 import com.facebook.buck.rules.keys.DefaultRuleKeyFactory;
+import com.facebook.buck.rules.keys.PersistedRuleKeyCache;
+import com.facebook.buck.rules.keys.PersistedRuleKeyCacheScope;
 import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.rules.keys.RuleKeyCacheScope;
 import com.facebook.buck.rules.keys.RuleKeyFactories;
@@ -100,12 +106,17 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Iterators;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -113,6 +124,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.OptionalLong;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.Executors;
@@ -499,7 +511,7 @@ public class BuildCommand extends AbstractCommand {
         }
       }
     } else {
-      exitCode = executeLocalBuild(params, graphs.actionGraph, executorService);
+      exitCode = executeLocalBuild(params, graphs, executorService);
     }
     if (exitCode == 0) {
       exitCode = processSuccessfulBuild(params, graphs);
@@ -602,14 +614,25 @@ public class BuildCommand extends AbstractCommand {
             params.getBuckConfig().getKeySeed(),
             params.getCell());
 
-    return new Pair<>(
+    BuildJobState jobState =
         DistBuildState.dump(
             cellIndexer,
             distributedBuildFileHashes,
             targetGraphCodec,
             targetGraphAndBuildTargets.getTargetGraph(),
-            buildTargets),
-        cellIndexer);
+            buildTargets);
+
+    // Let the coordinator rank targets by how long they took to build locally in the past.
+    RuleDurationHistory ruleDurationHistory =
+        RuleDurationHistory.load(params.getCell().getFilesystem());
+    for (BuildRule rule : actionGraphAndResolver.getActionGraph().getNodes()) {
+      OptionalLong duration = ruleDurationHistory.getDurationMillis(rule.getBuildTarget());
+      if (duration.isPresent()) {
+        jobState.putToRuleDurationsMillis(rule.getFullyQualifiedName(), duration.getAsLong());
+      }
+    }
+
+    return new Pair<>(jobState, cellIndexer);
   }
 
   private int executeDistBuild(
@@ -706,7 +729,7 @@ public class BuildCommand extends AbstractCommand {
         }
 
         distBuildClientStats.startPerformLocalBuildTimer();
-        int localBuildExitCode = executeLocalBuild(params, graphs.actionGraph, executorService);
+        int localBuildExitCode = executeLocalBuild(params, graphs, executorService);
         distBuildClientStats.stopPerformLocalBuildTimer();
         distBuildClientStats.setLocalBuildExitCode(localBuildExitCode);
         distBuildClientStats.setPerformedLocalBuild(true);
@@ -869,6 +892,7 @@ public class BuildCommand extends AbstractCommand {
                     params.getBuckEventBus(),
                     params.getBuckConfig().isActionGraphCheckingEnabled(),
                     params.getBuckConfig().isSkipActionGraphCache(),
+                    params.getBuckConfig().isIncrementalActionGraphEnabled(),
                     targetGraphAndBuildTargets.getTargetGraph(),
                     params.getBuckConfig().getKeySeed()));
 
@@ -895,7 +919,7 @@ public class BuildCommand extends AbstractCommand {
 
   protected int executeLocalBuild(
       CommandRunnerParams params,
-      ActionGraphAndResolver actionGraphAndResolver,
+      ActionAndTargetGraphs graphs,
       WeightedListeningExecutorService executor)
       throws IOException, InterruptedException {
 
@@ -906,7 +930,8 @@ public class BuildCommand extends AbstractCommand {
 
     return executeBuild(
         params,
-        actionGraphAndResolver,
+        graphs.actionGraph,
+        graphs.getTargetGraphForLocalBuild().getTargetGraph(),
         executor,
         artifactCache,
         new LocalCachingBuildEngineDelegate(params.getFileHashCache()),
@@ -917,6 +942,7 @@ public class BuildCommand extends AbstractCommand {
   private int executeBuild(
       CommandRunnerParams params,
       ActionGraphAndResolver actionGraphAndResolver,
+      TargetGraph targetGraph,
       WeightedListeningExecutorService executor,
       ArtifactCache artifactCache,
       CachingBuildEngineDelegate cachingBuildEngineDelegate,
@@ -929,10 +955,12 @@ public class BuildCommand extends AbstractCommand {
     try (CommandThreadManager artifactFetchService =
             getArtifactFetchService(params.getBuckConfig(), executor);
         RuleKeyCacheScope<RuleKey> ruleKeyCacheScope =
-            getDefaultRuleKeyCacheScope(
+            getRuleKeyCacheScope(
                 params,
-                new RuleKeyCacheRecycler.SettingsAffectingCache(
-                    rootCellBuckConfig.getKeySeed(), actionGraphAndResolver.getActionGraph()));
+                actionGraphAndResolver,
+                targetGraph,
+                cachingBuildEngineDelegate.getFileHashCache(),
+                rootCellBuckConfig);
         CachingBuildEngine buildEngine =
             new CachingBuildEngine(
                 cachingBuildEngineDelegate,
@@ -954,7 +982,10 @@ public class BuildCommand extends AbstractCommand {
                     actionGraphAndResolver.getResolver(),
                     cachingBuildEngineBuckConfig.getBuildInputRuleKeyFileSizeLimit(),
                     ruleKeyCacheScope.getCache()),
-                rootCellBuckConfig.getFileHashCacheMode());
+                rootCellBuckConfig.getFileHashCacheMode(),
+                cachingBuildEngineBuckConfig.isCriticalPathSchedulingEnabled()
+                    ? Optional.of(RuleDurationHistory.load(params.getCell().getFilesystem()))
+                    : Optional.empty());
         Build build =
             createBuild(
                 rootCellBuckConfig,
@@ -976,6 +1007,84 @@ public class BuildCommand extends AbstractCommand {
     }
   }
 
+  private RuleKeyCacheScope<RuleKey> getRuleKeyCacheScope(
+      CommandRunnerParams params,
+      ActionGraphAndResolver actionGraphAndResolver,
+      TargetGraph targetGraph,
+      FileHashCache fileHashCache,
+      BuckConfig rootCellBuckConfig) {
+    RuleKeyCacheScope<RuleKey> scope =
+        getDefaultRuleKeyCacheScope(
+            params,
+            new RuleKeyCacheRecycler.SettingsAffectingCache(
+                rootCellBuckConfig.getKeySeed(), actionGraphAndResolver.getActionGraph()));
+    if (!rootCellBuckConfig
+        .getView(CachingBuildEngineBuckConfig.class)
+        .isPersistentRuleKeyCacheEnabled()) {
+      return scope;
+    }
+    PersistedRuleKeyCache cache =
+        PersistedRuleKeyCache.of(
+            scope.getCache(),
+            params.getCell().getFilesystem(),
+            hashRuleKeySettings(params.getCell(), rootCellBuckConfig),
+            () -> hashTargetGraph(params, targetGraph, fileHashCache),
+            actionGraphAndResolver.getResolver()::getBuildRules,
+            fileHashCache,
+            params
+                .getCell()
+                .getAllCells()
+                .stream()
+                .map(Cell::getFilesystem)
+                .collect(Collectors.toList()));
+    return new PersistedRuleKeyCacheScope(params.getBuckEventBus(), scope, cache);
+  }
+
+  /**
+   * @return a hash of everything besides the target graph and the buck version that rule keys may
+   *     depend on.
+   */
+  private static HashCode hashRuleKeySettings(Cell rootCell, BuckConfig rootCellBuckConfig) {
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putInt(rootCellBuckConfig.getKeySeed());
+    Map<String, Cell> cells = new TreeMap<>();
+    for (Cell cell : rootCell.getAllCells()) {
+      cells.put(cell.getRoot().toString(), cell);
+    }
+    for (Map.Entry<String, Cell> cell : cells.entrySet()) {
+      hasher.putString(cell.getKey(), StandardCharsets.UTF_8);
+      BuckConfig buckConfig = cell.getValue().getBuckConfig();
+      for (Map.Entry<String, ImmutableMap<String, String>> section :
+          new TreeMap<>(buckConfig.getRawConfigForParser()).entrySet()) {
+        hasher.putString(section.getKey(), StandardCharsets.UTF_8);
+        putSortedEntries(hasher, section.getValue());
+      }
+      putSortedEntries(hasher, buckConfig.getEnvironment());
+    }
+    return hasher.hash();
+  }
+
+  private static void putSortedEntries(Hasher hasher, Map<String, String> entries) {
+    hasher.putInt(entries.size());
+    for (Map.Entry<String, String> entry : new TreeMap<>(entries).entrySet()) {
+      hasher.putString(entry.getKey(), StandardCharsets.UTF_8);
+      hasher.putString(entry.getValue(), StandardCharsets.UTF_8);
+    }
+  }
+
+  private static ImmutableMap<BuildTarget, HashCode> hashTargetGraph(
+      CommandRunnerParams params, TargetGraph targetGraph, FileHashCache fileHashCache) {
+    try {
+      return new TargetGraphHashing(
+              params.getBuckEventBus(), targetGraph, fileHashCache, targetGraph.getNodes())
+          .setNumThreads(params.getBuckConfig().getNumThreads())
+          .hashTargetGraph();
+    } catch (CycleException e) {
+      // The target graph has already been checked for cycles by the time it's built.
+      throw new RuntimeException(e);
+    }
+  }
+
   @Override
   protected ExecutionContext.Builder getExecutionContextBuilder(CommandRunnerParams params) {
     return super.getExecutionContextBuilder(params)
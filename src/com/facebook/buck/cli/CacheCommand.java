@@ -17,8 +17,11 @@
 package com.facebook.buck.cli;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.ArtifactCacheBuckConfig;
 import com.facebook.buck.artifact_cache.CacheResult;
 import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.DirArtifactCacheIndex;
+import com.facebook.buck.artifact_cache.DirCacheEntry;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.io.LazyPath;
@@ -27,6 +30,7 @@ import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildInfo;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.util.concurrent.WeightedListeningExecutorService;
+import com.facebook.buck.util.unit.SizeUnit;
 import com.facebook.buck.zip.Unzip;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
@@ -40,6 +44,7 @@ import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
@@ -56,6 +61,12 @@ public class CacheCommand extends AbstractCommand {
   @Nullable
   private String outputDir = null;
 
+  @Option(
+    name = "--stats",
+    usage = "Print the size, hit rate and eviction backlog of the local directory caches."
+  )
+  private boolean showStats = false;
+
   public List<String> getArguments() {
     return arguments;
   }
@@ -83,6 +94,11 @@ public class CacheCommand extends AbstractCommand {
       return 1;
     }
 
+    if (showStats) {
+      printDirCacheStats(params);
+      return 0;
+    }
+
     List<String> arguments = getArguments();
     if (arguments.isEmpty()) {
       params.getBuckEventBus().post(ConsoleEvent.severe("No cache keys specified."));
@@ -177,6 +193,56 @@ public class CacheCommand extends AbstractCommand {
     return exitCode;
   }
 
+  private void printDirCacheStats(CommandRunnerParams params) {
+    ArtifactCacheBuckConfig cacheBuckConfig = ArtifactCacheBuckConfig.of(params.getBuckConfig());
+    for (DirCacheEntry entry : cacheBuckConfig.getCacheEntries().getDirCacheEntries()) {
+      try (DirArtifactCacheIndex index =
+          DirArtifactCacheIndex.open(params.getCell().getFilesystem(), entry.getCacheDir())) {
+        params.getConsole().getStdOut().print(formatDirCacheStats(entry, index));
+      }
+    }
+  }
+
+  @VisibleForTesting
+  static String formatDirCacheStats(DirCacheEntry entry, DirArtifactCacheIndex index) {
+    StringBuilder stats = new StringBuilder();
+    stats.append(
+        String.format(
+            "Dir cache %s: %d artifacts, %s",
+            entry.getCacheDir(),
+            index.getArtifactCount(),
+            formatBytes(index.getTotalBytes())));
+    if (entry.getMaxSizeBytes().isPresent()) {
+      stats.append(" of ").append(formatBytes(entry.getMaxSizeBytes().get()));
+    }
+    stats.append('\n');
+    if (!index.existed()) {
+      return stats.append("  Not indexed yet.\n").toString();
+    }
+
+    long lookups = index.getHits() + index.getMisses();
+    stats.append(
+        String.format(
+            Locale.US,
+            "  Hit rate: %.1f%% (%d hits, %d misses)%n",
+            lookups == 0 ? 0 : 100.0 * index.getHits() / lookups,
+            index.getHits(),
+            index.getMisses()));
+    stats.append(
+        String.format(
+            "  Evicted: %d artifacts, %s%n",
+            index.getEvictedArtifacts(), formatBytes(index.getEvictedBytes())));
+    long backlogBytes =
+        Math.max(0, index.getTotalBytes() - entry.getMaxSizeBytes().orElse(Long.MAX_VALUE));
+    stats.append(String.format("  Eviction backlog: %s%n", formatBytes(backlogBytes)));
+    return stats.toString();
+  }
+
+  private static String formatBytes(long bytes) {
+    return SizeUnit.toHumanReadableString(
+        SizeUnit.getHumanReadableSize(bytes, SizeUnit.BYTES), Locale.US);
+  }
+
   private String cacheResultToString(CacheResult cacheResult) {
     CacheResultType type = cacheResult.getType();
     String typeString = type.toString();
@@ -41,6 +41,7 @@ import com.facebook.buck.rules.keys.RuleKeyCacheRecycler;
 import com.facebook.buck.util.RichStream;
 import com.facebook.buck.util.WatchmanWatcher;
 import com.facebook.buck.util.cache.DefaultFileHashCache;
+import com.facebook.buck.util.cache.PersistentFileHashStore;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.WatchedFileHashCache;
 import com.facebook.buck.versions.VersionedTargetGraphCache;
@@ -76,6 +77,7 @@ final class Daemon implements Closeable {
   private final ConcurrentMap<String, WorkerProcessPool> persistentWorkerPools;
   private final VersionedTargetGraphCache versionedTargetGraphCache;
   private final ActionGraphCache actionGraphCache;
+  private final QueryResultCache queryResultCache;
   private final BroadcastEventListener broadcastEventListener;
   private final RuleKeyCacheRecycler<RuleKey> defaultRuleKeyFactoryCacheRecycler;
   private final ImmutableMap<Path, WatchmanCursor> cursor;
@@ -92,7 +94,11 @@ final class Daemon implements Closeable {
         subCell -> {
           WatchedFileHashCache watchedCache =
               new WatchedFileHashCache(
-                  subCell.getFilesystem(), rootCell.getBuckConfig().getFileHashCacheMode());
+                  subCell.getFilesystem(),
+                  rootCell.getBuckConfig().getFileHashCacheMode(),
+                  rootCell.getBuckConfig().isPersistentFileHashCacheEnabled()
+                      ? Optional.of(PersistentFileHashStore.load(subCell.getFilesystem()))
+                      : Optional.empty());
           fileEventBus.register(watchedCache);
           hashCachesBuilder.add(watchedCache);
         });
@@ -114,6 +120,8 @@ final class Daemon implements Closeable {
             new ConstructorArgMarshaller(typeCoercerFactory));
     fileEventBus.register(parser);
     fileEventBus.register(actionGraphCache);
+    this.queryResultCache = new QueryResultCache(parser, rootCell);
+    fileEventBus.register(queryResultCache);
 
     // Build the the rule key cache recycler.
     this.defaultRuleKeyFactoryCacheRecycler =
@@ -207,6 +215,10 @@ final class Daemon implements Closeable {
     return actionGraphCache;
   }
 
+  QueryResultCache getQueryResultCache() {
+    return queryResultCache;
+  }
+
   BroadcastEventListener getBroadcastEventListener() {
     return broadcastEventListener;
   }
@@ -132,7 +132,8 @@ public class FetchCommand extends BuildCommand {
                       actionGraphAndResolver.getResolver(),
                       cachingBuildEngineBuckConfig.getBuildInputRuleKeyFileSizeLimit(),
                       ruleKeyCacheScope.getCache()),
-                  params.getBuckConfig().getFileHashCacheMode());
+                  params.getBuckConfig().getFileHashCacheMode(),
+                  Optional.empty());
           Build build =
               createBuild(
                   params.getBuckConfig(),
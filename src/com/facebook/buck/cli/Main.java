@@ -116,6 +116,7 @@ import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.WatchmanWatcher;
 import com.facebook.buck.util.WatchmanWatcherException;
 import com.facebook.buck.util.cache.DefaultFileHashCache;
+import com.facebook.buck.util.cache.FileHashCacheMode;
 import com.facebook.buck.util.cache.ProjectFileHashCache;
 import com.facebook.buck.util.cache.StackedFileHashCache;
 import com.facebook.buck.util.concurrent.MostExecutors;
@@ -656,9 +657,14 @@ public final class Main {
               .getAllCells()
               .stream()
               .map(
-                  cell ->
-                      DefaultFileHashCache.createDefaultFileHashCache(
-                          cell.getFilesystem(), rootCell.getBuckConfig().getFileHashCacheMode()))
+                  cell -> {
+                    FileHashCacheMode mode = rootCell.getBuckConfig().getFileHashCacheMode();
+                    return rootCell.getBuckConfig().isPersistentFileHashCacheEnabled()
+                        ? DefaultFileHashCache.createPersistentFileHashCache(
+                            cell.getFilesystem(), mode)
+                        : DefaultFileHashCache.createDefaultFileHashCache(
+                            cell.getFilesystem(), mode);
+                  })
               .forEach(allCaches::add);
           // The Daemon caches a buck-out filehashcache for the root cell, so the non-daemon case needs to create that itself.
           allCaches.add(
@@ -687,7 +693,8 @@ public final class Main {
             DefaultFileHashCache.createOsRootDirectoriesCaches(
                 rootCell.getBuckConfig().getFileHashCacheMode()));
 
-        StackedFileHashCache fileHashCache = new StackedFileHashCache(allCaches.build());
+        ImmutableList<ProjectFileHashCache> hashCaches = allCaches.build();
+        StackedFileHashCache fileHashCache = new StackedFileHashCache(hashCaches);
 
         Optional<WebServer> webServer = daemon.flatMap(Daemon::getWebServer);
         Optional<ConcurrentMap<String, WorkerProcessPool>> persistentWorkerPools =
@@ -750,7 +757,9 @@ public final class Main {
                     locale,
                     filesystem.getBuckPaths().getLogDir().resolve("test.log"));
             AsyncCloseable asyncCloseable = new AsyncCloseable(diskIoExecutorService);
-            DefaultBuckEventBus buildEventBus = new DefaultBuckEventBus(clock, buildId);
+            DefaultBuckEventBus buildEventBus =
+                new DefaultBuckEventBus(
+                    clock, buildId, buckConfig.isEventCoalescingForSlowListenersEnabled());
             BroadcastEventListener.BroadcastEventBusClosable broadcastEventBusClosable =
                 broadcastEventListener.addEventBus(buildEventBus);
 
@@ -880,6 +889,7 @@ public final class Main {
           ActionGraphCache actionGraphCache = null;
           Optional<RuleKeyCacheRecycler<RuleKey>> defaultRuleKeyFactoryCacheRecycler =
               Optional.empty();
+          Optional<QueryResultCache> queryResultCache = Optional.empty();
 
           if (daemon.isPresent()) {
             try {
@@ -905,6 +915,7 @@ public final class Main {
               parser = pair.getSecond();
               versionedTargetGraphCache = daemon.get().getVersionedTargetGraphCache();
               actionGraphCache = daemon.get().getActionGraphCache();
+              queryResultCache = Optional.of(daemon.get().getQueryResultCache());
               if (buckConfig.getRuleKeyCaching()) {
                 LOG.debug("Using rule key calculation caching");
                 defaultRuleKeyFactoryCacheRecycler =
@@ -1005,6 +1016,7 @@ public final class Main {
                         .setKnownBuildRuleTypesFactory(factory)
                         .setInvocationInfo(Optional.of(invocationInfo))
                         .setDefaultRuleKeyFactoryCacheRecycler(defaultRuleKeyFactoryCacheRecycler)
+                        .setQueryResultCache(queryResultCache)
                         .setBuildInfoStoreManager(storeManager)
                         .build());
           } catch (InterruptedException | ClosedByInterruptException e) {
@@ -1060,6 +1072,7 @@ public final class Main {
           context.get().exit(exitCode); // Allow nailgun client to exit while outputting traces.
         }
 
+        savePersistentFileHashStores(hashCaches);
         closeDiskIoExecutorService(diskIoExecutorService);
         flushAndCloseEventListeners(console, buildId, eventListeners);
         return exitCode;
@@ -1276,6 +1289,19 @@ public final class Main {
     return new Pair<>(daemonForParser.getTypeCoercerFactory(), daemonForParser.getParser());
   }
 
+  private static void savePersistentFileHashStores(ImmutableList<ProjectFileHashCache> hashCaches) {
+    for (ProjectFileHashCache hashCache : hashCaches) {
+      if (hashCache instanceof DefaultFileHashCache) {
+        try {
+          ((DefaultFileHashCache) hashCache).savePersistentStore();
+        } catch (IOException e) {
+          LOG.warn(
+              e, "Failed to save the file hashes of %s.", hashCache.getFilesystem().getRootPath());
+        }
+      }
+    }
+  }
+
   private ImmutableList<ProjectFileHashCache> getFileHashCachesFromDaemon(Daemon daemon)
       throws IOException {
     return daemon.getFileHashCaches();
@@ -45,6 +45,7 @@ import java.io.StringWriter;
 import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Optional;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -200,7 +201,7 @@ public class QueryCommand extends AbstractCommand {
     TreeMultimap<String, QueryTarget> queryResultMap = TreeMultimap.create();
     for (String input : inputsFormattedAsBuildTargets) {
       String query = queryFormat.replace("%s", input);
-      ImmutableSet<QueryTarget> queryResult = env.evaluateQuery(query);
+      ImmutableSet<QueryTarget> queryResult = evaluateQuery(params, env, query);
       queryResultMap.putAll(input, queryResult);
     }
 
@@ -215,7 +216,9 @@ public class QueryCommand extends AbstractCommand {
 
   int runSingleQuery(CommandRunnerParams params, BuckQueryEnvironment env, String query)
       throws IOException, InterruptedException, QueryException {
-    ImmutableSet<QueryTarget> queryResult = env.evaluateQuery(query);
+    // The dot output is drawn from the target graph the environment loads during evaluation.
+    ImmutableSet<QueryTarget> queryResult =
+        shouldGenerateDotOutput() ? env.evaluateQuery(query) : evaluateQuery(params, env, query);
 
     LOG.debug("Printing out the following targets: " + queryResult);
     if (shouldOutputAttributes()) {
@@ -230,6 +233,17 @@ public class QueryCommand extends AbstractCommand {
     return 0;
   }
 
+  /** Evaluates {@code query} in {@code env}, or answers it from the daemon's cache of results. */
+  private static ImmutableSet<QueryTarget> evaluateQuery(
+      CommandRunnerParams params, BuckQueryEnvironment env, String query)
+      throws InterruptedException, QueryException {
+    Optional<QueryResultCache> cache = params.getQueryResultCache();
+    if (!cache.isPresent()) {
+      return env.evaluateQuery(query);
+    }
+    return cache.get().evaluateQuery(env, QueryExpression.parse(query, env));
+  }
+
   private void printDotOutput(
       CommandRunnerParams params, BuckQueryEnvironment env, Set<QueryTarget> queryResult)
       throws IOException, QueryException {
@@ -0,0 +1,232 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetException;
+import com.facebook.buck.parser.BuildFileSpec;
+import com.facebook.buck.parser.DaemonicParserState;
+import com.facebook.buck.parser.Parser;
+import com.facebook.buck.query.QueryException;
+import com.facebook.buck.query.QueryExpression;
+import com.facebook.buck.query.QueryTarget;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.util.MoreCollectors;
+import com.facebook.buck.util.WatchmanOverflowEvent;
+import com.facebook.buck.util.WatchmanPathEvent;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.Subscribe;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Results of {@code buck query} expressions, kept by the daemon between commands.
+ *
+ * <p>Results are keyed by the normalized expression and remember the build files they were
+ * computed from, as the raw nodes the {@link Parser} had cached for them. A result is served again
+ * only while the parser still returns the very same raw nodes for each of those files, which reuses
+ * all of the parser's invalidation on changes to build files, their includes and the environment.
+ * On top of that, the Watchman events the parser consumes drop results whose target patterns
+ * could match a changed build file, and results that depend on which files exist.
+ */
+public class QueryResultCache {
+  private static final Logger LOG = Logger.get(QueryResultCache.class);
+
+  private static final int MAX_ENTRIES = 256;
+
+  private final Parser parser;
+  private final Cell rootCell;
+  private final ImmutableSet<String> buildFileNames;
+  private final Cache<String, Entry> entries =
+      CacheBuilder.newBuilder().maximumSize(MAX_ENTRIES).build();
+
+  private final AtomicLong fileEvents = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  public QueryResultCache(Parser parser, Cell rootCell) {
+    this.parser = parser;
+    this.rootCell = rootCell;
+    this.buildFileNames =
+        rootCell
+            .getAllCells()
+            .stream()
+            .map(Cell::getBuildFileName)
+            .collect(MoreCollectors.toImmutableSet());
+  }
+
+  /**
+   * @return the result of {@code expr}, from this cache if it holds one that is still valid, and
+   *     evaluated in {@code env} otherwise.
+   */
+  public ImmutableSet<QueryTarget> evaluateQuery(BuckQueryEnvironment env, QueryExpression expr)
+      throws QueryException, InterruptedException {
+    String key = expr.toString();
+    Entry entry = entries.getIfPresent(key);
+    if (entry != null) {
+      if (isValid(entry)) {
+        hits.incrementAndGet();
+        return entry.result;
+      }
+      LOG.debug("Build files of %s changed since it was evaluated.", key);
+      if (entries.asMap().remove(key, entry)) {
+        invalidations.incrementAndGet();
+      }
+    }
+    misses.incrementAndGet();
+
+    // Results computed while files change may mix old and new build files, don't keep those.
+    long fileEventsBefore = fileEvents.get();
+    ImmutableSet<QueryTarget> result = env.evaluateQuery(expr);
+    Optional<Entry> newEntry = createEntry(env, result);
+    if (newEntry.isPresent() && fileEvents.get() == fileEventsBefore) {
+      entries.put(key, newEntry.get());
+    }
+    return result;
+  }
+
+  @Subscribe
+  public void invalidateBasedOn(WatchmanPathEvent event) {
+    fileEvents.incrementAndGet();
+    Path path = event.getCellPath().resolve(event.getPath());
+    boolean isBuildFile = buildFileNames.contains(path.getFileName().toString());
+    boolean isCreateOrDelete = DaemonicParserState.isPathCreateOrDeleteEvent(event);
+    if (isBuildFile && isCreateOrDelete) {
+      // Adding or removing a build file moves package boundaries, which moves targets around.
+      invalidateAll(event);
+      return;
+    }
+    entries
+        .asMap()
+        .values()
+        .removeIf(
+            entry -> {
+              boolean invalid =
+                  (isCreateOrDelete && entry.dependsOnFilePaths)
+                      || (isBuildFile && entry.matchesBuildFile(path));
+              if (invalid) {
+                invalidations.incrementAndGet();
+              }
+              return invalid;
+            });
+  }
+
+  @Subscribe
+  public void invalidateBasedOn(WatchmanOverflowEvent event) {
+    fileEvents.incrementAndGet();
+    invalidateAll(event);
+  }
+
+  private void invalidateAll(Object event) {
+    long size = entries.size();
+    if (size > 0) {
+      LOG.info("QueryResultCache invalidation due to Watchman event %s.", event);
+    }
+    invalidations.addAndGet(size);
+    entries.invalidateAll();
+  }
+
+  public long getEntryCount() {
+    return entries.size();
+  }
+
+  public long getHitCount() {
+    return hits.get();
+  }
+
+  public long getMissCount() {
+    return misses.get();
+  }
+
+  public long getInvalidationCount() {
+    return invalidations.get();
+  }
+
+  private boolean isValid(Entry entry) {
+    for (Map.Entry<BuildTarget, ImmutableSet<Map<String, Object>>> buildFile :
+        entry.rawNodes.entrySet()) {
+      Optional<ImmutableSet<Map<String, Object>>> rawNodes = getCachedRawNodes(buildFile.getKey());
+      if (!rawNodes.isPresent() || rawNodes.get() != buildFile.getValue()) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private Optional<Entry> createEntry(BuckQueryEnvironment env, ImmutableSet<QueryTarget> result) {
+    // One target per build file is enough to find the raw nodes again.
+    Map<Path, BuildTarget> buildFiles = new HashMap<>();
+    for (BuildTarget target : env.getTouchedBuildTargets()) {
+      buildFiles.putIfAbsent(rootCell.getAbsolutePathToBuildFileUnsafe(target), target);
+    }
+    ImmutableMap.Builder<BuildTarget, ImmutableSet<Map<String, Object>>> rawNodes =
+        ImmutableMap.builder();
+    for (BuildTarget target : buildFiles.values()) {
+      Optional<ImmutableSet<Map<String, Object>>> targetRawNodes = getCachedRawNodes(target);
+      if (!targetRawNodes.isPresent()) {
+        return Optional.empty();
+      }
+      rawNodes.put(target, targetRawNodes.get());
+    }
+    return Optional.of(
+        new Entry(
+            result,
+            rawNodes.build(),
+            env.getResolvedBuildFileSpecs(),
+            env.hasResolvedFilePaths()));
+  }
+
+  private Optional<ImmutableSet<Map<String, Object>>> getCachedRawNodes(BuildTarget target) {
+    try {
+      return parser.getCachedRawNodes(
+          rootCell.getCell(target), rootCell.getAbsolutePathToBuildFileUnsafe(target));
+    } catch (BuildTargetException e) {
+      LOG.debug(e, "Could not look up the build file of %s.", target);
+      return Optional.empty();
+    }
+  }
+
+  private static class Entry {
+    private final ImmutableSet<QueryTarget> result;
+    private final ImmutableMap<BuildTarget, ImmutableSet<Map<String, Object>>> rawNodes;
+    private final ImmutableSet<BuildFileSpec> buildFileSpecs;
+    private final boolean dependsOnFilePaths;
+
+    private Entry(
+        ImmutableSet<QueryTarget> result,
+        ImmutableMap<BuildTarget, ImmutableSet<Map<String, Object>>> rawNodes,
+        ImmutableSet<BuildFileSpec> buildFileSpecs,
+        boolean dependsOnFilePaths) {
+      this.result = result;
+      this.rawNodes = rawNodes;
+      this.buildFileSpecs = buildFileSpecs;
+      this.dependsOnFilePaths = dependsOnFilePaths;
+    }
+
+    private boolean matchesBuildFile(Path buildFile) {
+      return buildFileSpecs.stream().anyMatch(spec -> spec.matchesBuildFile(buildFile));
+    }
+  }
+}
@@ -31,6 +31,12 @@ public class ServerStatusCommand extends AbstractCommand {
   @Option(name = "--http-port", usage = "Print the port that the server is running on.")
   private boolean showHttpserverPort = false;
 
+  @Option(
+    name = "--query-cache",
+    usage = "Print the statistics of the query result cache of the server."
+  )
+  private boolean showQueryCache = false;
+
   @Option(name = "--json", usage = "Print the output in a json format.")
   private boolean printJson = false;
 
@@ -38,6 +44,10 @@ public class ServerStatusCommand extends AbstractCommand {
     return showHttpserverPort;
   }
 
+  public boolean isShowQueryCache() {
+    return showQueryCache;
+  }
+
   public boolean isPrintJson() {
     return printJson;
   }
@@ -47,6 +57,11 @@ public class ServerStatusCommand extends AbstractCommand {
     showHttpserverPort = true;
   }
 
+  @VisibleForTesting
+  void enableShowQueryCache() {
+    showQueryCache = true;
+  }
+
   @VisibleForTesting
   void enablePrintJson() {
     printJson = true;
@@ -66,6 +81,16 @@ public class ServerStatusCommand extends AbstractCommand {
       builder.put("http.port", port);
     }
 
+    if (isShowQueryCache()) {
+      Optional<QueryResultCache> cache = params.getQueryResultCache();
+      builder.put("query_cache.entries", cache.map(QueryResultCache::getEntryCount).orElse(-1L));
+      builder.put("query_cache.hits", cache.map(QueryResultCache::getHitCount).orElse(-1L));
+      builder.put("query_cache.misses", cache.map(QueryResultCache::getMissCount).orElse(-1L));
+      builder.put(
+          "query_cache.invalidations",
+          cache.map(QueryResultCache::getInvalidationCount).orElse(-1L));
+    }
+
     ImmutableMap<String, Object> values = builder.build();
 
     Console console = params.getConsole();
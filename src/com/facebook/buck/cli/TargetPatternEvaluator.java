@@ -21,6 +21,7 @@ import com.facebook.buck.json.BuildFileParseException;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetException;
+import com.facebook.buck.parser.BuildFileSpec;
 import com.facebook.buck.parser.BuildTargetPatternTargetNodeParser;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.parser.ParserConfig;
@@ -41,8 +42,10 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class TargetPatternEvaluator {
   private static final Logger LOG = Logger.get(TargetPatternEvaluator.class);
@@ -56,6 +59,8 @@ public class TargetPatternEvaluator {
   private final Cell rootCell;
 
   private Map<String, ImmutableSet<QueryTarget>> resolvedTargets = new HashMap<>();
+  private Set<BuildFileSpec> resolvedBuildFileSpecs = new LinkedHashSet<>();
+  private boolean resolvedFilePatterns = false;
 
   public TargetPatternEvaluator(
       Cell rootCell,
@@ -123,7 +128,18 @@ public class TargetPatternEvaluator {
     return resolved.build();
   }
 
+  /** @return the specs of the build files the target patterns resolved so far were looked up in. */
+  ImmutableSet<BuildFileSpec> getResolvedBuildFileSpecs() {
+    return ImmutableSet.copyOf(resolvedBuildFileSpecs);
+  }
+
+  /** @return whether any of the patterns resolved so far was resolved against the file system. */
+  boolean hasResolvedFilePatterns() {
+    return resolvedFilePatterns;
+  }
+
   ImmutableSet<QueryTarget> resolveFilePattern(String pattern) throws IOException {
+    resolvedFilePatterns = true;
     ImmutableSet<Path> filePaths =
         PathArguments.getCanonicalFilesUnderProjectRoot(projectRoot, ImmutableList.of(pattern))
             .relativePathsUnderProjectRoot;
@@ -144,6 +160,9 @@ public class TargetPatternEvaluator {
     for (String pattern : patterns) {
       specs.addAll(targetNodeSpecParser.parse(rootCell.getCellPathResolver(), pattern));
     }
+    for (TargetNodeSpec spec : specs) {
+      resolvedBuildFileSpecs.add(spec.getBuildFileSpec());
+    }
     ImmutableList<ImmutableSet<BuildTarget>> buildTargets =
         parser.resolveTargetSpecs(
             eventBus,
@@ -821,6 +821,7 @@ public class TargetsCommand extends AbstractCommand {
                   params.getBuckEventBus(),
                   params.getBuckConfig().isActionGraphCheckingEnabled(),
                   params.getBuckConfig().isSkipActionGraphCache(),
+                  params.getBuckConfig().isIncrementalActionGraphEnabled(),
                   targetGraphAndTargetNodes.getFirst(),
                   params.getBuckConfig().getKeySeed());
       actionGraph = Optional.of(result.getActionGraph());
@@ -36,6 +36,7 @@ import com.facebook.buck.rules.DefaultSourcePathResolver;
 import com.facebook.buck.rules.ExternalTestRunnerRule;
 import com.facebook.buck.rules.ExternalTestRunnerTestSpec;
 import com.facebook.buck.rules.LocalCachingBuildEngineDelegate;
+import com.facebook.buck.rules.RuleDurationHistory;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.rules.SourcePathRuleFinder;
 import com.facebook.buck.rules.TargetGraph;
@@ -481,6 +482,7 @@ public class TestCommand extends BuildCommand {
                       params.getBuckEventBus(),
                       params.getBuckConfig().isActionGraphCheckingEnabled(),
                       params.getBuckConfig().isSkipActionGraphCache(),
+                      params.getBuckConfig().isIncrementalActionGraphEnabled(),
                       targetGraphAndBuildTargets.getTargetGraph(),
                       params.getBuckConfig().getKeySeed()));
       // Look up all of the test rules in the action graph.
@@ -531,7 +533,10 @@ public class TestCommand extends BuildCommand {
                         actionGraphAndResolver.getResolver(),
                         cachingBuildEngineBuckConfig.getBuildInputRuleKeyFileSizeLimit(),
                         ruleKeyCacheScope.getCache()),
-                    params.getBuckConfig().getFileHashCacheMode());
+                    params.getBuckConfig().getFileHashCacheMode(),
+                    cachingBuildEngineBuckConfig.isCriticalPathSchedulingEnabled()
+                        ? Optional.of(RuleDurationHistory.load(params.getCell().getFilesystem()))
+                        : Optional.empty());
             Build build =
                 createBuild(
                     params.getBuckConfig(),
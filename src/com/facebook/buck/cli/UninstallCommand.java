@@ -116,6 +116,7 @@ public class UninstallCommand extends AbstractCommand {
                           params.getBuckEventBus(),
                           params.getBuckConfig().isActionGraphCheckingEnabled(),
                           params.getBuckConfig().isSkipActionGraphCache(),
+                          params.getBuckConfig().isIncrementalActionGraphEnabled(),
                           result.getTargetGraph(),
                           params.getBuckConfig().getKeySeed()))
               .getResolver();
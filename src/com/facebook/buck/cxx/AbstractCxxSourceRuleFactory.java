@@ -125,6 +125,11 @@ abstract class AbstractCxxSourceRuleFactory {
     }
   }
 
+  @Value.Lazy
+  protected Optional<CxxCompileBatcher> getCompileBatcher() {
+    return CxxCompileBatcher.of(getProjectFilesystem(), getCxxBuckConfig());
+  }
+
   @Value.Lazy
   protected ImmutableSortedSet<BuildRule> getPreprocessDeps() {
     ImmutableSortedSet.Builder<BuildRule> builder = ImmutableSortedSet.naturalOrder();
@@ -532,7 +537,8 @@ abstract class AbstractCxxSourceRuleFactory {
         source.getType(),
         precompiledHeaderRule,
         getSanitizerForSourceType(source.getType()),
-        getSandboxTree());
+        getSandboxTree(),
+        getCompileBatcher());
   }
 
   @VisibleForTesting
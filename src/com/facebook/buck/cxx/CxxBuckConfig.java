@@ -285,6 +285,21 @@ public class CxxBuckConfig {
             delegate.getEntriesForSection("defaults." + type.getName()), InternalFlavor::of));
   }
 
+  /** @return the command of the worker that compiles sources in batches, if any. */
+  public Optional<ImmutableList<String>> getCompileBatchWorker() {
+    return delegate.getOptionalListWithoutComments(cxxSection, "compile_batch_worker", ' ');
+  }
+
+  public int getCompileBatchMaxSize() {
+    return delegate.getInteger(cxxSection, "compile_batch_max_size").orElse(16);
+  }
+
+  public int getCompileBatchMaxWorkers() {
+    return delegate
+        .getInteger(cxxSection, "compile_batch_max_workers")
+        .orElse(Runtime.getRuntime().availableProcessors());
+  }
+
   public int getDebugPathSanitizerLimit() {
     return delegate.getInteger(cxxSection, "debug_path_sanitizer_limit").orElse(250);
   }
@@ -0,0 +1,333 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.util.ObjectMappers;
+import com.facebook.buck.worker.WorkerJobCancelledException;
+import com.facebook.buck.worker.WorkerJobFailedException;
+import com.facebook.buck.worker.WorkerJobResult;
+import com.facebook.buck.worker.WorkerProcess;
+import com.facebook.buck.worker.WorkerProcessParams;
+import com.facebook.buck.worker.WorkerProcessPool;
+import com.facebook.buck.worker.WorkerProcessPoolFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Sends compilations that share a command, as the sources of a library compiled with the same
+ * flags do, to a compiler worker in batches, so that the worker can start the compiler once and
+ * parse the headers the sources have in common once for the whole batch.
+ *
+ * <p>Each batch is sent as a single job, whose arguments are a JSON object:
+ *
+ * <pre>
+ * {
+ *   "command": [...],        // The compiler and the arguments common to every compilation.
+ *   "environment": {...},    // Environment variables common to every compilation.
+ *   "compilations": [
+ *     {"arguments": [...], "environment": {...}},
+ *     ...
+ *   ]
+ * }
+ * </pre>
+ *
+ * <p>The worker runs each compilation as {@code command} followed by its {@code arguments}, from
+ * the root of the project, and writes a JSON array to the job's stdout with an {@code
+ * {"exit_code": ..., "stderr": ...}} object for each compilation, in order. The arguments of each
+ * compilation name its own input, object file and dep file, so each rule still gets outputs of its
+ * own, and is cached on its own.
+ *
+ * <p>Compilations are not held back to wait for others: whoever gets a worker first sends every
+ * compilation of its batch queued by then, so batches only grow while compilations wait for a
+ * worker. If the worker fails a batch as a whole, it is destroyed, unless it only failed that job,
+ * and the compilations of the batch are sent again one by one, so that only the compilations that
+ * fail on their own are failed.
+ */
+public class CxxCompileBatcher {
+
+  private static final Logger LOG = Logger.get(CxxCompileBatcher.class);
+
+  /** Compilations waiting for a worker, by worker and shared command and environment. */
+  private static final Cache<ImmutableList<Object>, Queue<Compilation>> PENDING =
+      CacheBuilder.newBuilder().weakValues().build();
+
+  private final WorkerProcessPoolFactory factory;
+  private final WorkerProcessParams workerParams;
+  private final int maxBatchSize;
+
+  public CxxCompileBatcher(
+      ProjectFilesystem filesystem, WorkerProcessParams workerParams, int maxBatchSize) {
+    this(new WorkerProcessPoolFactory(filesystem), workerParams, maxBatchSize);
+  }
+
+  @VisibleForTesting
+  CxxCompileBatcher(
+      WorkerProcessPoolFactory factory, WorkerProcessParams workerParams, int maxBatchSize) {
+    this.factory = factory;
+    this.workerParams = workerParams;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  /** @return the batcher configured by {@code cxxBuckConfig}, if any. */
+  public static Optional<CxxCompileBatcher> of(
+      ProjectFilesystem filesystem, CxxBuckConfig cxxBuckConfig) {
+    return cxxBuckConfig
+        .getCompileBatchWorker()
+        .map(
+            command ->
+                new CxxCompileBatcher(
+                    filesystem,
+                    WorkerProcessParams.of(
+                        filesystem.getBuckPaths().getTmpDir().resolve("cxx-compile-worker"),
+                        command,
+                        ImmutableMap.of(),
+                        cxxBuckConfig.getCompileBatchMaxWorkers(),
+                        1,
+                        Optional.empty()),
+                    cxxBuckConfig.getCompileBatchMaxSize()));
+  }
+
+  /**
+   * Runs a compilation as part of a batch of compilations sharing {@code command} and {@code
+   * environment}, and waits for it to finish.
+   *
+   * @return the exit code and the errors of the compilation.
+   */
+  public WorkerJobResult compile(
+      ExecutionContext context,
+      ImmutableList<String> command,
+      ImmutableMap<String, String> environment,
+      ImmutableList<String> arguments,
+      ImmutableMap<String, String> compilationEnvironment)
+      throws IOException, InterruptedException {
+    Queue<Compilation> pending;
+    try {
+      pending =
+          PENDING.get(
+              ImmutableList.of(workerParams.getStartupCommand(), command, environment),
+              ConcurrentLinkedQueue::new);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e);
+    }
+    Compilation compilation = new Compilation(arguments, compilationEnvironment);
+    pending.add(compilation);
+
+    WorkerProcessPool pool = factory.getWorkerProcessPool(context, workerParams);
+    boolean interrupted = false;
+    // Others may send our compilation along with theirs, but if there are more compilations
+    // pending than fit in one batch, it may still be pending once we get a worker.
+    while (!compilation.isSent()) {
+      WorkerProcess process;
+      try {
+        process = pool.borrowWorkerProcess();
+      } catch (IOException | InterruptedException e) {
+        if (pending.remove(compilation)) {
+          throw e;
+        }
+        // Another thread has sent our compilation already, and the worker may still be writing its
+        // outputs, so wait for it to finish rather than fail the rule in the meantime.
+        LOG.debug(e, "Could not get a worker, waiting for the compilation sent by another thread.");
+        interrupted = e instanceof InterruptedException;
+        break;
+      }
+      List<Compilation> batch = new ArrayList<>();
+      Compilation next;
+      while (batch.size() < maxBatchSize && (next = pending.poll()) != null) {
+        next.markSent();
+        batch.add(next);
+      }
+      if (batch.isEmpty()) {
+        pool.returnWorkerProcess(process);
+      } else {
+        sendBatch(pool, process, command, environment, batch);
+      }
+    }
+
+    try {
+      return interrupted
+          ? Uninterruptibles.getUninterruptibly(compilation.result)
+          : compilation.result.get();
+    } catch (ExecutionException e) {
+      Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Sends {@code batch} to {@code process}, which is then returned to {@code pool}, and sets the
+   * result of each of its compilations.
+   */
+  private static void sendBatch(
+      WorkerProcessPool pool,
+      WorkerProcess process,
+      ImmutableList<String> command,
+      ImmutableMap<String, String> environment,
+      List<Compilation> batch)
+      throws InterruptedException {
+    LOG.debug("Sending a batch of %d compilations", batch.size());
+    ImmutableList<WorkerJobResult> results;
+    try {
+      results =
+          splitResults(
+              process.submitAndWaitForJob(getJobArgs(command, environment, batch)), batch.size());
+    } catch (IOException | RuntimeException e) {
+      if (e instanceof WorkerJobFailedException || e instanceof WorkerJobCancelledException) {
+        pool.returnWorkerProcess(process);
+      } else {
+        pool.destroyWorkerProcess(process);
+      }
+      if (batch.size() == 1) {
+        batch.get(0).result.setException(e);
+        return;
+      }
+      // A single compilation may have brought the worker down, so the others, which may be of
+      // other rules that happened to share the command, get to run on their own.
+      LOG.warn(e, "A batch of %d compilations failed, sending them one by one.", batch.size());
+      sendSingly(pool, command, environment, batch);
+      return;
+    }
+    pool.returnWorkerProcess(process);
+    for (int i = 0; i < batch.size(); i++) {
+      batch.get(i).result.set(results.get(i));
+    }
+  }
+
+  private static void sendSingly(
+      WorkerProcessPool pool,
+      ImmutableList<String> command,
+      ImmutableMap<String, String> environment,
+      List<Compilation> compilations)
+      throws InterruptedException {
+    for (int i = 0; i < compilations.size(); i++) {
+      WorkerProcess process;
+      try {
+        process = pool.borrowWorkerProcess();
+      } catch (IOException e) {
+        compilations.get(i).result.setException(e);
+        continue;
+      } catch (InterruptedException e) {
+        for (Compilation compilation : compilations.subList(i, compilations.size())) {
+          compilation.result.setException(e);
+        }
+        throw e;
+      }
+      sendBatch(pool, process, command, environment, compilations.subList(i, i + 1));
+    }
+  }
+
+  @VisibleForTesting
+  static String getJobArgs(
+      ImmutableList<String> command,
+      ImmutableMap<String, String> environment,
+      List<Compilation> batch)
+      throws IOException {
+    ImmutableList.Builder<ImmutableMap<String, Object>> compilations = ImmutableList.builder();
+    for (Compilation compilation : batch) {
+      compilations.add(
+          ImmutableMap.of(
+              "arguments", compilation.arguments, "environment", compilation.environment));
+    }
+    return ObjectMappers.WRITER.writeValueAsString(
+        ImmutableMap.of(
+            "command", command, "environment", environment, "compilations", compilations.build()));
+  }
+
+  /**
+   * @return the result of each compilation of a batch, or the result of the job for each of them
+   *     if the worker didn't report them.
+   */
+  @VisibleForTesting
+  static ImmutableList<WorkerJobResult> splitResults(WorkerJobResult jobResult, int batchSize) {
+    JsonNode results = null;
+    try {
+      if (jobResult.getStdout().isPresent()) {
+        results = ObjectMappers.READER.readTree(jobResult.getStdout().get());
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to parse the results of a batch of compilations.");
+    }
+
+    ImmutableList.Builder<WorkerJobResult> builder = ImmutableList.builder();
+    if (results == null || !results.isArray() || results.size() != batchSize) {
+      String error =
+          jobResult.getExitCode() == 0
+              ? "The compiler worker did not report the result of each compilation."
+              : "The compiler worker failed.";
+      WorkerJobResult failure =
+          WorkerJobResult.of(
+              jobResult.getExitCode() == 0 ? 1 : jobResult.getExitCode(),
+              Optional.empty(),
+              Optional.of(jobResult.getStderr().map(stderr -> stderr + "\n").orElse("") + error));
+      for (int i = 0; i < batchSize; i++) {
+        builder.add(failure);
+      }
+      return builder.build();
+    }
+
+    for (JsonNode result : results) {
+      builder.add(
+          WorkerJobResult.of(
+              result.path("exit_code").asInt(1),
+              Optional.empty(),
+              Optional.of(result.path("stderr").asText(""))));
+    }
+    return builder.build();
+  }
+
+  @VisibleForTesting
+  static class Compilation {
+    private final ImmutableList<String> arguments;
+    private final ImmutableMap<String, String> environment;
+    private final SettableFuture<WorkerJobResult> result = SettableFuture.create();
+    private volatile boolean sent = false;
+
+    Compilation(ImmutableList<String> arguments, ImmutableMap<String, String> environment) {
+      this.arguments = arguments;
+      this.environment = environment;
+    }
+
+    private boolean isSent() {
+      return sent;
+    }
+
+    private void markSent() {
+      sent = true;
+    }
+  }
+}
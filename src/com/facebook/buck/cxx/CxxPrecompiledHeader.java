@@ -274,6 +274,7 @@ public class CxxPrecompiledHeader extends AbstractBuildRuleWithDeclaredAndExtraD
         scratchDir,
         /* useArgFile*/ true,
         compilerDelegate.getCompiler(),
+        Optional.empty(),
         Optional.empty());
   }
 }
@@ -68,6 +68,9 @@ public class CxxPreprocessAndCompile extends AbstractBuildRuleWithDeclaredAndExt
   private final DebugPathSanitizer sanitizer;
   private final Optional<SymlinkTree> sandboxTree;
 
+  // Batching doesn't change what's built, so it's left out of the rule key.
+  private final Optional<CxxCompileBatcher> compileBatcher;
+
   private CxxPreprocessAndCompile(
       BuildTarget buildTarget,
       ProjectFilesystem projectFilesystem,
@@ -79,9 +82,11 @@ public class CxxPreprocessAndCompile extends AbstractBuildRuleWithDeclaredAndExt
       CxxSource.Type inputType,
       Optional<CxxPrecompiledHeader> precompiledHeaderRule,
       DebugPathSanitizer sanitizer,
-      Optional<SymlinkTree> sandboxTree) {
+      Optional<SymlinkTree> sandboxTree,
+      Optional<CxxCompileBatcher> compileBatcher) {
     super(buildTarget, projectFilesystem, params);
     this.sandboxTree = sandboxTree;
+    this.compileBatcher = compileBatcher;
     if (precompiledHeaderRule.isPresent()) {
       Preconditions.checkState(
           preprocessDelegate.isPresent(),
@@ -127,11 +132,13 @@ public class CxxPreprocessAndCompile extends AbstractBuildRuleWithDeclaredAndExt
         inputType,
         Optional.empty(),
         sanitizer,
-        sandboxTree);
+        sandboxTree,
+        Optional.empty());
   }
 
   /**
-   * @return a {@link CxxPreprocessAndCompile} step that preprocesses and compiles the given source.
+   * @return a {@link CxxPreprocessAndCompile} step that preprocesses and compiles the given source,
+   *     through {@code compileBatcher} if present.
    */
   public static CxxPreprocessAndCompile preprocessAndCompile(
       BuildTarget buildTarget,
@@ -144,7 +151,8 @@ public class CxxPreprocessAndCompile extends AbstractBuildRuleWithDeclaredAndExt
       CxxSource.Type inputType,
       Optional<CxxPrecompiledHeader> precompiledHeaderRule,
       DebugPathSanitizer sanitizer,
-      Optional<SymlinkTree> sandboxTree) {
+      Optional<SymlinkTree> sandboxTree,
+      Optional<CxxCompileBatcher> compileBatcher) {
     return new CxxPreprocessAndCompile(
         buildTarget,
         projectFilesystem,
@@ -156,7 +164,8 @@ public class CxxPreprocessAndCompile extends AbstractBuildRuleWithDeclaredAndExt
         inputType,
         precompiledHeaderRule,
         sanitizer,
-        sandboxTree);
+        sandboxTree,
+        compileBatcher);
   }
 
   @Override
@@ -226,7 +235,8 @@ public class CxxPreprocessAndCompile extends AbstractBuildRuleWithDeclaredAndExt
                 .setTarget(getBuildTarget())
                 .setSourcePath(relativeInputPath)
                 .setOutputPath(output)
-                .build()));
+                .build()),
+        compileBatcher);
   }
 
   public Path getRelativeInputPath(SourcePathResolver resolver) {
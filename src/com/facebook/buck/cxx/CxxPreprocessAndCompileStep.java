@@ -29,6 +29,7 @@ import com.facebook.buck.util.DefaultProcessExecutor;
 import com.facebook.buck.util.Escaper;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.worker.WorkerJobResult;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
@@ -36,6 +37,7 @@ import com.google.common.collect.Iterables;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.StringReader;
 import java.io.UncheckedIOException;
 import java.nio.file.Path;
 import java.util.HashMap;
@@ -67,6 +69,9 @@ public class CxxPreprocessAndCompileStep implements Step {
 
   private final boolean useArgfile;
 
+  /** Sends the compilation to a compiler worker along with others sharing its command. */
+  private final Optional<CxxCompileBatcher> compileBatcher;
+
   private static final FileLastModifiedDateContentsScrubber FILE_LAST_MODIFIED_DATE_SCRUBBER =
       new FileLastModifiedDateContentsScrubber();
 
@@ -83,7 +88,8 @@ public class CxxPreprocessAndCompileStep implements Step {
       Path scratchDir,
       boolean useArgfile,
       Compiler compiler,
-      Optional<CxxLogInfo> cxxLogInfo) {
+      Optional<CxxLogInfo> cxxLogInfo,
+      Optional<CxxCompileBatcher> compileBatcher) {
     this.filesystem = filesystem;
     this.operation = operation;
     this.output = output;
@@ -97,6 +103,7 @@ public class CxxPreprocessAndCompileStep implements Step {
     this.useArgfile = useArgfile;
     this.compiler = compiler;
     this.cxxLogInfo = cxxLogInfo;
+    this.compileBatcher = compileBatcher;
   }
 
   @Override
@@ -111,10 +118,24 @@ public class CxxPreprocessAndCompileStep implements Step {
    */
   private ProcessExecutorParams.Builder makeSubprocessBuilder(ExecutionContext context) {
     Map<String, String> env = new HashMap<>(context.getEnvironment());
+    env.putAll(getSharedEnvironment());
+    env.putAll(getCompilationEnvironment());
+
+    return ProcessExecutorParams.builder()
+        .setDirectory(filesystem.getRootPath().toAbsolutePath())
+        .setRedirectError(ProcessBuilder.Redirect.PIPE)
+        .setEnvironment(ImmutableMap.copyOf(env));
+  }
 
-    env.putAll(
-        sanitizer.getCompilationEnvironment(
-            filesystem.getRootPath().toAbsolutePath(), shouldSanitizeOutputBinary()));
+  /** @return the environment this compilation shares with others using the same command. */
+  private ImmutableMap<String, String> getSharedEnvironment() {
+    return sanitizer.getCompilationEnvironment(
+        filesystem.getRootPath().toAbsolutePath(), shouldSanitizeOutputBinary());
+  }
+
+  /** @return the environment specific to this compilation. */
+  private ImmutableMap<String, String> getCompilationEnvironment() {
+    Map<String, String> env = new HashMap<>();
 
     // Set `TMPDIR` to `scratchDir` so the compiler/preprocessor uses this dir for it's temp and
     // intermediate files.
@@ -130,10 +151,7 @@ public class CxxPreprocessAndCompileStep implements Step {
       info.getOutputPath().ifPresent(path -> env.put("BUCK_BUILD_RULE_OUTPUT", path.toString()));
     }
 
-    return ProcessExecutorParams.builder()
-        .setDirectory(filesystem.getRootPath().toAbsolutePath())
-        .setRedirectError(ProcessBuilder.Redirect.PIPE)
-        .setEnvironment(ImmutableMap.copyOf(env));
+    return ImmutableMap.copyOf(env);
   }
 
   private Path getArgfile() {
@@ -142,6 +160,14 @@ public class CxxPreprocessAndCompileStep implements Step {
 
   @VisibleForTesting
   ImmutableList<String> getArguments(boolean allowColorsInDiagnostics) {
+    return ImmutableList.<String>builder()
+        .addAll(getSharedArguments(allowColorsInDiagnostics))
+        .addAll(getCompilationArguments())
+        .build();
+  }
+
+  /** @return the arguments this compilation shares with others of the same flags and language. */
+  private ImmutableList<String> getSharedArguments(boolean allowColorsInDiagnostics) {
     String inputLanguage =
         operation == Operation.GENERATE_PCH
             ? inputType.getPrecompiledHeaderLanguage().get()
@@ -157,6 +183,12 @@ public class CxxPreprocessAndCompileStep implements Step {
         .addAll(
             sanitizer.getCompilationFlags(
                 compiler, filesystem.getRootPath(), headerPathNormalizer.getPrefixMap()))
+        .build();
+  }
+
+  /** @return the arguments naming the input and outputs of this compilation. */
+  private ImmutableList<String> getCompilationArguments() {
+    return ImmutableList.<String>builder()
         .add("-c")
         .addAll(
             depFile
@@ -169,6 +201,10 @@ public class CxxPreprocessAndCompileStep implements Step {
 
   private int executeCompilation(ExecutionContext context)
       throws IOException, InterruptedException {
+    if (compileBatcher.isPresent()) {
+      return executeBatchedCompilation(context, compileBatcher.get());
+    }
+
     ProcessExecutorParams.Builder builder = makeSubprocessBuilder(context);
 
     if (useArgfile) {
@@ -215,6 +251,45 @@ public class CxxPreprocessAndCompileStep implements Step {
       executor.waitForLaunchedProcess(process);
     }
 
+    postErrors(context, exitCode, err);
+    return exitCode;
+  }
+
+  private int executeBatchedCompilation(ExecutionContext context, CxxCompileBatcher batcher)
+      throws IOException, InterruptedException {
+    ImmutableList<String> sharedCommand =
+        ImmutableList.<String>builder()
+            .addAll(command.getCommandPrefix())
+            .addAll(getSharedArguments(context.getAnsi().isAnsiTerminal()))
+            .build();
+
+    LOG.debug("Sending compilation of %s to a compiler worker: %s", input, getDescription(context));
+
+    WorkerJobResult result =
+        batcher.compile(
+            context,
+            sharedCommand,
+            getSharedEnvironment(),
+            getCompilationArguments(),
+            getCompilationEnvironment());
+
+    CxxErrorTransformer cxxErrorTransformer =
+        new CxxErrorTransformer(
+            filesystem, context.shouldReportAbsolutePaths(), headerPathNormalizer);
+    String err;
+    try (BufferedReader reader =
+        new BufferedReader(new StringReader(result.getStderr().orElse("")))) {
+      err =
+          reader.lines().map(cxxErrorTransformer::transformLine).collect(Collectors.joining("\n"));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    postErrors(context, result.getExitCode(), err);
+    return result.getExitCode();
+  }
+
+  private void postErrors(ExecutionContext context, int exitCode, String err) {
     // If we generated any error output, print that to the console.
     if (!err.isEmpty()) {
       context
@@ -226,8 +301,6 @@ public class CxxPreprocessAndCompileStep implements Step {
                   exitCode == 0 ? Level.WARNING : Level.SEVERE,
                   err));
     }
-
-    return exitCode;
   }
 
   private ConsoleEvent createConsoleEvent(
@@ -28,8 +28,21 @@ import java.util.AbstractMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.stream.Collectors;
 
+/**
+ * Maps the header paths a compiler reports in its dep file back to the {@link SourcePath}s of the
+ * headers a library may include.
+ *
+ * <p>Lookups are memoized per normalizer rather than in an index shared by the whole daemon. The
+ * headers a path may map to differ from one library to the next, and a path that maps to nothing
+ * is how untracked headers are detected, so a shared path to {@link SourcePath} map would accept
+ * headers belonging to other libraries. Content hashes are left to the file hash cache, which
+ * already lives as long as the daemon and is invalidated as files change, where a second copy here
+ * could go stale.
+ */
 public class HeaderPathNormalizer {
 
   private final SourcePathResolver pathResolver;
@@ -49,6 +62,13 @@ public class HeaderPathNormalizer {
   /** Minimal mappings to translate paths used during compilation to their real locations. */
   private final ImmutableMap<Path, Path> prefixMap;
 
+  /**
+   * The absolute paths of the unnormalized paths looked up so far. All sources of a library
+   * typically share a normalizer, and include mostly the same headers, so the dep file of each of
+   * their compilations lists mostly the same paths.
+   */
+  private final ConcurrentMap<Path, Optional<Path>> absolutePaths = new ConcurrentHashMap<>();
+
   protected HeaderPathNormalizer(
       SourcePathResolver pathResolver,
       ImmutableMap<Path, SourcePath> headers,
@@ -78,6 +98,10 @@ public class HeaderPathNormalizer {
 
   public Optional<Path> getAbsolutePathForUnnormalizedPath(Path unnormalizedPath) {
     Preconditions.checkArgument(unnormalizedPath.isAbsolute());
+    return absolutePaths.computeIfAbsent(unnormalizedPath, this::lookUpAbsolutePath);
+  }
+
+  private Optional<Path> lookUpAbsolutePath(Path unnormalizedPath) {
     Optional<Map.Entry<Path, SourcePath>> result = pathLookup(unnormalizedPath, normalized);
     if (!result.isPresent()) {
       return Optional.empty();
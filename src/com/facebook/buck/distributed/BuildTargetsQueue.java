@@ -21,8 +21,12 @@ import com.facebook.buck.rules.BuildRuleResolver;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
@@ -30,7 +34,21 @@ import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
 
+/**
+ * Hands out the targets of a distributed build as their dependencies finish building.
+ *
+ * <p>Targets that are ready to build are handed out in descending order of their remaining critical
+ * path: the estimated duration of the longest chain of targets that can only start once the target
+ * has been built, including the target itself. Estimates come from the durations of previous builds
+ * of each target; targets without one are assumed to take as long as the average target that has.
+ */
 public class BuildTargetsQueue {
+  /** Orders ready targets by descending remaining critical path, ties broken by name. */
+  private static final Comparator<EnqueuedTarget> BY_CRITICAL_PATH =
+      Comparator.comparingLong(EnqueuedTarget::getCriticalPathMillis)
+          .reversed()
+          .thenComparing(EnqueuedTarget::getBuildTarget);
+
   private List<EnqueuedTarget> zeroDependencyTargets;
   private final Map<String, EnqueuedTarget> allEnqueuedTargets;
 
@@ -46,8 +64,20 @@ public class BuildTargetsQueue {
 
   public static BuildTargetsQueue newQueue(
       BuildRuleResolver resolver, Iterable<BuildTarget> targetsToBuild) {
+    return newQueue(resolver, targetsToBuild, ImmutableMap.of());
+  }
+
+  /**
+   * @param ruleDurationsMillis how long building each target took in previous builds, keyed by
+   *     fully qualified target name
+   */
+  public static BuildTargetsQueue newQueue(
+      BuildRuleResolver resolver,
+      Iterable<BuildTarget> targetsToBuild,
+      Map<String, Long> ruleDurationsMillis) {
     // Build the reverse dependency graph by traversing the action graph Top-Down.
     Map<String, Set<String>> allReverseDeps = new HashMap<>();
+    Map<String, List<String>> allDeps = new HashMap<>();
     Map<String, Integer> numberOfDependencies = new HashMap<>();
     Set<String> visitedTargets = new HashSet<>();
     Queue<BuildRule> buildRulesToProcess =
@@ -63,8 +93,11 @@ public class BuildTargetsQueue {
       BuildRule rule = buildRulesToProcess.remove();
       String target = ruleToTarget(rule);
       numberOfDependencies.put(target, rule.getBuildDeps().size());
+      List<String> deps = new ArrayList<>(rule.getBuildDeps().size());
+      allDeps.put(target, deps);
       for (BuildRule dependencyRule : rule.getBuildDeps()) {
         String dependencyTarget = ruleToTarget(dependencyRule);
+        deps.add(dependencyTarget);
         if (!allReverseDeps.containsKey(dependencyTarget)) {
           allReverseDeps.put(dependencyTarget, new HashSet<>());
         }
@@ -77,6 +110,9 @@ public class BuildTargetsQueue {
       }
     }
 
+    Map<String, Long> criticalPathsMillis =
+        computeCriticalPaths(visitedTargets, allDeps, allReverseDeps, ruleDurationsMillis);
+
     // Do the reference counting and create the EnqueuedTargets.
     List<EnqueuedTarget> zeroDependencyTargets = new ArrayList<>();
     Map<String, EnqueuedTarget> allEnqueuedTargets = new HashMap<>();
@@ -92,7 +128,8 @@ public class BuildTargetsQueue {
           new EnqueuedTarget(
               target,
               ImmutableList.copyOf(currentRevDeps),
-              Preconditions.checkNotNull(numberOfDependencies.get(target)));
+              Preconditions.checkNotNull(numberOfDependencies.get(target)),
+              Preconditions.checkNotNull(criticalPathsMillis.get(target)));
       allEnqueuedTargets.put(target, enqueuedTarget);
 
       if (enqueuedTarget.areAllDependenciesResolved()) {
@@ -103,6 +140,60 @@ public class BuildTargetsQueue {
     return new BuildTargetsQueue(zeroDependencyTargets, allEnqueuedTargets);
   }
 
+  private static Map<String, Long> computeCriticalPaths(
+      Set<String> targets,
+      Map<String, List<String>> allDeps,
+      Map<String, Set<String>> allReverseDeps,
+      Map<String, Long> ruleDurationsMillis) {
+    long knownDurationsMillis = 0;
+    int knownCount = 0;
+    for (String target : targets) {
+      Long duration = ruleDurationsMillis.get(target);
+      if (duration != null) {
+        knownDurationsMillis += duration;
+        knownCount++;
+      }
+    }
+    long defaultDurationMillis =
+        knownCount == 0 ? 1 : Math.max(1, knownDurationsMillis / knownCount);
+
+    // Walk the graph from the top-level targets down, visiting each target once all of its
+    // dependents have been visited.
+    Map<String, Integer> unvisitedDependents = new HashMap<>();
+    Deque<String> targetsToVisit = new ArrayDeque<>();
+    for (String target : targets) {
+      int dependents = allReverseDeps.containsKey(target) ? allReverseDeps.get(target).size() : 0;
+      unvisitedDependents.put(target, dependents);
+      if (dependents == 0) {
+        targetsToVisit.add(target);
+      }
+    }
+    Map<String, Long> longestDependentPathsMillis = new HashMap<>();
+    Map<String, Long> criticalPathsMillis = new HashMap<>();
+    while (!targetsToVisit.isEmpty()) {
+      String target = targetsToVisit.remove();
+      long criticalPathMillis =
+          ruleDurationsMillis.getOrDefault(target, defaultDurationMillis)
+              + longestDependentPathsMillis.getOrDefault(target, 0L);
+      criticalPathsMillis.put(target, criticalPathMillis);
+      for (String dep : Preconditions.checkNotNull(allDeps.get(target))) {
+        longestDependentPathsMillis.merge(dep, criticalPathMillis, Math::max);
+        if (unvisitedDependents.merge(dep, -1, Integer::sum) == 0) {
+          targetsToVisit.add(dep);
+        }
+      }
+    }
+    return criticalPathsMillis;
+  }
+
+  /**
+   * @return the estimated duration, in milliseconds, of the longest chain of targets that can only
+   *     start once {@code target} has been built, including {@code target} itself.
+   */
+  public long getCriticalPathMillis(String target) {
+    return Preconditions.checkNotNull(allEnqueuedTargets.get(target)).getCriticalPathMillis();
+  }
+
   public ImmutableList<String> dequeueZeroDependencyNodes(ImmutableList<String> finishedNodes) {
     // Decrement reference counting.
     for (String node : finishedNodes) {
@@ -116,7 +207,8 @@ public class BuildTargetsQueue {
       }
     }
 
-    // Return all the Targets that have all dependencies resolved.
+    // Return all the Targets that have all dependencies resolved, most critical first.
+    zeroDependencyTargets.sort(BY_CRITICAL_PATH);
     ImmutableList<String> targetsReadyToBuild =
         ImmutableList.copyOf(
             FluentIterable.from(zeroDependencyTargets).transform(x -> x.getBuildTarget()));
@@ -131,13 +223,18 @@ public class BuildTargetsQueue {
   private static class EnqueuedTarget {
     private final String buildTarget;
     private final ImmutableList<String> dependentTargets;
+    private final long criticalPathMillis;
     private int unsatisfiedDependencies;
 
     private EnqueuedTarget(
-        String buildTarget, ImmutableList<String> dependentTargets, int numberOfDependencies) {
+        String buildTarget,
+        ImmutableList<String> dependentTargets,
+        int numberOfDependencies,
+        long criticalPathMillis) {
       this.buildTarget = buildTarget;
       this.dependentTargets = dependentTargets;
       this.unsatisfiedDependencies = numberOfDependencies;
+      this.criticalPathMillis = criticalPathMillis;
     }
 
     public boolean areAllDependenciesResolved() {
@@ -152,6 +249,10 @@ public class BuildTargetsQueue {
       return dependentTargets;
     }
 
+    public long getCriticalPathMillis() {
+      return criticalPathMillis;
+    }
+
     public void decrementUnsatisfiedDeps() {
       --unsatisfiedDependencies;
       Preconditions.checkArgument(
@@ -167,6 +268,8 @@ public class BuildTargetsQueue {
           + '\''
           + ", unsatisfiedDependencies="
           + unsatisfiedDependencies
+          + ", criticalPathMillis="
+          + criticalPathMillis
           + ", dependentTargets="
           + dependentTargets
           + '}';
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.distributed;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.timing.Clock;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Samples, every time the coordinator allocates work or a minion finishes, how many targets are
+ * waiting for a minion and how many of the minions are busy, so that the tail of a distributed
+ * build can be told apart from a lack of minions. NOTE: Not thread safe.
+ */
+public class CoordinatorWorkloadStatsTracker {
+
+  private static final Logger LOG = Logger.get(CoordinatorWorkloadStatsTracker.class);
+
+  private final Clock clock;
+  private final long startMillis;
+  private final Set<String> knownMinions = new HashSet<>();
+
+  private long lastSampleMillis;
+  private int lastBusyMinions;
+  private int maxTargetsNotAssignedYet;
+  private long busyMinionMillis;
+  private long knownMinionMillis;
+
+  public CoordinatorWorkloadStatsTracker(Clock clock) {
+    this.clock = clock;
+    this.startMillis = clock.currentTimeMillis();
+    this.lastSampleMillis = startMillis;
+  }
+
+  /** Records the state of the allocator right after {@code minionId} talked to the coordinator. */
+  public void recordSample(String minionId, MinionWorkloadAllocator allocator) {
+    long nowMillis = clock.currentTimeMillis();
+    // Minions count towards utilization from the first time they asked for work.
+    busyMinionMillis += lastBusyMinions * (nowMillis - lastSampleMillis);
+    knownMinionMillis += knownMinions.size() * (nowMillis - lastSampleMillis);
+    knownMinions.add(minionId);
+
+    int targetsNotAssignedYet = allocator.getNumTargetsNotAssignedYet();
+    lastBusyMinions = allocator.getNumBusyMinions();
+    lastSampleMillis = nowMillis;
+    maxTargetsNotAssignedYet = Math.max(maxTargetsNotAssignedYet, targetsNotAssignedYet);
+    LOG.debug(
+        "Coordinator workload at %dms: [%d] targets waiting, [%d/%d] minions busy.",
+        nowMillis - startMillis,
+        targetsNotAssignedYet,
+        lastBusyMinions,
+        knownMinions.size());
+  }
+
+  public int getMaxTargetsNotAssignedYet() {
+    return maxTargetsNotAssignedYet;
+  }
+
+  /** @return the fraction of time the known minions spent building, between 0 and 1. */
+  public double getMinionUtilization() {
+    return knownMinionMillis == 0 ? 0 : (double) busyMinionMillis / knownMinionMillis;
+  }
+
+  public String getSummary() {
+    return String.format(
+        "Coordinator ran for %dms with %d minions: at most [%d] targets waiting, "
+            + "minions busy %.1f%% of the time.",
+        lastSampleMillis - startMillis,
+        knownMinions.size(),
+        maxTargetsNotAssignedYet,
+        getMinionUtilization() * 100);
+  }
+}
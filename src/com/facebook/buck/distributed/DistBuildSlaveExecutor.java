@@ -63,6 +63,7 @@ import com.google.common.base.Functions;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.ArrayList;
@@ -133,7 +134,10 @@ public class DistBuildSlaveExecutor {
     BuildTargetsQueue queue =
         BuildTargetsQueue.newQueue(
             Preconditions.checkNotNull(actionGraphAndResolver).getResolver(),
-            fullyQualifiedNameToBuildTarget(args.getState().getRemoteState().getTopLevelTargets()));
+            fullyQualifiedNameToBuildTarget(args.getState().getRemoteState().getTopLevelTargets()),
+            args.getState().getRemoteState().isSetRuleDurationsMillis()
+                ? args.getState().getRemoteState().getRuleDurationsMillis()
+                : ImmutableMap.of());
     return new CoordinatorModeRunner(args.getCoordinatorPort(), queue, args.getStampedeId());
   }
 
@@ -351,7 +355,8 @@ public class DistBuildSlaveExecutor {
                       actionGraphAndResolver.getResolver(),
                       engineConfig.getBuildInputRuleKeyFileSizeLimit(),
                       new DefaultRuleKeyCache<>()),
-                  distBuildConfig.getFileHashCacheMode());
+                  distBuildConfig.getFileHashCacheMode(),
+                  Optional.empty());
           //TODO(shivanker): Supply the target device, adb options, and target device options to work with Android.
           ExecutionContext executionContext =
               ExecutionContext.builder()
@@ -19,13 +19,22 @@ package com.facebook.buck.distributed;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.function.Predicate;
 
 /**
  * Allocates and keeps track of what BuildTargets are allocated to which Minions. NOTE: Not thread
  * safe.
+ *
+ * <p>Targets are handed out most critical first, as ranked by the {@link BuildTargetsQueue}. The
+ * targets that become ready when a minion finishes its workload are reserved for that same minion,
+ * so that chains of targets stay on one minion and it can reuse the outputs it just built instead
+ * of fetching them from the artifact cache. Other minions only take reserved targets when there is
+ * nothing else left to build.
  */
 public class MinionWorkloadAllocator {
 
@@ -33,10 +42,17 @@ public class MinionWorkloadAllocator {
   private final int maxTargetsPerMinion;
   private final Map<String, MinionWorkload> minionAllocations;
   private final List<String> targetsNotAssignedYet;
+  private final Map<String, String> reservedMinionByTarget;
+  private final Comparator<String> byCriticalPath;
 
   public MinionWorkloadAllocator(BuildTargetsQueue queue, int maxTargetsPerMinion) {
     this.queue = queue;
     this.minionAllocations = new HashMap<>();
+    this.reservedMinionByTarget = new HashMap<>();
+    this.byCriticalPath =
+        Comparator.comparingLong(queue::getCriticalPathMillis)
+            .reversed()
+            .thenComparing(Comparator.naturalOrder());
     this.targetsNotAssignedYet =
         Lists.newArrayList(queue.dequeueZeroDependencyNodes(ImmutableList.of()));
     this.maxTargetsPerMinion = maxTargetsPerMinion;
@@ -50,23 +66,25 @@ public class MinionWorkloadAllocator {
 
     // Make sure we keep the list of targets ready to build stocked up.
     if (targetsNotAssignedYet.size() < maxTargetsPerMinion) {
-      targetsNotAssignedYet.addAll(queue.dequeueZeroDependencyNodes(ImmutableList.of()));
+      addTargetsNotAssignedYet(queue.dequeueZeroDependencyNodes(ImmutableList.of()));
     }
 
     if (targetsNotAssignedYet.isEmpty()) {
       return ImmutableList.of();
     }
 
-    // Assign new minionWorkload to the worker.
-
-    // NOTE: This is just a view into the original collection. It's not a clone.
-    int lastIndex = Math.min(targetsNotAssignedYet.size(), maxTargetsPerMinion);
-    List<String> viewIntoTargetsToBuild = targetsNotAssignedYet.subList(0, lastIndex);
-    ImmutableList<String> targetsToBuild = ImmutableList.copyOf(viewIntoTargetsToBuild);
+    // Assign new minionWorkload to the worker: first the targets reserved for it, then the ones
+    // nobody has a claim on, and only then the ones reserved for other minions.
+    List<String> selectedTargets = new ArrayList<>(maxTargetsPerMinion);
+    selectTargets(selectedTargets, target -> minionId.equals(reservedMinionByTarget.get(target)));
+    selectTargets(selectedTargets, target -> !reservedMinionByTarget.containsKey(target));
+    selectTargets(selectedTargets, target -> true);
+    ImmutableList<String> targetsToBuild = ImmutableList.copyOf(selectedTargets);
+    targetsNotAssignedYet.removeAll(targetsToBuild);
 
-    // Because this is a view over the original List, the .clear() method will remove the
-    // items from the original list.
-    viewIntoTargetsToBuild.clear();
+    // This minion has had its chance at the targets reserved for it.
+    reservedMinionByTarget.values().removeIf(minionId::equals);
+    targetsToBuild.forEach(reservedMinionByTarget::remove);
 
     MinionWorkload minionWorkload = new MinionWorkload(targetsToBuild);
     minionAllocations.put(minionId, minionWorkload);
@@ -75,14 +93,47 @@ public class MinionWorkloadAllocator {
 
   public void finishedBuildingTargets(String minionId) {
     MinionWorkload minionWorkload = Preconditions.checkNotNull(minionAllocations.remove(minionId));
-    targetsNotAssignedYet.addAll(
-        queue.dequeueZeroDependencyNodes(minionWorkload.getTargetsBeingBuilt()));
+    ImmutableList<String> unlockedTargets =
+        queue.dequeueZeroDependencyNodes(minionWorkload.getTargetsBeingBuilt());
+    for (String target : unlockedTargets) {
+      reservedMinionByTarget.put(target, minionId);
+    }
+    addTargetsNotAssignedYet(unlockedTargets);
   }
 
   public boolean isBuildFinished() {
     return minionAllocations.size() == 0 && targetsNotAssignedYet.size() == 0;
   }
 
+  /** @return the number of targets that are ready to build but not allocated to any minion. */
+  public int getNumTargetsNotAssignedYet() {
+    return targetsNotAssignedYet.size();
+  }
+
+  /** @return the number of minions currently building a workload. */
+  public int getNumBusyMinions() {
+    return minionAllocations.size();
+  }
+
+  private void addTargetsNotAssignedYet(ImmutableList<String> targets) {
+    if (targets.isEmpty()) {
+      return;
+    }
+    targetsNotAssignedYet.addAll(targets);
+    targetsNotAssignedYet.sort(byCriticalPath);
+  }
+
+  private void selectTargets(List<String> selectedTargets, Predicate<String> isEligible) {
+    for (String target : targetsNotAssignedYet) {
+      if (selectedTargets.size() == maxTargetsPerMinion) {
+        return;
+      }
+      if (isEligible.test(target) && !selectedTargets.contains(target)) {
+        selectedTargets.add(target);
+      }
+    }
+  }
+
   private static class MinionWorkload {
     private final ImmutableList<String> targetsBeingBuilt;
 
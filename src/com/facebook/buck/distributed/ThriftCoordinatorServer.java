@@ -25,6 +25,7 @@ import com.facebook.buck.distributed.thrift.GetTargetsToBuildResponse;
 import com.facebook.buck.distributed.thrift.StampedeId;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.slb.ThriftException;
+import com.facebook.buck.timing.DefaultClock;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
@@ -52,6 +53,7 @@ public class ThriftCoordinatorServer implements Closeable {
   private static final int MAX_TARGETS_ALLOCATED_PER_MINION = 2;
 
   private final MinionWorkloadAllocator allocator;
+  private final CoordinatorWorkloadStatsTracker statsTracker;
   private final int port;
   private final CoordinatorServiceHandler handler;
   private final CoordinatorService.Processor<CoordinatorService.Iface> processor;
@@ -68,6 +70,7 @@ public class ThriftCoordinatorServer implements Closeable {
     this.lock = new Object();
     this.exitCodeFuture = new CompletableFuture<>();
     this.allocator = new MinionWorkloadAllocator(queue, MAX_TARGETS_ALLOCATED_PER_MINION);
+    this.statsTracker = new CoordinatorWorkloadStatsTracker(new DefaultClock());
     this.port = port;
     this.handler = new CoordinatorServiceHandler();
     this.processor = new CoordinatorService.Processor<CoordinatorService.Iface>(handler);
@@ -156,6 +159,7 @@ public class ThriftCoordinatorServer implements Closeable {
         }
 
         ImmutableList<String> targets = allocator.getTargetsToBuild(request.getMinionId());
+        statsTracker.recordSample(request.getMinionId(), allocator);
         if (targets.isEmpty()) {
           LOG.debug(
               String.format(
@@ -186,11 +190,13 @@ public class ThriftCoordinatorServer implements Closeable {
           response.setContinueBuilding(false);
         } else {
           allocator.finishedBuildingTargets(request.getMinionId());
+          statsTracker.recordSample(request.getMinionId(), allocator);
           if (getExitCode().isDone()) {
             response.setContinueBuilding(false);
           } else {
             if (allocator.isBuildFinished()) {
               // Build has finished in all Minions successfully!!
+              LOG.info(statsTracker.getSummary());
               setBuildExitCode(0);
               response.setContinueBuilding(false);
             } else {
@@ -86,4 +86,6 @@ struct BuildJobState {
   2: optional list<BuildJobStateFileHashes> fileHashes;
   3: optional BuildJobStateTargetGraph targetGraph;
   4: optional list<string> topLevelTargets;
+  // How long building each rule took in previous builds, keyed by fully qualified target name.
+  5: optional map<string, i64> ruleDurationsMillis;
 }
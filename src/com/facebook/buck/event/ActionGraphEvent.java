@@ -86,6 +86,11 @@ public abstract class ActionGraphEvent extends AbstractBuckEvent
       return new MissWithTargetGraphHashMatch();
     }
 
+    public static IncrementalLoad incrementalLoad(
+        int reusedTargetNodeCount, int newTargetNodeCount, int reusedBuildRuleCount) {
+      return new IncrementalLoad(reusedTargetNodeCount, newTargetNodeCount, reusedBuildRuleCount);
+    }
+
     public static class Hit extends Cache {
       public Hit() {
         super("ActionGraphCacheHit");
@@ -107,6 +112,24 @@ public abstract class ActionGraphEvent extends AbstractBuckEvent
       }
     }
 
+    /**
+     * Posted when an action graph was built on top of the previous one, reusing the rules of every
+     * target whose transitive target subgraph did not change.
+     */
+    public static class IncrementalLoad extends Cache {
+      public final int reusedTargetNodeCount;
+      public final int newTargetNodeCount;
+      public final int reusedBuildRuleCount;
+
+      public IncrementalLoad(
+          int reusedTargetNodeCount, int newTargetNodeCount, int reusedBuildRuleCount) {
+        super("ActionGraphCacheIncrementalLoad");
+        this.reusedTargetNodeCount = reusedTargetNodeCount;
+        this.newTargetNodeCount = newTargetNodeCount;
+        this.reusedBuildRuleCount = reusedBuildRuleCount;
+      }
+    }
+
     @Override
     public String getEventName() {
       return eventName;
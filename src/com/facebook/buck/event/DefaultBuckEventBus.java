@@ -25,71 +25,94 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
-import com.google.common.eventbus.EventBus;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
-/** Thin wrapper around guava event bus. */
+/**
+ * Thin wrapper around guava event bus.
+ *
+ * <p>Every listener has its own {@link ListenerEventQueue}, so that listeners get events in the
+ * order in which they were posted but consume them in parallel with each other. Events posted with
+ * {@link #postWithoutConfiguring(BuckEvent)} skip the queues and are delivered on the posting
+ * thread, to one listener after the other, as they always were.
+ */
 public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus {
 
   private static final Logger LOG = Logger.get(BuckEventBus.class);
 
   public static final int DEFAULT_SHUTDOWN_TIMEOUT_MS = 15000;
 
+  /** Number of events that can wait for a listener before posting more of them blocks. */
+  public static final int DEFAULT_LISTENER_QUEUE_CAPACITY = 10000;
+
+  private static final int DISPATCH_THREADS =
+      Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors()));
+
   private static final Supplier<Long> DEFAULT_THREAD_ID_SUPPLIER =
       () -> Thread.currentThread().getId();
 
   private final Clock clock;
   private final ExecutorService executorService;
-  private final EventBus eventBus;
+  private final List<ListenerEventQueue> listenerQueues = new CopyOnWriteArrayList<>();
   private final Supplier<Long> threadIdSupplier;
   private final BuildId buildId;
   private final int shutdownTimeoutMillis;
-
-  // synchronization variables to ensure proper shutdown
-  private volatile int activeTasks = 0;
-  private final Object lock = new Object();
+  private final int listenerQueueCapacity;
+  private final boolean coalesceEventsForSlowListeners;
 
   public DefaultBuckEventBus(Clock clock, BuildId buildId) {
-    this(clock, true, buildId, DEFAULT_SHUTDOWN_TIMEOUT_MS);
+    this(clock, buildId, false);
+  }
+
+  /**
+   * @param coalesceEventsForSlowListeners whether a listener that fell behind only gets the latest
+   *     of the {@link CoalescableEvent}s of each class that are waiting for it
+   */
+  public DefaultBuckEventBus(Clock clock, BuildId buildId, boolean coalesceEventsForSlowListeners) {
+    this(
+        clock,
+        true,
+        buildId,
+        DEFAULT_SHUTDOWN_TIMEOUT_MS,
+        DEFAULT_LISTENER_QUEUE_CAPACITY,
+        coalesceEventsForSlowListeners);
   }
 
   @VisibleForTesting
   public DefaultBuckEventBus(
       Clock clock, boolean async, BuildId buildId, int shutdownTimeoutMillis) {
+    this(clock, async, buildId, shutdownTimeoutMillis, DEFAULT_LISTENER_QUEUE_CAPACITY, false);
+  }
+
+  @VisibleForTesting
+  DefaultBuckEventBus(
+      Clock clock,
+      boolean async,
+      BuildId buildId,
+      int shutdownTimeoutMillis,
+      int listenerQueueCapacity,
+      boolean coalesceEventsForSlowListeners) {
     this.clock = clock;
     this.executorService =
         async
-            ? MostExecutors.newSingleThreadExecutor(
-                new CommandThreadFactory(BuckEventBus.class.getSimpleName()))
+            ? MostExecutors.newMultiThreadExecutor(
+                new CommandThreadFactory(BuckEventBus.class.getSimpleName()), DISPATCH_THREADS)
             : MoreExecutors.newDirectExecutorService();
-    this.eventBus = new EventBus("buck-build-events");
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = buildId;
     this.shutdownTimeoutMillis = shutdownTimeoutMillis;
+    this.listenerQueueCapacity = listenerQueueCapacity;
+    this.coalesceEventsForSlowListeners = coalesceEventsForSlowListeners;
   }
 
   private void dispatch(final BuckEvent event) {
-    // keep track the number of active tasks so we can do proper shutdown
-    synchronized (lock) {
-      activeTasks++;
+    for (ListenerEventQueue queue : listenerQueues) {
+      queue.post(event);
     }
-
-    executorService.submit(
-        () -> {
-          try {
-            eventBus.post(event);
-          } finally {
-            // event bus should not throw but just in case wrap with try-finally
-            synchronized (lock) {
-              activeTasks--;
-              // notify about task completion; shutdown may wait for it
-              lock.notifyAll();
-            }
-          }
-        });
   }
 
   @Override
@@ -111,14 +134,38 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
   }
 
   @Override
-  public void register(Object object) {
-    eventBus.register(object);
+  public synchronized void register(Object object) {
+    // Like EventBus, ignore listeners that are already registered.
+    for (ListenerEventQueue queue : listenerQueues) {
+      if (queue.getListener() == object) {
+        return;
+      }
+    }
+    listenerQueues.add(
+        new ListenerEventQueue(
+            object,
+            executorService,
+            listenerQueueCapacity,
+            coalesceEventsForSlowListeners,
+            shutdownTimeoutMillis));
   }
 
+  /**
+   * Delivers an event that was configured elsewhere, usually by another event bus that forwards it
+   * here, synchronously: all the listeners have handled it, in the order in which they registered,
+   * by the time this returns.
+   */
   @Override
   public void postWithoutConfiguring(BuckEvent event) {
     Preconditions.checkState(event.isConfigured());
-    eventBus.post(event);
+    for (ListenerEventQueue queue : listenerQueues) {
+      queue.deliver(event);
+    }
+  }
+
+  @VisibleForTesting
+  List<ListenerEventQueue> getListenerQueues() {
+    return listenerQueues;
   }
 
   @VisibleForTesting
@@ -140,7 +187,7 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
 
   /**
    * {@link ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)} is called to wait
-   * for events which have been posted, but which have been queued by the {@link EventBus}, to be
+   * for events which have been posted, but which are still queued for their listeners, to be
    * delivered. This allows listeners to record or report as much information as possible. This aids
    * debugging when close is called during exception processing.
    */
@@ -152,22 +199,16 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
     // ideally it should be done inside executorService but it only provides shutdown() method
     // which immediately stops accepting new tasks, that's why we have some wrapper on top of it
     long timeoutTime = System.currentTimeMillis() + shutdownTimeoutMillis;
-    synchronized (lock) {
-      while (activeTasks > 0) {
-
-        long waitTime = timeoutTime - System.currentTimeMillis();
-        if (waitTime <= 0) {
-          break;
-        }
-
-        try {
-          lock.wait(waitTime);
-        } catch (InterruptedException e) {
-          Threads.interruptCurrentThread();
-          break;
+    try {
+      while (!allListenersIdle() && System.currentTimeMillis() < timeoutTime) {
+        for (ListenerEventQueue queue : listenerQueues) {
+          queue.awaitIdle(timeoutTime);
         }
       }
+    } catch (InterruptedException e) {
+      Threads.interruptCurrentThread();
     }
+    logDispatchStats();
 
     executorService.shutdown();
     try {
@@ -187,6 +228,20 @@ public class DefaultBuckEventBus implements com.facebook.buck.event.BuckEventBus
     }
   }
 
+  private boolean allListenersIdle() {
+    return listenerQueues.stream().allMatch(ListenerEventQueue::isIdle);
+  }
+
+  private void logDispatchStats() {
+    for (ListenerEventQueue queue : listenerQueues) {
+      if (queue.hasFallenBehind()) {
+        LOG.info("Listener fell behind: %s", queue);
+      } else {
+        LOG.debug("Listener: %s", queue);
+      }
+    }
+  }
+
   /**
    * Timestamp event. A timestamped event cannot subsequently being posted and is useful only to
    * pass its timestamp on to another posted event.
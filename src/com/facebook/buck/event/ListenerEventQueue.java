@@ -0,0 +1,272 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.event;
+
+import com.facebook.buck.util.Threads;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Events waiting to be delivered to one listener of a {@link DefaultBuckEventBus}.
+ *
+ * <p>Each listener gets its events in the order in which they were posted, one at a time, but
+ * different listeners consume their queues in parallel, so that a slow listener only holds back
+ * itself. Once a queue is full, posting an event to it blocks until the listener catches up, unless
+ * the event can be coalesced with one that is already waiting.
+ */
+class ListenerEventQueue {
+
+  /** Whether the current thread is delivering events, and must therefore never block on a queue. */
+  private static final ThreadLocal<Boolean> IS_DELIVERING = ThreadLocal.withInitial(() -> false);
+
+  /** Events delivered in a row before letting the listeners of other queues use the thread. */
+  private static final int MAX_EVENTS_PER_RUN = 1000;
+
+  private final Object listener;
+  private final EventBus eventBus;
+  private final ImmutableSet<Class<?>> subscribedTypes;
+  private final ConcurrentMap<Class<?>, Boolean> acceptedTypes = new ConcurrentHashMap<>();
+  private final Executor executor;
+  private final int capacity;
+  private final boolean coalesceWhenFull;
+  private final long maxStallMillis;
+
+  /**
+   * Events waiting to be delivered. A coalesced event is queued as its class, and delivered as the
+   * latest event of that class in {@link #coalescedEvents}.
+   */
+  private final ArrayDeque<Object> queue = new ArrayDeque<>();
+
+  private final Map<Class<?>, BuckEvent> coalescedEvents = new HashMap<>();
+  private boolean isRunning;
+  private int blockedPosters;
+  private long deliveredEvents;
+
+  private long queuedEvents;
+  private int maxQueueDepth;
+  private long numCoalescedEvents;
+  private long blockedNanos;
+
+  /**
+   * @param capacity number of events that can wait for the listener before posting blocks
+   * @param coalesceWhenFull whether to coalesce {@link CoalescableEvent}s when the queue is full
+   * @param maxStallMillis how long posting may block while the listener delivers no event at all
+   */
+  ListenerEventQueue(
+      Object listener,
+      Executor executor,
+      int capacity,
+      boolean coalesceWhenFull,
+      long maxStallMillis) {
+    this.listener = listener;
+    this.eventBus = new EventBus(listener.getClass().getName());
+    this.eventBus.register(listener);
+    this.subscribedTypes = getSubscribedTypes(listener);
+    this.executor = executor;
+    this.capacity = capacity;
+    this.coalesceWhenFull = coalesceWhenFull;
+    this.maxStallMillis = maxStallMillis;
+  }
+
+  Object getListener() {
+    return listener;
+  }
+
+  /** Queues {@code event} for delivery, if the listener subscribes to it. */
+  void post(BuckEvent event) {
+    if (!accepts(event.getClass())) {
+      return;
+    }
+    boolean schedule;
+    synchronized (this) {
+      Object item = event;
+      if (queue.size() >= capacity) {
+        if (coalesceWhenFull && event instanceof CoalescableEvent) {
+          Class<?> type = event.getClass();
+          if (coalescedEvents.put(type, event) != null) {
+            // The previous event of this class has not been delivered yet, and never will be.
+            numCoalescedEvents++;
+            return;
+          }
+          item = type;
+        } else if (!IS_DELIVERING.get()) {
+          waitForRoom();
+        }
+      }
+      schedule = enqueue(item);
+    }
+    if (schedule) {
+      executor.execute(this::deliverEvents);
+    }
+  }
+
+  /**
+   * Delivers {@code event} on the calling thread, ahead of any events still waiting in the queue,
+   * if the listener subscribes to it.
+   */
+  void deliver(BuckEvent event) {
+    if (!accepts(event.getClass())) {
+      return;
+    }
+    boolean wasDelivering = IS_DELIVERING.get();
+    IS_DELIVERING.set(true);
+    try {
+      eventBus.post(event);
+    } finally {
+      IS_DELIVERING.set(wasDelivering);
+    }
+  }
+
+  /** Waits until all the events posted so far have been delivered, or until the deadline. */
+  synchronized void awaitIdle(long deadlineMillis) throws InterruptedException {
+    while (isRunning || !queue.isEmpty()) {
+      long waitMillis = deadlineMillis - System.currentTimeMillis();
+      if (waitMillis <= 0) {
+        return;
+      }
+      wait(waitMillis);
+    }
+  }
+
+  synchronized boolean isIdle() {
+    return !isRunning && queue.isEmpty();
+  }
+
+  synchronized int getMaxQueueDepth() {
+    return maxQueueDepth;
+  }
+
+  synchronized long getCoalescedEvents() {
+    return numCoalescedEvents;
+  }
+
+  /** @return whether the listener ever fell behind by a whole queue of events. */
+  synchronized boolean hasFallenBehind() {
+    return maxQueueDepth >= capacity;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        "%s: %d events, max queue depth %d, %d coalesced, posters blocked for %dms",
+        listener.getClass().getName(),
+        queuedEvents,
+        maxQueueDepth,
+        numCoalescedEvents,
+        TimeUnit.NANOSECONDS.toMillis(blockedNanos));
+  }
+
+  /** @return whether the caller has to schedule the delivery of the queue. */
+  private boolean enqueue(Object item) {
+    queue.add(item);
+    queuedEvents++;
+    maxQueueDepth = Math.max(maxQueueDepth, queue.size());
+    if (isRunning) {
+      return false;
+    }
+    isRunning = true;
+    return true;
+  }
+
+  private void waitForRoom() {
+    long startNanos = System.nanoTime();
+    long lastProgressNanos = startNanos;
+    long lastDeliveredEvents = deliveredEvents;
+    blockedPosters++;
+    try {
+      while (queue.size() >= capacity) {
+        long nowNanos = System.nanoTime();
+        if (deliveredEvents != lastDeliveredEvents) {
+          lastDeliveredEvents = deliveredEvents;
+          lastProgressNanos = nowNanos;
+        }
+        // Don't let a listener that got stuck hang the whole build.
+        long stalledMillis = TimeUnit.NANOSECONDS.toMillis(nowNanos - lastProgressNanos);
+        if (stalledMillis >= maxStallMillis) {
+          break;
+        }
+        wait(maxStallMillis - stalledMillis);
+      }
+    } catch (InterruptedException e) {
+      Threads.interruptCurrentThread();
+    } finally {
+      blockedPosters--;
+      blockedNanos += System.nanoTime() - startNanos;
+    }
+  }
+
+  private void deliverEvents() {
+    boolean wasDelivering = IS_DELIVERING.get();
+    IS_DELIVERING.set(true);
+    try {
+      for (int i = 0; i < MAX_EVENTS_PER_RUN; i++) {
+        BuckEvent event;
+        synchronized (this) {
+          Object item = queue.poll();
+          if (item == null) {
+            isRunning = false;
+            notifyAll();
+            return;
+          }
+          event = item instanceof Class ? coalescedEvents.remove(item) : (BuckEvent) item;
+          deliveredEvents++;
+          if (blockedPosters > 0) {
+            notifyAll();
+          }
+        }
+        eventBus.post(event);
+      }
+    } finally {
+      IS_DELIVERING.set(wasDelivering);
+    }
+    executor.execute(this::deliverEvents);
+  }
+
+  private boolean accepts(Class<?> eventType) {
+    Boolean accepted = acceptedTypes.get(eventType);
+    if (accepted == null) {
+      accepted = subscribedTypes.stream().anyMatch(type -> type.isAssignableFrom(eventType));
+      acceptedTypes.put(eventType, accepted);
+    }
+    return accepted;
+  }
+
+  /** @return the event types of the {@link Subscribe} methods that {@link EventBus} would find. */
+  private static ImmutableSet<Class<?>> getSubscribedTypes(Object listener) {
+    ImmutableSet.Builder<Class<?>> types = ImmutableSet.builder();
+    for (Class<?> type : TypeToken.of(listener.getClass()).getTypes().rawTypes()) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (method.isAnnotationPresent(Subscribe.class)
+            && !method.isSynthetic()
+            && method.getParameterTypes().length == 1) {
+          types.add(TypeToken.of(method.getParameterTypes()[0]).wrap().getRawType());
+        }
+      }
+    }
+    return types.build();
+  }
+}
@@ -17,7 +17,8 @@ package com.facebook.buck.event;
 
 import com.facebook.buck.event.external.events.ProgressEventInterface;
 
-public abstract class ProgressEvent extends AbstractBuckEvent implements ProgressEventInterface {
+public abstract class ProgressEvent extends AbstractBuckEvent
+    implements ProgressEventInterface, CoalescableEvent {
 
   protected final double progressValue;
 
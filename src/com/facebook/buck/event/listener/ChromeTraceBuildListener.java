@@ -483,6 +483,19 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         miss);
   }
 
+  @Subscribe
+  public void actionGraphCacheIncrementalLoad(ActionGraphEvent.Cache.IncrementalLoad load) {
+    writeChromeTraceEvent(
+        "buck",
+        "action_graph_cache",
+        ChromeTraceEvent.Phase.IMMEDIATE,
+        ImmutableMap.of(
+            "reusedTargetNodes", String.valueOf(load.reusedTargetNodeCount),
+            "newTargetNodes", String.valueOf(load.newTargetNodeCount),
+            "reusedBuildRules", String.valueOf(load.reusedBuildRuleCount)),
+        load);
+  }
+
   @Subscribe
   public void installStarted(InstallEvent.Started started) {
     writeChromeTraceEvent(
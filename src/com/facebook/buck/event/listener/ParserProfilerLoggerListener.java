@@ -21,6 +21,7 @@ import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.json.ParseBuckProfilerReportEvent;
 import com.facebook.buck.log.InvocationInfo;
 import com.facebook.buck.model.BuildId;
+import com.facebook.buck.parser.ParserPoolStatsEvent;
 import com.google.common.eventbus.Subscribe;
 import java.io.IOException;
 import java.nio.file.Path;
@@ -43,6 +44,14 @@ public class ParserProfilerLoggerListener implements BuckEventListener {
     filesystem.writeContentsToPath(event.getReport(), tracePath);
   }
 
+  @Subscribe
+  public void parserPoolStatsReported(ParserPoolStatsEvent event) throws IOException {
+    Path statsPath =
+        info.getLogDirectoryPath().resolve("parser-pool" + event.getEventKey() + ".log");
+    filesystem.createParentDirs(statsPath);
+    filesystem.writeContentsToPath(event.getReport(), statsPath);
+  }
+
   @Override
   public void outputTrace(BuildId buildId) {}
 }
@@ -30,7 +30,10 @@ public abstract class AbstractBottomUpTraversal<T, E extends Throwable> {
 
   public final void traverse() throws E {
     Iterable<T> roots = graph.getNodesWithNoIncomingEdges();
-    GraphTraversable<T> graphTraversable = node -> graph.getOutgoingNodesFor(node).iterator();
+    GraphTraversable<T> graphTraversable =
+        graph instanceof CompactDirectedAcyclicGraph
+            ? (CompactDirectedAcyclicGraph<T>) graph
+            : node -> graph.getOutgoingNodesFor(node).iterator();
     try {
       for (T node : new AcyclicDepthFirstPostOrderTraversal<>(graphTraversable).traverse(roots)) {
         visit(node);
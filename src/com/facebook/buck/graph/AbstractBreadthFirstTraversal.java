@@ -16,6 +16,8 @@
 
 package com.facebook.buck.graph;
 
+import java.util.function.Consumer;
+
 /** Performs a breadth-first traversal of dependencies of a graph node. */
 public abstract class AbstractBreadthFirstTraversal<Node>
     extends AbstractBreadthFirstThrowingTraversal<Node, RuntimeException> {
@@ -48,4 +50,38 @@ public abstract class AbstractBreadthFirstTraversal<Node>
       Iterable<? extends Node> initialNodes, final Visitor<Node, RuntimeException> visitor) {
     new StaticBreadthFirstTraversal<>(initialNodes, visitor).start();
   }
+
+  /**
+   * Visits {@code initialNodes} and all of their transitive dependencies in {@code graph}, in the
+   * same order as a traversal whose {@link #visit(Object)} returns the outgoing nodes of each node.
+   * The queue and the set of explored nodes are kept as arrays of node ids.
+   *
+   * @param visitor Typically a lambda expression
+   */
+  public static <Node> void traverse(
+      CompactDirectedAcyclicGraph<Node> graph,
+      Iterable<? extends Node> initialNodes,
+      Consumer<? super Node> visitor) {
+    boolean[] queued = new boolean[graph.getNodeCount()];
+    int[] queue = new int[graph.getNodeCount()];
+    int tail = 0;
+    for (Node initialNode : initialNodes) {
+      int id = graph.getExistingNodeId(initialNode);
+      if (!queued[id]) {
+        queued[id] = true;
+        queue[tail++] = id;
+      }
+    }
+    for (int head = 0; head < tail; head++) {
+      int id = queue[head];
+      visitor.accept(graph.getNode(id));
+      for (int i = 0; i < graph.getOutgoingEdgeCount(id); i++) {
+        int dep = graph.getOutgoingNodeId(id, i);
+        if (!queued[dep]) {
+          queued[dep] = true;
+          queue[tail++] = dep;
+        }
+      }
+    }
+  }
 }
@@ -36,6 +36,10 @@ import java.util.Set;
  */
 public class AcyclicDepthFirstPostOrderTraversal<T> {
 
+  private static final byte UNEXPLORED = 0;
+  private static final byte IN_PROGRESS = 1;
+  private static final byte EXPLORED = 2;
+
   private final GraphTraversable<T> traversable;
 
   public AcyclicDepthFirstPostOrderTraversal(GraphTraversable<T> traversable) {
@@ -51,6 +55,10 @@ public class AcyclicDepthFirstPostOrderTraversal<T> {
    */
   @SuppressWarnings("PMD.PrematureDeclaration")
   public Iterable<T> traverse(Iterable<? extends T> initialNodes) throws CycleException {
+    if (traversable instanceof CompactDirectedAcyclicGraph) {
+      return traverse((CompactDirectedAcyclicGraph<T>) traversable, initialNodes);
+    }
+
     // This corresponds to the current chain of nodes being explored. Enforcing this invariant makes
     // this data structure useful for debugging.
     Deque<Explorable> toExplore = new LinkedList<>();
@@ -104,6 +112,55 @@ public class AcyclicDepthFirstPostOrderTraversal<T> {
     return Iterables.unmodifiableIterable(explored);
   }
 
+  /**
+   * Same as {@link #traverse(Iterable)}, but keeping the current chain of nodes and the state of
+   * every node in arrays indexed by node id. The graph is known to be acyclic, so there is no need
+   * to look for cycles.
+   */
+  private static <T> Iterable<T> traverse(
+      CompactDirectedAcyclicGraph<T> graph, Iterable<? extends T> initialNodes) {
+    byte[] states = new byte[graph.getNodeCount()];
+    // The current chain of nodes being explored, and the next child to look at for each of them.
+    int[] chain = new int[graph.getNodeCount()];
+    int[] nextChildIndexes = new int[graph.getNodeCount()];
+    ImmutableList.Builder<T> explored = ImmutableList.builder();
+
+    for (T initialNode : initialNodes) {
+      int initialId = graph.getExistingNodeId(initialNode);
+      if (states[initialId] == EXPLORED) {
+        continue;
+      }
+      int depth = 0;
+      chain[0] = initialId;
+      nextChildIndexes[0] = 0;
+      states[initialId] = IN_PROGRESS;
+
+      while (depth >= 0) {
+        int id = chain[depth];
+        int childCount = graph.getOutgoingEdgeCount(id);
+        boolean foundChildToExplore = false;
+        while (nextChildIndexes[depth] < childCount) {
+          int child = graph.getOutgoingNodeId(id, nextChildIndexes[depth]++);
+          if (states[child] == UNEXPLORED) {
+            depth++;
+            chain[depth] = child;
+            nextChildIndexes[depth] = 0;
+            states[child] = IN_PROGRESS;
+            foundChildToExplore = true;
+            break;
+          }
+        }
+        if (!foundChildToExplore) {
+          states[id] = EXPLORED;
+          explored.add(graph.getNode(id));
+          depth--;
+        }
+      }
+    }
+
+    return explored.build();
+  }
+
   /**
    * A node that needs to be explored, paired with a (possibly paused) iteration of its children.
    */
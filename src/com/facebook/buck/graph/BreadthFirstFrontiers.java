@@ -0,0 +1,158 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
+
+/**
+ * Level-by-level breadth first search over the ids of a {@link CompactDirectedAcyclicGraph}.
+ *
+ * <p>Frontiers are {@code int[]}s of ids and visited sets are {@link BitSet}s. Large frontiers are
+ * expanded in parallel chunks whose results are concatenated in chunk order, so the next frontier
+ * is always the same as a sequential expansion would produce: the neighbors of the first node of
+ * the frontier, in edge order, then those of the second node, and so on, each id appearing once.
+ */
+public final class BreadthFirstFrontiers {
+
+  /** Which edges of a node lead to its neighbors. */
+  public enum Direction {
+    OUTGOING,
+    INCOMING,
+  }
+
+  /** Frontiers smaller than this are not worth handing to other threads. */
+  private static final int PARALLEL_CHUNK_SIZE = 2048;
+
+  private static final int SMALL_FRONTIER_SIZE = 64;
+
+  private BreadthFirstFrontiers() {}
+
+  /**
+   * Returns the neighbors of the nodes in {@code frontier} that satisfy {@code include}, in
+   * frontier and edge order and without duplicates.
+   *
+   * <p>{@code include} may be called concurrently and must not depend on the order of the calls.
+   */
+  public static int[] next(
+      CompactDirectedAcyclicGraph<?> graph,
+      int[] frontier,
+      Direction direction,
+      IntPredicate include) {
+    if (frontier.length < 2 * PARALLEL_CHUNK_SIZE) {
+      return deduplicate(graph, neighbors(graph, frontier, 0, frontier.length, direction, include));
+    }
+    int chunks = (frontier.length + PARALLEL_CHUNK_SIZE - 1) / PARALLEL_CHUNK_SIZE;
+    int[][] chunkNeighbors =
+        IntStream.range(0, chunks)
+            .parallel()
+            .mapToObj(
+                chunk ->
+                    neighbors(
+                        graph,
+                        frontier,
+                        chunk * PARALLEL_CHUNK_SIZE,
+                        Math.min(frontier.length, (chunk + 1) * PARALLEL_CHUNK_SIZE),
+                        direction,
+                        include))
+            .toArray(int[][]::new);
+    int total = 0;
+    for (int[] ids : chunkNeighbors) {
+      total += ids.length;
+    }
+    int[] all = new int[total];
+    int position = 0;
+    for (int[] ids : chunkNeighbors) {
+      System.arraycopy(ids, 0, all, position, ids.length);
+      position += ids.length;
+    }
+    return deduplicate(graph, all);
+  }
+
+  /** Returns the ids of the nodes reachable from {@code roots}, including the roots themselves. */
+  public static BitSet reachable(
+      CompactDirectedAcyclicGraph<?> graph, int[] roots, Direction direction) {
+    BitSet visited = new BitSet(graph.getNodeCount());
+    int[] frontier = roots;
+    while (frontier.length > 0) {
+      for (int id : frontier) {
+        visited.set(id);
+      }
+      frontier = next(graph, frontier, direction, id -> !visited.get(id));
+    }
+    return visited;
+  }
+
+  private static int[] neighbors(
+      CompactDirectedAcyclicGraph<?> graph,
+      int[] frontier,
+      int from,
+      int to,
+      Direction direction,
+      IntPredicate include) {
+    int[] result = new int[16];
+    int size = 0;
+    for (int i = from; i < to; i++) {
+      int id = frontier[i];
+      int edgeCount =
+          direction == Direction.OUTGOING
+              ? graph.getOutgoingEdgeCount(id)
+              : graph.getIncomingEdgeCount(id);
+      for (int edge = 0; edge < edgeCount; edge++) {
+        int neighbor =
+            direction == Direction.OUTGOING
+                ? graph.getOutgoingNodeId(id, edge)
+                : graph.getIncomingNodeId(id, edge);
+        if (include.test(neighbor)) {
+          if (size == result.length) {
+            result = Arrays.copyOf(result, size * 2);
+          }
+          result[size++] = neighbor;
+        }
+      }
+    }
+    return Arrays.copyOf(result, size);
+  }
+
+  private static int[] deduplicate(CompactDirectedAcyclicGraph<?> graph, int[] ids) {
+    int size = 0;
+    if (ids.length <= SMALL_FRONTIER_SIZE) {
+      // Cheaper than allocating a bitset as wide as the graph, for the many narrow levels of a
+      // deep graph.
+      outer:
+      for (int id : ids) {
+        for (int i = 0; i < size; i++) {
+          if (ids[i] == id) {
+            continue outer;
+          }
+        }
+        ids[size++] = id;
+      }
+    } else {
+      BitSet seen = new BitSet(graph.getNodeCount());
+      for (int id : ids) {
+        if (!seen.get(id)) {
+          seen.set(id);
+          ids[size++] = id;
+        }
+      }
+    }
+    return size == ids.length ? ids : Arrays.copyOf(ids, size);
+  }
+}
@@ -0,0 +1,279 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable DAG stored in compressed sparse row form.
+ *
+ * <p>Nodes are interned to dense ids {@code 0..getNodeCount() - 1}, and the edges of all nodes are
+ * kept in two flat {@code int[]}s, one per direction, sliced up by per-node offsets. Compared to
+ * {@link DirectedAcyclicGraph}, which keeps two multimaps of boxed entries, this costs a handful of
+ * ints per node and one int per edge in each direction, and lets traversals such as {@link
+ * TopologicalSort} and {@link AcyclicDepthFirstPostOrderTraversal} work on arrays of ids instead of
+ * hash sets of nodes.
+ *
+ * <p>The outgoing edges of a node keep the order in which the source graph returned them.
+ *
+ * @param <T> the type of node in the graph
+ */
+public final class CompactDirectedAcyclicGraph<T>
+    implements TraversableGraph<T>, GraphTraversable<T> {
+
+  private static final int NO_ID = -1;
+
+  private final T[] nodes;
+  /** Open-addressing table from node hash to {@code id + 1}, zero marking an empty slot. */
+  private final int[] idTable;
+
+  private final int[] outgoingOffsets;
+  private final int[] outgoingIds;
+  private final int[] incomingOffsets;
+  private final int[] incomingIds;
+
+  private final int[] idsWithNoIncomingEdges;
+  private final int[] idsWithNoOutgoingEdges;
+
+  @SuppressWarnings("unchecked")
+  private CompactDirectedAcyclicGraph(Iterable<T> graphNodes, GraphTraversable<T> edges) {
+    int nodeCount = Iterables.size(graphNodes);
+    this.nodes = (T[]) new Object[nodeCount];
+    this.idTable = new int[Math.max(2, Integer.highestOneBit(Math.max(1, nodeCount)) << 2)];
+    int id = 0;
+    for (T node : graphNodes) {
+      nodes[id] = Preconditions.checkNotNull(node);
+      int slot = findSlot(node);
+      Preconditions.checkArgument(idTable[slot] == 0, "Duplicate node %s.", node);
+      idTable[slot] = ++id;
+    }
+
+    int edgeCount = 0;
+    this.outgoingOffsets = new int[nodeCount + 1];
+    int[] incomingCounts = new int[nodeCount];
+    for (id = 0; id < nodeCount; id++) {
+      for (Iterator<T> sinks = edges.findChildren(nodes[id]); sinks.hasNext(); ) {
+        incomingCounts[getExistingNodeId(sinks.next())]++;
+        edgeCount++;
+      }
+      outgoingOffsets[id + 1] = edgeCount;
+    }
+
+    this.outgoingIds = new int[edgeCount];
+    this.incomingOffsets = new int[nodeCount + 1];
+    for (id = 0; id < nodeCount; id++) {
+      incomingOffsets[id + 1] = incomingOffsets[id] + incomingCounts[id];
+    }
+    this.incomingIds = new int[edgeCount];
+    // Reuse the counts as the next free position of each node's incoming slice.
+    System.arraycopy(incomingOffsets, 0, incomingCounts, 0, nodeCount);
+    int edge = 0;
+    for (id = 0; id < nodeCount; id++) {
+      for (Iterator<T> sinks = edges.findChildren(nodes[id]); sinks.hasNext(); ) {
+        int sinkId = getExistingNodeId(sinks.next());
+        outgoingIds[edge++] = sinkId;
+        incomingIds[incomingCounts[sinkId]++] = id;
+      }
+    }
+
+    this.idsWithNoIncomingEdges = filterIds(incomingOffsets);
+    this.idsWithNoOutgoingEdges = filterIds(outgoingOffsets);
+    Preconditions.checkState(isAcyclic(), "Graph must by acyclic");
+  }
+
+  /** Creates a compact copy of {@code graph}, which must be acyclic. */
+  public static <T> CompactDirectedAcyclicGraph<T> copyOf(TraversableGraph<T> graph) {
+    return new CompactDirectedAcyclicGraph<>(
+        graph.getNodes(), node -> graph.getOutgoingNodesFor(node).iterator());
+  }
+
+  /**
+   * Creates a compact graph of {@code nodes} and the edges that {@code edges} finds between them,
+   * which must be acyclic. Ids are assigned in the order of {@code nodes}, and the outgoing edges
+   * of each node keep the order of {@link GraphTraversable#findChildren}.
+   */
+  public static <T> CompactDirectedAcyclicGraph<T> copyOf(
+      Iterable<T> nodes, GraphTraversable<T> edges) {
+    return new CompactDirectedAcyclicGraph<>(nodes, edges);
+  }
+
+  public int getNodeCount() {
+    return nodes.length;
+  }
+
+  public int getEdgeCount() {
+    return outgoingIds.length;
+  }
+
+  /** @return the dense id of {@code node}, or -1 if it is not part of this graph. */
+  public int getNodeId(T node) {
+    int slotValue = idTable[findSlot(node)];
+    return slotValue == 0 ? NO_ID : slotValue - 1;
+  }
+
+  public T getNode(int id) {
+    return nodes[id];
+  }
+
+  public int getOutgoingEdgeCount(int id) {
+    return outgoingOffsets[id + 1] - outgoingOffsets[id];
+  }
+
+  /** @return the id of the {@code index}-th node {@code id} has an outgoing edge to. */
+  public int getOutgoingNodeId(int id, int index) {
+    return outgoingIds[outgoingOffsets[id] + index];
+  }
+
+  public int getIncomingEdgeCount(int id) {
+    return incomingOffsets[id + 1] - incomingOffsets[id];
+  }
+
+  /** @return the id of the {@code index}-th node with an outgoing edge to {@code id}. */
+  public int getIncomingNodeId(int id, int index) {
+    return incomingIds[incomingOffsets[id] + index];
+  }
+
+  @Override
+  public Iterable<T> getNodesWithNoIncomingEdges() {
+    return new NodeSlice(idsWithNoIncomingEdges, 0, idsWithNoIncomingEdges.length);
+  }
+
+  @Override
+  public Iterable<T> getNodesWithNoOutgoingEdges() {
+    return new NodeSlice(idsWithNoOutgoingEdges, 0, idsWithNoOutgoingEdges.length);
+  }
+
+  @Override
+  public Iterable<T> getIncomingNodesFor(T sink) {
+    int id = getExistingNodeId(sink);
+    return new NodeSlice(incomingIds, incomingOffsets[id], incomingOffsets[id + 1]);
+  }
+
+  @Override
+  public Iterable<T> getOutgoingNodesFor(T source) {
+    int id = getExistingNodeId(source);
+    return new NodeSlice(outgoingIds, outgoingOffsets[id], outgoingOffsets[id + 1]);
+  }
+
+  @Override
+  public List<T> getNodes() {
+    return Collections.unmodifiableList(Arrays.asList(nodes));
+  }
+
+  @Override
+  public Iterator<T> findChildren(T node) {
+    return getOutgoingNodesFor(node).iterator();
+  }
+
+  int getExistingNodeId(T node) {
+    int id = getNodeId(node);
+    Preconditions.checkArgument(id != NO_ID, "%s is not a node of this graph.", node);
+    return id;
+  }
+
+  private int findSlot(T node) {
+    int mask = idTable.length - 1;
+    int slot = smear(node.hashCode()) & mask;
+    while (idTable[slot] != 0 && !nodes[idTable[slot] - 1].equals(node)) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private static int smear(int hashCode) {
+    // Same spreading as Guava's hash tables, so clustered hash codes do not collide in the table.
+    return 0x1b873593 * Integer.rotateLeft(hashCode * 0xcc9e2d51, 15);
+  }
+
+  private int[] filterIds(int[] offsets) {
+    int count = 0;
+    for (int id = 0; id < nodes.length; id++) {
+      if (offsets[id] == offsets[id + 1]) {
+        count++;
+      }
+    }
+    int[] ids = new int[count];
+    count = 0;
+    for (int id = 0; id < nodes.length; id++) {
+      if (offsets[id] == offsets[id + 1]) {
+        ids[count++] = id;
+      }
+    }
+    return ids;
+  }
+
+  private boolean isAcyclic() {
+    // Kahn's algorithm: every node gets removed iff there is no cycle.
+    int[] remainingOutgoing = new int[nodes.length];
+    int[] queue = new int[nodes.length];
+    int tail = 0;
+    for (int id = 0; id < nodes.length; id++) {
+      remainingOutgoing[id] = getOutgoingEdgeCount(id);
+      if (remainingOutgoing[id] == 0) {
+        queue[tail++] = id;
+      }
+    }
+    for (int head = 0; head < tail; head++) {
+      int id = queue[head];
+      for (int edge = incomingOffsets[id]; edge < incomingOffsets[id + 1]; edge++) {
+        if (--remainingOutgoing[incomingIds[edge]] == 0) {
+          queue[tail++] = incomingIds[edge];
+        }
+      }
+    }
+    return tail == nodes.length;
+  }
+
+  /** A view of the nodes whose ids are in {@code ids[from..to)}. */
+  private class NodeSlice implements Iterable<T> {
+    private final int[] ids;
+    private final int from;
+    private final int to;
+
+    private NodeSlice(int[] ids, int from, int to) {
+      this.ids = ids;
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public Iterator<T> iterator() {
+      return new Iterator<T>() {
+        private int next = from;
+
+        @Override
+        public boolean hasNext() {
+          return next < to;
+        }
+
+        @Override
+        public T next() {
+          if (next >= to) {
+            throw new NoSuchElementException();
+          }
+          return nodes[ids[next++]];
+        }
+      };
+    }
+  }
+}
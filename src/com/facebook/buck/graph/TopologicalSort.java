@@ -20,6 +20,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Queues;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -33,6 +34,9 @@ public class TopologicalSort {
   private TopologicalSort() {}
 
   public static <T extends Comparable<?>> ImmutableList<T> sort(TraversableGraph<T> graph) {
+    if (graph instanceof CompactDirectedAcyclicGraph) {
+      return sort((CompactDirectedAcyclicGraph<T>) graph);
+    }
 
     // AtomicInteger is used to decrement the integer value in-place.
     Map<T, AtomicInteger> effectiveOutDegreesOfExplorableNodes = new HashMap<>();
@@ -77,4 +81,45 @@ public class TopologicalSort {
 
     return toReturn.build();
   }
+
+  /** Same as {@link #sort(TraversableGraph)}, but tracking out degrees in arrays of node ids. */
+  @SuppressWarnings("unchecked")
+  private static <T extends Comparable<?>> ImmutableList<T> sort(
+      CompactDirectedAcyclicGraph<T> graph) {
+    int nodeCount = graph.getNodeCount();
+    int[] effectiveOutDegrees = new int[nodeCount];
+    // Nodes are queued level after level; each level is sorted before being returned.
+    int[] queue = new int[nodeCount];
+    int tail = 0;
+    for (int id = 0; id < nodeCount; id++) {
+      effectiveOutDegrees[id] = graph.getOutgoingEdgeCount(id);
+      if (effectiveOutDegrees[id] == 0) {
+        queue[tail++] = id;
+      }
+    }
+
+    Object[] level = new Object[nodeCount];
+    ImmutableList.Builder<T> toReturn = ImmutableList.builder();
+    int head = 0;
+    while (head < tail) {
+      int levelEnd = tail;
+      int levelSize = 0;
+      for (; head < levelEnd; head++) {
+        int id = queue[head];
+        level[levelSize++] = graph.getNode(id);
+        for (int i = 0; i < graph.getIncomingEdgeCount(id); i++) {
+          int exploreCandidate = graph.getIncomingNodeId(id, i);
+          if (--effectiveOutDegrees[exploreCandidate] == 0) {
+            queue[tail++] = exploreCandidate;
+          }
+        }
+      }
+      Arrays.sort(level, 0, levelSize);
+      for (int i = 0; i < levelSize; i++) {
+        toReturn.add((T) level[i]);
+      }
+    }
+
+    return toReturn.build();
+  }
 }
@@ -910,7 +910,11 @@ public class ProjectFilesystem {
    * with the contents and structure that matches that of the specified paths.
    */
   public void createZip(Collection<Path> pathsToIncludeInZip, Path out) throws IOException {
-    try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStream(out)) {
+    try (CustomZipOutputStream zip =
+        ZipOutputStreams.newOutputStream(
+            new BufferedOutputStream(Files.newOutputStream(out)),
+            ZipOutputStreams.HandleDuplicates.THROW_EXCEPTION,
+            ZipOutputStreams.DEFAULT_PARALLELISM)) {
       for (Path path : pathsToIncludeInZip) {
         boolean isDirectory = isDirectory(path);
         CustomZipEntry entry = new CustomZipEntry(path, isDirectory);
@@ -64,6 +64,7 @@ public class ReactNativeBundleWorkerStep extends WorkerShellStep {
                         .build(),
                     ImmutableMap.of(),
                     1,
+                    1,
                     Optional.empty()))),
         Optional.empty(),
         Optional.empty(),
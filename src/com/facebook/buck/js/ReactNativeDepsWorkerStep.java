@@ -51,6 +51,7 @@ public class ReactNativeDepsWorkerStep extends WorkerShellStep {
                         .build(),
                     ImmutableMap.of(),
                     1,
+                    1,
                     Optional.empty()))),
         Optional.empty(),
         Optional.empty(),
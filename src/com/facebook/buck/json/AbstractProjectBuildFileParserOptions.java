@@ -80,6 +80,12 @@ abstract class AbstractProjectBuildFileParserOptions {
     return false;
   }
 
+  /** Whether to talk to buck.py in BSER rather than in newline-delimited JSON. */
+  @Value.Default
+  public boolean getUseBserProtocol() {
+    return false;
+  }
+
   abstract Optional<Long> getWatchmanQueryTimeoutMs();
 
   abstract List<String> getBuildFileImportWhitelist();
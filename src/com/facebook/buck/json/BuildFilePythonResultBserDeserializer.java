@@ -0,0 +1,202 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static com.facebook.buck.bser.BserConstants.BSER_ARRAY;
+import static com.facebook.buck.bser.BserConstants.BSER_FALSE;
+import static com.facebook.buck.bser.BserConstants.BSER_INT16;
+import static com.facebook.buck.bser.BserConstants.BSER_INT32;
+import static com.facebook.buck.bser.BserConstants.BSER_INT64;
+import static com.facebook.buck.bser.BserConstants.BSER_INT8;
+import static com.facebook.buck.bser.BserConstants.BSER_NULL;
+import static com.facebook.buck.bser.BserConstants.BSER_OBJECT;
+import static com.facebook.buck.bser.BserConstants.BSER_REAL;
+import static com.facebook.buck.bser.BserConstants.BSER_STRING;
+import static com.facebook.buck.bser.BserConstants.BSER_TRUE;
+
+import com.facebook.buck.bser.BserDeserializer;
+import com.facebook.buck.util.ImmutableMapWithNullValues;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nullable;
+
+/**
+ * BSER deserializer specialized to parse the output of {@code buck.py --use_bser} into {@link
+ * BuildFilePythonResult}.
+ *
+ * <p>Produces the same values as {@link BuildFilePythonResultDeserializer} does for the JSON
+ * output: integers as {@link Long}s, lists as {@link ImmutableList}s and maps as {@link
+ * ImmutableMapWithNullValues} with sorted keys. Strings are interned, since most rules of a build
+ * file share their attribute names and many of their values.
+ */
+final class BuildFilePythonResultBserDeserializer {
+
+  private final CharsetDecoder utf8Decoder =
+      StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT);
+
+  /** Reads the next result from {@code inputStream}, which must be positioned at a BSER header. */
+  BuildFilePythonResult deserialize(InputStream inputStream) throws IOException {
+    ByteBuffer buffer = BserDeserializer.readBserBuffer(inputStream);
+    try {
+      return deserializeResult(buffer);
+    } catch (BufferUnderflowException e) {
+      throw new BserDeserializer.BserEofException("Prematurely reached end of BSER buffer", e);
+    }
+  }
+
+  private BuildFilePythonResult deserializeResult(ByteBuffer buffer) throws IOException {
+    expectType(buffer, BSER_OBJECT);
+    int numFields = deserializeLength(buffer);
+    ImmutableList<Map<String, Object>> values = ImmutableList.of();
+    ImmutableList<Map<String, Object>> diagnostics = ImmutableList.of();
+    Optional<String> profile = Optional.empty();
+    for (int i = 0; i < numFields; i++) {
+      String fieldName = deserializeKey(buffer);
+      switch (fieldName) {
+        case "values":
+          values = deserializeObjectList(buffer);
+          break;
+        case "diagnostics":
+          diagnostics = deserializeObjectList(buffer);
+          break;
+        case "profile":
+          expectType(buffer, BSER_STRING);
+          profile = Optional.of(deserializeString(buffer));
+          break;
+        default:
+          throw new IOException("Unexpected field name: " + fieldName);
+      }
+    }
+    return BuildFilePythonResult.of(values, diagnostics, profile);
+  }
+
+  private ImmutableList<Map<String, Object>> deserializeObjectList(ByteBuffer buffer)
+      throws IOException {
+    expectType(buffer, BSER_ARRAY);
+    int numItems = deserializeLength(buffer);
+    ImmutableList.Builder<Map<String, Object>> result = ImmutableList.builder();
+    for (int i = 0; i < numItems; i++) {
+      expectType(buffer, BSER_OBJECT);
+      result.add(deserializeObject(buffer));
+    }
+    return result.build();
+  }
+
+  private Map<String, Object> deserializeObject(ByteBuffer buffer) throws IOException {
+    int numItems = deserializeLength(buffer);
+    // buck.py emits dicts in no particular order, while its JSON output has sorted keys.
+    ImmutableMapWithNullValues.Builder<String, Object> builder =
+        ImmutableMapWithNullValues.Builder.sorted();
+    for (int i = 0; i < numItems; i++) {
+      String key = deserializeKey(buffer);
+      builder.put(key, deserializeRecursive(buffer, buffer.get()));
+    }
+    return builder.build();
+  }
+
+  private List<Object> deserializeList(ByteBuffer buffer) throws IOException {
+    int numItems = deserializeLength(buffer);
+    ImmutableList.Builder<Object> builder = ImmutableList.builder();
+    for (int i = 0; i < numItems; i++) {
+      builder.add(deserializeRecursive(buffer, buffer.get()));
+    }
+    return builder.build();
+  }
+
+  @Nullable
+  private Object deserializeRecursive(ByteBuffer buffer, byte type) throws IOException {
+    switch (type) {
+      case BSER_OBJECT:
+        return deserializeObject(buffer);
+      case BSER_ARRAY:
+        return deserializeList(buffer);
+      case BSER_TRUE:
+        return true;
+      case BSER_FALSE:
+        return false;
+      case BSER_NULL:
+        return null;
+      case BSER_REAL:
+        return buffer.getDouble();
+      case BSER_INT8:
+      case BSER_INT16:
+      case BSER_INT32:
+      case BSER_INT64:
+        return deserializeNumber(buffer, type);
+      case BSER_STRING:
+        return deserializeString(buffer);
+      default:
+        throw new IOException(String.format("Unexpected BSER value type %d", type));
+    }
+  }
+
+  private String deserializeKey(ByteBuffer buffer) throws IOException {
+    expectType(buffer, BSER_STRING);
+    return deserializeString(buffer);
+  }
+
+  private String deserializeString(ByteBuffer buffer) throws IOException {
+    int length = deserializeLength(buffer);
+    int limit = buffer.limit();
+    buffer.limit(buffer.position() + length);
+    try {
+      return utf8Decoder.decode(buffer).toString().intern();
+    } finally {
+      buffer.limit(limit);
+    }
+  }
+
+  private static int deserializeLength(ByteBuffer buffer) throws IOException {
+    long length = deserializeNumber(buffer, buffer.get());
+    if (length < 0 || length > Integer.MAX_VALUE) {
+      throw new IOException(String.format("BSER length out of range: %d", length));
+    }
+    return (int) length;
+  }
+
+  private static long deserializeNumber(ByteBuffer buffer, byte type) throws IOException {
+    switch (type) {
+      case BSER_INT8:
+        return buffer.get();
+      case BSER_INT16:
+        return buffer.getShort();
+      case BSER_INT32:
+        return buffer.getInt();
+      case BSER_INT64:
+        return buffer.getLong();
+      default:
+        throw new IOException(String.format("Invalid BSER number encoding %d", type));
+    }
+  }
+
+  private static void expectType(ByteBuffer buffer, byte expectedType) throws IOException {
+    byte type = buffer.get();
+    if (type != expectedType) {
+      throw new IOException(
+          String.format("Unexpected BSER value type %d, expected %d", type, expectedType));
+    }
+  }
+}
@@ -16,6 +16,7 @@
 
 package com.facebook.buck.json;
 
+import com.facebook.buck.bser.BserSerializer;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.ConsoleEvent;
 import com.facebook.buck.event.PerfEventId;
@@ -83,6 +84,8 @@ public class ProjectBuildFileParser implements AutoCloseable {
   @Nullable private CountingInputStream buckPyProcessInput;
   @Nullable private JsonGenerator buckPyProcessJsonGenerator;
   @Nullable private JsonParser buckPyProcessJsonParser;
+  @Nullable private BserSerializer buckPyProcessBserSerializer;
+  @Nullable private BuildFilePythonResultBserDeserializer buckPyProcessBserDeserializer;
 
   private final ProjectBuildFileParserOptions options;
   private final TypeCoercerFactory typeCoercerFactory;
@@ -217,7 +220,13 @@ public class ProjectBuildFileParser implements AutoCloseable {
       buckPyProcess = processExecutor.launchProcess(params);
       LOG.debug("Started process %s successfully", buckPyProcess);
       buckPyProcessInput = new CountingInputStream(buckPyProcess.getInputStream());
-      buckPyProcessJsonGenerator = ObjectMappers.createGenerator(buckPyProcess.getOutputStream());
+      if (options.getUseBserProtocol()) {
+        buckPyProcessBserSerializer = new BserSerializer();
+        buckPyProcessBserDeserializer = new BuildFilePythonResultBserDeserializer();
+      } else {
+        buckPyProcessJsonGenerator =
+            ObjectMappers.createGenerator(buckPyProcess.getOutputStream());
+      }
       // We have to wait to create the JsonParser until after we write our
       // first request, because Jackson "helpfully" synchronously reads
       // from the InputStream trying to detect whether the encoding is
@@ -246,7 +255,7 @@ public class ProjectBuildFileParser implements AutoCloseable {
   }
 
   private ImmutableList<String> buildArgs() throws IOException {
-    // Invoking buck.py and read JSON-formatted build rules from its stdout.
+    // Invoking buck.py and read JSON or BSER-formatted build rules from its stdout.
     ImmutableList.Builder<String> argBuilder = ImmutableList.builder();
 
     argBuilder.add(options.getPythonInterpreter());
@@ -308,6 +317,10 @@ public class ProjectBuildFileParser implements AutoCloseable {
 
     argBuilder.add("--build_file_name", options.getBuildFileName());
 
+    if (options.getUseBserProtocol()) {
+      argBuilder.add("--use_bser");
+    }
+
     // Tell the parser not to print exceptions to stderr.
     argBuilder.add("--quiet");
 
@@ -335,8 +348,8 @@ public class ProjectBuildFileParser implements AutoCloseable {
       throws BuildFileParseException, InterruptedException {
     ImmutableList<Map<String, Object>> result = getAllRulesAndMetaRules(buildFile, processedBytes);
 
-    // Strip out the __includes, __configs, and __env meta rules, which are the last rules.
-    return Collections.unmodifiableList(result.subList(0, result.size() - 3));
+    // Strip out the __includes, __configs, __env and __globs meta rules, which are the last rules.
+    return Collections.unmodifiableList(result.subList(0, result.size() - 4));
   }
 
   /**
@@ -385,7 +398,7 @@ public class ProjectBuildFileParser implements AutoCloseable {
         }
       }
       BuildFilePythonResult resultObject =
-          performJsonRequest(
+          performRequest(
               ImmutableMap.of(
                   "buildFile", buildFile.toString(),
                   "watchRoot", watchRoot,
@@ -410,6 +423,38 @@ public class ProjectBuildFileParser implements AutoCloseable {
     }
   }
 
+  private BuildFilePythonResult performRequest(ImmutableMap<String, String> request)
+      throws IOException {
+    if (buckPyProcessBserSerializer != null) {
+      return performBserRequest(request);
+    }
+    return performJsonRequest(request);
+  }
+
+  private BuildFilePythonResult performBserRequest(ImmutableMap<String, String> request)
+      throws IOException {
+    Preconditions.checkNotNull(buckPyProcess);
+    Preconditions.checkNotNull(buckPyProcessInput);
+    Preconditions.checkNotNull(buckPyProcessBserSerializer);
+    Preconditions.checkNotNull(buckPyProcessBserDeserializer);
+    buckPyProcessBserSerializer.serializeToStream(request, buckPyProcess.getOutputStream());
+    try {
+      buckPyProcess.getOutputStream().flush();
+    } catch (IOException e) {
+      // https://issues.apache.org/jira/browse/EXEC-101 -- Java 8 throws
+      // IOException if the child process exited before writing/flushing
+      LOG.debug(e, "Swallowing exception on flush");
+    }
+
+    LOG.verbose("Parsing output of process %s...", buckPyProcess);
+    try {
+      return buckPyProcessBserDeserializer.deserialize(buckPyProcessInput);
+    } catch (IOException e) {
+      LOG.warn(e, "Parser exited while decoding BSER data");
+      throw e;
+    }
+  }
+
   private BuildFilePythonResult performJsonRequest(ImmutableMap<String, String> request)
       throws IOException {
     Preconditions.checkNotNull(request);
@@ -652,7 +697,7 @@ public class ProjectBuildFileParser implements AutoCloseable {
 
   public void reportProfile() throws IOException {
     BuildFilePythonResult resultObject =
-        performJsonRequest(ImmutableMap.of("command", "report_profile"));
+        performRequest(ImmutableMap.of("command", "report_profile"));
     Optional<String> profile = resultObject.getProfile();
     if (profile.isPresent()) {
       LOG.debug("buck parser profiler trace available");
@@ -688,6 +733,19 @@ public class ProjectBuildFileParser implements AutoCloseable {
           }
         }
 
+        if (buckPyProcessBserSerializer != null) {
+          try {
+            LOG.debug("Closing buck.py process stdin");
+            buckPyProcess.getOutputStream().close();
+          } catch (IOException e) {
+            // Safe to ignore since we've already flushed everything we wanted
+            // to write.
+          } finally {
+            buckPyProcessBserSerializer = null;
+            buckPyProcessBserDeserializer = null;
+          }
+        }
+
         if (buckPyProcessJsonParser != null) {
           try {
             buckPyProcessJsonParser.close();
@@ -9,6 +9,7 @@ import __future__
 import contextlib
 from pathlib import Path, PurePath
 from pywatchman import WatchmanError
+from pywatchman import load as bser_load
 from .json_encoder import BuckJSONEncoder
 from .glob_internal import glob_internal
 from .glob_mercurial import glob_mercurial_manifest, load_mercurial_repo_info
@@ -19,6 +20,7 @@ from .profiler import Profiler
 
 import StringIO
 import abc
+import collections
 import functools
 import hashlib
 import imp
@@ -110,6 +112,7 @@ class AbstractContext(object):
         self.diagnostics.extend(other.diagnostics)
         self.used_configs.update(other.used_configs)
         self.used_env_vars.update(other.used_env_vars)
+        self.observes_filesystem |= other.observes_filesystem
 
 
 class BuildFileContext(AbstractContext):
@@ -124,7 +127,9 @@ class BuildFileContext(AbstractContext):
         self._used_configs = {}
         self._used_env_vars = {}
         self._diagnostics = []
+        self._globs = []
         self.rules = {}
+        self.observes_filesystem = False
 
         self.project_root = project_root
         self.base_path = base_path
@@ -156,6 +161,15 @@ class BuildFileContext(AbstractContext):
     def diagnostics(self):
         return self._diagnostics
 
+    @property
+    def globs(self):
+        """The patterns of each glob() evaluated, so that the parser only re-evaluates the build
+        file when a file matching one of them is added or removed.
+
+        They are only reported if the build file could not see the filesystem in any other way,
+        see `observes_filesystem`."""
+        return self._globs
+
 
 class IncludeContext(AbstractContext):
     """The build context used when processing an include."""
@@ -166,6 +180,7 @@ class IncludeContext(AbstractContext):
         self._used_configs = {}
         self._used_env_vars = {}
         self._diagnostics = []
+        self.observes_filesystem = False
 
     @property
     def includes(self):
@@ -335,6 +350,12 @@ def glob(includes, excludes=None, include_dotfiles=False, build_env=None, search
             include_dotfiles,
             search_base,
             build_env.project_root)
+    build_env.globs.append({
+        'base': os.path.relpath(str(search_base), build_env.project_root),
+        'include': list(includes),
+        'exclude': list(excludes),
+        'include_dotfiles': include_dotfiles,
+    })
     assert build_env.allow_empty_globs or results, (
         "glob(includes={includes}, excludes={excludes}, include_dotfiles={include_dotfiles}) " +
         "returned no results.  (allow_empty_globs is set to false in the Buck " +
@@ -533,10 +554,12 @@ class BuildFileProcessor(object):
             func_with_env = LazyBuildEnvPartial(func)
             lazy_functions[func.__name__] = func_with_env
         self._functions = lazy_functions
+        self._global_import_whitelist = self._create_import_whitelist([])
         self._import_whitelist_manager = ImportWhitelistManager(
             import_whitelist=self._create_import_whitelist(project_import_whitelist),
             safe_modules_config=self.SAFE_MODULES_CONFIG,
-            path_predicate=lambda path: is_in_dir(path, self._project_root))
+            path_predicate=lambda path: is_in_dir(path, self._project_root),
+            on_whitelisted_import=self._on_whitelisted_import)
 
     def _wrap_env_var_read(self, read, real):
         """
@@ -695,6 +718,26 @@ class BuildFileProcessor(object):
             build_env=build_env,
             allow_safe_import=self._import_whitelist_manager.allow_unsafe_import)
 
+    def _allow_unsafe_import(self, allow=True):
+        """The `allow_unsafe_import` builtin, which makes modules such as `os` available and thus
+        lets the build file depend on files that its globs don't match."""
+        if allow:
+            self._observe_filesystem()
+        return self._import_whitelist_manager.allow_unsafe_import(allow)
+
+    def _on_whitelisted_import(self, name):
+        """Record an import of a module that only the project whitelists, which may well be used
+        to look at the filesystem."""
+        if name not in self._global_import_whitelist:
+            self._observe_filesystem()
+
+    def _observe_filesystem(self):
+        """Record that the current build file or include looks at the filesystem in ways that its
+        globs don't describe, so that it has to be re-evaluated whenever a file is added or
+        removed in its package."""
+        if self._current_build_env is not None:
+            self._current_build_env.observes_filesystem = True
+
     def _record_env_var(self, name, value):
         """
         Record a read of an environment variable.
@@ -815,6 +858,7 @@ class BuildFileProcessor(object):
                 if self._called_from_project_file():
                     path = os.path.abspath(filename)
                     if path not in self._current_build_env.includes:
+                        self._observe_filesystem()
                         dep_path = '//' + os.path.relpath(path, self._project_root)
                         warning_message = (
                             "Access to a non-tracked file detected! {0} is not a ".format(path) +
@@ -892,7 +936,7 @@ class BuildFileProcessor(object):
                 'include_defs': functools.partial(self._include_defs, is_implicit_include),
                 'add_build_file_dep': self._add_build_file_dep,
                 'read_config': self._read_config,
-                'allow_unsafe_import': self._import_whitelist_manager.allow_unsafe_import,
+                'allow_unsafe_import': self._allow_unsafe_import,
                 'glob': self._glob,
                 'subdir_glob': self._subdir_glob,
             }
@@ -991,6 +1035,11 @@ class BuildFileProcessor(object):
         # Add in used environment variables as a special meta rule.
         values.append({"__env": build_env.used_env_vars})
 
+        # Add in the evaluated globs as a special meta rule, unless the build file could have
+        # depended on files they don't match.
+        values.append({
+            "__globs": None if build_env.observes_filesystem else build_env.globs})
+
         diagnostics.extend(build_env.diagnostics)
 
         return values
@@ -1028,11 +1077,11 @@ def format_exception_info(exception_info):
     return formatted
 
 
-def encode_result(values, diagnostics, profile):
+def encode_result(values, diagnostics, profile, use_bser=False):
     result = {'values': [
         dict((k, v) for k, v in value.iteritems() if v is not None)
         for value in values]}
-    json_encoder = BuckJSONEncoder()
+    encode = encode_bser if use_bser else BuckJSONEncoder().encode
     if diagnostics:
         encoded_diagnostics = []
         for d in diagnostics:
@@ -1048,7 +1097,7 @@ def encode_result(values, diagnostics, profile):
     if profile is not None:
         result['profile'] = profile
     try:
-        return json_encoder.encode(result)
+        return encode(result)
     except Exception as e:
         # Try again without the values
         result['values'] = []
@@ -1060,11 +1109,30 @@ def encode_result(values, diagnostics, profile):
             'source': 'parse',
             'exception': format_exception_info(sys.exc_info()),
         })
-        return json_encoder.encode(result)
+        return encode(result)
+
+
+def encode_bser(result):
+    try:
+        return pywatchman.bser.dumps(result)
+    except Exception:
+        # The native encoder only knows about dicts, lists and tuples, so turn
+        # any other mapping or iterable into one of those, as BuckJSONEncoder does.
+        return pywatchman.bser.dumps(to_bser_compatible(result))
+
+
+def to_bser_compatible(obj):
+    if isinstance(obj, basestring) or not isinstance(obj, collections.Sized):
+        return obj
+    if isinstance(obj, collections.Mapping):
+        return dict((k, to_bser_compatible(v)) for k, v in obj.iteritems())
+    if isinstance(obj, collections.Iterable):
+        return [to_bser_compatible(v) for v in obj]
+    return obj
 
 
 def process_with_diagnostics(build_file_query, build_file_processor, to_parent,
-                             should_profile=False):
+                             should_profile=False, use_bser=False):
     start_time = time.time()
     build_file = build_file_query.get('buildFile')
     watch_root = build_file_query.get('watchRoot')
@@ -1099,15 +1167,15 @@ def process_with_diagnostics(build_file_query, build_file_processor, to_parent,
                     exception=sys.exc_info()))
         raise
     finally:
-        java_process_send_result(to_parent, values, diagnostics, None)
+        java_process_send_result(to_parent, values, diagnostics, None, use_bser)
 
     end_time = time.time()
     return end_time - start_time
 
 
-def java_process_send_result(to_parent, values, diagnostics, profile_result):
+def java_process_send_result(to_parent, values, diagnostics, profile_result, use_bser=False):
     """Sends result to the Java process"""
-    data = encode_result(values, diagnostics, profile_result)
+    data = encode_result(values, diagnostics, profile_result, use_bser)
     to_parent.write(data)
     to_parent.flush()
 
@@ -1154,8 +1222,8 @@ def _optparse_store_kv(option, opt_str, value, parser):
 # directories of generated files produced by Buck.
 #
 # All of the build rules that are parsed from the BUCK files will be printed
-# to stdout encoded in JSON. That means that printing out other information
-# for debugging purposes will break the JSON encoding, so be careful!
+# to stdout encoded in JSON, or in BSER with --use_bser. That means that printing
+# out other information for debugging purposes will break the encoding, so be careful!
 
 
 def main():
@@ -1254,6 +1322,11 @@ def main():
         '--build_file_import_whitelist',
         action='append',
         dest='build_file_import_whitelist')
+    parser.add_option(
+        '--use_bser',
+        action='store_true',
+        dest='use_bser',
+        help='Reads queries and writes results in BSER rather than newline-delimited JSON.')
     (options, args) = parser.parse_args()
 
     # Even though project_root is absolute path, it may not be concise. For
@@ -1294,7 +1367,7 @@ def main():
                 source='mercurial',
                 exception=None,
             )
-            java_process_send_result(to_parent, [], [d], None)
+            java_process_send_result(to_parent, [], [d], None, options.use_bser)
             raise
 
     configs = {}
@@ -1354,7 +1427,8 @@ def main():
                     query,
                     buildFileProcessor,
                     to_parent,
-                    should_profile=options.profile)
+                    should_profile=options.profile,
+                    use_bser=options.use_bser)
                 processed_build_file.append({'buildFile': build_file, 'duration': duration})
 
             # From https://docs.python.org/2/using/cmdline.html :
@@ -1363,10 +1437,7 @@ def main():
             # and File Objects (for line in sys.stdin) which is not
             # influenced by this option. To work around this, you will
             # want to use file.readline() inside a while 1: loop.
-            for line in wait_and_read_build_file_query():
-                if line == '':
-                    break
-                build_file_query = json.loads(line)
+            for build_file_query in wait_and_read_build_file_query(options.use_bser):
                 if build_file_query.get('command') == 'report_profile':
                     report_profile(options, to_parent, processed_build_file, profiler)
                 else:
@@ -1374,7 +1445,8 @@ def main():
                         build_file_query,
                         buildFileProcessor,
                         to_parent,
-                        should_profile=options.profile)
+                        should_profile=options.profile,
+                        use_bser=options.use_bser)
                     processed_build_file.append(
                         {'buildFile': build_file_query['buildFile'], 'duration': duration})
 
@@ -1394,7 +1466,7 @@ def wait_build_file_query():
     select.select([sys.stdin], [], [])
 
 
-def wait_and_read_build_file_query():
+def wait_and_read_build_file_query(use_bser=False):
     def default_wait():
         return
     wait = default_wait
@@ -1405,10 +1477,16 @@ def wait_and_read_build_file_query():
         wait = wait_build_file_query
     while True:
         wait()
-        line = sys.stdin.readline()
-        if not line:
-            return
-        yield line
+        if use_bser:
+            query = bser_load.load(sys.stdin, value_encoding='utf-8')
+            if query is None:
+                return
+            yield query
+        else:
+            line = sys.stdin.readline()
+            if not line:
+                return
+            yield json.loads(line)
 
 
 def report_profile(options, to_parent, processed_build_file, profiler):
@@ -1431,13 +1509,13 @@ def report_profile(options, to_parent, processed_build_file, profiler):
                     info['buildFile'], info['duration'])
             extra_result += '\n\n'
             profile_result = extra_result + profile_result
-            java_process_send_result(to_parent, [], [], profile_result)
+            java_process_send_result(to_parent, [], [], profile_result, options.use_bser)
         except Exception as e:
             trace = traceback.format_exc()
             print(str(trace))
             raise
     else:
-        to_parent.write(encode_result([], [], None))
+        to_parent.write(encode_result([], [], None, options.use_bser))
         to_parent.flush()
 
 
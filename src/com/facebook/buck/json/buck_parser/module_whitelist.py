@@ -13,11 +13,14 @@ import imp
 
 
 class ImportWhitelistManager(object):
-    def __init__(self, import_whitelist, safe_modules_config, path_predicate):
+    def __init__(self, import_whitelist, safe_modules_config, path_predicate,
+                 on_whitelisted_import=None):
         """
         :param (str)->bool path_predicate:
             Predicate returning whether the import whitelist applies to imports from a particular
             file.
+        :param (str)->None on_whitelisted_import:
+            Called with the name of each whitelisted module that a project file imports.
         :param set[str] import_whitelist: modules which can be imported without restriction.
         :param dict[str,list[str]] safe_modules_config:
             Whitelisted parts for specified module.
@@ -28,6 +31,7 @@ class ImportWhitelistManager(object):
         self._safe_modules_config = safe_modules_config
         self._path_predicate = path_predicate
         self._safe_modules = {}  #: cache of safe modules created via config.
+        self._on_whitelisted_import = on_whitelisted_import
 
     @contextlib.contextmanager
     def allow_unsafe_import(self, allow=True):
@@ -66,7 +70,10 @@ class ImportWhitelistManager(object):
         filename = inspect.getframeinfo(frame).filename
 
         # The import will be always allowed if it was not called from a project file.
-        if name in self._import_whitelist or not self._path_predicate(filename):
+        is_project_file = self._path_predicate(filename)
+        if name in self._import_whitelist or not is_project_file:
+            if is_project_file and self._on_whitelisted_import is not None:
+                self._on_whitelisted_import(name)
             # Importing a module may cause more '__import__' calls if the module uses other
             # modules. Such calls should not be blocked if the top-level import was allowed.
             with self.allow_unsafe_import():
@@ -7,7 +7,7 @@ import shutil
 import tempfile
 import StringIO
 
-from pywatchman import WatchmanError
+from pywatchman import WatchmanError, bser
 from typing import Sequence
 
 from .buck import BuildFileProcessor, Diagnostic, add_rule, process_with_diagnostics
@@ -44,6 +44,10 @@ def get_env_from_results(results):
     return extract_from_results('__env', results)
 
 
+def get_globs_from_results(results):
+    return extract_from_results('__globs', results)
+
+
 def setenv(varname, value=None):
     if value is None:
         os.environ.pop(varname, None)
@@ -477,6 +481,110 @@ class BuckTest(unittest.TestCase):
                      exception=None)],
                 diagnostics)
 
+    def test_globs_are_recorded(self):
+        build_file = ProjectFile(
+            self.project_root,
+            path='BUCK',
+            contents=(
+                'foo_rule(',
+                '  name="foo",'
+                '  srcs=glob(["*.java"], excludes=["Test*.java"]) +',
+                '       glob(["*.c"], include_dotfiles=True),',
+                ')'
+            ))
+        java_file = ProjectFile(self.project_root, path='Foo.java', contents=())
+        c_file = ProjectFile(self.project_root, path='Foo.c', contents=())
+        self.write_files(build_file, java_file, c_file)
+        build_file_processor = self.create_build_file_processor(extra_funcs=[foo_rule])
+        with build_file_processor.with_builtins(__builtin__.__dict__):
+            rules = build_file_processor.process(
+                build_file.root, build_file.prefix, build_file.path, [])
+        self.assertEqual(
+            [
+                {
+                    'base': '.',
+                    'include': ['*.java'],
+                    'exclude': ['Test*.java'],
+                    'include_dotfiles': False,
+                },
+                {
+                    'base': '.',
+                    'include': ['*.c'],
+                    'exclude': [],
+                    'include_dotfiles': True,
+                },
+            ],
+            get_globs_from_results(rules))
+
+    def test_globs_are_not_recorded_if_the_build_file_imports_unsafe_modules(self):
+        build_file = ProjectFile(
+            self.project_root,
+            path='BUCK',
+            contents=(
+                'with allow_unsafe_import():',
+                '    import os',
+                'foo_rule(',
+                '  name="foo",'
+                '  srcs=glob(["*.java"]) if os.path.exists("Foo.java") else [],',
+                ')'
+            ))
+        java_file = ProjectFile(self.project_root, path='Foo.java', contents=())
+        self.write_files(build_file, java_file)
+        build_file_processor = self.create_build_file_processor(extra_funcs=[foo_rule])
+        with build_file_processor.with_builtins(__builtin__.__dict__):
+            rules = build_file_processor.process(
+                build_file.root, build_file.prefix, build_file.path, [])
+        self.assertIsNone(get_globs_from_results(rules))
+
+    def test_globs_are_not_recorded_if_an_include_imports_unsafe_modules(self):
+        include_def = ProjectFile(
+            self.project_root,
+            path='inc_def',
+            contents=(
+                'with allow_unsafe_import():',
+                '    import os',
+                'def java_files():',
+                '    return glob(["*.java"]) + sorted(os.listdir("."))',
+            ))
+        build_file = ProjectFile(
+            self.project_root,
+            path='BUCK',
+            contents=(
+                'include_defs({0!r})'.format(include_def.name),
+                'foo_rule(',
+                '  name="foo",'
+                '  srcs=java_files(),',
+                ')'
+            ))
+        java_file = ProjectFile(self.project_root, path='Foo.java', contents=())
+        self.write_files(include_def, build_file, java_file)
+        build_file_processor = self.create_build_file_processor(extra_funcs=[foo_rule])
+        with build_file_processor.with_builtins(__builtin__.__dict__):
+            rules = build_file_processor.process(
+                build_file.root, build_file.prefix, build_file.path, [])
+        self.assertIsNone(get_globs_from_results(rules))
+
+    def test_globs_are_not_recorded_if_the_build_file_imports_project_whitelisted_modules(self):
+        self.project_import_whitelist = ['os']
+        build_file = ProjectFile(
+            self.project_root,
+            path='BUCK',
+            contents=(
+                'import json',
+                'import os',
+                'foo_rule(',
+                '  name="foo",'
+                '  srcs=glob(["*.java"]),',
+                ')'
+            ))
+        java_file = ProjectFile(self.project_root, path='Foo.java', contents=())
+        self.write_files(build_file, java_file)
+        build_file_processor = self.create_build_file_processor(extra_funcs=[foo_rule])
+        with build_file_processor.with_builtins(__builtin__.__dict__):
+            rules = build_file_processor.process(
+                build_file.root, build_file.prefix, build_file.path, [])
+        self.assertIsNone(get_globs_from_results(rules))
+
     def test_read_config(self):
         """
         Verify that the builtin `read_config()` function works.
@@ -1016,8 +1124,47 @@ foo_rule(
             '{"values": [{"buck.base_path": "", "buck.type": "foo", "name": '
             '"foo", "options": {"baz": "blech", "foo": "bar"}, "srcs": [], '
             '"visibility": []}, {"__includes": ["BUCK"]}, {"__configs": {}}, '
-            '{"__env": {}}]}',
+            '{"__env": {}}, {"__globs": []}]}',
             result)
 
+    def test_bser_encoding(self):
+        build_file_processor = self.create_build_file_processor(extra_funcs=[foo_rule])
+        fake_stdout = StringIO.StringIO()
+        build_file = ProjectFile(
+            self.project_root,
+            path='BUCK',
+            contents=(
+                '''
+foo_rule(
+  name="foo",
+  srcs=['Foo.java'],
+  options={'foo':'bar'},
+)
+'''
+            ))
+        self.write_file(build_file)
+        with build_file_processor.with_builtins(__builtin__.__dict__):
+            process_with_diagnostics(
+                {
+                    'buildFile': self.build_file_name,
+                    'watchRoot': '',
+                    'projectPrefix': self.project_root,
+                },
+                build_file_processor,
+                fake_stdout,
+                use_bser=True)
+        result = bser.loads(fake_stdout.getvalue(), value_encoding='utf-8')
+        self.assertEqual(
+            {
+                'buck.base_path': '',
+                'buck.type': 'foo',
+                'name': 'foo',
+                'options': {'foo': 'bar'},
+                'srcs': ['Foo.java'],
+                'visibility': [],
+            },
+            result['values'][0])
+        self.assertEqual({'__includes': ['BUCK']}, result['values'][1])
+
 if __name__ == '__main__':
     unittest.main()
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.log.Logger;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.StandardLocation;
+
+/**
+ * A {@link StandardJavaFileManager} that lists the classpath from a {@link ClasspathJarCache}
+ * rather than opening and indexing every jar on it for each compilation. Classpaths with anything
+ * but jars on them are left to the wrapped file manager.
+ */
+class ClasspathCachingFileManager extends ForwardingStandardJavaFileManager {
+  private static final Logger LOG = Logger.get(ClasspathCachingFileManager.class);
+
+  private final ClasspathJarCache cache;
+
+  private final List<ClasspathJarCache.CachedJar> classpathJars = new ArrayList<>();
+  private boolean classpathOpened = false;
+  private boolean classpathCached = false;
+
+  public ClasspathCachingFileManager(StandardJavaFileManager fileManager, ClasspathJarCache cache) {
+    super(fileManager);
+    this.cache = cache;
+  }
+
+  @Override
+  public Iterable<JavaFileObject> list(
+      Location location, String packageName, Set<JavaFileObject.Kind> kinds, boolean recurse)
+      throws IOException {
+    if (location != StandardLocation.CLASS_PATH || !isClasspathCached()) {
+      return super.list(location, packageName, kinds, recurse);
+    }
+    List<JavaFileObject> files = new ArrayList<>();
+    for (ClasspathJarCache.CachedJar jar : classpathJars) {
+      jar.list(packageName, kinds, recurse, files);
+    }
+    return files;
+  }
+
+  @Override
+  public String inferBinaryName(Location location, JavaFileObject file) {
+    if (file instanceof ClasspathJarCache.EntryFileObject) {
+      return ((ClasspathJarCache.EntryFileObject) file).getBinaryName();
+    }
+    return super.inferBinaryName(location, file);
+  }
+
+  @Override
+  public boolean isSameFile(FileObject a, FileObject b) {
+    if (a instanceof ClasspathJarCache.EntryFileObject
+        || b instanceof ClasspathJarCache.EntryFileObject) {
+      return a.toUri().equals(b.toUri());
+    }
+    return super.isSameFile(a, b);
+  }
+
+  @Override
+  public void close() throws IOException {
+    release(classpathJars);
+    super.close();
+  }
+
+  private boolean isClasspathCached() {
+    if (!classpathOpened) {
+      classpathOpened = true;
+      classpathCached = acquireClasspathJars();
+    }
+    return classpathCached;
+  }
+
+  private boolean acquireClasspathJars() {
+    Iterable<? extends File> classpath = getLocation(StandardLocation.CLASS_PATH);
+    if (classpath == null) {
+      return false;
+    }
+    for (File file : classpath) {
+      if (!file.exists()) {
+        // javac skips classpath entries that do not exist.
+        continue;
+      }
+      if (!file.isFile()) {
+        LOG.debug("Not caching the classpath, as %s is not a jar.", file);
+        release(classpathJars);
+        return false;
+      }
+      try {
+        classpathJars.add(cache.acquire(file.toPath().toAbsolutePath()));
+      } catch (IOException e) {
+        LOG.debug(e, "Not caching the classpath, as %s could not be opened.", file);
+        release(classpathJars);
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static void release(List<ClasspathJarCache.CachedJar> jars) {
+    jars.forEach(ClasspathJarCache.CachedJar::release);
+    jars.clear();
+  }
+}
@@ -0,0 +1,436 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.Pair;
+import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.CharStreams;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.tools.JavaFileObject;
+
+/**
+ * Opened classpath jars and their package listings, shared by the compilations of a process so
+ * that they do not open and index the same jars again and again.
+ *
+ * <p>Jars are keyed by their path and a hash of their central directory, which holds the name,
+ * size and CRC of every entry. Rebuilding a jar with the same contents keeps its listing, and any
+ * change to the contents gets a new one. Listings are weighed by their entries and evicted once
+ * they exceed the memory budget.
+ *
+ * <p>Only the listings outlive the compilations: a jar is opened when a compilation acquires it and
+ * closed once the last compilation using it has released it. Between builds the daemon holds no
+ * handles on buck-out jars, which would keep them from being rewritten on Windows, or keep the
+ * space of deleted jars from being reclaimed.
+ */
+class ClasspathJarCache {
+  private static final Logger LOG = Logger.get(ClasspathJarCache.class);
+
+  /** The cache shared by all in-process compilations, and so by all builds of the daemon. */
+  static final ClasspathJarCache INSTANCE =
+      new ClasspathJarCache(Runtime.getRuntime().maxMemory() / 32);
+
+  /** The end of central directory record may be followed by a comment of up to this length. */
+  private static final int MAX_ZIP_COMMENT_LENGTH = 0xffff;
+
+  private final Cache<Pair<Path, HashCode>, CachedJar> jars;
+
+  ClasspathJarCache(long memoryBudgetBytes) {
+    this.jars =
+        CacheBuilder.newBuilder()
+            .maximumWeight(memoryBudgetBytes)
+            .weigher((Weigher<Pair<Path, HashCode>, CachedJar>) (key, jar) -> jar.getWeight())
+            .removalListener(
+                (RemovalListener<Pair<Path, HashCode>, CachedJar>)
+                    notification -> notification.getValue().evict())
+            .build();
+  }
+
+  /**
+   * Returns the opened jar at the absolute path {@code jar}, opening it if no jar with the same
+   * contents has been opened yet. Callers must {@link CachedJar#release()} it when done.
+   */
+  CachedJar acquire(Path jar) throws IOException {
+    Pair<Path, HashCode> key = new Pair<>(jar, hashCentralDirectory(jar));
+    while (true) {
+      // Jars are acquired as they are listed, so that even a jar larger than the whole budget,
+      // which is evicted as soon as it is added, stays usable until it is released.
+      AtomicBoolean opened = new AtomicBoolean(false);
+      CachedJar cachedJar;
+      try {
+        cachedJar =
+            jars.get(
+                key,
+                () -> {
+                  CachedJar newJar = CachedJar.open(jar);
+                  opened.set(true);
+                  return newJar;
+                });
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        throw new RuntimeException(e.getCause());
+      }
+      if (opened.get() || cachedJar.acquire()) {
+        return cachedJar;
+      }
+      // The jar was evicted and closed after we looked it up; the next lookup opens it again.
+    }
+  }
+
+  long getJarCount() {
+    return jars.size();
+  }
+
+  /** Hashes the central directory of a zip file, or all of it if it has no plain one. */
+  static HashCode hashCentralDirectory(Path zip) throws IOException {
+    try (FileChannel channel = FileChannel.open(zip, StandardOpenOption.READ)) {
+      long size = channel.size();
+      int tailLength = (int) Math.min(size, ZipEntry.ENDHDR + MAX_ZIP_COMMENT_LENGTH);
+      ByteBuffer tail = read(channel, size - tailLength, tailLength);
+      for (int offset = tailLength - ZipEntry.ENDHDR; offset >= 0; offset--) {
+        if (tail.getInt(offset) != ZipEntry.ENDSIG) {
+          continue;
+        }
+        long centralDirectorySize = tail.getInt(offset + ZipEntry.ENDSIZ) & 0xffffffffL;
+        long centralDirectoryOffset = tail.getInt(offset + ZipEntry.ENDOFF) & 0xffffffffL;
+        // Zip64 archives keep the real values elsewhere; those are hashed whole below.
+        if (centralDirectorySize < Integer.MAX_VALUE
+            && centralDirectoryOffset + centralDirectorySize <= size) {
+          ByteBuffer centralDirectory =
+              read(channel, centralDirectoryOffset, (int) centralDirectorySize);
+          return Hashing.murmur3_128()
+              .newHasher()
+              .putBytes(centralDirectory.array())
+              .putLong(size)
+              .hash();
+        }
+        break;
+      }
+    }
+    return com.google.common.io.Files.asByteSource(zip.toFile()).hash(Hashing.murmur3_128());
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+    return buffer;
+  }
+
+  /** A jar, the files in each of its packages, and the jar opened while it is in use. */
+  static class CachedJar {
+    private final Path path;
+    private final ImmutableMap<String, ImmutableList<JavaFileObject>> filesByDirectory;
+    private final int weight;
+
+    @GuardedBy("this")
+    @Nullable
+    private ZipFile zipFile;
+
+    @GuardedBy("this")
+    private int users;
+
+    @GuardedBy("this")
+    private boolean evicted = false;
+
+    @GuardedBy("this")
+    private boolean closed = false;
+
+    private CachedJar(ZipFile zipFile, Path path) {
+      this.path = path;
+      URI jarUri = path.toUri();
+      Map<String, ImmutableList.Builder<JavaFileObject>> filesByDirectory = new LinkedHashMap<>();
+      long weight = 0;
+      for (Enumeration<? extends ZipEntry> entries = zipFile.entries();
+          entries.hasMoreElements();
+          ) {
+        ZipEntry entry = entries.nextElement();
+        String name = entry.getName();
+        if (entry.isDirectory()) {
+          continue;
+        }
+        int lastSlash = name.lastIndexOf('/');
+        String directory = lastSlash < 0 ? "" : name.substring(0, lastSlash);
+        filesByDirectory
+            .computeIfAbsent(directory, key -> ImmutableList.builder())
+            .add(new EntryFileObject(this, entry, path, jarUri));
+        // Roughly the entry, its name twice and the file object.
+        weight += 4 * name.length() + 200;
+      }
+      ImmutableMap.Builder<String, ImmutableList<JavaFileObject>> builder = ImmutableMap.builder();
+      filesByDirectory.forEach((key, files) -> builder.put(key, files.build()));
+      this.filesByDirectory = builder.build();
+      this.weight = (int) Math.min(weight, Integer.MAX_VALUE);
+      // The jar starts out acquired by the compilation that listed it.
+      this.zipFile = zipFile;
+      this.users = 1;
+    }
+
+    /** Opens and lists the jar at {@code path}, acquired by the caller. */
+    private static CachedJar open(Path path) throws IOException {
+      ZipFile zipFile = new ZipFile(path.toFile());
+      try {
+        return new CachedJar(zipFile, path);
+      } catch (RuntimeException e) {
+        zipFile.close();
+        throw e;
+      }
+    }
+
+    /** Adds the files of {@code kinds} in {@code packageName} to {@code files}, like javac. */
+    void list(
+        String packageName,
+        Set<JavaFileObject.Kind> kinds,
+        boolean recurse,
+        Collection<JavaFileObject> files) {
+      String directory = packageName.replace('.', '/');
+      if (!recurse) {
+        addFiles(filesByDirectory.get(directory), kinds, files);
+        return;
+      }
+      for (Map.Entry<String, ImmutableList<JavaFileObject>> entry : filesByDirectory.entrySet()) {
+        String entryDirectory = entry.getKey();
+        if (directory.isEmpty()
+            || entryDirectory.equals(directory)
+            || entryDirectory.startsWith(directory + "/")) {
+          addFiles(entry.getValue(), kinds, files);
+        }
+      }
+    }
+
+    private static void addFiles(
+        @Nullable ImmutableList<JavaFileObject> directoryFiles,
+        Set<JavaFileObject.Kind> kinds,
+        Collection<JavaFileObject> files) {
+      if (directoryFiles == null) {
+        return;
+      }
+      for (JavaFileObject file : directoryFiles) {
+        if (kinds.contains(file.getKind())) {
+          files.add(file);
+        }
+      }
+    }
+
+    private int getWeight() {
+      return weight;
+    }
+
+    /** @return whether the jar was acquired, which it no longer can be once it was evicted. */
+    private synchronized boolean acquire() throws IOException {
+      if (closed) {
+        return false;
+      }
+      if (zipFile == null) {
+        zipFile = new ZipFile(path.toFile());
+      }
+      users++;
+      return true;
+    }
+
+    synchronized void release() {
+      users--;
+      closeIfUnused();
+    }
+
+    private synchronized void evict() {
+      evicted = true;
+      closeIfUnused();
+    }
+
+    synchronized boolean isOpen() {
+      return zipFile != null;
+    }
+
+    private synchronized InputStream getInputStream(ZipEntry entry) throws IOException {
+      if (zipFile == null) {
+        throw new IOException(String.format("%s is not in use by any compilation.", path));
+      }
+      return zipFile.getInputStream(entry);
+    }
+
+    @GuardedBy("this")
+    private void closeIfUnused() {
+      if (users > 0) {
+        return;
+      }
+      closed = evicted;
+      if (zipFile != null) {
+        try {
+          zipFile.close();
+        } catch (IOException e) {
+          LOG.warn(e, "Unable to close %s.", path);
+        }
+        zipFile = null;
+      }
+    }
+  }
+
+  /**
+   * A file in a cached jar. Its URI is a {@code jar:} URI, like those of the files javac lists
+   * itself, so that {@link ClassUsageTracker} can tell which jar it came from.
+   */
+  static class EntryFileObject implements JavaFileObject {
+    private final CachedJar jar;
+    private final ZipEntry entry;
+    private final Path jarPath;
+    private final URI uri;
+    private final Kind kind;
+
+    private EntryFileObject(CachedJar jar, ZipEntry entry, Path jarPath, URI jarUri) {
+      this.jar = jar;
+      this.entry = entry;
+      this.jarPath = jarPath;
+      try {
+        this.uri = new URI("jar", jarUri + "!/" + entry.getName(), null);
+      } catch (URISyntaxException e) {
+        throw new RuntimeException(e);
+      }
+      this.kind = getKind(entry.getName());
+    }
+
+    private static Kind getKind(String name) {
+      for (Kind kind : Kind.values()) {
+        if (kind != Kind.OTHER && name.endsWith(kind.extension)) {
+          return kind;
+        }
+      }
+      return Kind.OTHER;
+    }
+
+    /** @return the binary name of the class in this file, as javac would infer it. */
+    String getBinaryName() {
+      String name = entry.getName();
+      int extension = name.lastIndexOf('.');
+      return (extension < 0 ? name : name.substring(0, extension)).replace('/', '.');
+    }
+
+    @Override
+    public URI toUri() {
+      return uri;
+    }
+
+    @Override
+    public String getName() {
+      return jarPath + "(" + entry.getName() + ")";
+    }
+
+    @Override
+    public InputStream openInputStream() throws IOException {
+      return jar.getInputStream(entry);
+    }
+
+    @Override
+    public OutputStream openOutputStream() throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Reader openReader(boolean ignoreEncodingErrors) throws IOException {
+      return new InputStreamReader(openInputStream(), Charsets.UTF_8);
+    }
+
+    @Override
+    public CharSequence getCharContent(boolean ignoreEncodingErrors) throws IOException {
+      try (Reader reader = openReader(ignoreEncodingErrors)) {
+        return CharStreams.toString(reader);
+      }
+    }
+
+    @Override
+    public Writer openWriter() throws IOException {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long getLastModified() {
+      return entry.getTime();
+    }
+
+    @Override
+    public boolean delete() {
+      return false;
+    }
+
+    @Override
+    public Kind getKind() {
+      return kind;
+    }
+
+    @Override
+    public boolean isNameCompatible(String simpleName, Kind kind) {
+      String baseName = simpleName + kind.extension;
+      String name = entry.getName();
+      return kind.equals(this.kind) && (name.equals(baseName) || name.endsWith("/" + baseName));
+    }
+
+    @Override
+    @Nullable
+    public NestingKind getNestingKind() {
+      return null;
+    }
+
+    @Override
+    @Nullable
+    public Modifier getAccessLevel() {
+      return null;
+    }
+
+    @Override
+    public String toString() {
+      return getName();
+    }
+  }
+}
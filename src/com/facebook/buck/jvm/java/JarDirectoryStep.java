@@ -21,6 +21,7 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepExecutionResult;
 import com.facebook.buck.zip.JarBuilder;
+import com.facebook.buck.zip.ZipOutputStreams;
 import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableSortedSet;
 import java.io.IOException;
@@ -155,6 +156,7 @@ public class JarDirectoryStep implements Step {
             .setShouldMergeManifests(mergeManifests)
             .setShouldHashEntries(hashEntries)
             .setRemoveEntryPredicate(removeEntryPredicate)
+            .setParallelism(ZipOutputStreams.DEFAULT_PARALLELISM)
             .createJarFile(filesystem.resolve(pathToOutputFile)));
   }
 }
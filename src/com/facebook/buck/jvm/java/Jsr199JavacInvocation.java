@@ -268,8 +268,10 @@ class Jsr199JavacInvocation implements Javac.Invocation {
     if (javacTask == null) {
       JavaCompiler compiler = compilerConstructor.apply(context);
 
+      // Classpath jars are opened and listed once for all the compilations of this process.
       StandardJavaFileManager standardFileManager =
-          compiler.getStandardFileManager(null, null, null);
+          new ClasspathCachingFileManager(
+              compiler.getStandardFileManager(null, null, null), ClasspathJarCache.INSTANCE);
       addCloseable(standardFileManager);
 
       StandardJavaFileManager fileManager;
@@ -67,6 +67,7 @@ public class OutOfProcessConnectionFactory {
               COMMAND_SUPPLIER.get(),
               ENV_SUPPLIER.get(),
               Runtime.getRuntime().availableProcessors() / 4,
+              1,
               Optional.empty());
       WorkerProcessPool processPool = factory.getWorkerProcessPool(context, workerProcessParams);
       WorkerProcess workerProcess = processPool.borrowWorkerProcess();
@@ -74,6 +74,12 @@ abstract class AbstractBuildFileSpec {
     return fromPath(target.getBasePath(), target.getCellPath());
   }
 
+  /** @return whether the build file at the absolute path {@code buildFile} matches this spec. */
+  public boolean matchesBuildFile(Path buildFile) {
+    Path basePath = getCellPath().resolve(getBasePath());
+    return isRecursive() ? buildFile.startsWith(basePath) : basePath.equals(buildFile.getParent());
+  }
+
   /** Find all build in the given {@link ProjectFilesystem}, and pass each to the given callable. */
   public void forEachBuildFile(
       ProjectFilesystem filesystem,
@@ -161,6 +161,15 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
         .orElse(WatchmanWatcher.CursorType.CLOCK_ID);
   }
 
+  /**
+   * Whether buck.py and the parser exchange requests and results in BSER rather than JSON, which is
+   * faster to produce and to decode for build files with many rules.
+   */
+  @Value.Lazy
+  public boolean getUseBserProtocol() {
+    return getDelegate().getBooleanValue("parser", "use_bser_protocol", false);
+  }
+
   @Value.Lazy
   public boolean getEnableParallelParsing() {
     return getDelegate().getBooleanValue("project", "parallel_parsing", true);
@@ -181,6 +190,25 @@ abstract class AbstractParserConfig implements ConfigView<BuckConfig> {
     return Math.min(value, getDelegate().getNumThreads());
   }
 
+  /**
+   * Free physical memory, in megabytes, below which the parser pool stops starting new buck.py
+   * processes and retires idle ones. Zero, the default, only bounds the pool by the parsing
+   * threads, since the free memory reported by the OS does not count reclaimable page cache.
+   */
+  @Value.Lazy
+  public long getMinFreeMemoryForNewParserMb() {
+    return getDelegate().getLong("parser", "min_free_memory_for_new_parser_mb").orElse(0L);
+  }
+
+  /**
+   * Whether to keep the raw nodes of evaluated build files in buck-out, so that they can be reused
+   * without evaluating the build files again by later builds, including ones with a new daemon.
+   */
+  @Value.Lazy
+  public boolean getEnablePersistentCache() {
+    return getDelegate().getBooleanValue("parser", "enable_persistent_cache", false);
+  }
+
   @Value.Lazy
   public ApplyDefaultFlavorsMode getDefaultFlavorsMode() {
     return getDelegate()
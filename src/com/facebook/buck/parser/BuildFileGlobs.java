@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.io.MorePaths;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * The {@code glob()} calls that a build file evaluated, as reported in its {@code __globs} meta
+ * rule. Adding or removing a file can only change the build file's rules if it matches one of
+ * them.
+ */
+final class BuildFileGlobs {
+
+  private final ImmutableList<Glob> globs;
+
+  private BuildFileGlobs(ImmutableList<Glob> globs) {
+    this.globs = globs;
+  }
+
+  /**
+   * @param cellRoot the root of the cell the build file belongs to, which glob bases are relative
+   *     to.
+   * @param metaRule the value of the {@code __globs} meta rule.
+   */
+  @SuppressWarnings("unchecked")
+  static BuildFileGlobs fromMetaRule(Path cellRoot, List<Map<String, Object>> metaRule) {
+    ImmutableList.Builder<Glob> globs = ImmutableList.builder();
+    for (Map<String, Object> glob : metaRule) {
+      globs.add(
+          new Glob(
+              cellRoot
+                  .resolve((String) Preconditions.checkNotNull(glob.get("base")))
+                  .normalize(),
+              (List<String>) Preconditions.checkNotNull(glob.get("include")),
+              (List<String>) Preconditions.checkNotNull(glob.get("exclude")),
+              Boolean.TRUE.equals(glob.get("include_dotfiles"))));
+    }
+    return new BuildFileGlobs(globs.build());
+  }
+
+  /** Whether any of the globs would return {@code path}, an absolute path, if it existed. */
+  boolean matches(Path path) {
+    for (Glob glob : globs) {
+      if (glob.matches(path)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * @return the directories, as absolute paths, under which the globs may match files, each with
+   *     how many levels deep below it they may match them.
+   */
+  ImmutableMap<Path, Integer> getSearchRoots() {
+    Map<Path, Integer> roots = new HashMap<>();
+    for (Glob glob : globs) {
+      glob.addSearchRoots(roots);
+    }
+    return ImmutableMap.copyOf(roots);
+  }
+
+  private static final class Glob {
+    private final Path base;
+    private final ImmutableList<String> includePatterns;
+    private final ImmutableList<Pattern> includes;
+    private final ImmutableList<Pattern> excludes;
+    private final boolean includeDotfiles;
+    private final boolean escapesBase;
+
+    Glob(Path base, List<String> includes, List<String> excludes, boolean includeDotfiles) {
+      this.base = base;
+      this.includePatterns = ImmutableList.copyOf(includes);
+      this.includes = toPatterns(includes);
+      this.excludes = toPatterns(excludes);
+      this.includeDotfiles = includeDotfiles;
+      // Patterns such as "../foo/*" can match outside of the base; don't try to be clever.
+      this.escapesBase = includes.stream().anyMatch(include -> include.contains(".."));
+    }
+
+    boolean matches(Path path) {
+      if (escapesBase) {
+        return true;
+      }
+      if (!path.startsWith(base)) {
+        return false;
+      }
+      Path relativePath = base.relativize(path);
+      if (!includeDotfiles) {
+        for (Path component : relativePath) {
+          if (component.toString().startsWith(".")) {
+            return false;
+          }
+        }
+      }
+      String relativePathString = MorePaths.pathWithUnixSeparators(relativePath);
+      return matchesAny(includes, relativePathString) && !matchesAny(excludes, relativePathString);
+    }
+
+    /** Adds the directories below which each include pattern's literal leading segments lead. */
+    void addSearchRoots(Map<Path, Integer> roots) {
+      for (String include : includePatterns) {
+        String[] segments = include.split("/");
+        Path root = base;
+        int literalSegments = 0;
+        while (literalSegments < segments.length - 1
+            && !hasWildcard(segments[literalSegments])) {
+          root = root.resolve(segments[literalSegments]);
+          literalSegments++;
+        }
+        int depth = segments.length - literalSegments;
+        for (int i = literalSegments; i < segments.length; i++) {
+          if (segments[i].equals("**")) {
+            depth = Integer.MAX_VALUE;
+          }
+        }
+        roots.merge(root.normalize(), depth, Math::max);
+      }
+    }
+
+    private static boolean hasWildcard(String segment) {
+      return segment.contains("*") || segment.contains("?") || segment.contains("[");
+    }
+
+    private static boolean matchesAny(ImmutableList<Pattern> patterns, String path) {
+      for (Pattern pattern : patterns) {
+        if (pattern.matcher(path).matches()) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private static ImmutableList<Pattern> toPatterns(List<String> globPatterns) {
+      ImmutableList.Builder<Pattern> patterns = ImmutableList.builder();
+      for (String globPattern : globPatterns) {
+        patterns.add(Pattern.compile(toRegex(globPattern)));
+      }
+      return patterns.build();
+    }
+  }
+
+  /**
+   * Translates a glob pattern as understood by {@code glob_internal.py}: {@code **} matches any
+   * number of directories, including none, while {@code *}, {@code ?} and {@code [...]} never
+   * match a path separator.
+   */
+  static String toRegex(String glob) {
+    StringBuilder regex = new StringBuilder();
+    String[] segments = glob.split("/");
+    for (int i = 0; i < segments.length; i++) {
+      boolean last = i == segments.length - 1;
+      String segment = segments[i];
+      if (segment.equals("**")) {
+        regex.append(last ? ".*" : "(?:[^/]*/)*");
+        continue;
+      }
+      for (int j = 0; j < segment.length(); j++) {
+        char c = segment.charAt(j);
+        int close = segment.indexOf(']', j + 2);
+        if (c == '*') {
+          regex.append("[^/]*");
+        } else if (c == '?') {
+          regex.append("[^/]");
+        } else if (c == '[' && close != -1) {
+          String chars = segment.substring(j + 1, close);
+          regex.append('[');
+          if (chars.startsWith("!")) {
+            regex.append('^');
+            chars = chars.substring(1);
+          }
+          regex.append(chars.replace("\\", "\\\\").replace("[", "\\[")).append(']');
+          j = close;
+        } else {
+          regex.append(Pattern.quote(String.valueOf(c)));
+        }
+      }
+      if (!last) {
+        regex.append('/');
+      }
+    }
+    return regex.toString();
+  }
+}
@@ -99,6 +99,10 @@ class DaemonicCellState {
   @GuardedBy("rawAndComputedNodesLock")
   private final Map<Path, ImmutableMap<String, Optional<String>>> buildFileEnv;
 
+  /** Globs evaluated by each build file, when buck.py reported them. */
+  @GuardedBy("rawAndComputedNodesLock")
+  private final Map<Path, BuildFileGlobs> buildFileGlobs;
+
   @GuardedBy("rawAndComputedNodesLock")
   private final ConcurrentMapCache<Path, ImmutableSet<Map<String, Object>>> allRawNodes;
   // Tracks all targets in `allRawNodes`.  Used to verify that every target in `allComputedNodes`
@@ -120,6 +124,7 @@ class DaemonicCellState {
     this.buildFileDependents = HashMultimap.create();
     this.targetsCornucopia = HashMultimap.create();
     this.buildFileEnv = new HashMap<>();
+    this.buildFileGlobs = new HashMap<>();
     this.allRawNodes = new ConcurrentMapCache<>(parsingThreads);
     this.allRawNodeTargets = new HashSet<>();
     this.typedNodeCaches = Maps.newConcurrentMap();
@@ -166,7 +171,8 @@ class DaemonicCellState {
       final Path buildFile,
       final ImmutableSet<Map<String, Object>> withoutMetaIncludes,
       final ImmutableSet<Path> dependentsOfEveryNode,
-      ImmutableMap<String, Optional<String>> env) {
+      ImmutableMap<String, Optional<String>> env,
+      Optional<BuildFileGlobs> globs) {
     try (AutoCloseableLock writeLock = rawAndComputedNodesLock.writeLock()) {
       ImmutableSet<Map<String, Object>> updated =
           allRawNodes.putIfAbsentAndGet(buildFile, withoutMetaIncludes);
@@ -182,6 +188,9 @@ class DaemonicCellState {
         for (Path dependent : dependentsOfEveryNode) {
           buildFileDependents.put(dependent, buildFile);
         }
+        if (globs.isPresent()) {
+          buildFileGlobs.put(buildFile, globs.get());
+        }
       }
       return updated;
     }
@@ -219,11 +228,24 @@ class DaemonicCellState {
       }
       buildFileDependents.removeAll(path);
       buildFileEnv.remove(path);
+      buildFileGlobs.remove(path);
 
       return invalidatedRawNodes;
     }
   }
 
+  /**
+   * Whether adding or removing {@code path} may change the rules of {@code buildFile}. Build files
+   * whose globs are not known, including those that could see the filesystem without globbing, are
+   * always affected.
+   */
+  boolean isAffectedByAddedOrRemovedPath(Path buildFile, Path path) {
+    try (AutoCloseableLock readLock = rawAndComputedNodesLock.readLock()) {
+      BuildFileGlobs globs = buildFileGlobs.get(buildFile);
+      return globs == null || globs.matches(path);
+    }
+  }
+
   Optional<MapDifference<String, String>> invalidateIfEnvHasChanged(Cell cell, Path buildFile) {
     // Invalidate if env vars have changed.
     ImmutableMap<String, Optional<String>> usedEnv;
@@ -85,6 +85,7 @@ public class DaemonicParserState {
 
   private static final String CONFIGS_META_RULE = "__configs";
   private static final String ENV_META_RULE = "__env";
+  private static final String GLOBS_META_RULE = "__globs";
 
   private static final String COUNTER_CATEGORY = "buck_parser_state";
   private static final String INVALIDATED_BY_ENV_VARS_COUNTER_NAME = "invalidated_by_env_vars";
@@ -94,6 +95,8 @@ public class DaemonicParserState {
       "invalidated_by_watch_overflow";
   private static final String BUILD_FILES_INVALIDATED_BY_FILE_ADD_OR_REMOVE_COUNTER_NAME =
       "build_files_invalidated_by_add_or_remove";
+  private static final String BUILD_FILES_NOT_INVALIDATED_BY_FILE_ADD_OR_REMOVE_COUNTER_NAME =
+      "build_files_not_invalidated_by_add_or_remove";
   private static final String FILES_CHANGED_COUNTER_NAME = "files_changed";
   private static final String RULES_INVALIDATED_BY_WATCH_EVENTS_COUNTER_NAME =
       "rules_invalidated_by_watch_events";
@@ -207,6 +210,7 @@ public class DaemonicParserState {
           ImmutableSet.builder();
       ImmutableSet.Builder<Path> dependentsOfEveryNode = ImmutableSet.builder();
       ImmutableMap<String, Optional<String>> env = ImmutableMap.of();
+      Optional<BuildFileGlobs> globs = Optional.empty();
       for (Map<String, Object> rawNode : rawNodes) {
         if (rawNode.containsKey(INCLUDES_META_RULE)) {
           for (String path :
@@ -221,6 +225,12 @@ public class DaemonicParserState {
                       Preconditions.<Map<String, String>>checkNotNull(
                           (Map<String, String>) rawNode.get(ENV_META_RULE)),
                       Optional::ofNullable));
+        } else if (rawNode.containsKey(GLOBS_META_RULE)) {
+          // The globs are left out when the build file may have looked at the filesystem in other
+          // ways, such as by listing directories, in which case it is always invalidated.
+          globs =
+              Optional.ofNullable((List<Map<String, Object>>) rawNode.get(GLOBS_META_RULE))
+                  .map(metaRule -> BuildFileGlobs.fromMetaRule(cell.getRoot(), metaRule));
         } else {
           withoutMetaIncludesBuilder.add(rawNode);
         }
@@ -244,7 +254,7 @@ public class DaemonicParserState {
 
       return getOrCreateCellState(cell)
           .putRawNodesIfNotPresentAndStripMetaEntries(
-              buildFile, withoutMetaIncludes, dependentsOfEveryNode.build(), env);
+              buildFile, withoutMetaIncludes, dependentsOfEveryNode.build(), env, globs);
     }
   }
 
@@ -253,6 +263,7 @@ public class DaemonicParserState {
   private final IntegerCounter cacheInvalidatedByDefaultIncludesChangeCounter;
   private final IntegerCounter cacheInvalidatedByWatchOverflowCounter;
   private final IntegerCounter buildFilesInvalidatedByFileAddOrRemoveCounter;
+  private final IntegerCounter buildFilesNotInvalidatedByFileAddOrRemoveCounter;
   private final IntegerCounter filesChangedCounter;
   private final IntegerCounter rulesInvalidatedByWatchEventsCounter;
   private final TagSetCounter pathsAddedOrRemovedInvalidatingBuildFiles;
@@ -305,6 +316,11 @@ public class DaemonicParserState {
             COUNTER_CATEGORY,
             BUILD_FILES_INVALIDATED_BY_FILE_ADD_OR_REMOVE_COUNTER_NAME,
             ImmutableMap.of());
+    this.buildFilesNotInvalidatedByFileAddOrRemoveCounter =
+        new IntegerCounter(
+            COUNTER_CATEGORY,
+            BUILD_FILES_NOT_INVALIDATED_BY_FILE_ADD_OR_REMOVE_COUNTER_NAME,
+            ImmutableMap.of());
     this.filesChangedCounter =
         new IntegerCounter(COUNTER_CATEGORY, FILES_CHANGED_COUNTER_NAME, ImmutableMap.of());
     this.rulesInvalidatedByWatchEventsCounter =
@@ -450,7 +466,12 @@ public class DaemonicParserState {
 
   /**
    * Finds the build file responsible for the given {@link Path} and invalidates all of the cached
-   * rules dependent on it.
+   * rules dependent on it, unless the build file's globs show that it cannot see the path.
+   *
+   * <p>The parser only reports the globs of build files that had no other way of looking at the
+   * filesystem: unsafe imports, modules only the project whitelists, and files opened without
+   * being added as dependencies all make a build file, or an include it uses, depend on files that
+   * its globs don't match, so such build files are invalidated by every added or removed path.
    *
    * @param path A {@link Path}, relative to the project root and "contained" within the build file
    *     to find and invalidate.
@@ -485,16 +506,29 @@ public class DaemonicParserState {
       return;
     }
 
-    buildFilesInvalidatedByFileAddOrRemoveCounter.inc(packageBuildFiles.size());
-    pathsAddedOrRemovedInvalidatingBuildFiles.add(path.toString());
-
     DaemonicCellState state;
     try (AutoCloseableLock readLock = cellStateLock.readLock()) {
       state = cellPathToDaemonicState.get(cell.getRoot());
     }
-    // Invalidate all the packages we found.
-    for (Path buildFile : packageBuildFiles) {
-      invalidatePath(state, buildFile.resolve(cell.getBuildFileName()));
+    // An added or removed build file moves package boundaries, which globs don't tell us about.
+    boolean isBuildFile = path.endsWith(cell.getBuildFileName());
+    Path absolutePath = cell.getFilesystem().resolve(path);
+    int invalidatedBuildFiles = 0;
+    // Invalidate all the packages we found whose globs could have matched the path.
+    for (Path packagePath : packageBuildFiles) {
+      Path buildFile = state.getCellRoot().resolve(packagePath.resolve(cell.getBuildFileName()));
+      if (!isBuildFile && !state.isAffectedByAddedOrRemovedPath(buildFile, absolutePath)) {
+        LOG.debug("Not invalidating %s because none of its globs match %s.", buildFile, path);
+        buildFilesNotInvalidatedByFileAddOrRemoveCounter.inc();
+        continue;
+      }
+      invalidatedBuildFiles++;
+      invalidatePath(state, buildFile);
+    }
+
+    if (invalidatedBuildFiles > 0) {
+      buildFilesInvalidatedByFileAddOrRemoveCounter.inc(invalidatedBuildFiles);
+      pathsAddedOrRemovedInvalidatingBuildFiles.add(path.toString());
     }
   }
 
@@ -617,6 +651,7 @@ public class DaemonicParserState {
         cacheInvalidatedByDefaultIncludesChangeCounter,
         cacheInvalidatedByWatchOverflowCounter,
         buildFilesInvalidatedByFileAddOrRemoveCounter,
+        buildFilesNotInvalidatedByFileAddOrRemoveCounter,
         filesChangedCounter,
         rulesInvalidatedByWatchEventsCounter,
         pathsAddedOrRemovedInvalidatingBuildFiles);
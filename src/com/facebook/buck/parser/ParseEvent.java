@@ -58,7 +58,21 @@ public abstract class ParseEvent extends AbstractBuckEvent implements LeafEvent,
 
   public static Finished finished(
       Started started, long processedBytes, Optional<TargetGraph> graph) {
-    return new Finished(started, processedBytes, graph);
+    return finished(started, processedBytes, 0, 0, graph);
+  }
+
+  /**
+   * @param persistentCacheHits build files whose raw nodes came from the persistent parse cache
+   * @param persistentCacheMisses build files that the persistent parse cache had no raw nodes for
+   */
+  public static Finished finished(
+      Started started,
+      long processedBytes,
+      long persistentCacheHits,
+      long persistentCacheMisses,
+      Optional<TargetGraph> graph) {
+    return new Finished(
+        started, processedBytes, persistentCacheHits, persistentCacheMisses, graph);
   }
 
   public static class Started extends ParseEvent {
@@ -74,12 +88,21 @@ public abstract class ParseEvent extends AbstractBuckEvent implements LeafEvent,
 
   public static class Finished extends ParseEvent {
     private final long processedBytes;
+    private final long persistentCacheHits;
+    private final long persistentCacheMisses;
     /** If this is {@link Optional#empty()}, then the parse did not complete successfully. */
     private final Optional<TargetGraph> graph;
 
-    protected Finished(Started started, long processedBytes, Optional<TargetGraph> graph) {
+    protected Finished(
+        Started started,
+        long processedBytes,
+        long persistentCacheHits,
+        long persistentCacheMisses,
+        Optional<TargetGraph> graph) {
       super(started.getEventKey(), started.getBuildTargets());
       this.processedBytes = processedBytes;
+      this.persistentCacheHits = persistentCacheHits;
+      this.persistentCacheMisses = persistentCacheMisses;
       this.graph = graph;
     }
 
@@ -92,6 +115,14 @@ public abstract class ParseEvent extends AbstractBuckEvent implements LeafEvent,
       return processedBytes;
     }
 
+    public long getPersistentCacheHits() {
+      return persistentCacheHits;
+    }
+
+    public long getPersistentCacheMisses() {
+      return persistentCacheMisses;
+    }
+
     @JsonIgnore
     public Optional<TargetGraph> getGraph() {
       return graph;
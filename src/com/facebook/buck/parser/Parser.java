@@ -322,7 +322,11 @@ public class Parser {
     } finally {
       eventBus.post(
           ParseEvent.finished(
-              parseStart, state.getParseProcessedBytes(), Optional.ofNullable(targetGraph)));
+              parseStart,
+              state.getParseProcessedBytes(),
+              state.getPersistentCacheHits(),
+              state.getPersistentCacheMisses(),
+              Optional.ofNullable(targetGraph)));
     }
   }
 
@@ -567,6 +571,16 @@ public class Parser {
     return target.withFlavors(defaultFlavors);
   }
 
+  /**
+   * @return the raw nodes of {@code buildFile} cached by this parser, if any. The same set is
+   *     returned until the build file, one of its includes or the environment it was parsed in
+   *     changes.
+   */
+  public Optional<ImmutableSet<Map<String, Object>>> getCachedRawNodes(Cell cell, Path buildFile)
+      throws BuildTargetException {
+    return getPermState().getRawNodeCache().lookupComputedNode(cell, buildFile);
+  }
+
   public RemoteDaemonicParserState storeParserState() throws IOException {
     return getPermState().serialiseDaemonicParserState();
   }
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.EventKey;
+import java.util.concurrent.TimeUnit;
+
+/** How long build files waited for a parser and how long parsers took to start, for one parse. */
+public class ParserPoolStatsEvent extends AbstractBuckEvent {
+  private final long parsersStarted;
+  private final long startupMillis;
+  private final long parseRequests;
+  private final long queueWaitMillis;
+  private final long affinityRoutedRequests;
+
+  protected ParserPoolStatsEvent(
+      EventKey eventKey,
+      long parsersStarted,
+      long startupMillis,
+      long parseRequests,
+      long queueWaitMillis,
+      long affinityRoutedRequests) {
+    super(eventKey);
+    this.parsersStarted = parsersStarted;
+    this.startupMillis = startupMillis;
+    this.parseRequests = parseRequests;
+    this.queueWaitMillis = queueWaitMillis;
+    this.affinityRoutedRequests = affinityRoutedRequests;
+  }
+
+  @Override
+  protected String getValueString() {
+    return getReport();
+  }
+
+  @Override
+  public String getEventName() {
+    return "ParserPoolStatsEvent";
+  }
+
+  public long getParsersStarted() {
+    return parsersStarted;
+  }
+
+  /** Time spent in the first parse of each parser, which includes starting its interpreter. */
+  public long getStartupMillis() {
+    return startupMillis;
+  }
+
+  public long getParseRequests() {
+    return parseRequests;
+  }
+
+  /** Time build files spent queued for a parser, summed over all of them. */
+  public long getQueueWaitMillis() {
+    return queueWaitMillis;
+  }
+
+  /** Requests served by a parser that had already loaded some of the expected includes. */
+  public long getAffinityRoutedRequests() {
+    return affinityRoutedRequests;
+  }
+
+  public String getReport() {
+    return String.format(
+        "parsers started: %d%nparser startup: %d ms%nbuild files parsed: %d%n"
+            + "queue wait: %d ms%nrouted to a parser with matching includes: %d%n",
+        parsersStarted, startupMillis, parseRequests, queueWaitMillis, affinityRoutedRequests);
+  }
+
+  static ParserPoolStatsEvent of(ProjectBuildFileParserPool pool) {
+    return new ParserPoolStatsEvent(
+        EventKey.unique(),
+        pool.getParsersStarted(),
+        TimeUnit.NANOSECONDS.toMillis(pool.getStartupNanos()),
+        pool.getParseRequests(),
+        TimeUnit.NANOSECONDS.toMillis(pool.getQueueWaitNanos()),
+        pool.getAffinityRoutedRequests());
+  }
+}
@@ -81,6 +81,7 @@ public class PerBuildState implements AutoCloseable {
 
   private final ProjectBuildFileParserPool projectBuildFileParserPool;
   private final RawNodeParsePipeline rawNodeParsePipeline;
+  private final Optional<PersistentRawNodeCache> persistentRawNodeCache;
   private final TargetNodeParsePipeline targetNodeParsePipeline;
 
   public enum SpeculativeParsing {
@@ -116,11 +117,19 @@ public class PerBuildState implements AutoCloseable {
         new ProjectBuildFileParserPool(
             numParsingThreads, // Max parsers to create per cell.
             input -> createBuildFileParser(input),
-            enableProfiling);
+            enableProfiling,
+            parserConfig.getMinFreeMemoryForNewParserMb() * 1024 * 1024);
 
+    this.persistentRawNodeCache =
+        parserConfig.getEnablePersistentCache()
+            ? Optional.of(new PersistentRawNodeCache())
+            : Optional.empty();
     this.rawNodeParsePipeline =
         new RawNodeParsePipeline(
-            parser.getPermState().getRawNodeCache(), projectBuildFileParserPool, executorService);
+            parser.getPermState().getRawNodeCache(),
+            projectBuildFileParserPool,
+            executorService,
+            persistentRawNodeCache);
     this.targetNodeParsePipeline =
         new TargetNodeParsePipeline(
             parser.getPermState().getOrCreateNodeCache(TargetNode.class),
@@ -323,6 +332,14 @@ public class PerBuildState implements AutoCloseable {
     return parseProcessedBytes.get();
   }
 
+  public long getPersistentCacheHits() {
+    return persistentRawNodeCache.map(PersistentRawNodeCache::getHits).orElse(0L);
+  }
+
+  public long getPersistentCacheMisses() {
+    return persistentRawNodeCache.map(PersistentRawNodeCache::getMisses).orElse(0L);
+  }
+
   @Override
   public void close() throws BuildFileParseException {
     stdout.close();
@@ -330,6 +347,9 @@ public class PerBuildState implements AutoCloseable {
     targetNodeParsePipeline.close();
     rawNodeParsePipeline.close();
     projectBuildFileParserPool.close();
+    if (enableProfiling) {
+      eventBus.post(ParserPoolStatsEvent.of(projectBuildFileParserPool));
+    }
 
     if (!buildInputPathsUnderSymlink.isEmpty()) {
       LOG.debug(
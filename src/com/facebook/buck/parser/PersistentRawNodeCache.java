@@ -0,0 +1,396 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import com.facebook.buck.cli.BuckConfig;
+import com.facebook.buck.io.MorePaths;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.json.BuildFilePythonResult;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuckVersion;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.util.ObjectMappers;
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Raw nodes produced by evaluating build files, kept in the buck-out directory of each cell so that
+ * a new daemon, or a build without one, does not have to evaluate the build files that did not
+ * change since they were last parsed.
+ *
+ * <p>Raw nodes are stored under a key that covers everything their evaluation depended on:
+ *
+ * <ul>
+ *   <li>the contents of the build file and of every file it included,
+ *   <li>the values of the environment variables and config settings that it read,
+ *   <li>the paths of the files its globs matched, which determine the results of the globs,
+ *   <li>the settings of the parser itself and the version of buck.
+ * </ul>
+ *
+ * Which files, variables and settings those are is only known once the build file was evaluated,
+ * so a manifest per build file records them from the meta rules of its latest evaluation. Build
+ * files that looked at the filesystem in ways other than globbing are not stored at all.
+ *
+ * <p>Entries that have not been used for a while are deleted, at most once a day.
+ */
+public class PersistentRawNodeCache {
+
+  private static final Logger LOG = Logger.get(PersistentRawNodeCache.class);
+
+  private static final String INCLUDES_META_RULE = "__includes";
+  private static final String CONFIGS_META_RULE = "__configs";
+  private static final String ENV_META_RULE = "__env";
+  private static final String GLOBS_META_RULE = "__globs";
+
+  /** Bump whenever the format of the cache or of its keys changes. */
+  private static final int FORMAT_VERSION = 2;
+
+  private static final String LAST_PRUNED_FILE_NAME = "last_pruned";
+  private static final long PRUNE_INTERVAL_MILLIS = TimeUnit.DAYS.toMillis(1);
+  private static final long MAX_UNUSED_ENTRY_AGE_MILLIS = TimeUnit.DAYS.toMillis(7);
+
+  /** Config sections that change how build files are evaluated, rather than what they read. */
+  private static final ImmutableSet<String> PARSER_CONFIG_SECTIONS =
+      ImmutableSet.of("build", "buildfile", "parser", "project", "python", "repositories");
+
+  /** Version control metadata, which no glob is meant to match but which changes all the time. */
+  private static final ImmutableSet<String> SKIPPED_DIRECTORY_NAMES =
+      ImmutableSet.of(".git", ".hg", ".svn");
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+
+  /** Cache directories this instance has already considered pruning. */
+  private final Set<Path> prunedCacheDirs = ConcurrentHashMap.newKeySet();
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+
+  /**
+   * @return the raw nodes, including meta rules, that evaluating {@code buildFile} produced the
+   *     last time that it and everything it depends on were the same as they are now.
+   */
+  public Optional<ImmutableSet<Map<String, Object>>> lookup(Cell cell, Path buildFile) {
+    ProjectFilesystem filesystem = cell.getFilesystem();
+    try {
+      Path manifestPath = getManifestPath(cell, buildFile);
+      if (filesystem.isFile(manifestPath)) {
+        Manifest manifest =
+            ObjectMappers.readValue(filesystem.resolve(manifestPath), Manifest.class);
+        Path nodesPath = getNodesPath(cell, computeKey(cell, buildFile, manifest));
+        if (filesystem.isFile(nodesPath)) {
+          BuildFilePythonResult result =
+              ObjectMappers.readValue(filesystem.resolve(nodesPath), BuildFilePythonResult.class);
+          // Keep the entry from being pruned as unused.
+          FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+          filesystem.setLastModifiedTime(manifestPath, now);
+          filesystem.setLastModifiedTime(nodesPath, now);
+          hits.incrementAndGet();
+          return Optional.of(ImmutableSet.copyOf(result.getValues()));
+        }
+      }
+    } catch (IOException e) {
+      // Most likely a file that the build file depended on is gone, which makes it a miss anyway.
+      LOG.debug(e, "Failed to look up the raw nodes of %s.", buildFile);
+    }
+    misses.incrementAndGet();
+    return Optional.empty();
+  }
+
+  /**
+   * Stores the raw nodes that evaluating {@code buildFile} produced.
+   *
+   * @param rawNodes raw nodes, including the meta rules describing what the evaluation read
+   */
+  public void store(Cell cell, Path buildFile, ImmutableSet<Map<String, Object>> rawNodes) {
+    ProjectFilesystem filesystem = cell.getFilesystem();
+    try {
+      Optional<Manifest> maybeManifest = Manifest.fromMetaRules(cell, buildFile, rawNodes);
+      if (!maybeManifest.isPresent()) {
+        // Nothing tells which of the files it may have looked at determine its raw nodes.
+        LOG.debug("Not storing the raw nodes of %s, which looked at the filesystem.", buildFile);
+        filesystem.deleteFileAtPathIfExists(getManifestPath(cell, buildFile));
+        return;
+      }
+      Manifest manifest = maybeManifest.get();
+      Path nodesPath = getNodesPath(cell, computeKey(cell, buildFile, manifest));
+      writeAtomically(
+          filesystem,
+          nodesPath,
+          ObjectMappers.WRITER.writeValueAsString(ImmutableMap.of("values", rawNodes)));
+      writeAtomically(
+          filesystem,
+          getManifestPath(cell, buildFile),
+          ObjectMappers.WRITER.writeValueAsString(manifest));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to store the raw nodes of %s.", buildFile);
+    }
+    if (prunedCacheDirs.add(getCacheDir(cell))) {
+      pruneIfDue(filesystem, getCacheDir(cell));
+    }
+  }
+
+  /** Deletes the entries that have not been used for a while, if that was not done recently. */
+  private static void pruneIfDue(ProjectFilesystem filesystem, Path cacheDir) {
+    long now = System.currentTimeMillis();
+    Path lastPrunedPath = cacheDir.resolve(LAST_PRUNED_FILE_NAME);
+    try {
+      if (filesystem.isFile(lastPrunedPath)
+          && now - filesystem.getLastModifiedTime(lastPrunedPath).toMillis()
+              < PRUNE_INTERVAL_MILLIS) {
+        return;
+      }
+      filesystem.writeContentsToPath("", lastPrunedPath);
+      int pruned = 0;
+      for (String subdir : ImmutableList.of("manifests", "nodes")) {
+        Path dir = cacheDir.resolve(subdir);
+        if (!filesystem.isDirectory(dir)) {
+          continue;
+        }
+        for (Path entry : filesystem.getDirectoryContents(dir)) {
+          if (now - filesystem.getLastModifiedTime(entry).toMillis()
+              > MAX_UNUSED_ENTRY_AGE_MILLIS) {
+            filesystem.deleteFileAtPathIfExists(entry);
+            pruned++;
+          }
+        }
+      }
+      LOG.debug("Pruned %d unused entries from %s.", pruned, cacheDir);
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to prune %s.", cacheDir);
+    }
+  }
+
+  private static Path getCacheDir(Cell cell) {
+    return cell.getFilesystem().getBuckPaths().getBuckOut().resolve("parse_cache");
+  }
+
+  private static Path getManifestPath(Cell cell, Path buildFile) {
+    String relativePath = cell.getRoot().relativize(buildFile).toString();
+    return getCacheDir(cell)
+        .resolve("manifests")
+        .resolve(Hashing.sha1().hashString(relativePath, Charsets.UTF_8).toString());
+  }
+
+  private static Path getNodesPath(Cell cell, HashCode key) {
+    return getCacheDir(cell).resolve("nodes").resolve(key.toString());
+  }
+
+  private static void writeAtomically(ProjectFilesystem filesystem, Path path, String contents)
+      throws IOException {
+    Path tmpPath =
+        path.resolveSibling(path.getFileName() + ".tmp" + Thread.currentThread().getId());
+    filesystem.createParentDirs(path);
+    filesystem.writeContentsToPath(contents, tmpPath);
+    filesystem.move(
+        tmpPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  private HashCode computeKey(Cell cell, Path buildFile, Manifest manifest) throws IOException {
+    ProjectFilesystem filesystem = cell.getFilesystem();
+    BuckConfig buckConfig = cell.getBuckConfig();
+    Hasher hasher = Hashing.sha1().newHasher();
+    hasher.putInt(FORMAT_VERSION);
+    putString(hasher, BuckVersion.getVersion());
+    putString(hasher, cell.getRoot().toString());
+    putString(hasher, buildFile.toString());
+    for (String section : PARSER_CONFIG_SECTIONS) {
+      for (Map.Entry<String, String> entry :
+          ImmutableSortedMap.copyOf(buckConfig.getEntriesForSection(section)).entrySet()) {
+        putString(hasher, section + '.' + entry.getKey());
+        putString(hasher, entry.getValue());
+      }
+    }
+    for (String include : manifest.includes) {
+      putString(hasher, include);
+      filesystem.computeSha1(filesystem.resolve(include)).update(hasher);
+    }
+    for (String name : manifest.env) {
+      putString(hasher, name);
+      putOptionalString(hasher, Optional.ofNullable(buckConfig.getEnvironment().get(name)));
+    }
+    for (Map.Entry<String, SortedSet<String>> section : manifest.configs.entrySet()) {
+      for (String field : section.getValue()) {
+        putString(hasher, section.getKey() + '.' + field);
+        putOptionalString(hasher, buckConfig.getValue(section.getKey(), field));
+      }
+    }
+    hashGlobResults(cell, manifest.globs, hasher);
+    return hasher.hash();
+  }
+
+  /**
+   * Hashes the paths of the files that the build file's globs match, which is what determines the
+   * results of the globs. Only the directories the globs can reach are walked, and ignored paths
+   * are skipped.
+   */
+  private static void hashGlobResults(
+      Cell cell, List<Map<String, Object>> globsMetaRule, Hasher hasher) throws IOException {
+    ProjectFilesystem filesystem = cell.getFilesystem();
+    BuildFileGlobs globs = BuildFileGlobs.fromMetaRule(cell.getRoot(), globsMetaRule);
+    SortedSet<String> matches = new TreeSet<>();
+    for (Map.Entry<Path, Integer> root : globs.getSearchRoots().entrySet()) {
+      Path rootPath = root.getKey();
+      int maxDepth = root.getValue();
+      if (!rootPath.startsWith(cell.getRoot()) || !filesystem.isDirectory(rootPath)) {
+        continue;
+      }
+      filesystem.walkRelativeFileTree(
+          filesystem.relativize(rootPath),
+          EnumSet.noneOf(FileVisitOption.class),
+          new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+              Path absoluteDir = filesystem.resolve(dir);
+              if (absoluteDir.equals(rootPath)) {
+                return FileVisitResult.CONTINUE;
+              }
+              if (absoluteDir.getNameCount() - rootPath.getNameCount() >= maxDepth
+                  || SKIPPED_DIRECTORY_NAMES.contains(dir.getFileName().toString())
+                  || dir.equals(filesystem.getBuckPaths().getBuckOut())
+                  || filesystem.isIgnored(dir)) {
+                return FileVisitResult.SKIP_SUBTREE;
+              }
+              return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+              if (globs.matches(filesystem.resolve(file))) {
+                matches.add(MorePaths.pathWithUnixSeparators(file));
+              }
+              return FileVisitResult.CONTINUE;
+            }
+          });
+    }
+    for (String match : matches) {
+      putString(hasher, match);
+    }
+  }
+
+  private static void putString(Hasher hasher, String string) {
+    hasher.putInt(string.length()).putString(string, Charsets.UTF_8);
+  }
+
+  private static void putOptionalString(Hasher hasher, Optional<String> string) {
+    hasher.putBoolean(string.isPresent());
+    string.ifPresent(value -> putString(hasher, value));
+  }
+
+  /** What the evaluation of a build file read. */
+  private static class Manifest {
+    /** Paths of the build file and of all the files it included, relative to the cell root. */
+    @JsonProperty private final SortedSet<String> includes;
+
+    /** Names of the environment variables that the build file read. */
+    @JsonProperty private final SortedSet<String> env;
+
+    /** Fields of each config section that the build file read. */
+    @JsonProperty private final SortedMap<String, SortedSet<String>> configs;
+
+    /** The globs that the build file evaluated, as reported in its meta rule. */
+    @JsonProperty private final List<Map<String, Object>> globs;
+
+    @JsonCreator
+    private Manifest(
+        @JsonProperty("includes") SortedSet<String> includes,
+        @JsonProperty("env") SortedSet<String> env,
+        @JsonProperty("configs") SortedMap<String, SortedSet<String>> configs,
+        @JsonProperty("globs") List<Map<String, Object>> globs) {
+      this.includes = includes;
+      this.env = env;
+      this.configs = configs;
+      // Manifests written before globs were recorded have none.
+      this.globs = globs == null ? ImmutableList.of() : globs;
+    }
+
+    /**
+     * @return the manifest, or nothing if the build file may have depended on files other than the
+     *     ones that its globs matched, which its meta rules then do not list.
+     */
+    @SuppressWarnings("unchecked")
+    private static Optional<Manifest> fromMetaRules(
+        Cell cell, Path buildFile, ImmutableSet<Map<String, Object>> rawNodes) {
+      SortedSet<String> includes = new TreeSet<>();
+      SortedSet<String> env = new TreeSet<>();
+      SortedMap<String, SortedSet<String>> configs = new TreeMap<>();
+      List<Map<String, Object>> globs = new ArrayList<>();
+      includes.add(cell.getRoot().relativize(buildFile).toString());
+      for (Map<String, Object> rawNode : rawNodes) {
+        if (rawNode.containsKey(INCLUDES_META_RULE)) {
+          for (String include : (List<String>) rawNode.get(INCLUDES_META_RULE)) {
+            Path path = cell.getFilesystem().resolve(include);
+            includes.add(
+                path.startsWith(cell.getRoot())
+                    ? cell.getRoot().relativize(path).toString()
+                    : path.toString());
+          }
+        } else if (rawNode.containsKey(ENV_META_RULE)) {
+          env.addAll(((Map<String, Object>) rawNode.get(ENV_META_RULE)).keySet());
+        } else if (rawNode.containsKey(CONFIGS_META_RULE)) {
+          for (Map.Entry<String, Map<String, Object>> section :
+              ((Map<String, Map<String, Object>>) rawNode.get(CONFIGS_META_RULE)).entrySet()) {
+            configs.put(section.getKey(), ImmutableSortedSet.copyOf(section.getValue().keySet()));
+          }
+        } else if (rawNode.containsKey(GLOBS_META_RULE)) {
+          List<Map<String, Object>> metaRule =
+              (List<Map<String, Object>>) rawNode.get(GLOBS_META_RULE);
+          if (metaRule == null) {
+            return Optional.empty();
+          }
+          globs.addAll(metaRule);
+        }
+      }
+      return Optional.of(new Manifest(includes, env, configs, globs));
+    }
+  }
+}
@@ -20,29 +20,46 @@ import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.log.Logger;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.util.concurrent.ResourcePool;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
+import com.sun.management.OperatingSystemMXBean;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Path;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
 import javax.annotation.concurrent.GuardedBy;
 
 /**
  * Allows multiple concurrently executing futures to share a constrained number of parsers.
  *
- * <p>Parser instances are lazily created up till a fixed maximum. If more than max parser are
- * requested the associated 'requests' are queued up. As soon as a parser is returned it will be
- * used to satisfy the first pending request, otherwise it is "parked".
+ * <p>Parser instances are lazily created up till a fixed maximum, and only while there is enough
+ * free memory for another one. If more than max parser are requested the associated 'requests' are
+ * queued up. As soon as a parser is returned it will be used to satisfy the first pending request,
+ * otherwise it is "parked", or retired if memory is short.
+ *
+ * <p>Each parser keeps the extension files it has loaded, so a build file is handed to the parked
+ * parser that has already loaded most of the files that its nearest parsed ancestor package
+ * included.
  */
 class ProjectBuildFileParserPool implements AutoCloseable {
   private static final Logger LOG = Logger.get(ProjectBuildFileParserPool.class);
 
+  private static final String INCLUDES_META_RULE = "__includes";
+
   private final int maxParsersPerCell;
 
   @GuardedBy("this")
@@ -51,6 +68,21 @@ class ProjectBuildFileParserPool implements AutoCloseable {
   private final Function<Cell, ProjectBuildFileParser> parserFactory;
   private final AtomicBoolean closing;
   private final boolean enableProfiler;
+  private final BooleanSupplier hasMemoryForNewParser;
+
+  /** Sampled before each request, as the pools check it while locked. */
+  private volatile boolean hadMemoryForNewParser = true;
+
+  /** Includes loaded by each parser, compared by identity and dropped once it is retired. */
+  private final ConcurrentMap<ProjectBuildFileParser, Set<String>> loadedIncludes;
+
+  private final ConcurrentMap<Path, ImmutableSet<String>> includesByDirectory;
+
+  private final AtomicLong parsersStarted = new AtomicLong();
+  private final AtomicLong startupNanos = new AtomicLong();
+  private final AtomicLong parseRequests = new AtomicLong();
+  private final AtomicLong queueWaitNanos = new AtomicLong();
+  private final AtomicLong affinityRoutedRequests = new AtomicLong();
 
   /**
    * @param maxParsersPerCell maximum number of parsers to create for a single cell.
@@ -60,6 +92,33 @@ class ProjectBuildFileParserPool implements AutoCloseable {
       int maxParsersPerCell,
       Function<Cell, ProjectBuildFileParser> parserFactory,
       boolean enableProfiler) {
+    this(maxParsersPerCell, parserFactory, enableProfiler, () -> true);
+  }
+
+  /**
+   * @param maxParsersPerCell maximum number of parsers to create for a single cell.
+   * @param parserFactory function used to create a new parser.
+   * @param minFreeMemoryBytes free physical memory to keep when starting a new parser, or 0 to not
+   *     look at memory.
+   */
+  public ProjectBuildFileParserPool(
+      int maxParsersPerCell,
+      Function<Cell, ProjectBuildFileParser> parserFactory,
+      boolean enableProfiler,
+      long minFreeMemoryBytes) {
+    this(
+        maxParsersPerCell,
+        parserFactory,
+        enableProfiler,
+        minFreeMemoryBytes > 0 ? () -> getFreeMemoryBytes() >= minFreeMemoryBytes : () -> true);
+  }
+
+  @VisibleForTesting
+  ProjectBuildFileParserPool(
+      int maxParsersPerCell,
+      Function<Cell, ProjectBuildFileParser> parserFactory,
+      boolean enableProfiler,
+      BooleanSupplier hasMemoryForNewParser) {
     Preconditions.checkArgument(maxParsersPerCell > 0);
 
     this.maxParsersPerCell = maxParsersPerCell;
@@ -67,6 +126,9 @@ class ProjectBuildFileParserPool implements AutoCloseable {
     this.parserFactory = parserFactory;
     this.closing = new AtomicBoolean(false);
     this.enableProfiler = enableProfiler;
+    this.hasMemoryForNewParser = hasMemoryForNewParser;
+    this.loadedIncludes = new MapMaker().weakKeys().makeMap();
+    this.includesByDirectory = new ConcurrentHashMap<>();
   }
 
   /**
@@ -83,11 +145,111 @@ class ProjectBuildFileParserPool implements AutoCloseable {
       final ListeningExecutorService executorService) {
     Preconditions.checkState(!closing.get());
 
+    hadMemoryForNewParser = hasMemoryForNewParser.getAsBoolean();
+    ImmutableSet<String> expectedIncludes = predictIncludes(buildFile);
+    long requestedAt = System.nanoTime();
     return getResourcePoolForCell(cell)
         .scheduleOperationWithResource(
-            parser ->
-                ImmutableSet.copyOf(parser.getAllRulesAndMetaRules(buildFile, processedBytes)),
-            executorService);
+            parser -> {
+              long startedAt = System.nanoTime();
+              parseRequests.incrementAndGet();
+              queueWaitNanos.addAndGet(startedAt - requestedAt);
+              Set<String> parserIncludes = loadedIncludes.get(parser);
+              if (parserIncludes != null && countLoaded(parserIncludes, expectedIncludes) > 0) {
+                affinityRoutedRequests.incrementAndGet();
+              }
+
+              ImmutableSet<Map<String, Object>> result =
+                  ImmutableSet.copyOf(parser.getAllRulesAndMetaRules(buildFile, processedBytes));
+
+              if (parserIncludes == null) {
+                // The first parse of a parser includes starting up its interpreter.
+                parsersStarted.incrementAndGet();
+                startupNanos.addAndGet(System.nanoTime() - startedAt);
+                parserIncludes = Sets.newConcurrentHashSet();
+                loadedIncludes.put(parser, parserIncludes);
+              }
+              ImmutableSet<String> includes = getIncludes(result);
+              parserIncludes.addAll(includes);
+              includesByDirectory.put(getDirectory(buildFile), includes);
+              return result;
+            },
+            executorService,
+            parser -> {
+              Set<String> parserIncludes = loadedIncludes.get(parser);
+              return parserIncludes == null ? 0 : countLoaded(parserIncludes, expectedIncludes);
+            });
+  }
+
+  public long getParsersStarted() {
+    return parsersStarted.get();
+  }
+
+  public long getStartupNanos() {
+    return startupNanos.get();
+  }
+
+  public long getParseRequests() {
+    return parseRequests.get();
+  }
+
+  public long getQueueWaitNanos() {
+    return queueWaitNanos.get();
+  }
+
+  public long getAffinityRoutedRequests() {
+    return affinityRoutedRequests.get();
+  }
+
+  /** The includes of the nearest package above {@code buildFile} that has been parsed already. */
+  private ImmutableSet<String> predictIncludes(Path buildFile) {
+    for (Path directory = getDirectory(buildFile);
+        directory != null;
+        directory = directory.getParent()) {
+      ImmutableSet<String> includes = includesByDirectory.get(directory);
+      if (includes != null) {
+        return includes;
+      }
+    }
+    return ImmutableSet.of();
+  }
+
+  private static Path getDirectory(Path buildFile) {
+    Path directory = buildFile.getParent();
+    return directory == null ? buildFile : directory;
+  }
+
+  private static int countLoaded(Set<String> loaded, ImmutableSet<String> expected) {
+    int count = 0;
+    for (String include : expected) {
+      if (loaded.contains(include)) {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  @SuppressWarnings("unchecked")
+  private static ImmutableSet<String> getIncludes(ImmutableSet<Map<String, Object>> rawNodes) {
+    for (Map<String, Object> rawNode : rawNodes) {
+      Object includes = rawNode.get(INCLUDES_META_RULE);
+      if (includes instanceof List) {
+        // The first include is the build file itself, which no other build file loads.
+        List<String> includeList = (List<String>) includes;
+        return ImmutableSet.copyOf(
+            includeList.subList(Math.min(1, includeList.size()), includeList.size()));
+      }
+    }
+    return ImmutableSet.of();
+  }
+
+  private static long getFreeMemoryBytes() {
+    java.lang.management.OperatingSystemMXBean osBean =
+        ManagementFactory.getOperatingSystemMXBean();
+    if (osBean instanceof OperatingSystemMXBean) {
+      return ((OperatingSystemMXBean) osBean).getFreePhysicalMemorySize();
+    }
+    return Long.MAX_VALUE;
   }
 
   private synchronized ResourcePool<ProjectBuildFileParser> getResourcePoolForCell(Cell cell) {
@@ -99,7 +261,8 @@ class ProjectBuildFileParserPool implements AutoCloseable {
               // If the Python process garbles the output stream then the bser codec doesn't always
               // recover and subsequent attempts at invoking the parser will fail.
               ResourcePool.ResourceUsageErrorPolicy.RETIRE,
-              () -> parserFactory.apply(cell));
+              () -> parserFactory.apply(cell),
+              () -> hadMemoryForNewParser);
       parserResourcePools.put(cell, pool);
     }
     return pool;
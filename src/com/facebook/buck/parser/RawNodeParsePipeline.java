@@ -36,15 +36,29 @@ public class RawNodeParsePipeline extends ParsePipeline<Map<String, Object>> {
   private final PipelineNodeCache<Path, ImmutableSet<Map<String, Object>>> cache;
   private final ListeningExecutorService executorService;
   private final ProjectBuildFileParserPool projectBuildFileParserPool;
+  private final Optional<PersistentRawNodeCache> persistentCache;
 
   public RawNodeParsePipeline(
       Cache<Path, ImmutableSet<Map<String, Object>>> cache,
       ProjectBuildFileParserPool projectBuildFileParserPool,
       ListeningExecutorService executorService) {
+    this(cache, projectBuildFileParserPool, executorService, Optional.empty());
+  }
+
+  /**
+   * @param persistentCache cache of raw nodes that outlives the daemon, which is consulted before
+   *     evaluating a build file and updated after evaluating one
+   */
+  public RawNodeParsePipeline(
+      Cache<Path, ImmutableSet<Map<String, Object>>> cache,
+      ProjectBuildFileParserPool projectBuildFileParserPool,
+      ListeningExecutorService executorService,
+      Optional<PersistentRawNodeCache> persistentCache) {
     super();
     this.executorService = executorService;
     this.cache = new PipelineNodeCache<>(cache);
     this.projectBuildFileParserPool = projectBuildFileParserPool;
+    this.persistentCache = persistentCache;
   }
 
   /**
@@ -95,8 +109,27 @@ public class RawNodeParsePipeline extends ParsePipeline<Map<String, Object>> {
             return Futures.immediateCancelledFuture();
           }
 
-          return projectBuildFileParserPool.getAllRulesAndMetaRules(
-              cell, buildFile, processedBytes, executorService);
+          if (!persistentCache.isPresent()) {
+            return projectBuildFileParserPool.getAllRulesAndMetaRules(
+                cell, buildFile, processedBytes, executorService);
+          }
+          PersistentRawNodeCache diskCache = persistentCache.get();
+          return Futures.transformAsync(
+              executorService.submit(() -> diskCache.lookup(cell, buildFile)),
+              cachedNodes -> {
+                if (cachedNodes.isPresent()) {
+                  return Futures.immediateFuture(cachedNodes.get());
+                }
+                return Futures.transform(
+                    projectBuildFileParserPool.getAllRulesAndMetaRules(
+                        cell, buildFile, processedBytes, executorService),
+                    rawNodes -> {
+                      diskCache.store(cell, buildFile, rawNodes);
+                      return rawNodes;
+                    },
+                    executorService);
+              },
+              executorService);
         });
   }
 
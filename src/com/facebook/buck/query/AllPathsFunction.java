@@ -33,11 +33,8 @@ package com.facebook.buck.query;
 import com.facebook.buck.query.QueryEnvironment.Argument;
 import com.facebook.buck.query.QueryEnvironment.ArgumentType;
 import com.facebook.buck.query.QueryEnvironment.QueryFunction;
-import com.facebook.buck.util.MoreSets;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
-import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Set;
 
 /**
@@ -79,26 +76,7 @@ public class AllPathsFunction implements QueryFunction {
     Set<QueryTarget> fromSet = evaluator.eval(from, env);
     Set<QueryTarget> toSet = evaluator.eval(to, env);
 
-    // Algorithm:
-    // 1) compute "reachableFromX", the forward transitive closure of the "from" set;
-    // 2) find the intersection of "reachableFromX" with the "to" set, and traverse the graph using
-    //    the reverse dependencies. This will effectively compute the intersection between the nodes
-    //    reachable from the "from" set and the reverse transitive closure of the "to" set.
-
     env.buildTransitiveClosure(fromSet, Integer.MAX_VALUE);
-
-    Set<QueryTarget> reachableFromX = env.getTransitiveClosure(fromSet);
-    Set<QueryTarget> result = MoreSets.intersection(reachableFromX, toSet);
-    Collection<QueryTarget> worklist = result;
-    while (!worklist.isEmpty()) {
-      Collection<QueryTarget> reverseDeps = env.getReverseDeps(worklist);
-      worklist = new ArrayList<>();
-      for (QueryTarget target : reverseDeps) {
-        if (reachableFromX.contains(target) && result.add(target)) {
-          worklist.add(target);
-        }
-      }
-    }
-    return ImmutableSet.copyOf(result);
+    return env.getAllPaths(fromSet, toSet);
   }
 }
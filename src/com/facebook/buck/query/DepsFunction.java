@@ -112,6 +112,9 @@ public class DepsFunction implements QueryFunction {
     Optional<QueryExpression> deps =
         args.size() > 2 ? Optional.of(args.get(2).getExpression()) : Optional.empty();
     env.buildTransitiveClosure(argumentSet, depthBound);
+    if (!deps.isPresent()) {
+      return env.getDepsUpToDepth(argumentSet, depthBound);
+    }
 
     // LinkedHashSet preserves the order of insertion when iterating over the values.
     // The order by which we traverse the result is meaningful because the dependencies are
@@ -129,11 +132,7 @@ public class DepsFunction implements QueryFunction {
               next.add(queryTarget);
             }
           };
-      if (deps.isPresent()) {
-        forEachDep(evaluator, env, deps.get(), current, consumer);
-      } else {
-        env.forEachFwdDep(current, consumer);
-      }
+      forEachDep(evaluator, env, deps.get(), current, consumer);
       if (next.isEmpty()) {
         break;
       }
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.query;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFutureTask;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Evaluates the operands of set operations such as {@code deps(a) + rdeps(b, c)} concurrently, and
+ * everything else like {@link NoopQueryEvaluator}.
+ *
+ * <p>The first operand is evaluated on the calling thread while the others are handed to {@code
+ * executor}. Operands that no thread has picked up by the time the caller needs them are evaluated
+ * by the caller as well, so evaluation makes progress even when the executor is busy. The
+ * environment must be safe to use from several threads at once.
+ */
+public class ParallelQueryEvaluator implements QueryEvaluator {
+
+  private final ListeningExecutorService executor;
+
+  public ParallelQueryEvaluator(ListeningExecutorService executor) {
+    this.executor = executor;
+  }
+
+  @Override
+  public ImmutableSet<QueryTarget> eval(QueryExpression exp, QueryEnvironment env)
+      throws QueryException {
+    if (!(exp instanceof BinaryOperatorExpression)) {
+      return exp.eval(this, env);
+    }
+
+    ImmutableList<QueryExpression> operands = ((BinaryOperatorExpression) exp).getOperands();
+    List<ListenableFutureTask<ImmutableSet<QueryTarget>>> tasks = new ArrayList<>();
+    for (QueryExpression operand : operands.subList(1, operands.size())) {
+      ListenableFutureTask<ImmutableSet<QueryTarget>> task =
+          ListenableFutureTask.create(() -> eval(operand, env));
+      executor.execute(task);
+      tasks.add(task);
+    }
+
+    Map<QueryExpression, ImmutableSet<QueryTarget>> operandValues = new IdentityHashMap<>();
+    try {
+      operandValues.put(operands.get(0), eval(operands.get(0), env));
+      for (int i = 0; i < tasks.size(); i++) {
+        ListenableFutureTask<ImmutableSet<QueryTarget>> task = tasks.get(i);
+        // A no-op if a thread of the executor has already started the task.
+        task.run();
+        operandValues.put(operands.get(i + 1), getOperandValue(task, operands.get(i + 1)));
+      }
+    } finally {
+      tasks.forEach(task -> task.cancel(false));
+    }
+
+    return exp.eval(
+        (operand, operandEnv) -> {
+          ImmutableSet<QueryTarget> value = operandValues.get(operand);
+          return value != null ? value : eval(operand, operandEnv);
+        },
+        env);
+  }
+
+  private static ImmutableSet<QueryTarget> getOperandValue(
+      ListenableFutureTask<ImmutableSet<QueryTarget>> task, QueryExpression operand)
+      throws QueryException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new QueryException(e, "Interrupted while evaluating %s", operand);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof QueryException) {
+        throw (QueryException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new QueryException(cause, "Failed to evaluate %s", operand);
+    }
+  }
+}
@@ -30,10 +30,16 @@
 
 package com.facebook.buck.query;
 
+import com.facebook.buck.util.MoreSets;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -235,6 +241,89 @@ public interface QueryEnvironment {
    */
   void buildTransitiveClosure(Set<QueryTarget> targetNodes, int maxDepth) throws QueryException;
 
+  /**
+   * Returns {@code targets} and their forward dependencies up to {@code maxDepth} levels away,
+   * level by level. Callers must ensure that {@link #buildTransitiveClosure} has been called for
+   * the relevant subgraph.
+   */
+  default ImmutableSet<QueryTarget> getDepsUpToDepth(Set<QueryTarget> targets, int maxDepth)
+      throws QueryException {
+    // LinkedHashSet preserves the order of insertion when iterating over the values.
+    // The order by which we traverse the result is meaningful because the dependencies are
+    // traversed level-by-level.
+    Set<QueryTarget> result = new LinkedHashSet<>(targets);
+    Collection<QueryTarget> current = targets;
+    for (int i = 0; i < maxDepth; i++) {
+      Collection<QueryTarget> next = new ArrayList<>();
+      forEachFwdDep(
+          current,
+          queryTarget -> {
+            if (result.add(queryTarget)) {
+              next.add(queryTarget);
+            }
+          });
+      if (next.isEmpty()) {
+        break;
+      }
+      current = next;
+    }
+    return ImmutableSet.copyOf(result);
+  }
+
+  /**
+   * Returns the targets in {@code targets} and their reverse dependencies up to {@code maxDepth}
+   * levels away, level by level, restricted to the forward transitive closure of {@code universe}.
+   * Callers must ensure that {@link #buildTransitiveClosure} has been called for {@code universe}.
+   */
+  default ImmutableSet<QueryTarget> getReverseDepsInUniverse(
+      Set<QueryTarget> universe, Set<QueryTarget> targets, int maxDepth) throws QueryException {
+    Predicate<QueryTarget> inUniverse = getTransitiveClosure(universe)::contains;
+    Set<QueryTarget> visited = new LinkedHashSet<>();
+    Collection<QueryTarget> current = targets;
+    // Iterating maxDepth+1 times because the first one processes the given targets.
+    for (int i = 0; i <= maxDepth; i++) {
+      // Restrict the search to nodes in the transitive closure of the universe set.
+      Iterable<QueryTarget> currentInUniverse = Iterables.filter(current, inUniverse);
+
+      // Filter nodes visited before.
+      Collection<QueryTarget> next =
+          getReverseDeps(Iterables.filter(currentInUniverse, Predicates.not(visited::contains)));
+      Iterables.addAll(visited, currentInUniverse);
+      if (next.isEmpty()) {
+        break;
+      }
+      current = next;
+    }
+    return ImmutableSet.copyOf(visited);
+  }
+
+  /**
+   * Returns the targets on any path from a target in {@code from} to a target in {@code to},
+   * including both ends. Callers must ensure that {@link #buildTransitiveClosure} has been called
+   * for {@code from}.
+   */
+  default ImmutableSet<QueryTarget> getAllPaths(Set<QueryTarget> from, Set<QueryTarget> to)
+      throws QueryException {
+    // Algorithm:
+    // 1) compute "reachableFromX", the forward transitive closure of the "from" set;
+    // 2) find the intersection of "reachableFromX" with the "to" set, and traverse the graph using
+    //    the reverse dependencies. This will effectively compute the intersection between the nodes
+    //    reachable from the "from" set and the reverse transitive closure of the "to" set.
+    Set<QueryTarget> reachableFromX = getTransitiveClosure(from);
+    Set<QueryTarget> result = MoreSets.intersection(reachableFromX, to);
+    Collection<QueryTarget> worklist = result;
+    while (!worklist.isEmpty()) {
+      Collection<QueryTarget> reverseDeps = getReverseDeps(worklist);
+      worklist = new ArrayList<>();
+      for (QueryTarget target : reverseDeps) {
+        if (reachableFromX.contains(target) && result.add(target)) {
+          worklist.add(target);
+        }
+      }
+    }
+    return ImmutableSet.copyOf(result);
+  }
+
   String getTargetKind(QueryTarget target) throws QueryException;
 
   /** Returns the tests associated with the given target. */
@@ -68,6 +68,24 @@ public class TargetVariablesQueryEnvironment implements QueryEnvironment {
     delegate.buildTransitiveClosure(targetNodes, maxDepth);
   }
 
+  @Override
+  public ImmutableSet<QueryTarget> getDepsUpToDepth(Set<QueryTarget> targets, int maxDepth)
+      throws QueryException {
+    return delegate.getDepsUpToDepth(targets, maxDepth);
+  }
+
+  @Override
+  public ImmutableSet<QueryTarget> getReverseDepsInUniverse(
+      Set<QueryTarget> universe, Set<QueryTarget> targets, int maxDepth) throws QueryException {
+    return delegate.getReverseDepsInUniverse(universe, targets, maxDepth);
+  }
+
+  @Override
+  public ImmutableSet<QueryTarget> getAllPaths(Set<QueryTarget> from, Set<QueryTarget> to)
+      throws QueryException {
+    return delegate.getAllPaths(from, to);
+  }
+
   @Override
   public String getTargetKind(QueryTarget target) throws QueryException {
     return delegate.getTargetKind(target);
@@ -71,6 +71,23 @@ abstract class AbstractCachingBuildEngineBuckConfig implements ConfigView<BuckCo
     return getDelegate().getLong("build", "input_rule_key_file_size_limit").orElse(Long.MAX_VALUE);
   }
 
+  /**
+   * @return whether to dispatch ready rules in order of the longest path of work left after them,
+   *     as estimated from the durations of previous builds, rather than in the order they are
+   *     ready.
+   */
+  public boolean isCriticalPathSchedulingEnabled() {
+    return getDelegate().getBooleanValue("build", "critical_path_scheduling", false);
+  }
+
+  /**
+   * @return whether to keep default rule keys in the buck-out directory between commands, so that
+   *     unchanged rules don't need their keys computed again after the daemon restarts.
+   */
+  public boolean isPersistentRuleKeyCacheEnabled() {
+    return getDelegate().getBooleanValue("build", "persistent_rule_key_cache", false);
+  }
+
   public ResourceAwareSchedulingInfo getResourceAwareSchedulingInfo() {
     return ResourceAwareSchedulingInfo.of(
         getDelegate().isResourceAwareSchedulingEnabled(),
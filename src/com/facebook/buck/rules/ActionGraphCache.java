@@ -24,7 +24,9 @@ import com.facebook.buck.event.WatchmanStatusEvent;
 import com.facebook.buck.event.listener.BroadcastEventListener;
 import com.facebook.buck.graph.AbstractBottomUpTraversal;
 import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.Pair;
+import com.facebook.buck.model.UnflavoredBuildTarget;
 import com.facebook.buck.parser.NoSuchBuildTargetException;
 import com.facebook.buck.rules.keys.ContentAgnosticRuleKeyFactory;
 import com.facebook.buck.rules.keys.RuleKeyFieldLoader;
@@ -32,22 +34,34 @@ import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.WatchmanOverflowEvent;
 import com.facebook.buck.util.WatchmanPathEvent;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.MapDifference;
 import com.google.common.collect.Maps;
+import com.google.common.collect.SetMultimap;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
 import javax.annotation.Nullable;
 
 /**
  * Class that transforms {@link TargetGraph} to {@link ActionGraph}. It also holds a cache for the
  * last ActionGraph it generated.
+ *
+ * <p>When incremental action graphs are enabled, a changed {@link TargetGraph} does not throw the
+ * last ActionGraph away: the {@link BuildRule}s of every target whose transitive target subgraph is
+ * unchanged, and whose rules are all {@link ReusableAcrossActionGraphs}, are carried over, and only
+ * the other targets go through the {@link TargetNodeToBuildRuleTransformer} again.
  */
 public class ActionGraphCache {
   private static final Logger LOG = Logger.get(ActionGraphCache.class);
@@ -56,12 +70,34 @@ public class ActionGraphCache {
 
   @Nullable private HashCode lastTargetGraphHash;
 
+  /**
+   * The last ActionGraph, kept around as a source of reusable rules. Like {@link #lastActionGraph}
+   * it is dropped when files are created or deleted, as descriptions may have looked at the
+   * filesystem to create rules of targets which are otherwise unchanged.
+   */
+  @Nullable private Pair<TargetGraph, ActionGraphAndResolver> previousActionGraph;
+
   private BroadcastEventListener broadcastEventListener;
 
   public ActionGraphCache(BroadcastEventListener broadcastEventListener) {
     this.broadcastEventListener = broadcastEventListener;
   }
 
+  public ActionGraphAndResolver getActionGraph(
+      final BuckEventBus eventBus,
+      final boolean checkActionGraphs,
+      final boolean skipActionGraphCache,
+      final TargetGraph targetGraph,
+      int keySeed) {
+    return getActionGraph(
+        eventBus,
+        checkActionGraphs,
+        skipActionGraphCache,
+        /* incrementalActionGraph */ false,
+        targetGraph,
+        keySeed);
+  }
+
   /**
    * It returns an {@link ActionGraphAndResolver}. If the {@code targetGraph} exists in the cache it
    * returns a cached version of the {@link ActionGraphAndResolver}, else returns a new one and
@@ -71,6 +107,8 @@ public class ActionGraphCache {
    * @param skipActionGraphCache if true, do not invalidate the {@link ActionGraph} cached in
    *     memory. Instead, create a new {@link ActionGraph} for this request, which should be
    *     garbage-collected at the end of the request.
+   * @param incrementalActionGraph if true, a cache miss reuses the rules of unchanged targets from
+   *     the previous {@link ActionGraph} instead of building everything from scratch.
    * @param targetGraph the target graph that the action graph will be based on.
    * @return a {@link ActionGraphAndResolver}
    */
@@ -78,6 +116,7 @@ public class ActionGraphCache {
       final BuckEventBus eventBus,
       final boolean checkActionGraphs,
       final boolean skipActionGraphCache,
+      final boolean incrementalActionGraph,
       final TargetGraph targetGraph,
       int keySeed) {
     ActionGraphEvent.Started started = ActionGraphEvent.started();
@@ -105,15 +144,33 @@ public class ActionGraphCache {
           LOG.info("ActionGraph cache miss. TargetGraphs mismatched.");
         }
         lastTargetGraphHash = targetGraphHash;
-        Pair<TargetGraph, ActionGraphAndResolver> freshActionGraph =
-            new Pair<TargetGraph, ActionGraphAndResolver>(
-                targetGraph,
-                createActionGraph(
-                    eventBus, new DefaultTargetNodeToBuildRuleTransformer(), targetGraph));
+        Pair<TargetGraph, ActionGraphAndResolver> freshActionGraph;
+        if (incrementalActionGraph && !skipActionGraphCache && previousActionGraph != null) {
+          freshActionGraph =
+              new Pair<TargetGraph, ActionGraphAndResolver>(
+                  targetGraph,
+                  createIncrementalActionGraph(
+                      eventBus,
+                      new DefaultTargetNodeToBuildRuleTransformer(),
+                      targetGraph,
+                      previousActionGraph.getFirst(),
+                      previousActionGraph.getSecond().getResolver()));
+          if (checkActionGraphs) {
+            compareActionGraphs(eventBus, freshActionGraph.getSecond(), targetGraph, fieldLoader);
+          }
+        } else {
+          freshActionGraph =
+              new Pair<TargetGraph, ActionGraphAndResolver>(
+                  targetGraph,
+                  createActionGraph(
+                      eventBus, new DefaultTargetNodeToBuildRuleTransformer(), targetGraph));
+        }
         out = freshActionGraph.getSecond();
         if (!skipActionGraphCache) {
           LOG.info("ActionGraph cache assignment. skipActionGraphCache? %s", skipActionGraphCache);
           lastActionGraph = freshActionGraph;
+          // Only keep a source of reusable rules around if it's going to be used.
+          previousActionGraph = incrementalActionGraph ? freshActionGraph : null;
         }
       }
     } finally {
@@ -163,8 +220,121 @@ public class ActionGraphCache {
       final BuckEventBus eventBus,
       TargetNodeToBuildRuleTransformer transformer,
       TargetGraph targetGraph) {
-    final BuildRuleResolver resolver = new BuildRuleResolver(targetGraph, transformer, eventBus);
+    return populateActionGraph(
+        targetGraph, new BuildRuleResolver(targetGraph, transformer, eventBus));
+  }
+
+  /**
+   * Builds the action graph for {@code targetGraph}, seeding the resolver with the rules of every
+   * target that is unchanged since {@code lastTargetGraph}.
+   *
+   * <p>Rules are carried over per unflavored target, since a description may create flavored rules
+   * for its own target at any point. A target is invalidated if any node sharing its unflavored
+   * target has different raw inputs or deps than before, is new, or depends on an invalidated
+   * target.
+   *
+   * <p>Only rules of classes marked {@link ReusableAcrossActionGraphs} are reused. Other rules may
+   * ask the resolver that created them for more rules later on, which would then be missing from
+   * the new action graph, and would keep every older action graph alive. Targets with any other
+   * rule are recreated, along with their dependents.
+   */
+  private static ActionGraphAndResolver createIncrementalActionGraph(
+      final BuckEventBus eventBus,
+      TargetNodeToBuildRuleTransformer transformer,
+      TargetGraph targetGraph,
+      TargetGraph lastTargetGraph,
+      BuildRuleResolver lastResolver) {
+    SetMultimap<UnflavoredBuildTarget, TargetNode<?, ?>> nodesByUnflavoredTarget =
+        HashMultimap.create();
+    for (TargetNode<?, ?> node : targetGraph.getNodes()) {
+      nodesByUnflavoredTarget.put(node.getBuildTarget().getUnflavoredBuildTarget(), node);
+    }
+
+    Set<UnflavoredBuildTarget> invalidatedTargets = new HashSet<>();
+    Queue<TargetNode<?, ?>> invalidatedNodes = new ArrayDeque<>();
+    for (TargetNode<?, ?> node : targetGraph.getNodes()) {
+      UnflavoredBuildTarget unflavoredTarget = node.getBuildTarget().getUnflavoredBuildTarget();
+      if (!invalidatedTargets.contains(unflavoredTarget)
+          && isNodeChanged(node, targetGraph, lastTargetGraph)) {
+        invalidatedTargets.add(unflavoredTarget);
+        invalidatedNodes.addAll(nodesByUnflavoredTarget.get(unflavoredTarget));
+      }
+    }
+    for (BuildRule rule : lastResolver.getBuildRules()) {
+      UnflavoredBuildTarget unflavoredTarget = rule.getBuildTarget().getUnflavoredBuildTarget();
+      if (!invalidatedTargets.contains(unflavoredTarget)
+          && !isReusable(rule)) {
+        invalidatedTargets.add(unflavoredTarget);
+        invalidatedNodes.addAll(nodesByUnflavoredTarget.get(unflavoredTarget));
+      }
+    }
+    // Anything depending on an invalidated target has to be recreated too, as its rules hold on to
+    // the rules of its deps.
+    while (!invalidatedNodes.isEmpty()) {
+      TargetNode<?, ?> invalidatedNode = invalidatedNodes.remove();
+      for (TargetNode<?, ?> dependent : targetGraph.getIncomingNodesFor(invalidatedNode)) {
+        UnflavoredBuildTarget unflavoredTarget =
+            dependent.getBuildTarget().getUnflavoredBuildTarget();
+        if (invalidatedTargets.add(unflavoredTarget)) {
+          invalidatedNodes.addAll(nodesByUnflavoredTarget.get(unflavoredTarget));
+        }
+      }
+    }
+
+    BuildRuleResolver resolver = new BuildRuleResolver(targetGraph, transformer, eventBus);
+    int reusedBuildRuleCount = 0;
+    for (BuildRule rule : lastResolver.getBuildRules()) {
+      UnflavoredBuildTarget unflavoredTarget = rule.getBuildTarget().getUnflavoredBuildTarget();
+      if (nodesByUnflavoredTarget.containsKey(unflavoredTarget)
+          && !invalidatedTargets.contains(unflavoredTarget)) {
+        resolver.addToIndex(rule);
+        reusedBuildRuleCount++;
+      }
+    }
+
+    int newTargetNodeCount = 0;
+    for (UnflavoredBuildTarget unflavoredTarget : invalidatedTargets) {
+      newTargetNodeCount += nodesByUnflavoredTarget.get(unflavoredTarget).size();
+    }
+    int reusedTargetNodeCount = targetGraph.getNodes().size() - newTargetNodeCount;
+    LOG.info(
+        "Incremental ActionGraph: reused %d rules of %d target nodes, recreating %d target nodes.",
+        reusedBuildRuleCount,
+        reusedTargetNodeCount,
+        newTargetNodeCount);
+    eventBus.post(
+        ActionGraphEvent.Cache.incrementalLoad(
+            reusedTargetNodeCount, newTargetNodeCount, reusedBuildRuleCount));
+
+    return populateActionGraph(targetGraph, resolver);
+  }
+
+  private static boolean isNodeChanged(
+      TargetNode<?, ?> node, TargetGraph targetGraph, TargetGraph lastTargetGraph) {
+    Optional<TargetNode<?, ?>> lastNode = lastTargetGraph.getOptional(node.getBuildTarget());
+    if (!lastNode.isPresent()
+        || !lastNode.get().getRawInputsHashCode().equals(node.getRawInputsHashCode())) {
+      return true;
+    }
+    return !getBuildTargets(lastTargetGraph.getOutgoingNodesFor(lastNode.get()))
+        .equals(getBuildTargets(targetGraph.getOutgoingNodesFor(node)));
+  }
+
+  @VisibleForTesting
+  static boolean isReusable(BuildRule rule) {
+    return rule.getClass().isAnnotationPresent(ReusableAcrossActionGraphs.class);
+  }
+
+  private static Set<BuildTarget> getBuildTargets(Iterable<TargetNode<?, ?>> nodes) {
+    Set<BuildTarget> targets = new HashSet<>();
+    for (TargetNode<?, ?> node : nodes) {
+      targets.add(node.getBuildTarget());
+    }
+    return targets;
+  }
 
+  private static ActionGraphAndResolver populateActionGraph(
+      TargetGraph targetGraph, final BuildRuleResolver resolver) {
     AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException> bottomUpTraversal =
         new AbstractBottomUpTraversal<TargetNode<?, ?>, RuntimeException>(targetGraph) {
 
@@ -307,6 +477,7 @@ public class ActionGraphCache {
   private void invalidateCache() {
     lastActionGraph = null;
     lastTargetGraphHash = null;
+    previousActionGraph = null;
   }
 
   @VisibleForTesting
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.artifact_cache.ArtifactCache;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.io.LazyPath;
+import com.facebook.buck.util.MoreCollectors;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Groups concurrent cache fetches into {@link ArtifactCache#multiFetch} calls.
+ *
+ * <p>Batches are sent from the fetch executor, as many at once as it has threads for. Fetches that
+ * queue up while its threads are busy are sent together by the next one to free up, so rules whose
+ * cache checks become ready together share a round trip, while a lone fetch is sent straight away.
+ *
+ * <p>Callers are typically running on the fetch executor themselves. Rather than sit idle while a
+ * batch is waiting for a thread, a waiting caller sends it itself, and returns as soon as its own
+ * fetch is done.
+ */
+class BatchingArtifactCacheFetcher {
+
+  private final ArtifactCache artifactCache;
+  private final Executor fetchExecutor;
+  private final int maxBatchSize;
+
+  @GuardedBy("this")
+  private final Queue<PendingFetch> pendingFetches = new ArrayDeque<>();
+
+  /** Batches submitted to the fetch executor that no thread has started sending yet. */
+  @GuardedBy("this")
+  private int scheduledBatches = 0;
+
+  BatchingArtifactCacheFetcher(
+      ArtifactCache artifactCache, Executor fetchExecutor, int maxBatchSize) {
+    Preconditions.checkArgument(maxBatchSize > 0);
+    this.artifactCache = artifactCache;
+    this.fetchExecutor = fetchExecutor;
+    this.maxBatchSize = maxBatchSize;
+  }
+
+  public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+    PendingFetch fetch = new PendingFetch(ruleKey, output);
+    synchronized (this) {
+      pendingFetches.add(fetch);
+    }
+    scheduleBatches();
+
+    while (!fetch.result.isDone()) {
+      List<PendingFetch> batch;
+      synchronized (this) {
+        while (!fetch.result.isDone() && scheduledBatches == 0) {
+          waitUninterruptibly();
+        }
+        if (fetch.result.isDone()) {
+          break;
+        }
+        batch = takeScheduledBatch();
+      }
+      sendBatch(batch);
+    }
+
+    try {
+      return Uninterruptibles.getUninterruptibly(fetch.result);
+    } catch (ExecutionException e) {
+      // Failures reach callers as the cache threw them.
+      Throwables.throwIfUnchecked(e.getCause());
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  private void scheduleBatches() {
+    int batchesToSchedule;
+    synchronized (this) {
+      int neededBatches = (pendingFetches.size() + maxBatchSize - 1) / maxBatchSize;
+      batchesToSchedule = Math.max(0, neededBatches - scheduledBatches);
+      scheduledBatches += batchesToSchedule;
+    }
+    for (int i = 0; i < batchesToSchedule; i++) {
+      fetchExecutor.execute(this::sendScheduledBatch);
+    }
+  }
+
+  private void sendScheduledBatch() {
+    List<PendingFetch> batch;
+    synchronized (this) {
+      if (scheduledBatches == 0) {
+        // A waiting caller has already sent it.
+        return;
+      }
+      batch = takeScheduledBatch();
+    }
+    sendBatch(batch);
+  }
+
+  @GuardedBy("this")
+  private List<PendingFetch> takeScheduledBatch() {
+    scheduledBatches--;
+    List<PendingFetch> batch = new ArrayList<>();
+    while (batch.size() < maxBatchSize && !pendingFetches.isEmpty()) {
+      batch.add(pendingFetches.remove());
+    }
+    return batch;
+  }
+
+  private void sendBatch(List<PendingFetch> batch) {
+    try {
+      if (batch.size() == 1) {
+        PendingFetch fetch = batch.get(0);
+        fetch.result.set(artifactCache.fetch(fetch.ruleKey, fetch.output));
+      } else if (!batch.isEmpty()) {
+        ImmutableList<CacheResult> results =
+            artifactCache.multiFetch(
+                batch.stream().map(f -> f.ruleKey).collect(MoreCollectors.toImmutableList()),
+                batch.stream().map(f -> f.output).collect(MoreCollectors.toImmutableList()));
+        for (int i = 0; i < batch.size(); i++) {
+          batch.get(i).result.set(results.get(i));
+        }
+      }
+    } catch (Throwable t) {
+      // Hand the failure to every caller in the batch.
+      for (PendingFetch fetch : batch) {
+        fetch.result.setException(t);
+      }
+    } finally {
+      synchronized (this) {
+        notifyAll();
+      }
+      // Fetches may have queued up while this batch was in flight.
+      scheduleBatches();
+    }
+  }
+
+  @GuardedBy("this")
+  private void waitUninterruptibly() {
+    try {
+      wait();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  @VisibleForTesting
+  synchronized int getPendingFetchCount() {
+    return pendingFetches.size();
+  }
+
+  private static class PendingFetch {
+    private final RuleKey ruleKey;
+    private final LazyPath output;
+    private final SettableFuture<CacheResult> result = SettableFuture.create();
+
+    private PendingFetch(RuleKey ruleKey, LazyPath output) {
+      this.ruleKey = ruleKey;
+      this.output = output;
+    }
+  }
+}
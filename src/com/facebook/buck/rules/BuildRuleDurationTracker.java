@@ -19,6 +19,7 @@ package com.facebook.buck.rules;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.timing.ClockDuration;
 import com.google.common.annotations.VisibleForTesting;
+import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import javax.annotation.concurrent.GuardedBy;
@@ -55,6 +56,14 @@ public class BuildRuleDurationTracker {
         .doEnding(wallMillisTime, nanoTime, threadUserNanoDuration);
   }
 
+  /**
+   * @return the duration accumulated by the finished phases of {@code target}, if any of its phases
+   *     were tracked.
+   */
+  public Optional<ClockDuration> getDuration(BuildTarget target) {
+    return Optional.ofNullable(durations.get(target)).map(DurationHolder::getDuration);
+  }
+
   @ThreadSafe
   private static class DurationHolder {
     // intervals can be nested so we need to keep the nesting count
@@ -95,6 +104,10 @@ public class BuildRuleDurationTracker {
           threadUserNanoDuration);
     }
 
+    public synchronized ClockDuration getDuration() {
+      return new ClockDuration(wallMillisDuration, nanoDuration, threadUserNanoDuration);
+    }
+
     public synchronized ClockDuration doBeginning(long wallMillisTime, long nanoTime) {
       if (inProgressCount++ == 0) {
         wallMillisStarted = wallMillisTime;
@@ -48,6 +48,7 @@ import com.facebook.buck.step.ExecutionContext;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepFailedException;
 import com.facebook.buck.step.StepRunner;
+import com.facebook.buck.timing.ClockDuration;
 import com.facebook.buck.util.ContextualProcessExecutor;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.MoreCollectors;
@@ -106,6 +107,7 @@ import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.Stream;
@@ -128,6 +130,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       ResourceAmounts.of(0, 0, 1, 0);
   public static final ResourceAmounts SCHEDULING_MORE_WORK_RESOURCE_AMOUNTS = ResourceAmounts.ZERO;
 
+  /** Upper bound on the number of cache fetches grouped into a single multi-fetch request. */
+  private static final int MAX_CACHE_FETCH_BATCH_SIZE = 64;
+
   private static final String BUILD_RULE_TYPE_CONTEXT_KEY = "build_rule_type";
   private static final String STEP_TYPE_CONTEXT_KEY = "step_type";
   private final ConcurrentLinkedQueue<ListenableFuture<Void>> asyncCallbacks;
@@ -149,6 +154,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   private final ConcurrentMap<BuildTarget, ListenableFuture<RuleKey>> ruleKeys =
       Maps.newConcurrentMap();
 
+  private final ConcurrentMap<ArtifactCache, BatchingArtifactCacheFetcher> cacheFetchers =
+      Maps.newConcurrentMap();
+
   @Nullable private volatile Throwable firstFailure = null;
 
   private final CachingBuildEngineDelegate cachingBuildEngineDelegate;
@@ -170,6 +178,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
   private final RuleDepsCache ruleDeps;
   private final Optional<UnskippedRulesTracker> unskippedRulesTracker;
+  private final Optional<RuleDurationHistory> ruleDurationHistory;
+  private final Optional<CriticalPathTracker> criticalPathTracker;
   private final BuildRuleDurationTracker buildRuleDurationTracker = new BuildRuleDurationTracker();
   private final RuleKeyDiagnostics<RuleKey, String> defaultRuleKeyDiagnostics;
 
@@ -194,7 +204,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
       boolean consoleLogBuildFailuresInline,
       RuleKeyFactories ruleKeyFactories,
-      FileHashCacheMode fileHashCacheMode) {
+      FileHashCacheMode fileHashCacheMode,
+      Optional<RuleDurationHistory> ruleDurationHistory) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
 
     this.service = service;
@@ -218,6 +229,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
     this.ruleDeps = new RuleDepsCache(resolver);
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, resolver);
+    this.ruleDurationHistory = ruleDurationHistory;
+    this.criticalPathTracker =
+        ruleDurationHistory.map(history -> new CriticalPathTracker(ruleDeps, history));
     this.fileHashCacheMode = fileHashCacheMode;
     this.defaultRuleKeyDiagnostics =
         new RuleKeyDiagnostics<>(
@@ -250,7 +264,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       RuleKeyFactories ruleKeyFactories,
       ResourceAwareSchedulingInfo resourceAwareSchedulingInfo,
       boolean consoleLogBuildFailuresInline,
-      FileHashCacheMode fileHashCacheMode) {
+      FileHashCacheMode fileHashCacheMode,
+      Optional<RuleDurationHistory> ruleDurationHistory) {
     this.cachingBuildEngineDelegate = cachingBuildEngineDelegate;
 
     this.service = service;
@@ -273,6 +288,9 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
     this.ruleDeps = new RuleDepsCache(resolver);
     this.unskippedRulesTracker = createUnskippedRulesTracker(buildMode, ruleDeps, resolver);
+    this.ruleDurationHistory = ruleDurationHistory;
+    this.criticalPathTracker =
+        ruleDurationHistory.map(history -> new CriticalPathTracker(ruleDeps, history));
     this.defaultRuleKeyDiagnostics = RuleKeyDiagnostics.nop();
     this.consoleLogBuildFailuresInline = consoleLogBuildFailuresInline;
     this.asyncCallbacks = new ConcurrentLinkedQueue<>();
@@ -287,6 +305,57 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
     } catch (ExecutionException e) {
       throw new RuntimeException(e);
     }
+    recordCriticalPath();
+  }
+
+  /**
+   * With critical path scheduling, stores the durations of the rules built locally for the next
+   * build, and logs how the predicted critical path compares with the actual one.
+   */
+  private void recordCriticalPath() {
+    if (!criticalPathTracker.isPresent()) {
+      return;
+    }
+    String report =
+        criticalPathTracker
+            .get()
+            .recordBuild(
+                rule ->
+                    buildRuleDurationTracker
+                        .getDuration(rule.getBuildTarget())
+                        .map(ClockDuration::getWallMillisDuration)
+                        .orElse(0L),
+                this::isBuiltLocally);
+    LOG.info("%s", report);
+    try {
+      ruleDurationHistory.get().save();
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to save rule durations.");
+    }
+  }
+
+  private boolean isBuiltLocally(BuildRule rule) {
+    ListenableFuture<BuildResult> result = results.get(rule.getBuildTarget());
+    if (result == null || !result.isDone()) {
+      return false;
+    }
+    try {
+      return Futures.getDone(result).getSuccess() == BuildRuleSuccessType.BUILT_LOCALLY;
+    } catch (ExecutionException | CancellationException e) {
+      return false;
+    }
+  }
+
+  /**
+   * With critical path scheduling, makes jobs submitted through {@code service} for {@code rule}
+   * wait for resources ahead of those of rules with less work left after them.
+   */
+  private WeightedListeningExecutorService prioritizedFor(
+      BuildRule rule, WeightedListeningExecutorService service) {
+    if (criticalPathTracker.isPresent()) {
+      return service.withPriority(criticalPathTracker.get().getPriority(rule));
+    }
+    return service;
   }
 
   /**
@@ -335,7 +404,12 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       BuildRule rule, BuildEngineBuildContext buildContext, ExecutionContext executionContext) {
     List<ListenableFuture<BuildResult>> depResults =
         new ArrayList<>(SortedSets.sizeEstimate(rule.getBuildDeps()));
-    for (BuildRule dep : shuffled(rule.getBuildDeps())) {
+    // With critical path scheduling, start with the deps that have the most work left after them.
+    Iterable<BuildRule> deps =
+        criticalPathTracker.isPresent()
+            ? criticalPathTracker.get().sortByPriority(rule.getBuildDeps())
+            : shuffled(rule.getBuildDeps());
+    for (BuildRule dep : deps) {
       depResults.add(getBuildRuleResultWithRuntimeDeps(dep, buildContext, executionContext));
     }
     return Futures.allAsList(depResults);
@@ -523,7 +597,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
               buildContext,
               buildResultFuture,
               () -> checkInputBasedCaches(rule, buildContext, onDiskBuildInfo, buildInfoRecorder),
-              serviceByAdjustingDefaultWeightsTo(CACHE_CHECK_RESOURCE_AMOUNTS));
+              prioritizedFor(
+                  rule, serviceByAdjustingDefaultWeightsTo(CACHE_CHECK_RESOURCE_AMOUNTS)));
     }
 
     // 5. Then check if the depfile matches.
@@ -534,7 +609,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
               buildContext,
               buildResultFuture,
               () -> checkMatchingDepfile(rule, buildContext, onDiskBuildInfo, buildInfoRecorder),
-              serviceByAdjustingDefaultWeightsTo(CACHE_CHECK_RESOURCE_AMOUNTS));
+              prioritizedFor(
+                  rule, serviceByAdjustingDefaultWeightsTo(CACHE_CHECK_RESOURCE_AMOUNTS)));
     }
 
     // 6. Check for a manifest-based cache hit.
@@ -545,7 +621,8 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
               buildContext,
               buildResultFuture,
               () -> checkManifestBasedCaches(rule, buildContext, buildInfoRecorder),
-              serviceByAdjustingDefaultWeightsTo(CACHE_CHECK_RESOURCE_AMOUNTS));
+              prioritizedFor(
+                  rule, serviceByAdjustingDefaultWeightsTo(CACHE_CHECK_RESOURCE_AMOUNTS)));
     }
 
     // 7. Fail if populating the cache and cache lookups failed.
@@ -581,10 +658,13 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
                     executionContext,
                     buildableContext,
                     Preconditions.checkNotNull(rulekeyCacheResult.get()),
-                    service
-                        // This needs to adjust the default amounts even in the non-resource-aware scheduling
-                        // case so that RuleScheduleInfo works correctly.
-                        .withDefaultAmounts(getRuleResourceAmounts(rule))));
+                    prioritizedFor(
+                        rule,
+                        service
+                            // This needs to adjust the default amounts even in the
+                            // non-resource-aware scheduling case so that RuleScheduleInfo works
+                            // correctly.
+                            .withDefaultAmounts(getRuleResourceAmounts(rule)))));
 
     // Unwrap the result.
     return Futures.transform(buildResultFuture, Optional::get);
@@ -1350,10 +1430,21 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
       }
     }
     Futures.getUnchecked(Futures.allAsList(results.build()));
+    criticalPathTracker.ifPresent(tracker -> tracker.computePriorities(rules));
     return seen.size();
   }
 
-  private synchronized ListenableFuture<RuleKey> calculateRuleKey(
+  /**
+   * Returns a future for the default rule key of {@code rule}, scheduling its calculation (and that
+   * of its deps) on the build executor if this is the first request for it.
+   *
+   * <p>This is lock-free: each target's future is memoized in {@link #ruleKeys} via {@link
+   * ConcurrentMap#putIfAbsent}, so concurrent callers share a single calculation per rule. Dep keys
+   * are requested from executor tasks rather than the calling thread, which lets idle workers pick
+   * up independent subgraphs and fills in keys bottom-up as the leaves complete.
+   */
+  @VisibleForTesting
+  ListenableFuture<RuleKey> calculateRuleKey(
       final BuildRule rule, final BuildEngineBuildContext context) {
     ListenableFuture<RuleKey> fromOurCache = ruleKeys.get(rule.getBuildTarget());
     if (fromOurCache != null) {
@@ -1362,14 +1453,32 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
 
     RuleKey fromInternalCache = ruleKeyFactories.getDefaultRuleKeyFactory().getFromCache(rule);
     if (fromInternalCache != null) {
-      ListenableFuture<RuleKey> future = Futures.immediateFuture(fromInternalCache);
-      // Record the rule key future.
-      ruleKeys.put(rule.getBuildTarget(), future);
       // Because a rule key will be invalidated from the internal cache any time one of its
       // dependents is invalidated, we know that all of our transitive deps are also in cache.
-      return future;
+      ListenableFuture<RuleKey> future = Futures.immediateFuture(fromInternalCache);
+      ListenableFuture<RuleKey> existing = ruleKeys.putIfAbsent(rule.getBuildTarget(), future);
+      return existing != null ? existing : future;
+    }
+
+    // Claim this rule with a placeholder future.  Only the thread which wins the race wires up the
+    // actual calculation, everyone else just waits on the placeholder.
+    SettableFuture<RuleKey> placeholder = SettableFuture.create();
+    ListenableFuture<RuleKey> existing = ruleKeys.putIfAbsent(rule.getBuildTarget(), placeholder);
+    if (existing != null) {
+      return existing;
     }
+    try {
+      placeholder.setFuture(scheduleRuleKeyCalculation(rule, context));
+    } catch (Throwable t) {
+      // Don't leave anyone waiting on a placeholder that will never be completed.
+      placeholder.setException(t);
+      throw t;
+    }
+    return placeholder;
+  }
 
+  private ListenableFuture<RuleKey> scheduleRuleKeyCalculation(
+      final BuildRule rule, final BuildEngineBuildContext context) {
     // Grab all the dependency rule key futures.  Since our rule key calculation depends on this
     // one, we need to wait for them to complete.
     ListenableFuture<List<RuleKey>> depKeys =
@@ -1386,24 +1495,19 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
             serviceByAdjustingDefaultWeightsTo(RULE_KEY_COMPUTATION_RESOURCE_AMOUNTS));
 
     // Setup a future to calculate this rule key once the dependencies have been calculated.
-    ListenableFuture<RuleKey> calculated =
-        Futures.transform(
-            depKeys,
-            (List<RuleKey> input) -> {
-              try (Scope scope =
-                  BuildRuleEvent.ruleKeyCalculationScope(
-                      context.getEventBus(),
-                      rule,
-                      buildRuleDurationTracker,
-                      ruleKeyFactories.getDefaultRuleKeyFactory())) {
-                return ruleKeyFactories.getDefaultRuleKeyFactory().build(rule);
-              }
-            },
-            serviceByAdjustingDefaultWeightsTo(RULE_KEY_COMPUTATION_RESOURCE_AMOUNTS));
-
-    // Record the rule key future.
-    ruleKeys.put(rule.getBuildTarget(), calculated);
-    return calculated;
+    return Futures.transform(
+        depKeys,
+        (List<RuleKey> input) -> {
+          try (Scope scope =
+              BuildRuleEvent.ruleKeyCalculationScope(
+                  context.getEventBus(),
+                  rule,
+                  buildRuleDurationTracker,
+                  ruleKeyFactories.getDefaultRuleKeyFactory())) {
+            return ruleKeyFactories.getDefaultRuleKeyFactory().build(rule);
+          }
+        },
+        serviceByAdjustingDefaultWeightsTo(RULE_KEY_COMPUTATION_RESOURCE_AMOUNTS));
   }
 
   @Override
@@ -1467,7 +1571,15 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
   }
 
   private CacheResult fetch(ArtifactCache artifactCache, RuleKey ruleKey, LazyPath outputPath) {
-    CacheResult cacheResult = artifactCache.fetch(ruleKey, outputPath);
+    // Cache checks of rules which become ready at the same time are sent to the cache together.
+    CacheResult cacheResult =
+        cacheFetchers
+            .computeIfAbsent(
+                artifactCache,
+                cache ->
+                    new BatchingArtifactCacheFetcher(
+                        cache, cacheActivityService, MAX_CACHE_FETCH_BATCH_SIZE))
+            .fetch(ruleKey, outputPath);
     if (cacheResult.getType() != CacheResultType.HIT) {
       return cacheResult;
     }
@@ -1538,7 +1650,7 @@ public class CachingBuildEngine implements BuildEngine, Closeable {
           BuildInfo.getPathToMetadataDirectory(rule.getBuildTarget(), rule.getProjectFilesystem());
       rule.getProjectFilesystem().deleteRecursivelyIfExists(metadataDir);
 
-      Unzip.extractZipFile(
+      Unzip.extractZipFileInParallel(
           zipPath.toAbsolutePath(),
           filesystem,
           Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.graph.AcyclicDepthFirstPostOrderTraversal;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+/**
+ * Estimates, for each rule of a build, the duration of the longest chain of work that starts with
+ * the rule and ends at one of the top-level rules, so that the build engine can dispatch the rules
+ * on the critical path before the others.
+ *
+ * <p>Rule durations come from a {@link RuleDurationHistory} of previous builds. Rules without any
+ * history are assumed to take as long as the average rule that has some.
+ */
+class CriticalPathTracker {
+
+  private final RuleDepsCache ruleDeps;
+  private final RuleDurationHistory history;
+
+  private volatile ImmutableList<BuildRule> rulesDependentsFirst = ImmutableList.of();
+  private volatile ImmutableMap<BuildRule, Long> predictedDurations = ImmutableMap.of();
+  private volatile ImmutableMap<BuildRule, Long> priorities = ImmutableMap.of();
+
+  CriticalPathTracker(RuleDepsCache ruleDeps, RuleDurationHistory history) {
+    this.ruleDeps = ruleDeps;
+    this.history = history;
+  }
+
+  /** Computes the priorities of all the rules needed to build {@code topLevelRules}. */
+  void computePriorities(Iterable<BuildRule> topLevelRules) {
+    ImmutableList<BuildRule> rules = getRulesDependentsFirst(topLevelRules);
+
+    Map<BuildRule, OptionalLong> durations = new HashMap<>();
+    long knownDurationsMillis = 0;
+    int knownCount = 0;
+    for (BuildRule rule : rules) {
+      OptionalLong duration = history.getDurationMillis(rule.getBuildTarget());
+      durations.put(rule, duration);
+      if (duration.isPresent()) {
+        knownDurationsMillis += duration.getAsLong();
+        knownCount++;
+      }
+    }
+    long defaultDurationMillis =
+        knownCount == 0 ? 1 : Math.max(1, knownDurationsMillis / knownCount);
+
+    ImmutableMap.Builder<BuildRule, Long> predicted = ImmutableMap.builder();
+    for (Map.Entry<BuildRule, OptionalLong> entry : durations.entrySet()) {
+      predicted.put(entry.getKey(), entry.getValue().orElse(defaultDurationMillis));
+    }
+    this.predictedDurations = predicted.build();
+    this.rulesDependentsFirst = rules;
+    this.priorities =
+        ImmutableMap.copyOf(new LongestPaths(rules, predictedDurations::get).remainingMillis);
+  }
+
+  /**
+   * @return the estimated duration, in milliseconds, of the longest chain of rules that can only
+   *     run once {@code rule} has been built, including {@code rule} itself.
+   */
+  long getPriority(BuildRule rule) {
+    return priorities.getOrDefault(rule, 0L);
+  }
+
+  /** @return {@code rules}, ordered by descending priority. */
+  List<BuildRule> sortByPriority(Iterable<BuildRule> rules) {
+    List<BuildRule> sorted = new ArrayList<>();
+    rules.forEach(sorted::add);
+    sorted.sort(Comparator.comparingLong(this::getPriority).reversed());
+    return sorted;
+  }
+
+  /**
+   * Records the actual duration of each rule built locally into the history, and describes how the
+   * critical path that was predicted compares with the one that the build actually followed.
+   *
+   * @param actualDurations durations of the rules in this build, in milliseconds
+   * @param isBuiltLocally whether a rule was built locally, as opposed to e.g. fetched from cache
+   */
+  String recordBuild(
+      ToLongFunction<BuildRule> actualDurations, Predicate<BuildRule> isBuiltLocally) {
+    ImmutableList<BuildRule> rules = rulesDependentsFirst;
+    for (BuildRule rule : rules) {
+      if (isBuiltLocally.test(rule)) {
+        history.recordDurationMillis(rule.getBuildTarget(), actualDurations.applyAsLong(rule));
+      }
+    }
+
+    ImmutableList<BuildRule> predictedPath =
+        new LongestPaths(rules, predictedDurations::get).getCriticalPath();
+    ImmutableList<BuildRule> actualPath =
+        new LongestPaths(rules, actualDurations::applyAsLong).getCriticalPath();
+
+    StringBuilder report = new StringBuilder();
+    report.append(
+        String.format(
+            "Predicted critical path: %d rules, %dms predicted, %dms actual.%n",
+            predictedPath.size(),
+            sum(predictedPath, predictedDurations::get),
+            sum(predictedPath, actualDurations)));
+    for (BuildRule rule : predictedPath) {
+      report.append(
+          String.format(
+              "  %s: %dms predicted, %dms actual%n",
+              rule.getFullyQualifiedName(),
+              predictedDurations.get(rule),
+              actualDurations.applyAsLong(rule)));
+    }
+    report.append(
+        String.format(
+            "Actual critical path: %d rules, %dms.%n",
+            actualPath.size(), sum(actualPath, actualDurations)));
+    for (BuildRule rule : actualPath) {
+      report.append(
+          String.format(
+              "  %s: %dms%n", rule.getFullyQualifiedName(), actualDurations.applyAsLong(rule)));
+    }
+    return report.toString();
+  }
+
+  private ImmutableList<BuildRule> getRulesDependentsFirst(Iterable<BuildRule> topLevelRules) {
+    AcyclicDepthFirstPostOrderTraversal<BuildRule> traversal =
+        new AcyclicDepthFirstPostOrderTraversal<>(rule -> ruleDeps.get(rule).iterator());
+    try {
+      return ImmutableList.copyOf(traversal.traverse(topLevelRules)).reverse();
+    } catch (AcyclicDepthFirstPostOrderTraversal.CycleException e) {
+      throw new IllegalStateException("Cycle detected in the action graph", e);
+    }
+  }
+
+  private static long sum(List<BuildRule> rules, ToLongFunction<BuildRule> durations) {
+    return rules.stream().mapToLong(durations).sum();
+  }
+
+  /** Longest chains of dependents, weighted by rule duration, over a set of rules. */
+  private class LongestPaths {
+    private final Map<BuildRule, Long> remainingMillis = new LinkedHashMap<>();
+    private final Map<BuildRule, BuildRule> criticalDependents = new HashMap<>();
+
+    /** @param rules all the rules of the build, with every rule preceding its deps */
+    private LongestPaths(List<BuildRule> rules, ToLongFunction<BuildRule> durations) {
+      Map<BuildRule, Long> longestDependentPath = new HashMap<>();
+      for (BuildRule rule : rules) {
+        long remaining =
+            durations.applyAsLong(rule) + longestDependentPath.getOrDefault(rule, 0L);
+        remainingMillis.put(rule, remaining);
+        for (BuildRule dep : ruleDeps.get(rule)) {
+          if (remaining > longestDependentPath.getOrDefault(dep, -1L)) {
+            longestDependentPath.put(dep, remaining);
+            criticalDependents.put(dep, rule);
+          }
+        }
+      }
+    }
+
+    /** @return the longest chain of rules, in the order in which they have to be built. */
+    private ImmutableList<BuildRule> getCriticalPath() {
+      BuildRule current = null;
+      long longest = -1;
+      for (Map.Entry<BuildRule, Long> entry : remainingMillis.entrySet()) {
+        if (entry.getValue() > longest) {
+          current = entry.getKey();
+          longest = entry.getValue();
+        }
+      }
+      ImmutableList.Builder<BuildRule> path = ImmutableList.builder();
+      while (current != null) {
+        path.add(current);
+        current = criticalDependents.get(current);
+      }
+      return path.build();
+    }
+  }
+}
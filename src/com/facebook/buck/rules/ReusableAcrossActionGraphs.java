@@ -0,0 +1,37 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static java.lang.annotation.ElementType.TYPE;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a {@link BuildRule} class whose instances may be carried over into a later action graph
+ * when their target is unchanged (see {@link ActionGraphCache}).
+ *
+ * <p>Only mark a class if its instances hold no reference to the {@link BuildRuleResolver} that
+ * created them, whether directly, through a rule finder, path resolver or {@link
+ * com.facebook.buck.rules.args.Arg}, or captured in a lambda, and if its description doesn't read
+ * the filesystem to create it. The annotation is not inherited, so subclasses have to be marked on
+ * their own.
+ */
+@Retention(RUNTIME)
+@Target(TYPE)
+public @interface ReusableAcrossActionGraphs {}
@@ -0,0 +1,115 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuildTarget;
+import com.google.common.base.Splitter;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * How long building each target locally took in previous builds, kept in the buck-out directory
+ * so that the build engine can estimate the critical path of the next build before running it.
+ */
+public class RuleDurationHistory {
+
+  private static final Logger LOG = Logger.get(RuleDurationHistory.class);
+
+  private static final Splitter FIELD_SPLITTER = Splitter.on('\t');
+
+  private final ProjectFilesystem projectFilesystem;
+  private final Path historyPath;
+  private final ConcurrentMap<String, Long> durationsMillis = new ConcurrentHashMap<>();
+  private final AtomicBoolean modified = new AtomicBoolean(false);
+
+  RuleDurationHistory(ProjectFilesystem projectFilesystem, Path historyPath) {
+    this.projectFilesystem = projectFilesystem;
+    this.historyPath = historyPath;
+    read();
+  }
+
+  /** Opens the history kept in the buck-out directory of {@code projectFilesystem}. */
+  public static RuleDurationHistory load(ProjectFilesystem projectFilesystem) {
+    return new RuleDurationHistory(
+        projectFilesystem,
+        projectFilesystem.getBuckPaths().getBuckOut().resolve("rule_durations"));
+  }
+
+  public OptionalLong getDurationMillis(BuildTarget target) {
+    Long duration = durationsMillis.get(target.getFullyQualifiedName());
+    return duration == null ? OptionalLong.empty() : OptionalLong.of(duration);
+  }
+
+  /** Records that building {@code target} took {@code durationMillis} in the current build. */
+  public void recordDurationMillis(BuildTarget target, long durationMillis) {
+    // Average with the previous duration, so that a single slow or fast run does not throw off the
+    // estimate of the next one.
+    durationsMillis.merge(
+        target.getFullyQualifiedName(),
+        durationMillis,
+        (previous, current) -> (previous + current) / 2);
+    modified.set(true);
+  }
+
+  /** Writes the recorded durations back to the buck-out directory, if any changed. */
+  public synchronized void save() throws IOException {
+    if (!modified.getAndSet(false)) {
+      return;
+    }
+    List<String> lines = new ArrayList<>(durationsMillis.size());
+    for (Map.Entry<String, Long> entry : durationsMillis.entrySet()) {
+      lines.add(entry.getKey() + '\t' + entry.getValue());
+    }
+    Path tmpPath = historyPath.resolveSibling(historyPath.getFileName() + ".tmp");
+    projectFilesystem.createParentDirs(historyPath);
+    projectFilesystem.writeLinesToPath(lines, tmpPath);
+    projectFilesystem.move(
+        tmpPath, historyPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOG.debug("Saved durations of %d rules to %s.", lines.size(), historyPath);
+  }
+
+  private void read() {
+    if (!projectFilesystem.isFile(historyPath)) {
+      return;
+    }
+    try {
+      for (String line : projectFilesystem.readLines(historyPath)) {
+        List<String> fields = FIELD_SPLITTER.splitToList(line);
+        if (fields.size() != 2) {
+          continue;
+        }
+        try {
+          durationsMillis.put(fields.get(0), Long.parseLong(fields.get(1)));
+        } catch (NumberFormatException e) {
+          LOG.debug("Ignoring malformed rule duration entry: %s", line);
+        }
+      }
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to read rule durations from %s.", historyPath);
+    }
+  }
+}
@@ -17,26 +17,103 @@
 package com.facebook.buck.rules;
 
 import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.sqlite.RetryBusyHandler;
 import com.facebook.buck.sqlite.SQLiteUtils;
+import com.facebook.buck.util.concurrent.AutoCloseableLock;
+import com.facebook.buck.util.concurrent.AutoCloseableReadWriteUpdateLock;
+import com.facebook.buck.util.concurrent.MostExecutors;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import org.sqlite.BusyHandler;
 
+/**
+ * A {@link BuildInfoStore} backed by a SQLite database in WAL mode.
+ *
+ * <p>Reads are served by a small pool of connections, so that build threads can read concurrently.
+ * Writes are applied to an in-memory overlay, which reads consult first, and then handed to a
+ * single writer thread that commits everything queued up since its last commit in one transaction.
+ * Writes are therefore visible to readers of this store as soon as the write method returns, and
+ * reach the database shortly after, or at the latest when the store is closed.
+ *
+ * <p>A batch whose commit fails, for instance because the database stayed busy, is kept and
+ * committed again ahead of later writes. Only once several commits in a row have failed do writes
+ * to the store start failing.
+ *
+ * <p>Closing the store commits all the writes made before, and makes any later write fail.
+ */
 public class SQLiteBuildInfoStore implements BuildInfoStore {
-  private final Connection connection;
-  private final PreparedStatement selectStmt;
+  private static final Logger LOG = Logger.get(SQLiteBuildInfoStore.class);
+
+  private static final String SELECT_SQL =
+      "SELECT value FROM metadata WHERE target = ? AND key = ?";
+  private static final String UPDATE_SQL =
+      "INSERT OR REPLACE INTO metadata (target, key, value) VALUES (?, ?, ?)";
+  private static final String DELETE_SQL = "DELETE FROM metadata WHERE target = ?";
+
+  private static final int MAX_READERS = 8;
+  private static final long CLOSE_TIMEOUT_MINUTES = 5;
+  private static final int MAX_FAILED_COMMITS = 5;
+  private static final long COMMIT_RETRY_DELAY_MILLIS = 100;
+
+  private final Connection writeConnection;
   private final PreparedStatement updateStmt;
   private final PreparedStatement deleteStmt;
+  private final List<Reader> allReaders;
+  private final BlockingQueue<Reader> idleReaders;
+  private final ScheduledThreadPoolExecutor writer;
+
+  /** Writes that have not been committed yet, by target, as seen by readers. */
+  private final ConcurrentHashMap<String, PendingWrites> pendingWrites = new ConcurrentHashMap<>();
+
+  private final ConcurrentLinkedQueue<WriteOperation> writeQueue = new ConcurrentLinkedQueue<>();
+  private final AtomicBoolean commitScheduled = new AtomicBoolean(false);
+
+  /** Operations of the last commit, if it failed, to be committed ahead of the queued ones. */
+  @GuardedBy("this")
+  private final List<WriteOperation> failedOperations = new ArrayList<>();
+
+  /** The failure of the last commit, if it failed. */
+  private final AtomicReference<SQLException> writeFailure = new AtomicReference<>();
+
+  /** How many commits in a row have failed. Only written by commits. */
+  private volatile int failedCommits = 0;
+
+  /** Held to queue a write, and exclusively to stop accepting them when closing. */
+  private final AutoCloseableReadWriteUpdateLock closeLock = new AutoCloseableReadWriteUpdateLock();
+
+  @GuardedBy("closeLock")
+  private boolean closed = false;
 
   public SQLiteBuildInfoStore(ProjectFilesystem filesystem) throws IOException {
+    this(filesystem, Math.min(MAX_READERS, Runtime.getRuntime().availableProcessors()));
+  }
+
+  @VisibleForTesting
+  SQLiteBuildInfoStore(ProjectFilesystem filesystem, int readerCount) throws IOException {
     SQLiteUtils.initialize();
     String dbPath =
         filesystem
@@ -46,43 +123,120 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
     filesystem.createParentDirs(dbPath);
     try {
       Class.forName("org.sqlite.JDBC");
-      connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
-      connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
-      connection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
-      connection
+      writeConnection = openConnection(dbPath);
+      writeConnection.createStatement().executeUpdate("PRAGMA JOURNAL_MODE = WAL");
+      writeConnection
           .createStatement()
           .executeUpdate(
               "CREATE TABLE IF NOT EXISTS metadata "
                   + "(target TEXT, key TEXT, value TEXT, "
                   + "PRIMARY KEY (target, key)) "
                   + "WITHOUT ROWID");
-      selectStmt =
-          connection.prepareStatement("SELECT value FROM metadata WHERE target = ? AND key = ?");
-      updateStmt =
-          connection.prepareStatement(
-              "INSERT OR REPLACE INTO metadata (target, key, value) VALUES (?, ?, ?)");
-      deleteStmt = connection.prepareStatement("DELETE FROM metadata WHERE target = ?");
-      BusyHandler.setHandler(connection, new RetryBusyHandler());
+      writeConnection.setAutoCommit(false);
+      updateStmt = writeConnection.prepareStatement(UPDATE_SQL);
+      deleteStmt = writeConnection.prepareStatement(DELETE_SQL);
+
+      allReaders = new ArrayList<>();
+      idleReaders = new ArrayBlockingQueue<>(Math.max(1, readerCount));
+      for (int i = 0; i < Math.max(1, readerCount); i++) {
+        Connection connection = openConnection(dbPath);
+        Reader reader = new Reader(connection, connection.prepareStatement(SELECT_SQL));
+        allReaders.add(reader);
+        idleReaders.add(reader);
+      }
     } catch (ClassNotFoundException | SQLException e) {
       throw new IOException(e);
     }
+    writer =
+        new ScheduledThreadPoolExecutor(
+            1, new MostExecutors.NamedThreadFactory("SQLiteBuildInfoStore writer"));
+    // Failed commits are retried by close() itself.
+    writer.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  private static Connection openConnection(String dbPath) throws SQLException {
+    Connection connection = DriverManager.getConnection("jdbc:sqlite:" + dbPath);
+    connection.createStatement().executeUpdate("PRAGMA SYNCHRONOUS = OFF");
+    BusyHandler.setHandler(connection, new RetryBusyHandler());
+    return connection;
   }
 
   @Override
   public void close() {
+    try (AutoCloseableLock writeLock = closeLock.writeLock()) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    // No write can be queued anymore, so the writer is never asked for a commit after this.
+    writer.shutdown();
     try {
-      connection.close();
-    } catch (SQLException e) {
+      if (!writer.awaitTermination(CLOSE_TIMEOUT_MINUTES, TimeUnit.MINUTES)) {
+        LOG.warn("Timed out waiting for build metadata to be written.");
+      }
+      // A batch that failed, and any write queued while its retry was pending.
+      commitPendingWrites();
+      SQLException failure = writeFailure.get();
+      if (failure != null) {
+        throw new RuntimeException(failure);
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
       throw new RuntimeException(e);
+    } finally {
+      closeConnections();
+    }
+  }
+
+  private void closeConnections() {
+    SQLException failure = null;
+    List<Connection> connections = new ArrayList<>();
+    connections.add(writeConnection);
+    for (Reader reader : allReaders) {
+      connections.add(reader.connection);
+    }
+    for (Connection connection : connections) {
+      try {
+        connection.close();
+      } catch (SQLException e) {
+        if (failure == null) {
+          failure = e;
+        } else {
+          failure.addSuppressed(e);
+        }
+      }
+    }
+    if (failure != null) {
+      throw new RuntimeException(failure);
     }
   }
 
   @Override
-  public synchronized Optional<String> readMetadata(BuildTarget buildTarget, String key) {
+  public Optional<String> readMetadata(BuildTarget buildTarget, String key) {
+    String target = cellRelativeName(buildTarget);
+    PendingWrites pending = pendingWrites.get(target);
+    if (pending != null) {
+      String value = pending.metadata.get(key);
+      if (value != null) {
+        return Optional.of(value);
+      }
+      if (pending.deletesStoredMetadata) {
+        return Optional.empty();
+      }
+    }
+
+    Reader reader;
     try {
-      selectStmt.setString(1, cellRelativeName(buildTarget));
-      selectStmt.setString(2, key);
-      try (ResultSet rs = selectStmt.executeQuery()) {
+      reader = idleReaders.take();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException(e);
+    }
+    try {
+      reader.selectStmt.setString(1, target);
+      reader.selectStmt.setString(2, key);
+      try (ResultSet rs = reader.selectStmt.executeQuery()) {
         if (!rs.next()) {
           return Optional.empty();
         }
@@ -91,36 +245,184 @@ public class SQLiteBuildInfoStore implements BuildInfoStore {
       }
     } catch (SQLException e) {
       throw new RuntimeException(e);
+    } finally {
+      idleReaders.add(reader);
     }
   }
 
   @Override
-  public synchronized void updateMetadata(BuildTarget buildTarget, Map<String, String> metadata)
+  public void updateMetadata(BuildTarget buildTarget, Map<String, String> metadata)
+      throws IOException {
+    enqueueWrite(cellRelativeName(buildTarget), ImmutableMap.copyOf(metadata));
+  }
+
+  @Override
+  public void deleteMetadata(BuildTarget buildTarget) throws IOException {
+    enqueueWrite(cellRelativeName(buildTarget), null);
+  }
+
+  /** @param metadata the metadata to store, or {@code null} to delete all of the target's. */
+  private void enqueueWrite(String target, @Nullable ImmutableMap<String, String> metadata)
       throws IOException {
+    if (failedCommits >= MAX_FAILED_COMMITS) {
+      throw new IOException(
+          String.format("The last %d commits of build metadata failed.", MAX_FAILED_COMMITS),
+          writeFailure.get());
+    }
+    try (AutoCloseableLock readLock = closeLock.readLock()) {
+      if (closed) {
+        // It would never be committed.
+        throw new IOException(
+            String.format("Cannot write metadata of %s, the store is closed.", target));
+      }
+      // Queue the operation under the overlay's lock for the target, so that the writer commits
+      // operations on the same target in the order in which they were applied to the overlay.
+      pendingWrites.compute(
+          target,
+          (key, previous) -> {
+            PendingWrites pending = PendingWrites.apply(previous, metadata);
+            writeQueue.add(new WriteOperation(target, metadata, pending));
+            return pending;
+          });
+      if (commitScheduled.compareAndSet(false, true)) {
+        writer.execute(this::commitPendingWrites);
+      }
+    }
+  }
+
+  private synchronized void commitPendingWrites() {
+    // Clear the flag before draining, so that writes queued from now on schedule another commit.
+    commitScheduled.set(false);
+    // A batch that failed goes first, so that writes to each target still land in order.
+    List<WriteOperation> operations = new ArrayList<>(failedOperations);
+    failedOperations.clear();
+    for (WriteOperation operation = writeQueue.poll();
+        operation != null;
+        operation = writeQueue.poll()) {
+      operations.add(operation);
+    }
+    if (operations.isEmpty()) {
+      return;
+    }
+
     try {
-      for (Map.Entry<String, String> e : metadata.entrySet()) {
-        updateStmt.setString(1, cellRelativeName(buildTarget));
-        updateStmt.setString(2, e.getKey());
-        updateStmt.setString(3, e.getValue());
-        updateStmt.addBatch();
+      for (WriteOperation operation : operations) {
+        if (operation.metadata == null) {
+          deleteStmt.setString(1, operation.target);
+          deleteStmt.executeUpdate();
+          continue;
+        }
+        for (Map.Entry<String, String> e : operation.metadata.entrySet()) {
+          updateStmt.setString(1, operation.target);
+          updateStmt.setString(2, e.getKey());
+          updateStmt.setString(3, e.getValue());
+          updateStmt.addBatch();
+        }
+        updateStmt.executeBatch();
       }
-      updateStmt.executeBatch();
+      writeConnection.commit();
     } catch (SQLException e) {
-      throw new IOException(e);
+      try {
+        writeConnection.rollback();
+      } catch (SQLException rollbackException) {
+        e.addSuppressed(rollbackException);
+      }
+      failedCommits++;
+      writeFailure.set(e);
+      // Keep the failed writes in the overlay, so that this build still sees them, and commit
+      // them again later.
+      failedOperations.addAll(operations);
+      if (failedCommits < MAX_FAILED_COMMITS) {
+        LOG.warn(e, "Failed to write metadata of %d build targets, retrying.", operations.size());
+        scheduleRetry();
+      } else {
+        LOG.error(e, "Failed to write metadata of %d build targets.", operations.size());
+      }
+      return;
+    }
+    failedCommits = 0;
+    writeFailure.set(null);
+
+    for (WriteOperation operation : operations) {
+      // Only drop the overlay entry if no later write to the same target is still pending.
+      pendingWrites.remove(operation.target, operation.pendingWrites);
     }
   }
 
-  @Override
-  public synchronized void deleteMetadata(BuildTarget buildTarget) throws IOException {
+  @GuardedBy("this")
+  private void scheduleRetry() {
+    if (writer.isShutdown() || !commitScheduled.compareAndSet(false, true)) {
+      return;
+    }
     try {
-      deleteStmt.setString(1, cellRelativeName(buildTarget));
-      deleteStmt.executeUpdate();
-    } catch (SQLException e) {
-      throw new IOException(e);
+      writer.schedule(
+          this::commitPendingWrites,
+          COMMIT_RETRY_DELAY_MILLIS * failedCommits,
+          TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // The store is being closed, which commits the failed batch itself.
+      commitScheduled.set(false);
     }
   }
 
+  @VisibleForTesting
+  int getFailedCommits() {
+    return failedCommits;
+  }
+
   private String cellRelativeName(BuildTarget buildTarget) {
     return buildTarget.withoutCell().getFullyQualifiedName();
   }
+
+  private static class Reader {
+    private final Connection connection;
+    private final PreparedStatement selectStmt;
+
+    private Reader(Connection connection, PreparedStatement selectStmt) {
+      this.connection = connection;
+      this.selectStmt = selectStmt;
+    }
+  }
+
+  /** The combined effect of the uncommitted writes to one target. */
+  private static class PendingWrites {
+    /** Whether the metadata stored in the database has been deleted. */
+    private final boolean deletesStoredMetadata;
+    /** Metadata written since then, which takes precedence over the database. */
+    private final ImmutableMap<String, String> metadata;
+
+    private PendingWrites(boolean deletesStoredMetadata, ImmutableMap<String, String> metadata) {
+      this.deletesStoredMetadata = deletesStoredMetadata;
+      this.metadata = metadata;
+    }
+
+    private static PendingWrites apply(
+        @Nullable PendingWrites previous, @Nullable ImmutableMap<String, String> metadata) {
+      if (metadata == null) {
+        return new PendingWrites(true, ImmutableMap.of());
+      }
+      if (previous == null) {
+        return new PendingWrites(false, metadata);
+      }
+      Map<String, String> merged = new HashMap<>(previous.metadata);
+      merged.putAll(metadata);
+      return new PendingWrites(previous.deletesStoredMetadata, ImmutableMap.copyOf(merged));
+    }
+  }
+
+  private static class WriteOperation {
+    private final String target;
+    @Nullable private final ImmutableMap<String, String> metadata;
+    /** The overlay entry for the target once this operation was applied. */
+    private final PendingWrites pendingWrites;
+
+    private WriteOperation(
+        String target,
+        @Nullable ImmutableMap<String, String> metadata,
+        PendingWrites pendingWrites) {
+      this.target = target;
+      this.metadata = metadata;
+      this.pendingWrites = pendingWrites;
+    }
+  }
 }
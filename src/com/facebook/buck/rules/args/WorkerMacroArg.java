@@ -117,6 +117,10 @@ public class WorkerMacroArg extends MacroArg {
     return workerTool.getMaxWorkers();
   }
 
+  public int getMaxJobsPerWorker() {
+    return workerTool.getMaxJobsPerWorker();
+  }
+
   public String getJobArgs() {
     try {
       return expander.expand(target, cellNames, resolver, unexpanded).trim();
@@ -20,13 +20,22 @@ import com.facebook.buck.rules.AddsToRuleKey;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.RuleKeyAppendable;
 import com.facebook.buck.rules.RuleKeyObjectSink;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.LoadingCache;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableCollection;
 
 public final class AlterRuleKeys {
-  private static final LoadingCache<Class<?>, ImmutableCollection<AlterRuleKey>> cache =
-      CacheBuilder.newBuilder().build(new ReflectiveAlterKeyLoader());
+  private static final ClassValue<ImmutableCollection<AlterRuleKey>> alterRuleKeys =
+      new ReflectiveAlterKeyLoader(true);
+  private static final ClassValue<ImmutableCollection<AlterRuleKey>> reflectiveAlterRuleKeys =
+      new ReflectiveAlterKeyLoader(false);
+
+  private static volatile boolean useMethodHandles = true;
+
+  /** Lets tests and benchmarks compare method handle field access with reflection. */
+  @VisibleForTesting
+  static void setUseMethodHandles(boolean useMethodHandles) {
+    AlterRuleKeys.useMethodHandles = useMethodHandles;
+  }
 
   public static void amendKey(RuleKeyObjectSink sink, BuildRule rule) {
     amendKey(sink, (Object) rule);
@@ -45,7 +54,9 @@ public final class AlterRuleKeys {
   }
 
   private static void amendKey(RuleKeyObjectSink sink, Object appendable) {
-    for (AlterRuleKey alterRuleKey : cache.getUnchecked(appendable.getClass())) {
+    ClassValue<ImmutableCollection<AlterRuleKey>> classAlterRuleKeys =
+        useMethodHandles ? alterRuleKeys : reflectiveAlterRuleKeys;
+    for (AlterRuleKey alterRuleKey : classAlterRuleKeys.get(appendable.getClass())) {
       alterRuleKey.amendKey(sink, appendable);
     }
   }
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import javax.annotation.Nullable;
+
+/**
+ * Extracts a value of a given field, that is assumed to be accessible, through a getter method
+ * handle unreflected from it once, rather than through {@link Field#get}. Primitive values are
+ * boxed, just like {@link Field#get} boxes them.
+ *
+ * <p>Extractors are created once per class and kept with it by {@link ReflectiveAlterKeyLoader}.
+ */
+public class MethodHandleValueExtractor implements ValueExtractor {
+  private static final MethodType GETTER_TYPE = MethodType.methodType(Object.class, Object.class);
+
+  private final Field field;
+  private final MethodHandle getter;
+
+  public MethodHandleValueExtractor(Field field) throws IllegalAccessException {
+    this.field = field;
+    MethodHandle getter = MethodHandles.lookup().unreflectGetter(field);
+    if (Modifier.isStatic(field.getModifiers())) {
+      getter = MethodHandles.dropArguments(getter, 0, Object.class);
+    }
+    this.getter = getter.asType(GETTER_TYPE);
+  }
+
+  @Override
+  public String getFullyQualifiedName() {
+    return field.getDeclaringClass() + "." + field.getName();
+  }
+
+  @Override
+  public String getName() {
+    return field.getName();
+  }
+
+  @Override
+  @Nullable
+  public Object getValue(Object obj) {
+    try {
+      return getter.invokeExact(obj);
+    } catch (Throwable t) {
+      throw new RuntimeException(t);
+    }
+  }
+}
@@ -0,0 +1,533 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.hashing.FileHashLoader;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.model.BuckVersion;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.UnflavoredBuildTarget;
+import com.facebook.buck.rules.AddsToRuleKey;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.timing.Clock;
+import com.facebook.buck.timing.DefaultClock;
+import com.facebook.buck.util.BestCompressionGZIPOutputStream;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.MapMaker;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.zip.GZIPInputStream;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link RuleKeyCache} for default rule keys which keeps the keys it computes in the buck-out
+ * directory, so that a fresh daemon or a new checkout of the same sources doesn't have to build
+ * them again.
+ *
+ * <p>A stored key is reused when the rule's structural hash, i.e. the target graph hash of the
+ * nodes the rule was created from, the keys of the rules it depends on and the contents of its
+ * inputs all match what they were when the key was computed. All other lookups, and invalidations,
+ * go to the in-memory cache it decorates, which keeps serving keys for the daemon's lifetime.
+ *
+ * <p>Stored keys are only valid for the settings they were computed with (the rule key seed,
+ * buckconfig, environment and buck version); a store written with different settings is ignored.
+ * Keys no command has used for {@link #MAX_UNUSED_DAYS} days are dropped, as are the least
+ * recently used ones once there are more than {@link #MAX_ENTRIES}.
+ */
+public class PersistedRuleKeyCache implements RuleKeyCache<RuleKey> {
+
+  private static final Logger LOG = Logger.get(PersistedRuleKeyCache.class);
+
+  private static final int MAGIC = 0x52554b43;
+  private static final int FORMAT_VERSION = 2;
+
+  @VisibleForTesting static final long MAX_UNUSED_DAYS = 7;
+  @VisibleForTesting static final int MAX_ENTRIES = 200_000;
+
+  /** How stale the recorded last use of a key may get before a command that uses it saves it. */
+  private static final long LAST_USE_RESOLUTION_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  private final RuleKeyCache<RuleKey> delegate;
+  private final ProjectFilesystem projectFilesystem;
+  private final Path storePath;
+  private final HashCode settingsHash;
+  private final FileHashLoader hashLoader;
+  private final Clock clock;
+  private final ImmutableMap<Path, ProjectFilesystem> filesystemsByRoot;
+  private final Supplier<ImmutableMap<UnflavoredBuildTarget, HashCode>> structuralHashes;
+  private final Supplier<ImmutableMap<String, BuildRule>> rulesByName;
+  private final Supplier<Map<String, StoredEntry>> storedEntries;
+
+  /** Entries computed by this command, to be merged into the store on {@link #save()}. */
+  private final ConcurrentMap<String, byte[]> updatedEntries = new ConcurrentHashMap<>();
+
+  /** Names of the stored entries this command used. */
+  private final Set<String> usedEntries = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The rules and inputs each appendable computed by this command transitively depends on, as the
+   * appendables themselves can't be named in the store. Absent if an appendable depends on one
+   * whose key was served by the in-memory cache without being computed.
+   */
+  private final Map<AddsToRuleKey, Optional<AppendableDeps>> appendableDeps =
+      new MapMaker().weakKeys().makeMap();
+
+  // Stats.
+  private final LongAdder hitCount = new LongAdder();
+  private final LongAdder missCount = new LongAdder();
+  private final LongAdder staleCount = new LongAdder();
+
+  PersistedRuleKeyCache(
+      RuleKeyCache<RuleKey> delegate,
+      ProjectFilesystem projectFilesystem,
+      Path storePath,
+      HashCode settingsHash,
+      Supplier<ImmutableMap<BuildTarget, HashCode>> targetHashes,
+      Supplier<Iterable<BuildRule>> rules,
+      FileHashLoader hashLoader,
+      Iterable<ProjectFilesystem> filesystems,
+      Clock clock) {
+    this.delegate = delegate;
+    this.projectFilesystem = projectFilesystem;
+    this.storePath = storePath;
+    this.settingsHash = settingsHash;
+    this.hashLoader = hashLoader;
+    this.clock = clock;
+    Map<Path, ProjectFilesystem> filesystemsByRoot = new LinkedHashMap<>();
+    for (ProjectFilesystem filesystem : filesystems) {
+      filesystemsByRoot.putIfAbsent(filesystem.getRootPath(), filesystem);
+    }
+    this.filesystemsByRoot = ImmutableMap.copyOf(filesystemsByRoot);
+    this.structuralHashes = Suppliers.memoize(() -> groupByUnflavoredTarget(targetHashes.get()));
+    this.rulesByName =
+        Suppliers.memoize(
+            () -> {
+              Map<String, BuildRule> byName = new HashMap<>();
+              for (BuildRule rule : rules.get()) {
+                byName.put(rule.getBuildTarget().getFullyQualifiedName(), rule);
+              }
+              return ImmutableMap.copyOf(byName);
+            });
+    this.storedEntries = Suppliers.memoize(this::read);
+  }
+
+  /**
+   * Creates a cache kept in the buck-out directory of {@code projectFilesystem}.
+   *
+   * @param settingsHash a hash of the settings rule keys depend on, besides the buck version.
+   * @param targetHashes the {@link com.facebook.buck.rules.TargetGraphHashing} hashes of the nodes
+   *     of the target graph the rules were created from. Only called if a key is looked up.
+   * @param rules all rules whose keys may be looked up. Only called if a stored key is found.
+   * @param filesystems the filesystems of all cells, which inputs of stored keys may belong to.
+   */
+  public static PersistedRuleKeyCache of(
+      RuleKeyCache<RuleKey> delegate,
+      ProjectFilesystem projectFilesystem,
+      HashCode settingsHash,
+      Supplier<ImmutableMap<BuildTarget, HashCode>> targetHashes,
+      Supplier<Iterable<BuildRule>> rules,
+      FileHashLoader hashLoader,
+      Iterable<ProjectFilesystem> filesystems) {
+    return new PersistedRuleKeyCache(
+        delegate,
+        projectFilesystem,
+        projectFilesystem.getBuckPaths().getBuckOut().resolve("rule_key_cache"),
+        Hashing.combineOrdered(
+            ImmutableList.of(
+                settingsHash,
+                Hashing.sha1().hashString(BuckVersion.getVersion(), StandardCharsets.UTF_8))),
+        targetHashes,
+        rules,
+        hashLoader,
+        filesystems,
+        new DefaultClock());
+  }
+
+  private static ImmutableMap<UnflavoredBuildTarget, HashCode> groupByUnflavoredTarget(
+      ImmutableMap<BuildTarget, HashCode> targetHashes) {
+    // Rules created from any flavor of a node share its structural hash, the same way the
+    // incremental action graph reuses rules per unflavored target.
+    SortedMap<BuildTarget, HashCode> sorted = new TreeMap<>(targetHashes);
+    Map<UnflavoredBuildTarget, List<HashCode>> grouped = new LinkedHashMap<>();
+    for (Map.Entry<BuildTarget, HashCode> entry : sorted.entrySet()) {
+      grouped
+          .computeIfAbsent(entry.getKey().getUnflavoredBuildTarget(), target -> new ArrayList<>())
+          .add(entry.getValue());
+    }
+    ImmutableMap.Builder<UnflavoredBuildTarget, HashCode> builder = ImmutableMap.builder();
+    for (Map.Entry<UnflavoredBuildTarget, List<HashCode>> entry : grouped.entrySet()) {
+      builder.put(entry.getKey(), Hashing.combineOrdered(entry.getValue()));
+    }
+    return builder.build();
+  }
+
+  @Nullable
+  @Override
+  public RuleKey get(BuildRule rule) {
+    return delegate.get(rule);
+  }
+
+  @Override
+  public RuleKey get(BuildRule rule, Function<? super BuildRule, RuleKeyResult<RuleKey>> create) {
+    return delegate.get(rule, r -> load(r, create));
+  }
+
+  @Override
+  public RuleKey get(
+      AddsToRuleKey appendable, Function<? super AddsToRuleKey, RuleKeyResult<RuleKey>> create) {
+    return delegate.get(
+        appendable,
+        app -> {
+          RuleKeyResult<RuleKey> result = create.apply(app);
+          appendableDeps.put(app, collectDeps(result));
+          return result;
+        });
+  }
+
+  private RuleKeyResult<RuleKey> load(
+      BuildRule rule, Function<? super BuildRule, RuleKeyResult<RuleKey>> create) {
+    String name = rule.getBuildTarget().getFullyQualifiedName();
+    HashCode structuralHash =
+        structuralHashes.get().get(rule.getBuildTarget().getUnflavoredBuildTarget());
+    if (structuralHash == null) {
+      // Not created from a node of the target graph, so there's nothing to validate a key with.
+      missCount.increment();
+      return create.apply(rule);
+    }
+
+    StoredEntry stored = storedEntries.get().get(name);
+    if (stored != null) {
+      Optional<RuleKeyResult<RuleKey>> result = validate(stored.data, structuralHash, create);
+      if (result.isPresent()) {
+        hitCount.increment();
+        usedEntries.add(name);
+        return result.get();
+      }
+      staleCount.increment();
+    }
+
+    missCount.increment();
+    RuleKeyResult<RuleKey> result = create.apply(rule);
+    serialize(structuralHash, result).ifPresent(entry -> updatedEntries.put(name, entry));
+    return result;
+  }
+
+  private Optional<RuleKeyResult<RuleKey>> validate(
+      byte[] stored,
+      HashCode structuralHash,
+      Function<? super BuildRule, RuleKeyResult<RuleKey>> create) {
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(stored))) {
+      if (!structuralHash.equals(readHashCode(in))) {
+        return Optional.empty();
+      }
+      RuleKey ruleKey = new RuleKey(readHashCode(in));
+
+      int depCount = in.readInt();
+      List<BuildRule> deps = new ArrayList<>(depCount);
+      for (int i = 0; i < depCount; i++) {
+        BuildRule dep = rulesByName.get().get(in.readUTF());
+        HashCode depKey = readHashCode(in);
+        if (dep == null || !get(dep, create).getHashCode().equals(depKey)) {
+          return Optional.empty();
+        }
+        deps.add(dep);
+      }
+
+      int inputCount = in.readInt();
+      List<RuleKeyInput> inputs = new ArrayList<>(inputCount);
+      for (int i = 0; i < inputCount; i++) {
+        ProjectFilesystem filesystem = filesystemsByRoot.get(Paths.get(in.readUTF()));
+        Path path = Paths.get(in.readUTF());
+        HashCode hash = readHashCode(in);
+        if (filesystem == null || !hash.equals(hashLoader.get(filesystem, path))) {
+          return Optional.empty();
+        }
+        inputs.add(RuleKeyInput.of(filesystem, path));
+      }
+
+      return Optional.of(new RuleKeyResult<>(ruleKey, deps, inputs));
+    } catch (IOException e) {
+      // Either a corrupt entry, or an input which no longer exists.
+      LOG.verbose(e, "Could not validate stored rule key.");
+      return Optional.empty();
+    }
+  }
+
+  /** @return the rules and inputs {@code result} transitively depends on, if all are known. */
+  private Optional<AppendableDeps> collectDeps(RuleKeyResult<RuleKey> result) {
+    Set<BuildRule> rules = new LinkedHashSet<>();
+    Set<RuleKeyInput> inputs = new LinkedHashSet<>();
+    for (RuleKeyInput input : result.inputs) {
+      inputs.add(input);
+    }
+    for (Object dep : result.deps) {
+      if (dep instanceof BuildRule) {
+        rules.add((BuildRule) dep);
+      } else {
+        Optional<AppendableDeps> deps = appendableDeps.get(dep);
+        if (deps == null || !deps.isPresent()) {
+          return Optional.empty();
+        }
+        rules.addAll(deps.get().rules);
+        inputs.addAll(deps.get().inputs);
+      }
+    }
+    return Optional.of(new AppendableDeps(ImmutableSet.copyOf(rules), ImmutableSet.copyOf(inputs)));
+  }
+
+  private Optional<byte[]> serialize(HashCode structuralHash, RuleKeyResult<RuleKey> result) {
+    Optional<AppendableDeps> deps = collectDeps(result);
+    if (!deps.isPresent()) {
+      return Optional.empty();
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      writeHashCode(out, structuralHash);
+      writeHashCode(out, result.result.getHashCode());
+
+      out.writeInt(deps.get().rules.size());
+      for (BuildRule dep : deps.get().rules) {
+        RuleKey depKey = delegate.get(dep);
+        if (depKey == null) {
+          return Optional.empty();
+        }
+        out.writeUTF(dep.getBuildTarget().getFullyQualifiedName());
+        writeHashCode(out, depKey.getHashCode());
+      }
+
+      out.writeInt(deps.get().inputs.size());
+      for (RuleKeyInput input : deps.get().inputs) {
+        Path root = input.getFilesystem().getRootPath();
+        if (!filesystemsByRoot.containsKey(root)) {
+          return Optional.empty();
+        }
+        out.writeUTF(root.toString());
+        out.writeUTF(input.getPath().toString());
+        writeHashCode(out, hashLoader.get(input.getFilesystem(), input.getPath()));
+      }
+    } catch (IOException e) {
+      LOG.verbose(e, "Could not store rule key.");
+      return Optional.empty();
+    }
+    return Optional.of(bytes.toByteArray());
+  }
+
+  private Map<String, StoredEntry> read() {
+    if (!projectFilesystem.isFile(storePath)) {
+      return ImmutableMap.of();
+    }
+    try (InputStream inputStream = projectFilesystem.newFileInputStream(storePath);
+        DataInputStream in = new DataInputStream(new GZIPInputStream(inputStream))) {
+      if (in.readInt() != MAGIC
+          || in.readInt() != FORMAT_VERSION
+          || !settingsHash.equals(readHashCode(in))) {
+        LOG.debug("Ignoring rule keys stored with different settings in %s.", storePath);
+        return ImmutableMap.of();
+      }
+      int count = in.readInt();
+      Map<String, StoredEntry> entries = new HashMap<>();
+      for (int i = 0; i < count; i++) {
+        String name = in.readUTF();
+        long lastUsedMillis = in.readLong();
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        entries.put(name, new StoredEntry(lastUsedMillis, data));
+      }
+      LOG.debug("Loaded %d rule keys from %s.", count, storePath);
+      return entries;
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to read rule keys from %s.", storePath);
+      return ImmutableMap.of();
+    }
+  }
+
+  /**
+   * Writes the keys computed since the store was loaded back to it, if any, along with when the
+   * keys used since then were last used, and drops the keys which have not been used for too long.
+   */
+  public synchronized void save() throws IOException {
+    long now = clock.currentTimeMillis();
+    Map<String, StoredEntry> stored = storedEntries.get();
+    boolean hasOutdatedUses =
+        usedEntries
+            .stream()
+            .anyMatch(name -> stored.get(name).lastUsedMillis < now - LAST_USE_RESOLUTION_MILLIS);
+    if (updatedEntries.isEmpty() && !hasOutdatedUses) {
+      return;
+    }
+
+    long unusedSince = now - TimeUnit.DAYS.toMillis(MAX_UNUSED_DAYS);
+    Map<String, StoredEntry> entries = new HashMap<>();
+    for (Map.Entry<String, StoredEntry> entry : stored.entrySet()) {
+      if (entry.getValue().lastUsedMillis >= unusedSince) {
+        entries.put(entry.getKey(), entry.getValue());
+      }
+    }
+    for (String name : usedEntries) {
+      entries.put(name, new StoredEntry(now, stored.get(name).data));
+    }
+    for (Map.Entry<String, byte[]> entry : updatedEntries.entrySet()) {
+      entries.put(entry.getKey(), new StoredEntry(now, entry.getValue()));
+    }
+    usedEntries.clear();
+    updatedEntries.clear();
+    if (entries.size() > MAX_ENTRIES) {
+      List<Map.Entry<String, StoredEntry>> byLastUse = new ArrayList<>(entries.entrySet());
+      byLastUse.sort(
+          Comparator.comparingLong(
+              (Map.Entry<String, StoredEntry> entry) -> entry.getValue().lastUsedMillis)
+              .reversed());
+      entries = new HashMap<>();
+      for (Map.Entry<String, StoredEntry> entry : byLastUse.subList(0, MAX_ENTRIES)) {
+        entries.put(entry.getKey(), entry.getValue());
+      }
+    }
+
+    Path tmpPath = storePath.resolveSibling(storePath.getFileName() + ".tmp");
+    projectFilesystem.createParentDirs(storePath);
+    try (OutputStream outputStream = projectFilesystem.newFileOutputStream(tmpPath);
+        DataOutputStream out =
+            new DataOutputStream(new BestCompressionGZIPOutputStream(outputStream, true))) {
+      out.writeInt(MAGIC);
+      out.writeInt(FORMAT_VERSION);
+      writeHashCode(out, settingsHash);
+      out.writeInt(entries.size());
+      for (Map.Entry<String, StoredEntry> entry : entries.entrySet()) {
+        out.writeUTF(entry.getKey());
+        out.writeLong(entry.getValue().lastUsedMillis);
+        out.writeInt(entry.getValue().data.length);
+        out.write(entry.getValue().data);
+      }
+    }
+    projectFilesystem.move(
+        tmpPath, storePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    LOG.debug("Saved %d rule keys to %s.", entries.size(), storePath);
+  }
+
+  private static void writeHashCode(DataOutputStream out, HashCode hash) throws IOException {
+    byte[] bytes = hash.asBytes();
+    out.writeByte(bytes.length);
+    out.write(bytes);
+  }
+
+  private static HashCode readHashCode(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readUnsignedByte()];
+    in.readFully(bytes);
+    return HashCode.fromBytes(bytes);
+  }
+
+  @Override
+  public ImmutableList<Map.Entry<BuildRule, RuleKey>> getCachedBuildRules() {
+    return delegate.getCachedBuildRules();
+  }
+
+  @Override
+  public void invalidateInputs(Iterable<RuleKeyInput> inputs) {
+    delegate.invalidateInputs(inputs);
+  }
+
+  @Override
+  public void invalidateInputsMatchingRelativePath(Path path) {
+    delegate.invalidateInputsMatchingRelativePath(path);
+  }
+
+  @Override
+  public void invalidateAllExceptFilesystems(ImmutableSet<ProjectFilesystem> filesystems) {
+    delegate.invalidateAllExceptFilesystems(filesystems);
+  }
+
+  @Override
+  public void invalidateFilesystem(ProjectFilesystem filesystem) {
+    delegate.invalidateFilesystem(filesystem);
+  }
+
+  @Override
+  public void invalidateAll() {
+    delegate.invalidateAll();
+  }
+
+  /** @return the stats of the in-memory cache this cache decorates. */
+  @Override
+  public CacheStats getStats() {
+    return delegate.getStats();
+  }
+
+  /**
+   * @return how many keys computed by the in-memory cache were served from the store (hits) or
+   *     had to be built (misses), and how many stored keys were found to be stale (evictions).
+   */
+  public CacheStats getPersistedStats() {
+    long missCount = this.missCount.longValue();
+    return new CacheStats(
+        hitCount.longValue(), missCount, missCount, 0L, 0L, staleCount.longValue());
+  }
+
+  private static final class StoredEntry {
+    private final long lastUsedMillis;
+    private final byte[] data;
+
+    private StoredEntry(long lastUsedMillis, byte[] data) {
+      this.lastUsedMillis = lastUsedMillis;
+      this.data = data;
+    }
+  }
+
+  private static final class AppendableDeps {
+    private final ImmutableSet<BuildRule> rules;
+    private final ImmutableSet<RuleKeyInput> inputs;
+
+    private AppendableDeps(ImmutableSet<BuildRule> rules, ImmutableSet<RuleKeyInput> inputs) {
+      this.rules = rules;
+      this.inputs = inputs;
+    }
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.PerfEventId;
+import com.facebook.buck.event.SimplePerfEvent;
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.rules.RuleKey;
+import com.google.common.cache.CacheStats;
+import java.io.IOException;
+
+/**
+ * A {@link RuleKeyCacheScope} which serves keys through a {@link PersistedRuleKeyCache}, and logs
+ * its stats and saves the keys it computed on close.
+ */
+public class PersistedRuleKeyCacheScope implements RuleKeyCacheScope<RuleKey> {
+
+  private static final Logger LOG = Logger.get(PersistedRuleKeyCacheScope.class);
+
+  private final BuckEventBus buckEventBus;
+  private final RuleKeyCacheScope<RuleKey> delegate;
+  private final PersistedRuleKeyCache cache;
+
+  /**
+   * @param delegate the scope of the in-memory cache {@code cache} decorates, which is closed along
+   *     with this scope.
+   */
+  public PersistedRuleKeyCacheScope(
+      BuckEventBus buckEventBus,
+      RuleKeyCacheScope<RuleKey> delegate,
+      PersistedRuleKeyCache cache) {
+    this.buckEventBus = buckEventBus;
+    this.delegate = delegate;
+    this.cache = cache;
+  }
+
+  @Override
+  public RuleKeyCache<RuleKey> getCache() {
+    return cache;
+  }
+
+  @Override
+  public void close() {
+    try (SimplePerfEvent.Scope scope =
+        SimplePerfEvent.scope(buckEventBus, PerfEventId.of("persisted_rule_key_cache_cleanup"))) {
+
+      // Log stats.
+      CacheStats stats = cache.getPersistedStats();
+      buckEventBus.post(RuleKeyCacheStatsEvent.createForPersistedCache(stats));
+      scope.update("hitRate", stats.hitRate());
+      scope.update("hits", stats.hitCount());
+      scope.update("misses", stats.missCount());
+      scope.update("stale", stats.evictionCount());
+
+      try {
+        cache.save();
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to save rule keys.");
+      }
+    } finally {
+      delegate.close();
+    }
+  }
+}
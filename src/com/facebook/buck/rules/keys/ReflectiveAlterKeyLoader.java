@@ -17,14 +17,17 @@
 package com.facebook.buck.rules.keys;
 
 import com.facebook.buck.rules.AddToRuleKey;
-import com.google.common.cache.CacheLoader;
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSortedMap;
 import java.lang.reflect.Field;
 import java.util.Comparator;
 
-class ReflectiveAlterKeyLoader extends CacheLoader<Class<?>, ImmutableCollection<AlterRuleKey>> {
+/**
+ * Finds the {@link AddToRuleKey} fields of each class, the first time the class is seen, and keeps
+ * the {@link AlterRuleKey}s that read them with the class.
+ */
+class ReflectiveAlterKeyLoader extends ClassValue<ImmutableCollection<AlterRuleKey>> {
 
   private static final Comparator<ValueExtractor> COMPARATOR =
       (o1, o2) -> {
@@ -33,8 +36,18 @@ class ReflectiveAlterKeyLoader extends CacheLoader<Class<?>, ImmutableCollection
         return name1.compareTo(name2);
       };
 
+  private final boolean useMethodHandles;
+
+  /**
+   * @param useMethodHandles whether to read fields through {@link MethodHandleValueExtractor}s, or
+   *     through {@link FieldValueExtractor}s only
+   */
+  ReflectiveAlterKeyLoader(boolean useMethodHandles) {
+    this.useMethodHandles = useMethodHandles;
+  }
+
   @Override
-  public ImmutableCollection<AlterRuleKey> load(Class<?> key) throws Exception {
+  protected ImmutableCollection<AlterRuleKey> computeValue(Class<?> key) {
     ImmutableList.Builder<AlterRuleKey> builder = ImmutableList.builder();
     for (Class<?> current = key; !Object.class.equals(current); current = current.getSuperclass()) {
       ImmutableSortedMap.Builder<ValueExtractor, AlterRuleKey> sortedExtractors =
@@ -43,7 +56,7 @@ class ReflectiveAlterKeyLoader extends CacheLoader<Class<?>, ImmutableCollection
         field.setAccessible(true);
         final AddToRuleKey annotation = field.getAnnotation(AddToRuleKey.class);
         if (annotation != null) {
-          ValueExtractor valueExtractor = new FieldValueExtractor(field);
+          ValueExtractor valueExtractor = createValueExtractor(field);
           sortedExtractors.put(valueExtractor, createAlterRuleKey(valueExtractor, annotation));
         }
       }
@@ -52,6 +65,17 @@ class ReflectiveAlterKeyLoader extends CacheLoader<Class<?>, ImmutableCollection
     return builder.build();
   }
 
+  private ValueExtractor createValueExtractor(Field field) {
+    if (useMethodHandles) {
+      try {
+        return new MethodHandleValueExtractor(field);
+      } catch (IllegalAccessException e) {
+        // Fall back to reflection.
+      }
+    }
+    return new FieldValueExtractor(field);
+  }
+
   private AlterRuleKey createAlterRuleKey(ValueExtractor valueExtractor, AddToRuleKey annotation) {
     if (annotation.stringify()) {
       return new StringifyAlterRuleKey(valueExtractor);
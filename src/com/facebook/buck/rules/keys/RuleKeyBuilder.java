@@ -18,7 +18,6 @@ package com.facebook.buck.rules.keys;
 
 import static com.facebook.buck.rules.keys.RuleKeyHasher.Container;
 import static com.facebook.buck.rules.keys.RuleKeyHasher.Wrapper;
-import static com.facebook.buck.rules.keys.RuleKeyScopedHasher.ContainerScope;
 
 import com.facebook.buck.hashing.FileHashLoader;
 import com.facebook.buck.io.ArchiveMemberPath;
@@ -41,14 +40,12 @@ import com.facebook.buck.rules.SourcePathRuleFinder;
 import com.facebook.buck.rules.SourceRoot;
 import com.facebook.buck.rules.SourceWithFlags;
 import com.facebook.buck.util.HumanReadableException;
-import com.facebook.buck.util.Scope;
 import com.facebook.buck.util.sha1.Sha1HashCode;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
-import com.google.common.hash.Hashing;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Iterator;
@@ -110,7 +107,7 @@ public abstract class RuleKeyBuilder<RULE_KEY> implements RuleKeyObjectSink {
   }
 
   public static RuleKeyHasher<HashCode> createDefaultHasher() {
-    RuleKeyHasher<HashCode> hasher = new GuavaRuleKeyHasher(Hashing.sha1().newHasher());
+    RuleKeyHasher<HashCode> hasher = new Sha1RuleKeyHasher();
     if (logger.isVerboseEnabled()) {
       hasher =
           new ForwardingRuleKeyHasher<HashCode, String>(hasher, new StringRuleKeyHasher()) {
@@ -125,9 +122,37 @@ public abstract class RuleKeyBuilder<RULE_KEY> implements RuleKeyObjectSink {
 
   @Override
   public final RuleKeyBuilder<RULE_KEY> setReflectively(String key, @Nullable Object val) {
-    try (Scope keyScope = scopedHasher.keyScope(key)) {
-      return setReflectively(val);
+    // Same as a RuleKeyScopedHasher#keyScope, without allocating a scope for every field.
+    if (setElement(val)) {
+      hasher.putKey(key);
     }
+    return this;
+  }
+
+  /**
+   * Serializes the value as an element of a container or a wrapper.
+   *
+   * @return whether anything got hashed, in which case the enclosing key, container or wrapper
+   *     needs to be hashed too.
+   */
+  private boolean setElement(@Nullable Object val) {
+    long hasherCount = hasher.getCount();
+    setReflectively(val);
+    return hasher.getCount() > hasherCount;
+  }
+
+  private RuleKeyBuilder<RULE_KEY> setWrapped(Wrapper wrapper, @Nullable Object val) {
+    if (setElement(val)) {
+      hasher.putWrapper(wrapper);
+    }
+    return this;
+  }
+
+  private RuleKeyBuilder<RULE_KEY> putContainer(Container container, int elementCount) {
+    if (elementCount > 0) {
+      hasher.putContainer(container, elementCount);
+    }
+    return this;
   }
 
   /** Recursively serializes the value. Serialization of the key is handled outside. */
@@ -141,55 +166,45 @@ public abstract class RuleKeyBuilder<RULE_KEY> implements RuleKeyObjectSink {
     }
 
     if (val instanceof Supplier) {
-      try (Scope containerScope = scopedHasher.wrapperScope(Wrapper.SUPPLIER)) {
-        Object newVal = ((Supplier<?>) val).get();
-        return setReflectively(newVal);
-      }
+      Object newVal = ((Supplier<?>) val).get();
+      return setWrapped(Wrapper.SUPPLIER, newVal);
     }
 
     if (val instanceof Optional) {
       Object o = ((Optional<?>) val).orElse(null);
-      try (Scope wraperScope = scopedHasher.wrapperScope(Wrapper.OPTIONAL)) {
-        return setReflectively(o);
-      }
+      return setWrapped(Wrapper.OPTIONAL, o);
     }
 
     if (val instanceof Either) {
       Either<?, ?> either = (Either<?, ?>) val;
       if (either.isLeft()) {
-        try (Scope wraperScope = scopedHasher.wrapperScope(Wrapper.EITHER_LEFT)) {
-          return setReflectively(either.getLeft());
-        }
+        return setWrapped(Wrapper.EITHER_LEFT, either.getLeft());
       } else {
-        try (Scope wraperScope = scopedHasher.wrapperScope(Wrapper.EITHER_RIGHT)) {
-          return setReflectively(either.getRight());
-        }
+        return setWrapped(Wrapper.EITHER_RIGHT, either.getRight());
       }
     }
 
     // Check to see if we're dealing with a collection of some description.
     // Note {@link java.nio.file.Path} implements "Iterable", so we explicitly exclude it here.
     if (val instanceof Iterable && !(val instanceof Path)) {
-      try (ContainerScope containerScope = scopedHasher.containerScope(Container.LIST)) {
-        for (Object element : (Iterable<?>) val) {
-          try (Scope elementScope = containerScope.elementScope()) {
-            setReflectively(element);
-          }
+      int elementCount = 0;
+      for (Object element : (Iterable<?>) val) {
+        if (setElement(element)) {
+          elementCount++;
         }
-        return this;
       }
+      return putContainer(Container.LIST, elementCount);
     }
 
     if (val instanceof Iterator) {
       Iterator<?> iterator = (Iterator<?>) val;
-      try (ContainerScope containerScope = scopedHasher.containerScope(Container.LIST)) {
-        while (iterator.hasNext()) {
-          try (Scope elementScope = containerScope.elementScope()) {
-            setReflectively(iterator.next());
-          }
+      int elementCount = 0;
+      while (iterator.hasNext()) {
+        if (setElement(iterator.next())) {
+          elementCount++;
         }
       }
-      return this;
+      return putContainer(Container.LIST, elementCount);
     }
 
     if (val instanceof Map) {
@@ -199,17 +214,16 @@ public abstract class RuleKeyBuilder<RULE_KEY> implements RuleKeyObjectSink {
                 + "Expect unstable ordering and caches misses: %s",
             val);
       }
-      try (ContainerScope containerScope = scopedHasher.containerScope(Container.MAP)) {
-        for (Map.Entry<?, ?> entry : ((Map<?, ?>) val).entrySet()) {
-          try (Scope elementScope = containerScope.elementScope()) {
-            setReflectively(entry.getKey());
-          }
-          try (Scope elementScope = containerScope.elementScope()) {
-            setReflectively(entry.getValue());
-          }
+      int elementCount = 0;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) val).entrySet()) {
+        if (setElement(entry.getKey())) {
+          elementCount++;
+        }
+        if (setElement(entry.getValue())) {
+          elementCount++;
         }
       }
-      return this;
+      return putContainer(Container.MAP, elementCount);
     }
 
     if (val instanceof Path) {
@@ -232,17 +246,14 @@ public abstract class RuleKeyBuilder<RULE_KEY> implements RuleKeyObjectSink {
 
     if (val instanceof SourceWithFlags) {
       SourceWithFlags source = (SourceWithFlags) val;
-      try (ContainerScope containerScope = scopedHasher.containerScope(Container.TUPLE)) {
-        try (Scope elementScope = containerScope.elementScope()) {
-          setSourcePath(source.getSourcePath());
-        } catch (IOException e) {
-          throw new RuntimeException(e);
-        }
-        try (Scope elementScope = containerScope.elementScope()) {
-          setReflectively(source.getFlags());
-        }
+      int elementCount = 0;
+      if (setElement(source.getSourcePath())) {
+        elementCount++;
+      }
+      if (setElement(source.getFlags())) {
+        elementCount++;
       }
-      return this;
+      return putContainer(Container.TUPLE, elementCount);
     }
 
     return setSingleValue(val);
@@ -256,9 +267,9 @@ public abstract class RuleKeyBuilder<RULE_KEY> implements RuleKeyObjectSink {
 
   /** To be called from {@link #setBuildRule(BuildRule)}. */
   protected final RuleKeyBuilder<RULE_KEY> setBuildRuleKey(RuleKey ruleKey) {
-    try (Scope wraperScope = scopedHasher.wrapperScope(Wrapper.BUILD_RULE)) {
-      return setSingleValue(ruleKey);
-    }
+    setSingleValue(ruleKey);
+    hasher.putWrapper(Wrapper.BUILD_RULE);
+    return this;
   }
 
   /**
@@ -269,9 +280,9 @@ public abstract class RuleKeyBuilder<RULE_KEY> implements RuleKeyObjectSink {
 
   /** To be called from {@link #setAddsToRuleKey(AddsToRuleKey)}. */
   protected final RuleKeyBuilder<RULE_KEY> setAddsToRuleKey(RuleKey ruleKey) {
-    try (Scope wraperScope = scopedHasher.wrapperScope(Wrapper.APPENDABLE)) {
-      return setSingleValue(ruleKey);
-    }
+    setSingleValue(ruleKey);
+    hasher.putWrapper(Wrapper.APPENDABLE);
+    return this;
   }
 
   /**
@@ -316,15 +327,14 @@ public abstract class RuleKeyBuilder<RULE_KEY> implements RuleKeyObjectSink {
    * and invokes {@link #setBuildRule(BuildRule)} on the associated rule.
    */
   protected final RuleKeyBuilder<RULE_KEY> setSourcePathAsRule(BuildTargetSourcePath sourcePath) {
-    try (ContainerScope containerScope = scopedHasher.containerScope(Container.TUPLE)) {
-      try (Scope elementScope = containerScope.elementScope()) {
-        hasher.putBuildTargetSourcePath(sourcePath);
-      }
-      try (Scope elementScope = containerScope.elementScope()) {
-        setBuildRule(ruleFinder.getRule(sourcePath));
-      }
+    hasher.putBuildTargetSourcePath(sourcePath);
+    int elementCount = 1;
+    long hasherCount = hasher.getCount();
+    setBuildRule(ruleFinder.getRule(sourcePath));
+    if (hasher.getCount() > hasherCount) {
+      elementCount++;
     }
-    return this;
+    return putContainer(Container.TUPLE, elementCount);
   }
 
   // Paths get added as a combination of the file name and file hash. If the path is absolute
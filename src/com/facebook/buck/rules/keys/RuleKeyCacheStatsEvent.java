@@ -23,14 +23,21 @@ import com.google.common.cache.CacheStats;
 public class RuleKeyCacheStatsEvent extends AbstractBuckEvent {
 
   private final CacheStats stats;
+  private final boolean persisted;
 
-  private RuleKeyCacheStatsEvent(EventKey eventKey, CacheStats stats) {
+  private RuleKeyCacheStatsEvent(EventKey eventKey, CacheStats stats, boolean persisted) {
     super(eventKey);
     this.stats = stats;
+    this.persisted = persisted;
   }
 
   public static RuleKeyCacheStatsEvent create(CacheStats stats) {
-    return new RuleKeyCacheStatsEvent(EventKey.unique(), stats);
+    return new RuleKeyCacheStatsEvent(EventKey.unique(), stats, false);
+  }
+
+  /** @return an event for the stats of a {@link PersistedRuleKeyCache}'s on-disk store. */
+  public static RuleKeyCacheStatsEvent createForPersistedCache(CacheStats stats) {
+    return new RuleKeyCacheStatsEvent(EventKey.unique(), stats, true);
   }
 
   @Override
@@ -46,4 +53,9 @@ public class RuleKeyCacheStatsEvent extends AbstractBuckEvent {
   public CacheStats getStats() {
     return stats;
   }
+
+  /** @return whether the stats are those of keys stored on disk, rather than kept in memory. */
+  public boolean isPersisted() {
+    return persisted;
+  }
 }
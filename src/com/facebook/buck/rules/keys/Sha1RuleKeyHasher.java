@@ -0,0 +1,309 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import com.facebook.buck.io.ArchiveMemberPath;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.BuildRuleType;
+import com.facebook.buck.rules.BuildTargetSourcePath;
+import com.facebook.buck.rules.ExplicitBuildTargetSourcePath;
+import com.facebook.buck.rules.ForwardingBuildTargetSourcePath;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.SourceRoot;
+import com.facebook.buck.util.sha1.Sha1HashCode;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.regex.Pattern;
+
+/**
+ * A SHA-1 {@link RuleKeyHasher} that produces the same hashes as a {@link GuavaRuleKeyHasher}
+ * wrapping {@code Hashing.sha1()}, at a fraction of the cost per value.
+ *
+ * <p>Values are serialized into a byte buffer which is handed to {@link MessageDigest} in bulk,
+ * instead of a few bytes at a time, and ASCII strings are written without being encoded into a new
+ * array first. Buffers and digests are recycled through a per-thread pool when {@link #hash()} is
+ * called. A pool rather than a single buffer is needed, since the keys of a rule's deps are
+ * typically computed while its own key is being built.
+ */
+public class Sha1RuleKeyHasher implements RuleKeyHasher<HashCode> {
+
+  private static final int BUFFER_SIZE = 8 * 1024;
+  private static final int MAX_POOLED_STATES = 32;
+  private static final int SHA1_SIZE = 20;
+
+  /** Room for the length and type that delimit each value. */
+  private static final int DELIMITER_SIZE = Integer.BYTES + 1;
+
+  private static final ThreadLocal<Deque<State>> POOL = ThreadLocal.withInitial(ArrayDeque::new);
+
+  private final State state;
+  private final MessageDigest digest;
+  private final ByteBuffer buffer;
+  private boolean hashed = false;
+
+  public Sha1RuleKeyHasher() {
+    State pooled = POOL.get().poll();
+    this.state = pooled != null ? pooled : new State();
+    this.digest = state.digest;
+    this.buffer = state.buffer;
+  }
+
+  private void ensureRemaining(int length) {
+    if (buffer.remaining() < length) {
+      flush();
+    }
+  }
+
+  private void flush() {
+    digest.update(buffer.array(), 0, buffer.position());
+    buffer.clear();
+  }
+
+  private void putDelimiter(int length, byte type) {
+    ensureRemaining(DELIMITER_SIZE);
+    buffer.putInt(length);
+    buffer.put(type);
+  }
+
+  private void putType(byte type) {
+    ensureRemaining(1);
+    buffer.put(type);
+  }
+
+  private Sha1RuleKeyHasher putBytes(byte type, byte[] bytes) {
+    if (bytes.length > buffer.remaining()) {
+      flush();
+    }
+    if (bytes.length > buffer.remaining()) {
+      digest.update(bytes);
+    } else {
+      buffer.put(bytes);
+    }
+    putDelimiter(bytes.length, type);
+    return this;
+  }
+
+  private Sha1RuleKeyHasher putHashCode(byte type, HashCode hash) {
+    int length = hash.bits() / Byte.SIZE;
+    ensureRemaining(length);
+    int position = buffer.position();
+    buffer.position(position + hash.writeBytesTo(buffer.array(), position, length));
+    putDelimiter(length, type);
+    return this;
+  }
+
+  private Sha1RuleKeyHasher putStringified(byte type, String val) {
+    int length = val.length();
+    if (length <= BUFFER_SIZE) {
+      ensureRemaining(length);
+      byte[] array = buffer.array();
+      int position = buffer.position();
+      int i = 0;
+      for (; i < length; i++) {
+        char c = val.charAt(i);
+        if (c >= 0x80) {
+          break;
+        }
+        array[position + i] = (byte) c;
+      }
+      if (i == length) {
+        buffer.position(position + length);
+        putDelimiter(length, type);
+        return this;
+      }
+    }
+    // Not all ASCII, so the encoded length isn't known upfront. Nothing has been written yet.
+    return putBytes(type, val.getBytes(StandardCharsets.UTF_8));
+  }
+
+  private Sha1RuleKeyHasher putBuildTarget(byte type, BuildTarget target) {
+    return putStringified(type, target.getFullyQualifiedName());
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putKey(String key) {
+    return this.putStringified(RuleKeyHasherTypes.KEY, key);
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putNull() {
+    putType(RuleKeyHasherTypes.NULL);
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putBoolean(boolean val) {
+    putType(val ? RuleKeyHasherTypes.TRUE : RuleKeyHasherTypes.FALSE);
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putNumber(Number val) {
+    ensureRemaining(Long.BYTES + 1);
+    if (val instanceof Integer) { // most common, so test first
+      buffer.putInt((Integer) val);
+      buffer.put(RuleKeyHasherTypes.INTEGER);
+    } else if (val instanceof Long) {
+      buffer.putLong((Long) val);
+      buffer.put(RuleKeyHasherTypes.LONG);
+    } else if (val instanceof Short) {
+      buffer.putShort((Short) val);
+      buffer.put(RuleKeyHasherTypes.SHORT);
+    } else if (val instanceof Byte) {
+      buffer.put((Byte) val);
+      buffer.put(RuleKeyHasherTypes.BYTE);
+    } else if (val instanceof Float) {
+      buffer.putFloat((Float) val);
+      buffer.put(RuleKeyHasherTypes.FLOAT);
+    } else if (val instanceof Double) {
+      buffer.putDouble((Double) val);
+      buffer.put(RuleKeyHasherTypes.DOUBLE);
+    } else {
+      throw new UnsupportedOperationException(("Unsupported Number type: " + val.getClass()));
+    }
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putString(String val) {
+    return this.putStringified(RuleKeyHasherTypes.STRING, val);
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putBytes(byte[] bytes) {
+    return putBytes(RuleKeyHasherTypes.BYTE_ARRAY, bytes);
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putPattern(Pattern pattern) {
+    return this.putStringified(RuleKeyHasherTypes.PATTERN, pattern.toString());
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putSha1(Sha1HashCode sha1) {
+    ensureRemaining(SHA1_SIZE + 1);
+    sha1.update(buffer);
+    buffer.put(RuleKeyHasherTypes.SHA1);
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putPath(Path path, HashCode hash) {
+    this.putStringified(RuleKeyHasherTypes.PATH, path.toString());
+    this.putHashCode(RuleKeyHasherTypes.PATH, hash);
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putArchiveMemberPath(ArchiveMemberPath path, HashCode hash) {
+    this.putStringified(RuleKeyHasherTypes.ARCHIVE_MEMBER_PATH, path.toString());
+    this.putHashCode(RuleKeyHasherTypes.ARCHIVE_MEMBER_PATH, hash);
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putNonHashingPath(String path) {
+    return this.putStringified(RuleKeyHasherTypes.NON_HASHING_PATH, path);
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putSourceRoot(SourceRoot sourceRoot) {
+    return this.putStringified(RuleKeyHasherTypes.SOURCE_ROOT, sourceRoot.getName());
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putRuleKey(RuleKey ruleKey) {
+    return this.putHashCode(RuleKeyHasherTypes.RULE_KEY, ruleKey.getHashCode());
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putBuildRuleType(BuildRuleType buildRuleType) {
+    return this.putStringified(RuleKeyHasherTypes.RULE_TYPE, buildRuleType.toString());
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putBuildTarget(BuildTarget buildTarget) {
+    return this.putStringified(RuleKeyHasherTypes.TARGET, buildTarget.getFullyQualifiedName());
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putBuildTargetSourcePath(BuildTargetSourcePath targetSourcePath) {
+    this.putBuildTarget(RuleKeyHasherTypes.TARGET_SOURCE_PATH, targetSourcePath.getTarget());
+    if (targetSourcePath instanceof ExplicitBuildTargetSourcePath) {
+      this.putStringified(
+          RuleKeyHasherTypes.TARGET_SOURCE_PATH,
+          ((ExplicitBuildTargetSourcePath) targetSourcePath).getResolvedPath().toString());
+    } else if (targetSourcePath instanceof ForwardingBuildTargetSourcePath) {
+      this.putStringified(
+          RuleKeyHasherTypes.TARGET_SOURCE_PATH,
+          ((ForwardingBuildTargetSourcePath) targetSourcePath).getDelegate().toString());
+    }
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putContainer(Container container, int length) {
+    ensureRemaining(DELIMITER_SIZE + 1);
+    buffer.put(RuleKeyHasherTypes.containerSubType(container));
+    buffer.putInt(length);
+    buffer.put(RuleKeyHasherTypes.CONTAINER);
+    return this;
+  }
+
+  @Override
+  public Sha1RuleKeyHasher putWrapper(Wrapper wrapper) {
+    ensureRemaining(2);
+    buffer.put(RuleKeyHasherTypes.wrapperSubType(wrapper));
+    buffer.put(RuleKeyHasherTypes.WRAPPER);
+    return this;
+  }
+
+  @Override
+  public HashCode hash() {
+    Preconditions.checkState(!hashed, "hash() may only be called once.");
+    hashed = true;
+    flush();
+    HashCode hash = HashCode.fromBytes(digest.digest());
+    Deque<State> pool = POOL.get();
+    if (pool.size() < MAX_POOLED_STATES) {
+      pool.push(state);
+    }
+    return hash;
+  }
+
+  private static class State {
+    private final MessageDigest digest;
+    private final ByteBuffer buffer =
+        ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    private State() {
+      try {
+        digest = MessageDigest.getInstance("SHA-1");
+      } catch (NoSuchAlgorithmException e) {
+        throw new RuntimeException(e);
+      }
+    }
+  }
+}
@@ -24,6 +24,8 @@ import com.facebook.buck.util.Escaper;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
+import com.facebook.buck.worker.WorkerJobCancelledException;
+import com.facebook.buck.worker.WorkerJobFailedException;
 import com.facebook.buck.worker.WorkerJobParams;
 import com.facebook.buck.worker.WorkerJobResult;
 import com.facebook.buck.worker.WorkerProcess;
@@ -76,7 +78,15 @@ public class WorkerShellStep implements Step {
       WorkerJobParams paramsToUse = getWorkerJobParamsToUse(context.getPlatform());
       pool = factory.getWorkerProcessPool(context, paramsToUse.getWorkerProcessParams());
       process = pool.borrowWorkerProcess();
-      WorkerJobResult result = process.submitAndWaitForJob(getExpandedJobArgs(context));
+      WorkerJobResult result;
+      try {
+        result = process.submitAndWaitForJob(getExpandedJobArgs(context));
+      } catch (WorkerJobFailedException | WorkerJobCancelledException e) {
+        // Only this job failed, and the worker may be running other jobs.
+        pool.returnWorkerProcess(process);
+        process = null;
+        throw e;
+      }
       pool.returnWorkerProcess(process);
       process = null; // to avoid finally below
 
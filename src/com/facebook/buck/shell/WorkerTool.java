@@ -27,6 +27,9 @@ public interface WorkerTool {
 
   int getMaxWorkers();
 
+  /** @return how many jobs each worker process may run at once. */
+  int getMaxJobsPerWorker();
+
   boolean isPersistent();
 
   HashCode getInstanceKey();
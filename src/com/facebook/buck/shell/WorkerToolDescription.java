@@ -140,6 +140,11 @@ public class WorkerToolDescription
 
     // negative or zero: unlimited number of worker processes
     int maxWorkers = args.getMaxWorkers() < 1 ? Integer.MAX_VALUE : args.getMaxWorkers();
+    if (args.getMaxJobsPerWorker() < 1) {
+      throw new HumanReadableException(
+          "%s: max_jobs_per_worker must be at least 1, got %d.",
+          buildTarget, args.getMaxJobsPerWorker());
+    }
 
     CommandTool tool = builder.build();
     return new DefaultWorkerTool(
@@ -148,6 +153,7 @@ public class WorkerToolDescription
         params.copyAppendingExtraDeps(tool.getDeps(new SourcePathRuleFinder(resolver))),
         tool,
         maxWorkers,
+        args.getMaxJobsPerWorker(),
         args.getPersistent()
             .orElse(buckConfig.getBooleanValue(CONFIG_SECTION, CONFIG_PERSISTENT_KEY, false)));
   }
@@ -199,6 +205,11 @@ public class WorkerToolDescription
       return 1;
     }
 
+    @Value.Default
+    default int getMaxJobsPerWorker() {
+      return 1;
+    }
+
     Optional<Boolean> getPersistent();
   }
 }
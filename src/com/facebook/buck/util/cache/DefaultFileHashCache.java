@@ -47,12 +47,23 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
 
   @VisibleForTesting FileHashCacheEngine fileHashCacheEngine;
 
+  final Optional<PersistentFileHashStore> persistentStore;
+
   protected DefaultFileHashCache(
       ProjectFilesystem projectFilesystem,
       Predicate<Path> ignoredPredicate,
       FileHashCacheMode fileHashCacheMode) {
+    this(projectFilesystem, ignoredPredicate, fileHashCacheMode, Optional.empty());
+  }
+
+  protected DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Predicate<Path> ignoredPredicate,
+      FileHashCacheMode fileHashCacheMode,
+      Optional<PersistentFileHashStore> persistentStore) {
     this.projectFilesystem = projectFilesystem;
     this.ignoredPredicate = ignoredPredicate;
+    this.persistentStore = persistentStore;
     FileHashCacheEngine.ValueLoader<HashCodeAndFileType> hashLoader =
         path -> {
           try {
@@ -100,6 +111,19 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
         projectFilesystem, getDefaultPathPredicate(projectFilesystem), fileHashCacheMode);
   }
 
+  /**
+   * Like {@link #createDefaultFileHashCache}, but file hashes are also kept in a {@link
+   * PersistentFileHashStore}, so that they survive until the next run.
+   */
+  public static DefaultFileHashCache createPersistentFileHashCache(
+      ProjectFilesystem projectFilesystem, FileHashCacheMode fileHashCacheMode) {
+    return new DefaultFileHashCache(
+        projectFilesystem,
+        getDefaultPathPredicate(projectFilesystem),
+        fileHashCacheMode,
+        Optional.of(PersistentFileHashStore.load(projectFilesystem)));
+  }
+
   protected static Predicate<Path> getDefaultPathPredicate(ProjectFilesystem projectFilesystem) {
     return path ->
         path.startsWith(projectFilesystem.getBuckPaths().getBuckOut())
@@ -149,6 +173,11 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
   }
 
   private HashCode getFileHashCode(Path path) throws IOException {
+    if (persistentStore.isPresent()) {
+      return persistentStore
+          .get()
+          .get(path, () -> projectFilesystem.computeSha1(path).asHashCode());
+    }
     return projectFilesystem.computeSha1(path).asHashCode();
   }
 
@@ -280,6 +309,13 @@ public class DefaultFileHashCache implements ProjectFileHashCache {
         .build();
   }
 
+  /** Writes the file hashes computed so far to the persistent store, if this cache has one. */
+  public void savePersistentStore() throws IOException {
+    if (persistentStore.isPresent()) {
+      persistentStore.get().save();
+    }
+  }
+
   public List<AbstractBuckEvent> getStatsEvents() {
     return fileHashCacheEngine.getStatsEvents();
   }
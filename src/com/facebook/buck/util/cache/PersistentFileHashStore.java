@@ -0,0 +1,543 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.log.Logger;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * An on-disk store of file content hashes which outlives the daemon, so that a fresh daemon (or a
+ * run without one) does not have to rehash every source file of the cell.
+ *
+ * <p>Entries are keyed by path and are only trusted while the modification time, size and file key
+ * (the inode on Unix) of the file still match what they were when it was hashed. Files modified
+ * shortly before they were hashed might change again without their modification time moving on,
+ * so their hashes are not stored at all.
+ *
+ * <p>The store is a memory-mapped file laid out as an open-addressing table, so a lookup touches a
+ * couple of pages instead of the whole store having to be parsed on startup, and a journal next to
+ * it. Saving only appends the new entries to the journal, which is read into memory on startup.
+ * Once the journal grows past a fraction of the table, it is merged into a new table while the
+ * store is being opened, before the table is mapped, as a mapped file cannot be replaced on
+ * Windows.
+ *
+ * <p>The layout of the table, all big-endian, is a header of magic, version, entry count and table
+ * size; then {@code tableSize} int offsets of entries, zero marking an empty slot; then the
+ * entries, each made of modification time, size, file key hash, SHA-1 and the length-prefixed
+ * UTF-8 relative path. The journal is a sequence of entries in the same format, each preceded by
+ * a byte telling whether it adds the entry or removes its path, in which case only the path
+ * follows.
+ */
+public class PersistentFileHashStore {
+
+  private static final Logger LOG = Logger.get(PersistentFileHashStore.class);
+
+  private static final int MAGIC = 0x42464853;
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = 16;
+  private static final int SHA1_SIZE = 20;
+  private static final int ENTRY_FIXED_SIZE = 8 + 8 + 8 + SHA1_SIZE + 2;
+  private static final int MAX_PATH_SIZE = 0xFFFF;
+
+  private static final byte JOURNAL_PUT = 'P';
+  private static final byte JOURNAL_REMOVE = 'R';
+  private static final int MIN_JOURNAL_RECORDS_TO_COMPACT = 10000;
+  private static final int MAX_JOURNAL_RECORDS_PER_TABLE_ENTRY_INVERSE = 8;
+
+  /**
+   * Files modified this recently may still change without their modification time moving on, so
+   * their hashes are only kept in memory.
+   */
+  private static final long RACY_MODIFICATION_WINDOW_MILLIS = TimeUnit.SECONDS.toMillis(2);
+
+  @FunctionalInterface
+  public interface HashLoader {
+    HashCode load() throws IOException;
+  }
+
+  private final ProjectFilesystem projectFilesystem;
+  private final Path storePath;
+  private final Path journalPath;
+
+  private final ByteBuffer storedEntries;
+  private final ConcurrentMap<Path, Entry> journaledEntries = new ConcurrentHashMap<>();
+  private final ConcurrentMap<Path, Entry> newEntries = new ConcurrentHashMap<>();
+  private final Set<Path> invalidatedPaths = ConcurrentHashMap.newKeySet();
+
+  @VisibleForTesting
+  PersistentFileHashStore(ProjectFilesystem projectFilesystem, Path storePath) {
+    this(projectFilesystem, storePath, MIN_JOURNAL_RECORDS_TO_COMPACT);
+  }
+
+  @VisibleForTesting
+  PersistentFileHashStore(
+      ProjectFilesystem projectFilesystem, Path storePath, int minJournalRecordsToCompact) {
+    this.projectFilesystem = projectFilesystem;
+    this.storePath = storePath;
+    this.journalPath = storePath.resolveSibling(storePath.getFileName() + ".journal");
+
+    Set<Path> removedPaths = new HashSet<>();
+    int journalRecords = readJournal(journaledEntries, removedPaths);
+    if (journalRecords
+        > Math.max(
+            minJournalRecordsToCompact,
+            readStoredEntryCount() / MAX_JOURNAL_RECORDS_PER_TABLE_ENTRY_INVERSE)) {
+      compact(removedPaths);
+    }
+    this.storedEntries = map(projectFilesystem.resolve(storePath));
+  }
+
+  /** Opens the store kept in the buck-out directory of {@code projectFilesystem}. */
+  public static PersistentFileHashStore load(ProjectFilesystem projectFilesystem) {
+    return new PersistentFileHashStore(
+        projectFilesystem, projectFilesystem.getBuckPaths().getBuckOut().resolve("file_hashes"));
+  }
+
+  /**
+   * @return the stored hash of {@code relativePath} if the file is unchanged since it was stored,
+   *     otherwise the hash computed by {@code loader}, which is then kept for the next {@link
+   *     #save()}.
+   */
+  public HashCode get(Path relativePath, HashLoader loader) throws IOException {
+    Entry current = stat(relativePath);
+    Optional<HashCode> stored = lookup(relativePath, current);
+    if (stored.isPresent()) {
+      return stored.get();
+    }
+    HashCode hashCode = loader.load();
+    if (current.modifiedTimeNanos
+        < TimeUnit.MILLISECONDS.toNanos(
+            System.currentTimeMillis() - RACY_MODIFICATION_WINDOW_MILLIS)) {
+      newEntries.put(relativePath, current.withHashCode(hashCode));
+      invalidatedPaths.remove(relativePath);
+    }
+    return hashCode;
+  }
+
+  /** Drops {@code relativePath} from the store the next time it is saved. */
+  public void invalidate(Path relativePath) {
+    newEntries.remove(relativePath);
+    invalidatedPaths.add(relativePath);
+  }
+
+  /**
+   * Appends the entries computed and the paths invalidated since the last save to the journal.
+   * Does nothing if there is nothing new to write.
+   */
+  public synchronized void save() throws IOException {
+    if (newEntries.isEmpty() && invalidatedPaths.isEmpty()) {
+      return;
+    }
+    ImmutableMap<Path, Entry> written = ImmutableMap.copyOf(newEntries);
+    ImmutableSet<Path> invalidated = ImmutableSet.copyOf(invalidatedPaths);
+
+    ByteArrayOutputStream records = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(records);
+    for (Path path : invalidated) {
+      byte[] pathBytes = path.toString().getBytes(StandardCharsets.UTF_8);
+      if (pathBytes.length <= MAX_PATH_SIZE) {
+        out.writeByte(JOURNAL_REMOVE);
+        out.writeShort(pathBytes.length);
+        out.write(pathBytes);
+      }
+    }
+    for (Map.Entry<Path, Entry> entry : written.entrySet()) {
+      byte[] pathBytes = entry.getKey().toString().getBytes(StandardCharsets.UTF_8);
+      if (pathBytes.length <= MAX_PATH_SIZE) {
+        out.writeByte(JOURNAL_PUT);
+        writeEntry(out, entry.getValue(), pathBytes);
+      }
+    }
+    out.flush();
+
+    // A single append, so that processes saving at the same time don't interleave their records.
+    Path absoluteJournalPath = projectFilesystem.resolve(journalPath);
+    Files.createDirectories(absoluteJournalPath.getParent());
+    Files.write(
+        absoluteJournalPath,
+        records.toByteArray(),
+        StandardOpenOption.CREATE,
+        StandardOpenOption.WRITE,
+        StandardOpenOption.APPEND);
+    LOG.debug(
+        "Saved %d file hashes and %d invalidations to %s.",
+        written.size(), invalidated.size(), absoluteJournalPath);
+
+    invalidated.forEach(journaledEntries::remove);
+    journaledEntries.putAll(written);
+    written.forEach(newEntries::remove);
+    invalidatedPaths.removeAll(invalidated);
+  }
+
+  /**
+   * Reads the journal into {@code entries} and {@code removedPaths}, stopping at the first
+   * incomplete record, which is most likely the last one of a process that died while writing it.
+   *
+   * @return the number of records read.
+   */
+  private int readJournal(Map<Path, Entry> entries, Set<Path> removedPaths) {
+    Path absoluteJournalPath = projectFilesystem.resolve(journalPath);
+    if (!Files.exists(absoluteJournalPath)) {
+      return 0;
+    }
+    ByteBuffer journal;
+    try {
+      journal = ByteBuffer.wrap(Files.readAllBytes(absoluteJournalPath));
+    } catch (IOException e) {
+      LOG.warn(e, "Failed to read file hash journal %s.", absoluteJournalPath);
+      return 0;
+    }
+    int records = 0;
+    while (journal.hasRemaining()) {
+      int offset = journal.position() + 1;
+      byte type = journal.get(journal.position());
+      if (type == JOURNAL_PUT && isValidEntry(journal, offset)) {
+        Path path = decodePath(journal, offset);
+        entries.put(path, decodeEntry(journal, offset));
+        removedPaths.remove(path);
+        journal.position(offset + ENTRY_FIXED_SIZE + getPathSize(journal, offset));
+      } else if (type == JOURNAL_REMOVE
+          && offset + 2 <= journal.limit()
+          && offset + 2 + (journal.getShort(offset) & 0xFFFF) <= journal.limit()) {
+        byte[] pathBytes = new byte[journal.getShort(offset) & 0xFFFF];
+        journal.position(offset + 2);
+        journal.get(pathBytes);
+        Path path =
+            projectFilesystem
+                .getRootPath()
+                .getFileSystem()
+                .getPath(new String(pathBytes, StandardCharsets.UTF_8));
+        entries.remove(path);
+        removedPaths.add(path);
+      } else {
+        break;
+      }
+      records++;
+    }
+    return records;
+  }
+
+  private int readStoredEntryCount() {
+    Path absoluteStorePath = projectFilesystem.resolve(storePath);
+    if (!Files.exists(absoluteStorePath)) {
+      return 0;
+    }
+    try (FileChannel channel = FileChannel.open(absoluteStorePath, StandardOpenOption.READ)) {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+      while (header.hasRemaining()) {
+        if (channel.read(header) < 0) {
+          return 0;
+        }
+      }
+      return isValidStore(header) ? header.getInt(8) : 0;
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  /**
+   * Merges the journal into a new table. Only ever called before this process maps the table, as
+   * a mapped file cannot be replaced on Windows.
+   */
+  private void compact(Set<Path> removedPaths) {
+    Path absoluteStorePath = projectFilesystem.resolve(storePath);
+    try {
+      Map<Path, Entry> entries = new HashMap<>();
+      if (Files.exists(absoluteStorePath)) {
+        ByteBuffer stored = ByteBuffer.wrap(Files.readAllBytes(absoluteStorePath));
+        if (isValidStore(stored)) {
+          int tableSize = stored.getInt(12);
+          for (int slot = 0; slot < tableSize; slot++) {
+            int offset = stored.getInt(HEADER_SIZE + slot * 4);
+            if (offset != 0 && isValidEntry(stored, offset)) {
+              entries.put(decodePath(stored, offset), decodeEntry(stored, offset));
+            }
+          }
+        }
+      }
+      entries.keySet().removeAll(removedPaths);
+      entries.putAll(journaledEntries);
+
+      Optional<ByteBuffer> serialized = serialize(entries);
+      if (!serialized.isPresent()) {
+        LOG.warn(
+            "Not compacting %d file hashes, as they do not fit in a single store.",
+            entries.size());
+        return;
+      }
+      Files.createDirectories(absoluteStorePath.getParent());
+      Path tmpPath =
+          Files.createTempFile(
+              absoluteStorePath.getParent(), absoluteStorePath.getFileName().toString(), ".tmp");
+      try {
+        try (FileChannel channel = FileChannel.open(tmpPath, StandardOpenOption.WRITE)) {
+          while (serialized.get().hasRemaining()) {
+            channel.write(serialized.get());
+          }
+        }
+        Files.move(
+            tmpPath,
+            absoluteStorePath,
+            StandardCopyOption.REPLACE_EXISTING,
+            StandardCopyOption.ATOMIC_MOVE);
+      } finally {
+        Files.deleteIfExists(tmpPath);
+      }
+      // Records appended by other processes since the journal was read are lost, which only costs
+      // them a rehash.
+      Files.deleteIfExists(projectFilesystem.resolve(journalPath));
+      journaledEntries.clear();
+      LOG.debug("Compacted %d file hashes into %s.", entries.size(), absoluteStorePath);
+    } catch (IOException e) {
+      // E.g. another process on Windows has the table mapped; try again next time.
+      LOG.warn(e, "Failed to compact file hash store %s.", absoluteStorePath);
+    }
+  }
+
+  private Entry stat(Path relativePath) throws IOException {
+    BasicFileAttributes attributes =
+        projectFilesystem.readAttributes(relativePath, BasicFileAttributes.class);
+    Object fileKey = attributes.fileKey();
+    return new Entry(
+        attributes.lastModifiedTime().to(TimeUnit.NANOSECONDS),
+        attributes.size(),
+        fileKey == null
+            ? 0
+            : Hashing.murmur3_128().hashString(fileKey.toString(), StandardCharsets.UTF_8).asLong(),
+        null);
+  }
+
+  private Optional<HashCode> lookup(Path relativePath, Entry current) {
+    Entry entry = newEntries.get(relativePath);
+    if (entry == null) {
+      entry = journaledEntries.get(relativePath);
+    }
+    if (entry == null) {
+      entry = lookupStored(relativePath);
+    }
+    if (entry != null && entry.matches(current)) {
+      return Optional.ofNullable(entry.hashCode);
+    }
+    return Optional.empty();
+  }
+
+  @Nullable
+  private Entry lookupStored(Path relativePath) {
+    ByteBuffer stored = storedEntries;
+    int tableSize = stored.getInt(12);
+    if (tableSize == 0) {
+      return null;
+    }
+    byte[] pathBytes = relativePath.toString().getBytes(StandardCharsets.UTF_8);
+    for (int slot = hashPath(pathBytes) & (tableSize - 1), probes = 0;
+        probes < tableSize;
+        slot = (slot + 1) & (tableSize - 1), probes++) {
+      int offset = stored.getInt(HEADER_SIZE + slot * 4);
+      if (offset == 0 || !isValidEntry(stored, offset)) {
+        return null;
+      }
+      if (pathEquals(stored, offset, pathBytes)) {
+        return decodeEntry(stored, offset);
+      }
+    }
+    return null;
+  }
+
+  private static int getPathSize(ByteBuffer stored, int offset) {
+    return stored.getShort(offset + ENTRY_FIXED_SIZE - 2) & 0xFFFF;
+  }
+
+  private Path decodePath(ByteBuffer stored, int offset) {
+    int pathSize = getPathSize(stored, offset);
+    byte[] pathBytes = new byte[pathSize];
+    for (int i = 0; i < pathSize; i++) {
+      pathBytes[i] = stored.get(offset + ENTRY_FIXED_SIZE + i);
+    }
+    FileSystem fileSystem = projectFilesystem.getRootPath().getFileSystem();
+    return fileSystem.getPath(new String(pathBytes, StandardCharsets.UTF_8));
+  }
+
+  private static Entry decodeEntry(ByteBuffer stored, int offset) {
+    byte[] sha1 = new byte[SHA1_SIZE];
+    for (int i = 0; i < SHA1_SIZE; i++) {
+      sha1[i] = stored.get(offset + 24 + i);
+    }
+    return new Entry(
+        stored.getLong(offset),
+        stored.getLong(offset + 8),
+        stored.getLong(offset + 16),
+        HashCode.fromBytes(sha1));
+  }
+
+  private static boolean pathEquals(ByteBuffer stored, int offset, byte[] pathBytes) {
+    int pathSize = stored.getShort(offset + ENTRY_FIXED_SIZE - 2) & 0xFFFF;
+    if (pathSize != pathBytes.length) {
+      return false;
+    }
+    for (int i = 0; i < pathSize; i++) {
+      if (stored.get(offset + ENTRY_FIXED_SIZE + i) != pathBytes[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static boolean isValidEntry(ByteBuffer stored, int offset) {
+    if (offset < 0 || (long) offset + ENTRY_FIXED_SIZE > stored.limit()) {
+      return false;
+    }
+    int pathSize = stored.getShort(offset + ENTRY_FIXED_SIZE - 2) & 0xFFFF;
+    return (long) offset + ENTRY_FIXED_SIZE + pathSize <= stored.limit();
+  }
+
+  private static int hashPath(byte[] pathBytes) {
+    return Hashing.murmur3_32().hashBytes(pathBytes).asInt();
+  }
+
+  private static Optional<ByteBuffer> serialize(Map<Path, Entry> entries) {
+    int tableSize = Integer.highestOneBit(Math.max(1, entries.size())) << 2;
+    Map<Path, byte[]> encodedPaths = new HashMap<>();
+    long size = HEADER_SIZE + (long) tableSize * 4;
+    for (Path path : entries.keySet()) {
+      byte[] pathBytes = path.toString().getBytes(StandardCharsets.UTF_8);
+      if (pathBytes.length <= MAX_PATH_SIZE) {
+        encodedPaths.put(path, pathBytes);
+        size += ENTRY_FIXED_SIZE + pathBytes.length;
+      }
+    }
+    if (tableSize <= 0 || size > Integer.MAX_VALUE) {
+      return Optional.empty();
+    }
+
+    ByteBuffer buffer = ByteBuffer.allocate((int) size);
+    buffer.putInt(MAGIC).putInt(VERSION).putInt(encodedPaths.size()).putInt(tableSize);
+    int[] table = new int[tableSize];
+    buffer.position(HEADER_SIZE + tableSize * 4);
+    for (Map.Entry<Path, byte[]> encodedPath : encodedPaths.entrySet()) {
+      byte[] pathBytes = encodedPath.getValue();
+      int slot = hashPath(pathBytes) & (tableSize - 1);
+      while (table[slot] != 0) {
+        slot = (slot + 1) & (tableSize - 1);
+      }
+      table[slot] = buffer.position();
+      Entry entry = entries.get(encodedPath.getKey());
+      buffer
+          .putLong(entry.modifiedTimeNanos)
+          .putLong(entry.size)
+          .putLong(entry.fileKeyHash)
+          .put(Preconditions.checkNotNull(entry.hashCode).asBytes())
+          .putShort((short) pathBytes.length)
+          .put(pathBytes);
+    }
+    buffer.position(HEADER_SIZE);
+    buffer.asIntBuffer().put(table);
+    buffer.position(0);
+    return Optional.of(buffer);
+  }
+
+  private static void writeEntry(DataOutputStream out, Entry entry, byte[] pathBytes)
+      throws IOException {
+    out.writeLong(entry.modifiedTimeNanos);
+    out.writeLong(entry.size);
+    out.writeLong(entry.fileKeyHash);
+    out.write(Preconditions.checkNotNull(entry.hashCode).asBytes());
+    out.writeShort(pathBytes.length);
+    out.write(pathBytes);
+  }
+
+  private static ByteBuffer map(Path absoluteStorePath) {
+    if (Files.exists(absoluteStorePath)) {
+      try (FileChannel channel = FileChannel.open(absoluteStorePath, StandardOpenOption.READ)) {
+        ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        if (isValidStore(buffer)) {
+          return buffer;
+        }
+        LOG.warn("Ignoring malformed file hash store %s.", absoluteStorePath);
+      } catch (IOException e) {
+        LOG.warn(e, "Failed to read file hash store %s.", absoluteStorePath);
+      }
+    }
+    ByteBuffer empty = ByteBuffer.allocate(HEADER_SIZE);
+    empty.putInt(MAGIC).putInt(VERSION).putInt(0).putInt(0);
+    return empty;
+  }
+
+  private static boolean isValidStore(ByteBuffer buffer) {
+    if (buffer.limit() < HEADER_SIZE
+        || buffer.getInt(0) != MAGIC
+        || buffer.getInt(4) != VERSION) {
+      return false;
+    }
+    int tableSize = buffer.getInt(12);
+    return tableSize >= 0
+        && Integer.bitCount(tableSize) <= 1
+        && HEADER_SIZE + (long) tableSize * 4 <= buffer.limit();
+  }
+
+  private static class Entry {
+    private final long modifiedTimeNanos;
+    private final long size;
+    private final long fileKeyHash;
+    // Only missing for entries describing a file that is about to be looked up.
+    @Nullable private final HashCode hashCode;
+
+    private Entry(
+        long modifiedTimeNanos, long size, long fileKeyHash, @Nullable HashCode hashCode) {
+      this.modifiedTimeNanos = modifiedTimeNanos;
+      this.size = size;
+      this.fileKeyHash = fileKeyHash;
+      this.hashCode = hashCode;
+    }
+
+    private Entry withHashCode(HashCode hashCode) {
+      return new Entry(modifiedTimeNanos, size, fileKeyHash, hashCode);
+    }
+
+    private boolean matches(Entry other) {
+      return modifiedTimeNanos == other.modifiedTimeNanos
+          && size == other.size
+          && fileKeyHash == other.fileKeyHash;
+    }
+  }
+}
@@ -25,4 +25,7 @@ abstract class AbstractListeningSemaphoreArrayPendingItem {
   public abstract SettableFuture<Void> getFuture();
 
   public abstract ResourceAmounts getResources();
+
+  /** Pending items with a higher priority are granted their resources first. */
+  public abstract long getPriority();
 }
@@ -33,8 +33,10 @@ import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
@@ -54,12 +56,17 @@ import javax.annotation.concurrent.GuardedBy;
  * of errors when "using" a resource it is assumed to be defective, will be retired and a new
  * resource will be requested from the supplier. The Future associated with the failed attempt to
  * use the resource will contain the relevant exception.
+ *
+ * <p>A pool can also be made elastic: it then only creates a resource beyond the first one while
+ * {@code hasSpareCapacity} holds, and closes resources that are returned while no request is
+ * waiting for them and it does not hold, rather than parking them.
  */
 public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
   private static final Logger LOG = Logger.get(ResourcePool.class);
 
   private final int maxResources;
   private final ResourceUsageErrorPolicy resourceUsageErrorPolicy;
+  private final BooleanSupplier hasSpareCapacity;
 
   @GuardedBy("this")
   private final Supplier<R> resourceSupplier;
@@ -90,10 +97,26 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
       int maxResources,
       ResourceUsageErrorPolicy resourceUsageErrorPolicy,
       Supplier<R> resourceSupplier) {
+    this(maxResources, resourceUsageErrorPolicy, resourceSupplier, () -> true);
+  }
+
+  /**
+   * @param maxResources maximum number of resources to use concurrently.
+   * @param resourceSupplier function used to create a new resource. It should never block, it may
+   *     be called more than maxResources times if processing resources throws exceptions.
+   * @param hasSpareCapacity whether there is room for one more resource, e.g. enough free memory.
+   *     It is called with the pool locked, so it should be cheap.
+   */
+  public ResourcePool(
+      int maxResources,
+      ResourceUsageErrorPolicy resourceUsageErrorPolicy,
+      Supplier<R> resourceSupplier,
+      BooleanSupplier hasSpareCapacity) {
     Preconditions.checkArgument(maxResources > 0);
 
     this.maxResources = maxResources;
     this.resourceUsageErrorPolicy = resourceUsageErrorPolicy;
+    this.hasSpareCapacity = hasSpareCapacity;
     this.resourceSupplier = resourceSupplier;
     this.createdResources = new ArrayList<>();
     this.parkedResources = new ArrayDeque<>();
@@ -116,8 +139,23 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
    * @return a {@link ListenableFuture} containing the result of the processing. The future will be
    *     cancelled if the {@link ResourcePool#close()} method is called.
    */
-  public synchronized <T> ListenableFuture<T> scheduleOperationWithResource(
+  public <T> ListenableFuture<T> scheduleOperationWithResource(
       ThrowingFunction<R, T> withResource, final ListeningExecutorService executorService) {
+    return scheduleOperationWithResource(withResource, executorService, resource -> 0);
+  }
+
+  /**
+   * @param executorService where to perform the resource processing. Should really be a "real"
+   *     executor (not a directExecutor).
+   * @param affinity how well suited each resource is to the operation. Of the resources that are
+   *     parked when the operation gets to run, it uses the one with the highest affinity.
+   * @return a {@link ListenableFuture} containing the result of the processing. The future will be
+   *     cancelled if the {@link ResourcePool#close()} method is called.
+   */
+  public synchronized <T> ListenableFuture<T> scheduleOperationWithResource(
+      ThrowingFunction<R, T> withResource,
+      final ListeningExecutorService executorService,
+      ToIntFunction<? super R> affinity) {
     Preconditions.checkState(!closing.get());
 
     final ListenableFuture<T> futureWork =
@@ -126,7 +164,7 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
             new AsyncFunction<Void, T>() {
               @Override
               public ListenableFuture<T> apply(Void input) throws Exception {
-                Either<R, ListenableFuture<Void>> resourceRequest = requestResource();
+                Either<R, ListenableFuture<Void>> resourceRequest = requestResource(affinity);
                 if (resourceRequest.isLeft()) {
                   R resource = resourceRequest.getLeft();
                   boolean resourceIsDefunct = false;
@@ -172,8 +210,9 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
     return scheduleNewResourceRequest();
   }
 
-  private synchronized Either<R, ListenableFuture<Void>> requestResource() {
-    Optional<R> resource = obtainResource();
+  private synchronized Either<R, ListenableFuture<Void>> requestResource(
+      ToIntFunction<? super R> affinity) {
+    Optional<R> resource = obtainResource(affinity);
     if (resource.isPresent()) {
       return Either.ofLeft(resource.get());
     }
@@ -189,18 +228,35 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
     return resourceFuture;
   }
 
-  private synchronized Optional<R> obtainResource() {
+  private synchronized Optional<R> obtainResource(ToIntFunction<? super R> affinity) {
     if (closing.get()) {
       return Optional.empty();
     }
-    R resource = parkedResources.pollFirst();
-    if (resource != null) {
-      return Optional.of(resource);
+    R best = null;
+    int bestAffinity = Integer.MIN_VALUE;
+    // Ties go to the resource that was parked first.
+    for (R parked : parkedResources) {
+      int parkedAffinity = affinity.applyAsInt(parked);
+      if (parkedAffinity > bestAffinity) {
+        best = parked;
+        bestAffinity = parkedAffinity;
+      }
+    }
+    if (best != null) {
+      parkedResources.remove(best);
+      return Optional.of(best);
     }
     return createIfAllowed();
   }
 
   private synchronized void returnResource(R resource, boolean resourceIsDefunct) {
+    if (!resourceIsDefunct
+        && resourceRequests.isEmpty()
+        && createdResources.size() > 1
+        && !hasSpareCapacity.getAsBoolean()) {
+      LOG.debug("Closing an idle resource to make room.");
+      resourceIsDefunct = true;
+    }
     if (resourceIsDefunct) {
       createdResources.remove(resource);
       try {
@@ -229,7 +285,9 @@ public class ResourcePool<R extends AutoCloseable> implements AutoCloseable {
   }
 
   private synchronized boolean allowedToCreateResource() {
-    return !closing.get() && (createdResources.size() < maxResources);
+    return !closing.get()
+        && createdResources.size() < maxResources
+        && (createdResources.isEmpty() || hasSpareCapacity.getAsBoolean());
   }
 
   private synchronized Optional<R> createIfAllowed() {
@@ -0,0 +1,30 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.worker;
+
+import java.io.InterruptedIOException;
+
+/**
+ * Thrown when the thread waiting for a job is interrupted, either before the job was sent, or
+ * after the worker was asked to abandon it. The worker can still run other jobs.
+ */
+@SuppressWarnings("serial")
+public class WorkerJobCancelledException extends InterruptedIOException {
+
+  public WorkerJobCancelledException(String message) {
+    super(message);
+  }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+package com.facebook.buck.worker;
+
+import com.facebook.buck.util.HumanReadableException;
+
+/** Thrown when a worker fails a job it was sent, but can still run other jobs. */
+@SuppressWarnings("serial")
+public class WorkerJobFailedException extends HumanReadableException {
+
+  public WorkerJobFailedException(String humanReadableFormatString, Object... args) {
+    super(humanReadableFormatString, args);
+  }
+}
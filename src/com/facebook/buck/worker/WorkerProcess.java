@@ -31,6 +31,7 @@ import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Optional;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.atomic.AtomicInteger;
 import javax.annotation.Nullable;
 
@@ -43,9 +44,12 @@ public class WorkerProcess implements Closeable {
   private final ProjectFilesystem filesystem;
   private final Path tmpPath;
   private final Path stdErr;
+  private final int maxJobs;
   private final AtomicInteger currentMessageID = new AtomicInteger();
   private boolean handshakePerformed = false;
   @Nullable private WorkerProcessProtocol.CommandSender protocol;
+  /** Limits concurrent jobs to the number the worker accepted, if it accepts more than one. */
+  @Nullable private Semaphore jobSlots;
   @Nullable private ProcessExecutor.LaunchedProcess launchedProcess;
 
   /**
@@ -53,26 +57,44 @@ public class WorkerProcess implements Closeable {
    * processes may be combined into pools so they can perform different jobs concurrently. It
    * communicates via JSON stream and via files. Submitted job blocks the calling thread until it
    * receives the result back. Worker process must understand the protocol that Buck will use to
-   * communicate with it.
+   * communicate with it. Workers that accept more than one job at a time are spoken to using
+   * {@link WorkerProcessProtocolOne}, and can have that many jobs submitted to them concurrently.
    *
    * @param executor Process executor that will start worker process.
    * @param processParams Arguments for process executor.
    * @param filesystem File system for the worker process.
    * @param tmpPath Temp folder.
+   * @param maxJobs Number of jobs the worker process may run at once.
    * @throws IOException In case if some I/O failure happens.
    */
   public WorkerProcess(
       ProcessExecutor executor,
       ProcessExecutorParams processParams,
       ProjectFilesystem filesystem,
-      Path tmpPath)
+      Path tmpPath,
+      int maxJobs)
       throws IOException {
+    Preconditions.checkArgument(maxJobs > 0);
     this.executor = executor;
     this.stdErr = Files.createTempFile("buck-worker-", "-stderr.log");
     this.processParams =
         processParams.withRedirectError(ProcessBuilder.Redirect.to(stdErr.toFile()));
     this.filesystem = filesystem;
     this.tmpPath = tmpPath;
+    this.maxJobs = maxJobs;
+  }
+
+  public WorkerProcess(
+      ProcessExecutor executor,
+      ProcessExecutorParams processParams,
+      ProjectFilesystem filesystem,
+      Path tmpPath)
+      throws IOException {
+    this(executor, processParams, filesystem, tmpPath, 1);
+  }
+
+  public int getMaxJobs() {
+    return maxJobs;
   }
 
   public boolean isAlive() {
@@ -87,23 +109,38 @@ public class WorkerProcess implements Closeable {
         "Starting up process %d using command: \'%s\'",
         this.hashCode(), Joiner.on(' ').join(processParams.getCommand()));
     launchedProcess = executor.launchProcess(processParams);
-    protocol =
-        new WorkerProcessProtocolZero.CommandSender(
-            launchedProcess.getOutputStream(),
-            launchedProcess.getInputStream(),
-            stdErr,
-            () -> {
-              if (launchedProcess != null) {
-                executor.destroyLaunchedProcess(launchedProcess);
-              }
-            });
+    Runnable onClose =
+        () -> {
+          if (launchedProcess != null) {
+            executor.destroyLaunchedProcess(launchedProcess);
+          }
+        };
+    WorkerProcessProtocolOne.CommandSender multiplexingProtocol = null;
+    if (maxJobs > 1) {
+      multiplexingProtocol =
+          new WorkerProcessProtocolOne.CommandSender(
+              launchedProcess.getOutputStream(),
+              launchedProcess.getInputStream(),
+              stdErr,
+              onClose,
+              maxJobs);
+      protocol = multiplexingProtocol;
+    } else {
+      protocol =
+          new WorkerProcessProtocolZero.CommandSender(
+              launchedProcess.getOutputStream(), launchedProcess.getInputStream(), stdErr, onClose);
+    }
 
     LOG.debug("Handshaking with process %d", this.hashCode());
     protocol.handshake(currentMessageID.getAndIncrement());
+    if (multiplexingProtocol != null) {
+      jobSlots = new Semaphore(multiplexingProtocol.getAcceptedJobs());
+    }
     handshakePerformed = true;
   }
 
-  public synchronized WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+  public WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+    WorkerProcessProtocol.CommandSender protocol = this.protocol;
     Preconditions.checkState(
         protocol != null,
         "Tried to submit a job to the worker process before the handshake was performed.");
@@ -119,9 +156,28 @@ public class WorkerProcess implements Closeable {
     LOG.debug(
         "Sending job %d to process %d \n" + " job arguments: \'%s\'",
         messageID, this.hashCode(), jobArgs);
-    protocol.send(messageID, WorkerProcessCommand.of(argsPath, stdoutPath, stderrPath));
-    LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
-    int exitCode = protocol.receiveCommandResponse(messageID);
+    WorkerProcessCommand command = WorkerProcessCommand.of(argsPath, stdoutPath, stderrPath);
+    int exitCode;
+    Semaphore jobSlots = this.jobSlots;
+    if (jobSlots != null) {
+      // The protocol matches responses up with their jobs, so jobs need not wait for each other.
+      try {
+        jobSlots.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new WorkerJobCancelledException(
+            "Interrupted while waiting for process " + hashCode());
+      }
+      try {
+        exitCode = runJob(protocol, messageID, command);
+      } finally {
+        jobSlots.release();
+      }
+    } else {
+      synchronized (this) {
+        exitCode = runJob(protocol, messageID, command);
+      }
+    }
     Optional<String> stdout = filesystem.readFileIfItExists(stdoutPath);
     Optional<String> stderr = filesystem.readFileIfItExists(stderrPath);
     LOG.debug(
@@ -134,6 +190,14 @@ public class WorkerProcess implements Closeable {
     return WorkerJobResult.of(exitCode, stdout, stderr);
   }
 
+  private int runJob(
+      WorkerProcessProtocol.CommandSender protocol, int messageID, WorkerProcessCommand command)
+      throws IOException {
+    protocol.send(messageID, command);
+    LOG.debug("Receiving response for job %d from process %d", messageID, this.hashCode());
+    return protocol.receiveCommandResponse(messageID);
+  }
+
   @Override
   public void close() {
     LOG.debug("Closing process %d", this.hashCode());
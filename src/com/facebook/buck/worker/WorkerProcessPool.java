@@ -33,7 +33,18 @@ import javax.annotation.concurrent.GuardedBy;
 public abstract class WorkerProcessPool implements Closeable {
   private static final Logger LOG = Logger.get(WorkerProcessPool.class);
 
+  /**
+   * How long borrowers wait for a worker to be returned before checking whether one has been
+   * destroyed, which makes room for a new one without returning anything to the pool.
+   */
+  private static final long CREATE_RETRY_INTERVAL_MILLIS = 500;
+
   private final int capacity;
+  private final int maxJobsPerWorker;
+  /**
+   * Free job slots. A worker that can run several jobs at once is in here once for each job it is
+   * not running, so borrowing spreads jobs over the workers already started before starting more.
+   */
   private final BlockingQueue<WorkerProcess> availableWorkers;
 
   @GuardedBy("createdWorkers")
@@ -42,7 +53,13 @@ public abstract class WorkerProcessPool implements Closeable {
   private final HashCode poolHash;
 
   public WorkerProcessPool(int maxWorkers, HashCode poolHash) {
+    this(maxWorkers, 1, poolHash);
+  }
+
+  public WorkerProcessPool(int maxWorkers, int maxJobsPerWorker, HashCode poolHash) {
+    Preconditions.checkArgument(maxJobsPerWorker > 0);
     this.capacity = maxWorkers;
+    this.maxJobsPerWorker = maxJobsPerWorker;
     this.availableWorkers = new LinkedBlockingStack<>();
     this.createdWorkers = new ArrayList<>();
     this.poolHash = poolHash;
@@ -52,6 +69,8 @@ public abstract class WorkerProcessPool implements Closeable {
    * If there are available workers, returns one. Otherwise blocks until one becomes available and
    * returns it. You must free worker process by calling {@link #returnWorkerProcess(WorkerProcess)}
    * or {@link #destroyWorkerProcess(WorkerProcess)} methods after you finish using it.
+   *
+   * <p>Workers that run several jobs at once may be lent to that many borrowers at the same time.
    */
   public WorkerProcess borrowWorkerProcess() throws IOException, InterruptedException {
     WorkerProcess workerProcess;
@@ -69,10 +88,13 @@ public abstract class WorkerProcessPool implements Closeable {
     if (workerProcess == null) {
       workerProcess = createNewWorkerIfPossible();
     }
-    if (workerProcess != null) {
-      return workerProcess;
+    while (workerProcess == null) {
+      workerProcess = availableWorkers.poll(CREATE_RETRY_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+      if (workerProcess == null) {
+        workerProcess = createNewWorkerIfPossible();
+      }
     }
-    return availableWorkers.take();
+    return workerProcess;
   }
 
   private @Nullable WorkerProcess createNewWorkerIfPossible() throws IOException {
@@ -82,19 +104,27 @@ public abstract class WorkerProcessPool implements Closeable {
       }
       WorkerProcess process = Preconditions.checkNotNull(startWorkerProcess());
       createdWorkers.add(process);
+      // The first slot goes to the caller, the rest to whoever borrows next.
+      for (int i = 1; i < maxJobsPerWorker; i++) {
+        availableWorkers.offer(process);
+      }
       return process;
     }
   }
 
   public void returnWorkerProcess(WorkerProcess workerProcess) {
     synchronized (createdWorkers) {
+      if (!createdWorkers.contains(workerProcess) && maxJobsPerWorker > 1) {
+        // Another borrower of this shared worker has already destroyed it.
+        return;
+      }
       Preconditions.checkArgument(
           createdWorkers.contains(workerProcess),
           "Trying to return a foreign WorkerProcess to the pool");
+      // Note: put() can throw, offer doesn't.
+      boolean added = availableWorkers.offer(workerProcess);
+      Preconditions.checkState(added, "Should have had enough room for existing worker");
     }
-    // Note: put() can throw, offer doesn't.
-    boolean added = availableWorkers.offer(workerProcess);
-    Preconditions.checkState(added, "Should have had enough room for existing worker");
   }
 
   // Same as returnWorkerProcess, except this assumes the worker is borked and should be terminated
@@ -102,7 +132,13 @@ public abstract class WorkerProcessPool implements Closeable {
   public void destroyWorkerProcess(WorkerProcess workerProcess) {
     synchronized (createdWorkers) {
       boolean removed = createdWorkers.remove(workerProcess);
+      if (!removed && maxJobsPerWorker > 1) {
+        // Another borrower of this shared worker has already destroyed it.
+        return;
+      }
       Preconditions.checkArgument(removed, "Trying to return a foreign WorkerProcess to the pool");
+      // Jobs still running on it will fail, but no more should be sent its way.
+      while (availableWorkers.remove(workerProcess)) {}
     }
     workerProcess.close();
   }
@@ -113,7 +149,7 @@ public abstract class WorkerProcessPool implements Closeable {
     synchronized (createdWorkers) {
       processesToClose = ImmutableSet.copyOf(createdWorkers);
       Preconditions.checkState(
-          availableWorkers.size() == createdWorkers.size(),
+          availableWorkers.size() == createdWorkers.size() * maxJobsPerWorker,
           "WorkerProcessPool was still running when shutdown was called.");
     }
 
@@ -135,6 +171,10 @@ public abstract class WorkerProcessPool implements Closeable {
     return capacity;
   }
 
+  public int getMaxJobsPerWorker() {
+    return maxJobsPerWorker;
+  }
+
   protected abstract WorkerProcess startWorkerProcess() throws IOException;
 
   public HashCode getPoolHash() {
@@ -114,12 +114,15 @@ public class WorkerProcessPoolFactory {
     final AtomicInteger workerNumber = new AtomicInteger(0);
 
     WorkerProcessPool newPool =
-        new WorkerProcessPool(paramsToUse.getMaxWorkers(), workerHash) {
+        new WorkerProcessPool(
+            paramsToUse.getMaxWorkers(), paramsToUse.getMaxJobsPerWorker(), workerHash) {
           @Override
           protected WorkerProcess startWorkerProcess() throws IOException {
             Path tmpDir = workerTmpDir.resolve(Integer.toString(workerNumber.getAndIncrement()));
             filesystem.mkdirs(tmpDir);
-            WorkerProcess process = createWorkerProcess(processParams, context, tmpDir);
+            WorkerProcess process =
+                createWorkerProcess(
+                    processParams, context, tmpDir, paramsToUse.getMaxJobsPerWorker());
             process.ensureLaunchAndHandshake();
             return process;
           }
@@ -161,8 +164,9 @@ public class WorkerProcessPoolFactory {
 
   @VisibleForTesting
   public WorkerProcess createWorkerProcess(
-      ProcessExecutorParams processParams, ExecutionContext context, Path tmpDir)
+      ProcessExecutorParams processParams, ExecutionContext context, Path tmpDir, int maxJobs)
       throws IOException {
-    return new WorkerProcess(context.getProcessExecutor(), processParams, filesystem, tmpDir);
+    return new WorkerProcess(
+        context.getProcessExecutor(), processParams, filesystem, tmpDir, maxJobs);
   }
 }
@@ -0,0 +1,455 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import com.facebook.buck.log.Logger;
+import com.facebook.buck.util.HumanReadableException;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.SettableFuture;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+
+/**
+ * Version 1 of the worker protocol. Unlike {@link WorkerProcessProtocolZero}, which runs one job at
+ * a time over a JSON stream, this multiplexes several concurrent jobs over the same connection.
+ *
+ * <p>Every message is a length-prefixed binary frame, written with {@link DataOutputStream}:
+ *
+ * <pre>
+ *   int length     // of everything that follows
+ *   byte type      // one of the TYPE_ constants below
+ *   int id         // the handshake or job this message belongs to
+ *   ...payload
+ * </pre>
+ *
+ * <p>The handshake carries the protocol version and the number of jobs Buck may run at once; the
+ * worker answers with the number it accepts. Commands carry the args, stdout and stderr paths as in
+ * version 0, and are answered by a result or error frame with the same id, in any order. An error
+ * frame means the worker could not run the job, which then fails with the worker's stderr. Buck
+ * sends a cancel frame when the step waiting for a job is interrupted; the worker should still
+ * answer it.
+ */
+public class WorkerProcessProtocolOne {
+  private static final Logger LOG = Logger.get(WorkerProcessProtocolOne.class);
+
+  static final int PROTOCOL_VERSION = 1;
+
+  static final byte TYPE_HANDSHAKE = 0;
+  static final byte TYPE_COMMAND = 1;
+  static final byte TYPE_RESULT = 2;
+  static final byte TYPE_ERROR = 3;
+  static final byte TYPE_CANCEL = 4;
+  static final byte TYPE_CLOSE = 5;
+
+  /** Upper bound on a frame, so a worker speaking another protocol fails fast. */
+  private static final int MAX_FRAME_LENGTH = 1024 * 1024;
+
+  public static class CommandSender implements WorkerProcessProtocol.CommandSender {
+    private final DataOutputStream processStdin;
+    private final DataInputStream processStdout;
+    private final Optional<Path> stdErr;
+    private final Runnable onClose;
+    private final int maxJobs;
+    private final Map<Integer, SettableFuture<Integer>> pendingResponses =
+        new ConcurrentHashMap<>();
+    @Nullable private Thread responseReader;
+    @Nullable private volatile IOException readerFailure;
+    private volatile boolean isClosed = false;
+    private int acceptedJobs = 0;
+
+    public CommandSender(
+        OutputStream processStdin,
+        InputStream processStdout,
+        Path stdErr,
+        Runnable onClose,
+        int maxJobs) {
+      Preconditions.checkArgument(maxJobs > 0);
+      this.processStdin = new DataOutputStream(new BufferedOutputStream(processStdin));
+      this.processStdout = new DataInputStream(new BufferedInputStream(processStdout));
+      this.stdErr = Optional.of(stdErr);
+      this.onClose = onClose;
+      this.maxJobs = maxJobs;
+    }
+
+    /** @return the number of jobs the worker agreed to run at once. */
+    public int getAcceptedJobs() {
+      return acceptedJobs;
+    }
+
+    @Override
+    public void handshake(int messageId) throws IOException {
+      ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      DataOutputStream data = new DataOutputStream(payload);
+      data.writeInt(PROTOCOL_VERSION);
+      data.writeInt(maxJobs);
+      writeFrame(processStdin, TYPE_HANDSHAKE, messageId, payload.toByteArray());
+
+      Frame response;
+      int version;
+      try {
+        response = readFrame(processStdout);
+        version = response.payload.readInt();
+        acceptedJobs = response.payload.readInt();
+      } catch (IOException e) {
+        throw new HumanReadableException(
+            e,
+            "Error receiving handshake response from external process.\n"
+                + "Stderr from external process:\n%s",
+            getStdErrorOutput(stdErr));
+      }
+      if (response.type != TYPE_HANDSHAKE || response.id != messageId) {
+        throw new HumanReadableException(
+            "Expected a handshake response with id %d, got a message of type %d with id %d.",
+            messageId, response.type, response.id);
+      }
+      if (version != PROTOCOL_VERSION) {
+        throw new HumanReadableException(
+            "Expected handshake response's protocol version to be %d, got %d instead.",
+            PROTOCOL_VERSION, version);
+      }
+      if (acceptedJobs < 1 || acceptedJobs > maxJobs) {
+        throw new HumanReadableException(
+            "Expected the worker to accept between 1 and %d concurrent jobs, got %d instead.",
+            maxJobs, acceptedJobs);
+      }
+
+      responseReader = new Thread(this::readResponses, "worker-protocol-reader");
+      responseReader.setDaemon(true);
+      responseReader.start();
+    }
+
+    @Override
+    public void send(int messageId, WorkerProcessCommand command) throws IOException {
+      Preconditions.checkState(responseReader != null, "Sent a command before the handshake.");
+      SettableFuture<Integer> response = SettableFuture.create();
+      // Registered before sending, as the response may arrive before this method returns.
+      Preconditions.checkState(
+          pendingResponses.putIfAbsent(messageId, response) == null,
+          "Job %d has already been sent.",
+          messageId);
+      IOException failure = readerFailure;
+      if (failure != null) {
+        pendingResponses.remove(messageId);
+        throw failure;
+      }
+
+      ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      DataOutputStream data = new DataOutputStream(payload);
+      data.writeUTF(command.getArgsPath().toString());
+      data.writeUTF(command.getStdOutPath().toString());
+      data.writeUTF(command.getStdErrPath().toString());
+      try {
+        writeFrame(processStdin, TYPE_COMMAND, messageId, payload.toByteArray());
+      } catch (IOException e) {
+        pendingResponses.remove(messageId);
+        throw e;
+      }
+    }
+
+    /**
+     * Blocks until the worker answers the given job. If the calling thread is interrupted while
+     * waiting, the job is cancelled in the worker and {@link WorkerJobCancelledException} is
+     * thrown. A job the worker answers with an error fails with {@link WorkerJobFailedException}.
+     */
+    @Override
+    public int receiveCommandResponse(int messageID) throws IOException {
+      SettableFuture<Integer> response =
+          Preconditions.checkNotNull(
+              pendingResponses.get(messageID), "Job %d has not been sent.", messageID);
+      try {
+        return response.get();
+      } catch (InterruptedException e) {
+        cancel(messageID);
+        Thread.currentThread().interrupt();
+        InterruptedIOException interrupted =
+            new WorkerJobCancelledException("Interrupted while waiting for job " + messageID);
+        interrupted.initCause(e);
+        throw interrupted;
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof ErrorResponseException) {
+          throw new WorkerJobFailedException(
+              "External process failed job %d with exit code %d.\n"
+                  + "Stderr from external process:\n%s",
+              messageID,
+              ((ErrorResponseException) e.getCause()).exitCode,
+              getStdErrorOutput(stdErr));
+        }
+        throw new HumanReadableException(
+            e.getCause(),
+            "Error receiving command response from external process.\n"
+                + "Stderr from external process:\n%s",
+            getStdErrorOutput(stdErr));
+      } finally {
+        pendingResponses.remove(messageID);
+      }
+    }
+
+    /** Asks the worker to abandon the given job. Its response, if any, is dropped. */
+    public void cancel(int messageId) {
+      pendingResponses.remove(messageId);
+      try {
+        writeFrame(processStdin, TYPE_CANCEL, messageId, new byte[0]);
+      } catch (IOException e) {
+        LOG.debug(e, "Could not cancel job %d.", messageId);
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      Preconditions.checkArgument(
+          !isClosed,
+          "%s (%d) has been already closed",
+          getClass().getSimpleName(),
+          System.identityHashCode(this));
+      isClosed = true;
+      try {
+        writeFrame(processStdin, TYPE_CLOSE, 0, new byte[0]);
+        processStdin.close();
+        if (responseReader != null) {
+          responseReader.join();
+        }
+        processStdout.close();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        onClose.run();
+      }
+    }
+
+    private void readResponses() {
+      IOException failure;
+      try {
+        while (true) {
+          Frame frame = readFrame(processStdout);
+          if (frame.type != TYPE_RESULT && frame.type != TYPE_ERROR) {
+            throw new IOException(
+                String.format("Unexpected message of type %d for job %d.", frame.type, frame.id));
+          }
+          SettableFuture<Integer> response = pendingResponses.get(frame.id);
+          if (response == null) {
+            LOG.debug("Dropping response for cancelled job %d.", frame.id);
+          } else if (frame.type == TYPE_ERROR) {
+            response.setException(new ErrorResponseException(frame.payload.readInt()));
+          } else {
+            response.set(frame.payload.readInt());
+          }
+        }
+      } catch (EOFException e) {
+        failure = new EOFException("Worker process closed its output.");
+      } catch (IOException e) {
+        failure = e;
+      }
+      if (!isClosed) {
+        LOG.debug(failure, "Stopped reading responses from the worker process.");
+      }
+      // Jobs sent from now on fail straight away, so only the ones in flight are left to fail.
+      readerFailure = failure;
+      for (Integer id : pendingResponses.keySet()) {
+        SettableFuture<Integer> response = pendingResponses.remove(id);
+        if (response != null) {
+          response.setException(failure);
+        }
+      }
+    }
+  }
+
+  /** The worker's end of the protocol, for workers written in Java. */
+  public static class CommandReceiver implements Closeable {
+    private final DataOutputStream processStdout;
+    private final DataInputStream processStdin;
+    private final int maxJobs;
+
+    public CommandReceiver(OutputStream processStdout, InputStream processStdin, int maxJobs) {
+      Preconditions.checkArgument(maxJobs > 0);
+      this.processStdout = new DataOutputStream(new BufferedOutputStream(processStdout));
+      this.processStdin = new DataInputStream(new BufferedInputStream(processStdin));
+      this.maxJobs = maxJobs;
+    }
+
+    /**
+     * Answers Buck's handshake.
+     *
+     * @return the number of jobs that may be received before any of them is answered.
+     */
+    public int handshake() throws IOException {
+      Frame frame = readFrame(processStdin);
+      if (frame.type != TYPE_HANDSHAKE) {
+        throw new HumanReadableException(
+            "Expected a handshake, got a message of type %d.", frame.type);
+      }
+      int version = frame.payload.readInt();
+      if (version != PROTOCOL_VERSION) {
+        throw new HumanReadableException(
+            "Expected protocol version %d, got %d instead.", PROTOCOL_VERSION, version);
+      }
+      int acceptedJobs = Math.min(maxJobs, frame.payload.readInt());
+
+      ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      DataOutputStream data = new DataOutputStream(payload);
+      data.writeInt(PROTOCOL_VERSION);
+      data.writeInt(acceptedJobs);
+      writeFrame(processStdout, TYPE_HANDSHAKE, frame.id, payload.toByteArray());
+      return acceptedJobs;
+    }
+
+    /** Blocks until Buck sends a command, cancels one, or asks the worker to close. */
+    public Message receiveMessage() throws IOException {
+      Frame frame = readFrame(processStdin);
+      switch (frame.type) {
+        case TYPE_COMMAND:
+          return new Message(
+              frame.type,
+              frame.id,
+              Optional.of(
+                  WorkerProcessCommand.of(
+                      Paths.get(frame.payload.readUTF()),
+                      Paths.get(frame.payload.readUTF()),
+                      Paths.get(frame.payload.readUTF()))));
+        case TYPE_CANCEL:
+        case TYPE_CLOSE:
+          return new Message(frame.type, frame.id, Optional.empty());
+        default:
+          throw new HumanReadableException(
+              "Unexpected message of type %d for job %d.", frame.type, frame.id);
+      }
+    }
+
+    /** Answers the given job. May be called from any thread. */
+    public void sendResponse(int messageId, boolean isError, int exitCode) throws IOException {
+      ByteArrayOutputStream payload = new ByteArrayOutputStream();
+      new DataOutputStream(payload).writeInt(exitCode);
+      writeFrame(
+          processStdout, isError ? TYPE_ERROR : TYPE_RESULT, messageId, payload.toByteArray());
+    }
+
+    @Override
+    public void close() throws IOException {
+      processStdout.close();
+      processStdin.close();
+    }
+  }
+
+  /** A command, cancellation or close request received by a worker. */
+  public static class Message {
+    private final byte type;
+    private final int id;
+    private final Optional<WorkerProcessCommand> command;
+
+    private Message(byte type, int id, Optional<WorkerProcessCommand> command) {
+      this.type = type;
+      this.id = id;
+      this.command = command;
+    }
+
+    public int getId() {
+      return id;
+    }
+
+    public boolean isCancel() {
+      return type == TYPE_CANCEL;
+    }
+
+    public boolean isClose() {
+      return type == TYPE_CLOSE;
+    }
+
+    /** @return the command to run, if this message is one. */
+    public Optional<WorkerProcessCommand> getCommand() {
+      return command;
+    }
+  }
+
+  /** Fails a job the worker answered with an error frame. */
+  private static class ErrorResponseException extends IOException {
+    private final int exitCode;
+
+    private ErrorResponseException(int exitCode) {
+      super(String.format("The worker failed the job with exit code %d.", exitCode));
+      this.exitCode = exitCode;
+    }
+  }
+
+  private static class Frame {
+    private final byte type;
+    private final int id;
+    private final DataInputStream payload;
+
+    private Frame(byte type, int id, DataInputStream payload) {
+      this.type = type;
+      this.id = id;
+      this.payload = payload;
+    }
+  }
+
+  private static void writeFrame(DataOutputStream out, byte type, int id, byte[] payload)
+      throws IOException {
+    // Frames may be written by several jobs at once, and must not interleave.
+    synchronized (out) {
+      out.writeInt(1 + 4 + payload.length);
+      out.writeByte(type);
+      out.writeInt(id);
+      out.write(payload);
+      out.flush();
+    }
+  }
+
+  private static Frame readFrame(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 1 + 4 || length > MAX_FRAME_LENGTH) {
+      throw new IOException(String.format("Invalid frame length %d.", length));
+    }
+    byte type = in.readByte();
+    int id = in.readInt();
+    byte[] payload = new byte[length - 1 - 4];
+    in.readFully(payload);
+    return new Frame(type, id, new DataInputStream(new ByteArrayInputStream(payload)));
+  }
+
+  private static String getStdErrorOutput(Optional<Path> stdErr) throws IOException {
+    if (!stdErr.isPresent() || !Files.exists(stdErr.get())) {
+      return "";
+    }
+    StringBuilder sb = new StringBuilder();
+    try (InputStream inputStream = Files.newInputStream(stdErr.get());
+        BufferedReader errorReader = new BufferedReader(new InputStreamReader(inputStream))) {
+      while (errorReader.ready()) {
+        sb.append("\t").append(errorReader.readLine()).append("\n");
+      }
+    }
+    return sb.toString();
+  }
+}
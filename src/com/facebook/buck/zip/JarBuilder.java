@@ -63,6 +63,7 @@ public class JarBuilder {
   @Nullable private Path manifestFile;
   private boolean shouldMergeManifests;
   private boolean shouldHashEntries;
+  private int parallelism = 1;
   private Predicate<? super CustomZipEntry> removeEntryPredicate = entry -> false;
   private List<JarEntryContainer> sourceContainers = new ArrayList<>();
   private Set<String> alreadyAddedEntries = new HashSet<>();
@@ -116,6 +117,13 @@ public class JarBuilder {
     return this;
   }
 
+  /** Sets how many entries may be deflated at once. The jar written is the same regardless. */
+  public JarBuilder setParallelism(int parallelism) {
+    Preconditions.checkArgument(parallelism > 0);
+    this.parallelism = parallelism;
+    return this;
+  }
+
   public JarBuilder setRemoveEntryPredicate(
       Predicate<? super CustomZipEntry> removeEntryPredicate) {
     this.removeEntryPredicate = removeEntryPredicate;
@@ -125,7 +133,7 @@ public class JarBuilder {
   public int createJarFile(Path outputFile) throws IOException {
     Preconditions.checkArgument(outputFile.isAbsolute());
     try (CustomJarOutputStream jar =
-        ZipOutputStreams.newJarOutputStream(outputFile, APPEND_TO_ZIP)) {
+        ZipOutputStreams.newJarOutputStream(outputFile, APPEND_TO_ZIP, parallelism)) {
       jar.setEntryHashingEnabled(shouldHashEntries);
       this.outputFile = outputFile;
 
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import com.facebook.buck.timing.Clock;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import javax.annotation.Nullable;
+
+/**
+ * Like {@link AppendingZipOutputStreamImpl}, but each entry is buffered when it is closed and
+ * deflated on a shared pool of threads, while the caller moves on to the next one. Entries are
+ * still written out in the order they were added, using the same {@link EntryAccounting}, so the
+ * resulting zip is byte-for-byte the same as the one written serially.
+ *
+ * <p>At most {@code parallelism} entries are buffered at once. Entries too big to buffer are
+ * deflated on the calling thread, once everything ahead of them has been written.
+ */
+class ParallelZipOutputStreamImpl implements CustomZipOutputStream.Impl {
+
+  /** Entries whose uncompressed size grows past this are streamed rather than buffered. */
+  private static final int MAX_BUFFERED_ENTRY_SIZE = 8 * 1024 * 1024;
+
+  private final OutputStream delegate;
+  private final boolean throwExceptionsOnDuplicate;
+  private final Clock clock;
+  private final int parallelism;
+  private long currentOffset = 0;
+  private List<EntryAccounting> entries = new LinkedList<>();
+  private Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+  @Nullable private EntryAccounting currentEntry = null;
+  @Nullable private byte[] currentHeader = null;
+  /** Buffered contents of the current entry, or null if it is being streamed. */
+  @Nullable private ByteArrayOutputStream currentContents = null;
+
+  private Set<String> seenNames = new HashSet<>();
+
+  public ParallelZipOutputStreamImpl(
+      Clock clock, OutputStream stream, boolean throwExceptionsOnDuplicate, int parallelism) {
+    Preconditions.checkArgument(parallelism > 0);
+    this.delegate = stream;
+    this.clock = clock;
+    this.throwExceptionsOnDuplicate = throwExceptionsOnDuplicate;
+    this.parallelism = parallelism;
+  }
+
+  @Override
+  public void actuallyWrite(byte[] b, int off, int len) throws IOException {
+    Preconditions.checkNotNull(currentEntry);
+    if (currentContents == null) {
+      currentEntry.write(delegate, b, off, len);
+      return;
+    }
+
+    currentContents.write(b, off, len);
+    if (currentContents.size() > MAX_BUFFERED_ENTRY_SIZE) {
+      writePendingEntries(0);
+      writeCurrentHeader();
+      byte[] contents = currentContents.toByteArray();
+      currentContents = null;
+      currentEntry.write(delegate, contents, 0, contents.length);
+    }
+  }
+
+  @Override
+  public void actuallyPutNextEntry(ZipEntry entry) throws IOException {
+    if (throwExceptionsOnDuplicate && !seenNames.add(entry.getName())) {
+      // Same exception as ZipOutputStream.
+      throw new ZipException("duplicate entry: " + entry.getName());
+    }
+
+    // The offset is only known once the entries ahead of this one have been deflated.
+    currentEntry = new EntryAccounting(clock, entry, /* currentOffset */ 0);
+    entries.add(currentEntry);
+
+    ByteArrayOutputStream header = new ByteArrayOutputStream();
+    currentEntry.writeLocalFileHeader(header);
+    currentHeader = header.toByteArray();
+    currentContents = new ByteArrayOutputStream();
+  }
+
+  @Override
+  public void actuallyCloseEntry() throws IOException {
+    if (currentEntry == null) {
+      return; // no-op
+    }
+
+    if (currentContents == null) {
+      currentOffset += currentEntry.finish(delegate);
+    } else {
+      EntryAccounting entry = currentEntry;
+      byte[] contents = currentContents.toByteArray();
+      ListenableFuture<byte[]> data =
+          DeflatePool.EXECUTOR.submit(
+              () -> {
+                ByteArrayOutputStream out = new ByteArrayOutputStream(contents.length / 2 + 64);
+                entry.write(out, contents, 0, contents.length);
+                entry.finish(out);
+                return out.toByteArray();
+              });
+      pendingEntries.add(new PendingEntry(entry, Preconditions.checkNotNull(currentHeader), data));
+      writePendingEntries(parallelism);
+    }
+
+    currentEntry = null;
+    currentHeader = null;
+    currentContents = null;
+  }
+
+  @Override
+  public void actuallyClose() throws IOException {
+    writePendingEntries(0);
+    new CentralDirectory().writeCentralDirectory(delegate, currentOffset, entries);
+
+    delegate.close();
+  }
+
+  private void writeCurrentHeader() throws IOException {
+    Preconditions.checkNotNull(currentEntry).setOffset(currentOffset);
+    byte[] header = Preconditions.checkNotNull(currentHeader);
+    delegate.write(header);
+    currentOffset += header.length;
+  }
+
+  /**
+   * Writes out deflated entries in the order they were added, waiting for them if more than {@code
+   * maxPending} are still outstanding.
+   */
+  private void writePendingEntries(int maxPending) throws IOException {
+    while (!pendingEntries.isEmpty()
+        && (pendingEntries.size() > maxPending || pendingEntries.peek().data.isDone())) {
+      PendingEntry pending = pendingEntries.remove();
+      byte[] data;
+      try {
+        data = pending.data.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        InterruptedIOException interrupted =
+            new InterruptedIOException("Interrupted while deflating " + pending.entry.getName());
+        interrupted.initCause(e);
+        throw interrupted;
+      } catch (ExecutionException e) {
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IOException(e.getCause());
+      }
+
+      pending.entry.setOffset(currentOffset);
+      delegate.write(pending.header);
+      delegate.write(data);
+      currentOffset += pending.header.length + data.length;
+    }
+  }
+
+  private static class PendingEntry {
+    private final EntryAccounting entry;
+    private final byte[] header;
+    private final ListenableFuture<byte[]> data;
+
+    private PendingEntry(EntryAccounting entry, byte[] header, ListenableFuture<byte[]> data) {
+      this.entry = entry;
+      this.header = header;
+      this.data = data;
+    }
+  }
+
+  /** Lazily started pool shared by all parallel zip streams, so they can't oversubscribe. */
+  private static class DeflatePool {
+    private static final ListeningExecutorService EXECUTOR =
+        MoreExecutors.listeningDecorator(
+            Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder()
+                    .setNameFormat("zip-deflate-%d")
+                    .setDaemon(true)
+                    .build()));
+  }
+}
@@ -21,25 +21,45 @@ import com.facebook.buck.io.MorePosixFilePermissions;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.util.MoreCollectors;
 import com.google.common.base.Charsets;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.io.ByteStreams;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
 import java.nio.file.FileSystem;
 import java.nio.file.FileSystems;
 import java.nio.file.Files;
 import java.nio.file.LinkOption;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.PosixFilePermission;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.zip.ZipEntry;
 import java.util.zip.ZipError;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipFile;
@@ -54,6 +74,40 @@ public class Unzip {
     OVERWRITE_AND_CLEAN_DIRECTORIES,
   }
 
+  private static void writeZipContents(
+      ZipFile zip,
+      FileChannel channel,
+      ImmutableMap<String, StoredData> storedData,
+      ZipArchiveEntry entry,
+      ProjectFilesystem filesystem,
+      Path target)
+      throws IOException {
+    StoredData stored = storedData.get(entry.getName());
+    if (stored != null && !entry.isUnixSymlink() && stored.size == entry.getSize()) {
+      // Uncompressed contents can be copied straight out of the archive.
+      try (FileChannel out =
+          FileChannel.open(
+              filesystem.resolve(target),
+              StandardOpenOption.CREATE,
+              StandardOpenOption.WRITE,
+              StandardOpenOption.TRUNCATE_EXISTING)) {
+        long transferred = 0;
+        while (transferred < stored.size) {
+          long count =
+              channel.transferTo(stored.offset + transferred, stored.size - transferred, out);
+          if (count <= 0) {
+            throw new IOException(
+                String.format("Unexpected end of data for %s at %d", entry.getName(), transferred));
+          }
+          transferred += count;
+        }
+      }
+    } else {
+      writeZipContents(zip, entry, filesystem, target);
+    }
+    restoreAttributes(entry, filesystem, target);
+  }
+
   private static void writeZipContents(
       ZipFile zip, ZipArchiveEntry entry, ProjectFilesystem filesystem, Path target)
       throws IOException {
@@ -70,7 +124,10 @@ public class Unzip {
         }
       }
     }
+  }
 
+  private static void restoreAttributes(
+      ZipArchiveEntry entry, ProjectFilesystem filesystem, Path target) throws IOException {
     // restore mtime for the file
     filesystem.resolve(target).toFile().setLastModified(entry.getTime());
 
@@ -177,60 +234,254 @@ public class Unzip {
       Path relativePath,
       ExistingFileMode existingFileMode)
       throws IOException {
+    try (ZipFile zip = new ZipFile(zipFile.toFile());
+        FileChannel channel = FileChannel.open(zipFile, StandardOpenOption.READ)) {
+      ImmutableMap<Path, ZipArchiveEntry> files =
+          prepareDestination(zip, filesystem, relativePath, existingFileMode);
+      ImmutableMap<String, StoredData> storedData = readStoredData(channel);
+      for (Map.Entry<Path, ZipArchiveEntry> file : files.entrySet()) {
+        writeZipContents(zip, channel, storedData, file.getValue(), filesystem, file.getKey());
+      }
+      return files.keySet().asList();
+    }
+  }
+
+  /**
+   * Like {@link #extractZipFile(Path, ProjectFilesystem, Path, ExistingFileMode)}, but once the
+   * directory structure has been laid out, files are inflated and written across a shared,
+   * bounded pool of threads. Worth it for big archives, such as artifacts fetched from the cache.
+   */
+  public static ImmutableList<Path> extractZipFileInParallel(
+      Path zipFile,
+      ProjectFilesystem filesystem,
+      Path relativePath,
+      ExistingFileMode existingFileMode)
+      throws IOException {
+    try (ZipFile zip = new ZipFile(zipFile.toFile());
+        FileChannel channel = FileChannel.open(zipFile, StandardOpenOption.READ)) {
+      ImmutableMap<Path, ZipArchiveEntry> files =
+          prepareDestination(zip, filesystem, relativePath, existingFileMode);
+      ImmutableMap<String, StoredData> storedData = readStoredData(channel);
+      List<ListenableFuture<Void>> writes = new ArrayList<>(files.size());
+      for (Map.Entry<Path, ZipArchiveEntry> file : files.entrySet()) {
+        writes.add(
+            ExtractionPool.EXECUTOR.submit(
+                () -> {
+                  writeZipContents(
+                      zip, channel, storedData, file.getValue(), filesystem, file.getKey());
+                  return null;
+                }));
+      }
+      try {
+        Futures.allAsList(writes).get();
+      } catch (InterruptedException e) {
+        cancelAndAwait(writes);
+        Thread.currentThread().interrupt();
+        InterruptedIOException interrupted =
+            new InterruptedIOException("Interrupted while extracting " + zipFile);
+        interrupted.initCause(e);
+        throw interrupted;
+      } catch (ExecutionException e) {
+        cancelAndAwait(writes);
+        Throwables.throwIfInstanceOf(e.getCause(), IOException.class);
+        Throwables.throwIfUnchecked(e.getCause());
+        throw new IOException(e.getCause());
+      }
+      return files.keySet().asList();
+    }
+  }
+
+  /**
+   * Drops writes that haven't started and waits for the rest, so the archive isn't closed from
+   * under them. Running writes aren't interrupted, as that would close the shared channel.
+   */
+  private static void cancelAndAwait(List<ListenableFuture<Void>> writes) {
+    for (ListenableFuture<Void> write : writes) {
+      write.cancel(/* mayInterruptIfRunning */ false);
+    }
+    for (ListenableFuture<Void> write : writes) {
+      try {
+        Uninterruptibles.getUninterruptibly(write);
+      } catch (ExecutionException | CancellationException e) {
+        // The first failure is the one reported.
+      }
+    }
+  }
+
+  /** Where the uncompressed contents of a stored entry live in the archive. */
+  private static class StoredData {
+    private final long offset;
+    private final long size;
+
+    private StoredData(long offset, long size) {
+      this.offset = offset;
+      this.size = size;
+    }
+  }
+
+  /**
+   * Reads the central directory once to find the contents of stored (uncompressed) entries, keyed
+   * by entry name. Archives this doesn't understand, such as zip64 ones, get an empty map and are
+   * extracted through commons-compress alone.
+   *
+   * <p>Only the end of central directory record, the central directory and the local headers of
+   * stored entries are read, rather than mapping the whole archive.
+   */
+  private static ImmutableMap<String, StoredData> readStoredData(FileChannel channel)
+      throws IOException {
+    long size = channel.size();
+    if (size < ZipEntry.ENDHDR) {
+      return ImmutableMap.of();
+    }
+
+    // Search backwards from the end of the ZIP file, past any trailing comment, for the EOCD.
+    int tailLength = (int) Math.min(size, ZipEntry.ENDHDR + 0xffff);
+    long tailOffset = size - tailLength;
+    ByteBuffer tail = read(channel, tailOffset, tailLength);
+    int eocd = tailLength - ZipEntry.ENDHDR;
+    while (tail.getInt(eocd) != ZipEntry.ENDSIG) {
+      if (--eocd < 0) {
+        return ImmutableMap.of();
+      }
+    }
+    long eocdOffset = tailOffset + eocd;
+    int cdEntries = Short.toUnsignedInt(tail.getShort(eocd + ZipEntry.ENDTOT));
+    long cdSize = Integer.toUnsignedLong(tail.getInt(eocd + ZipEntry.ENDSIZ));
+    long cdOffset = Integer.toUnsignedLong(tail.getInt(eocd + ZipEntry.ENDOFF));
+    if (cdEntries == 0xffff
+        || cdOffset == 0xffffffffL
+        || cdSize > Integer.MAX_VALUE
+        || cdOffset + cdSize > eocdOffset) {
+      return ImmutableMap.of();
+    }
+
+    ByteBuffer cd = read(channel, cdOffset, (int) cdSize);
+    ByteBuffer localHeader = ByteBuffer.allocate(ZipEntry.LOCHDR).order(ByteOrder.LITTLE_ENDIAN);
+    Map<String, StoredData> stored = new HashMap<>();
+    int offset = 0;
+    for (int idx = 0; idx < cdEntries; idx++) {
+      if (offset + ZipEntry.CENHDR > cdSize || cd.getInt(offset) != ZipEntry.CENSIG) {
+        return ImmutableMap.of();
+      }
+      int nameLength = Short.toUnsignedInt(cd.getShort(offset + ZipEntry.CENNAM));
+      long compressedSize = Integer.toUnsignedLong(cd.getInt(offset + ZipEntry.CENSIZ));
+      long localOffset = Integer.toUnsignedLong(cd.getInt(offset + ZipEntry.CENOFF));
+      if (offset + ZipEntry.CENHDR + nameLength > cdSize) {
+        return ImmutableMap.of();
+      }
+      if (cd.getShort(offset + ZipEntry.CENHOW) == ZipEntry.STORED
+          && compressedSize != 0xffffffffL
+          && localOffset + ZipEntry.LOCHDR <= cdOffset) {
+        localHeader.clear();
+        readFully(channel, localOffset, localHeader);
+        if (localHeader.getInt(0) == ZipEntry.LOCSIG) {
+          long dataOffset =
+              localOffset
+                  + ZipEntry.LOCHDR
+                  + Short.toUnsignedInt(localHeader.getShort(ZipEntry.LOCNAM))
+                  + Short.toUnsignedInt(localHeader.getShort(ZipEntry.LOCEXT));
+          if (dataOffset + compressedSize <= cdOffset) {
+            stored.put(
+                new String(cd.array(), offset + ZipEntry.CENHDR, nameLength, Charsets.UTF_8),
+                new StoredData(dataOffset, compressedSize));
+          }
+        }
+      }
+      offset +=
+          ZipEntry.CENHDR
+              + nameLength
+              + Short.toUnsignedInt(cd.getShort(offset + ZipEntry.CENEXT))
+              + Short.toUnsignedInt(cd.getShort(offset + ZipEntry.CENCOM));
+    }
+    return ImmutableMap.copyOf(stored);
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+    readFully(channel, position, buffer);
+    return buffer;
+  }
+
+  private static void readFully(FileChannel channel, long position, ByteBuffer buffer)
+      throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file");
+      }
+    }
+  }
+
+  /** Lazily started pool shared by all parallel extractions. */
+  private static class ExtractionPool {
+    private static final ListeningExecutorService EXECUTOR =
+        MoreExecutors.listeningDecorator(
+            Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors(),
+                new ThreadFactoryBuilder().setNameFormat("unzip-%d").setDaemon(true).build()));
+  }
+
+  /**
+   * Removes stale contents of the destination, creates the directories listed in {@code zip}, and
+   * returns the files that still need to be written, keyed by their target path.
+   */
+  private static ImmutableMap<Path, ZipArchiveEntry> prepareDestination(
+      ZipFile zip,
+      ProjectFilesystem filesystem,
+      Path relativePath,
+      ExistingFileMode existingFileMode)
+      throws IOException {
 
     // We want to remove stale contents of directories listed in zipFile, but avoid deleting and
     // re-creating any directories that already exist. We *also* want to avoid a full recursive
     // scan of listed directories, since that's almost as slow as deleting. So we preprocess the
     // contents of zipFile and then scan the existing filesystem to remove stale artifacts.
 
-    ImmutableList.Builder<Path> filesWritten = ImmutableList.builder();
-    try (ZipFile zip = new ZipFile(zipFile.toFile())) {
-      // Get the list of paths in zipFile.  Keep them sorted by path, so dirs come before contents.
-      SortedMap<Path, ZipArchiveEntry> pathMap = new TreeMap<>();
-      for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
-        Path target = relativePath.resolve(entry.getName()).normalize();
-        pathMap.put(target, entry);
-      }
-      // A zip file isn't required to list intermediate paths (e.g., it can contain "foo/" and
-      // "foo/bar/baz"), but we need to know not to delete those intermediates, so fill them in.
-      for (SortedMap.Entry<Path, ZipArchiveEntry> p : new ArrayList<>(pathMap.entrySet())) {
-        if (!isTopLevel(p.getKey(), pathMap)) {
-          fillIntermediatePaths(p.getKey(), pathMap);
-        }
+    ImmutableMap.Builder<Path, ZipArchiveEntry> filesToWrite = ImmutableMap.builder();
+    // Get the list of paths in zipFile.  Keep them sorted by path, so dirs come before contents.
+    SortedMap<Path, ZipArchiveEntry> pathMap = new TreeMap<>();
+    for (ZipArchiveEntry entry : Collections.list(zip.getEntries())) {
+      Path target = relativePath.resolve(entry.getName()).normalize();
+      pathMap.put(target, entry);
+    }
+    // A zip file isn't required to list intermediate paths (e.g., it can contain "foo/" and
+    // "foo/bar/baz"), but we need to know not to delete those intermediates, so fill them in.
+    for (SortedMap.Entry<Path, ZipArchiveEntry> p : new ArrayList<>(pathMap.entrySet())) {
+      if (!isTopLevel(p.getKey(), pathMap)) {
+        fillIntermediatePaths(p.getKey(), pathMap);
       }
-      for (SortedMap.Entry<Path, ZipArchiveEntry> p : pathMap.entrySet()) {
-        Path target = p.getKey();
-        ZipArchiveEntry entry = p.getValue();
-        if (entry.isDirectory()) {
-          if (filesystem.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
-            // We have a pre-existing directory: delete its contents if they aren't in the zip.
-            if (existingFileMode == ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES) {
-              for (Path path : filesystem.getDirectoryContents(target)) {
-                if (!pathMap.containsKey(path)) {
-                  filesystem.deleteRecursivelyIfExists(path);
-                }
+    }
+    for (SortedMap.Entry<Path, ZipArchiveEntry> p : pathMap.entrySet()) {
+      Path target = p.getKey();
+      ZipArchiveEntry entry = p.getValue();
+      if (entry.isDirectory()) {
+        if (filesystem.isDirectory(target, LinkOption.NOFOLLOW_LINKS)) {
+          // We have a pre-existing directory: delete its contents if they aren't in the zip.
+          if (existingFileMode == ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES) {
+            for (Path path : filesystem.getDirectoryContents(target)) {
+              if (!pathMap.containsKey(path)) {
+                filesystem.deleteRecursivelyIfExists(path);
               }
             }
-          } else if (filesystem.exists(target, LinkOption.NOFOLLOW_LINKS)) {
-            filesystem.deleteFileAtPath(target);
-            filesystem.mkdirs(target);
-          } else {
-            filesystem.mkdirs(target);
           }
+        } else if (filesystem.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+          filesystem.deleteFileAtPath(target);
+          filesystem.mkdirs(target);
         } else {
-          if (filesystem.isFile(target, LinkOption.NOFOLLOW_LINKS)) { // NOPMD for clarity
-            // pass
-          } else if (filesystem.exists(target, LinkOption.NOFOLLOW_LINKS)) {
-            filesystem.deleteRecursivelyIfExists(target);
-          } else {
-            filesystem.createParentDirs(target);
-          }
-          filesWritten.add(target);
-          writeZipContents(zip, entry, filesystem, target);
+          filesystem.mkdirs(target);
+        }
+      } else {
+        if (filesystem.isFile(target, LinkOption.NOFOLLOW_LINKS)) { // NOPMD for clarity
+          // pass
+        } else if (filesystem.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+          filesystem.deleteRecursivelyIfExists(target);
+        } else {
+          filesystem.createParentDirs(target);
         }
+        filesToWrite.put(target, entry);
       }
     }
-    return filesWritten.build();
+    return filesToWrite.build();
   }
 
   public static ImmutableList<Path> extractZipFile(
@@ -239,6 +490,12 @@ public class Unzip {
     return extractZipFile(zipFile, filesystem, filesystem.getPath(""), existingFileMode);
   }
 
+  public static ImmutableList<Path> extractZipFileInParallel(
+      Path zipFile, ProjectFilesystem filesystem, ExistingFileMode existingFileMode)
+      throws IOException {
+    return extractZipFileInParallel(zipFile, filesystem, filesystem.getPath(""), existingFileMode);
+  }
+
   public static ImmutableList<Path> extractZipFile(
       Path zipFile, final Path destination, ExistingFileMode existingFileMode)
       throws InterruptedException, IOException {
@@ -254,6 +511,20 @@ public class Unzip {
         .collect(MoreCollectors.toImmutableList());
   }
 
+  public static ImmutableList<Path> extractZipFileInParallel(
+      Path zipFile, final Path destination, ExistingFileMode existingFileMode)
+      throws InterruptedException, IOException {
+    Files.createDirectories(destination);
+    return extractZipFileInParallel(
+            zipFile,
+            new ProjectFilesystem(destination),
+            destination.getFileSystem().getPath(""),
+            existingFileMode)
+        .stream()
+        .map(input -> destination.resolve(input).toAbsolutePath())
+        .collect(MoreCollectors.toImmutableList());
+  }
+
   public static ImmutableSet<Path> getZipMembers(Path archiveAbsolutePath) throws IOException {
     try (FileSystem zipFs = FileSystems.newFileSystem(archiveAbsolutePath, null)) {
       Path root = Iterables.getOnlyElement(zipFs.getRootDirectories());
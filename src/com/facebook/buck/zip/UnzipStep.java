@@ -45,7 +45,7 @@ public class UnzipStep implements Step {
             : filesystem.getPathForRelativeExistingPath(zipFile).toAbsolutePath();
     Path out = filesystem.getPathForRelativeExistingPath(destinationDirectory).toAbsolutePath();
 
-    Unzip.extractZipFile(zip, out, Unzip.ExistingFileMode.OVERWRITE);
+    Unzip.extractZipFileInParallel(zip, out, Unzip.ExistingFileMode.OVERWRITE);
     return StepExecutionResult.SUCCESS;
   }
 
@@ -27,6 +27,9 @@ import java.nio.file.Path;
 
 public class ZipOutputStreams {
 
+  /** A parallelism for archives big enough for deflating them to take a while. */
+  public static final int DEFAULT_PARALLELISM = Runtime.getRuntime().availableProcessors();
+
   private ZipOutputStreams() {
     // factory class
   }
@@ -95,24 +98,61 @@ public class ZipOutputStreams {
     return newJarOutputStream(out, mode, new DefaultClock());
   }
 
+  /**
+   * Create a new {@link CustomZipOutputStream} that handles duplicate entries in the way dictated
+   * by {@code mode}, and deflates up to {@code parallelism} entries at once. The zip written is the
+   * same whatever the parallelism.
+   *
+   * @param out The output stream to write to.
+   * @param mode How to handle duplicate entries.
+   * @param parallelism The number of entries to deflate concurrently.
+   */
+  public static CustomZipOutputStream newOutputStream(
+      OutputStream out, HandleDuplicates mode, int parallelism) {
+    return newOutputStream(out, mode, new DefaultClock(), parallelism);
+  }
+
+  public static CustomJarOutputStream newJarOutputStream(
+      Path jarFile, HandleDuplicates mode, int parallelism) throws IOException {
+    return newJarOutputStream(
+        new BufferedOutputStream(Files.newOutputStream(jarFile)),
+        mode,
+        new DefaultClock(),
+        parallelism);
+  }
+
   public static CustomZipOutputStream newOutputStream(
       OutputStream out, HandleDuplicates mode, Clock clock) {
-    return new CustomZipOutputStream(newImpl(out, mode, clock));
+    return newOutputStream(out, mode, clock, 1);
   }
 
   public static CustomJarOutputStream newJarOutputStream(
       OutputStream out, HandleDuplicates mode, Clock clock) {
-    return new CustomJarOutputStream(newImpl(out, mode, clock));
+    return newJarOutputStream(out, mode, clock, 1);
+  }
+
+  public static CustomZipOutputStream newOutputStream(
+      OutputStream out, HandleDuplicates mode, Clock clock, int parallelism) {
+    return new CustomZipOutputStream(newImpl(out, mode, clock, parallelism));
+  }
+
+  public static CustomJarOutputStream newJarOutputStream(
+      OutputStream out, HandleDuplicates mode, Clock clock, int parallelism) {
+    return new CustomJarOutputStream(newImpl(out, mode, clock, parallelism));
   }
 
   protected static CustomZipOutputStream.Impl newImpl(
-      OutputStream out, HandleDuplicates mode, Clock clock) {
+      OutputStream out, HandleDuplicates mode, Clock clock, int parallelism) {
     CustomZipOutputStream.Impl impl;
     switch (mode) {
       case APPEND_TO_ZIP:
       case THROW_EXCEPTION:
+        boolean throwExceptionsOnDuplicate = mode == HandleDuplicates.THROW_EXCEPTION;
         impl =
-            new AppendingZipOutputStreamImpl(clock, out, mode == HandleDuplicates.THROW_EXCEPTION);
+            parallelism > 1
+                ? new ParallelZipOutputStreamImpl(
+                    clock, out, throwExceptionsOnDuplicate, parallelism)
+                : new AppendingZipOutputStreamImpl(clock, out, throwExceptionsOnDuplicate);
         break;
       case OVERWRITE_EXISTING:
         impl = new OverwritingZipOutputStreamImpl(clock, out);
@@ -169,7 +169,9 @@ public class ZipStep implements Step {
 
     try (BufferedOutputStream baseOut =
             new BufferedOutputStream(filesystem.newFileOutputStream(pathToZipFile));
-        CustomZipOutputStream out = ZipOutputStreams.newOutputStream(baseOut, THROW_EXCEPTION)) {
+        CustomZipOutputStream out =
+            ZipOutputStreams.newOutputStream(
+                baseOut, THROW_EXCEPTION, ZipOutputStreams.DEFAULT_PARALLELISM)) {
 
       filesystem.walkRelativeFileTree(baseDir, pathFileVisitor);
 
@@ -656,6 +656,108 @@ public class DirArtifactCacheTest {
         dirArtifactCache.fetch(ruleKeyZ, LazyPath.ofInstance(fileZ)).getType());
   }
 
+  @Test
+  public void testEvictsLeastRecentlyUsedArtifactsFromIndex()
+      throws InterruptedException, IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path data = tmpDir.newFile("data");
+    Files.write(data, "d".getBytes(UTF_8));
+
+    // Each artifact takes 5 bytes: 1 for the data and 4 for its empty metadata.
+    dirArtifactCache =
+        new DirArtifactCache(
+            "dir",
+            new ProjectFilesystem(cacheDir),
+            Paths.get("."),
+            CacheReadMode.READWRITE,
+            /* maxCacheSizeBytes */ Optional.of(19L));
+    // A file added behind the cache's back, which only a full scan would find.
+    Path foreignFile = cacheDir.resolve("foreign");
+    Files.write(foreignFile, "f".getBytes(UTF_8));
+    RuleKey ruleKeyW = new RuleKey("aaaa");
+    RuleKey ruleKeyX = new RuleKey("bbbb");
+    RuleKey ruleKeyY = new RuleKey("cccc");
+    RuleKey ruleKeyZ = new RuleKey("dddd");
+
+    for (RuleKey ruleKey : ImmutableList.of(ruleKeyX, ruleKeyY, ruleKeyZ)) {
+      dirArtifactCache.store(
+          ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+          BorrowablePath.notBorrowablePath(data));
+    }
+    assertEquals(15, dirArtifactCache.getIndex().get().getTotalBytes());
+    assertEquals(
+        CacheResultType.HIT,
+        dirArtifactCache.fetch(ruleKeyX, LazyPath.ofInstance(tmpDir.newFile())).getType());
+
+    // Going over 19 bytes trims the cache down to 12, least recently used first.
+    dirArtifactCache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKeyW).build(),
+        BorrowablePath.notBorrowablePath(data));
+
+    for (RuleKey ruleKey : ImmutableList.of(ruleKeyY, ruleKeyZ)) {
+      assertEquals(
+          CacheResultType.MISS,
+          dirArtifactCache.fetch(ruleKey, LazyPath.ofInstance(tmpDir.newFile())).getType());
+    }
+    for (RuleKey ruleKey : ImmutableList.of(ruleKeyW, ruleKeyX)) {
+      assertEquals(
+          CacheResultType.HIT,
+          dirArtifactCache.fetch(ruleKey, LazyPath.ofInstance(tmpDir.newFile())).getType());
+    }
+    assertTrue(Files.exists(foreignFile));
+    assertEquals(10, dirArtifactCache.getIndex().get().getTotalBytes());
+    assertEquals(2, dirArtifactCache.getIndex().get().getEvictedArtifacts());
+  }
+
+  @Test
+  public void testIndexIsKeptAcrossInstances() throws InterruptedException, IOException {
+    Path cacheDir = tmpDir.newFolder();
+    Path data = tmpDir.newFile("data");
+    Files.write(data, "d".getBytes(UTF_8));
+    ProjectFilesystem filesystem = new ProjectFilesystem(cacheDir);
+    RuleKey ruleKey = new RuleKey("aaaa");
+
+    DirArtifactCache cache =
+        new DirArtifactCache(
+            "dir", filesystem, Paths.get("."), CacheReadMode.READWRITE, Optional.empty());
+    cache.store(
+        ArtifactInfo.builder().addRuleKeys(ruleKey).build(),
+        BorrowablePath.notBorrowablePath(data));
+    cache.fetch(ruleKey, LazyPath.ofInstance(tmpDir.newFile()));
+    cache.fetch(new RuleKey("bbbb"), LazyPath.ofInstance(tmpDir.newFile()));
+    cache.close();
+
+    DirArtifactCacheIndex index = DirArtifactCacheIndex.open(filesystem, Paths.get("."));
+    assertTrue(index.existed());
+    assertEquals(1, index.getArtifactCount());
+    assertEquals(5, index.getTotalBytes());
+    assertEquals(1, index.getHits());
+    assertEquals(1, index.getMisses());
+    index.close();
+  }
+
+  @Test
+  public void testIndexSnapshotKeepsRecordsOfOtherProcesses()
+      throws InterruptedException, IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmpDir.newFolder());
+    DirArtifactCacheIndex first = DirArtifactCacheIndex.open(filesystem, Paths.get("."));
+    first.recordStore("aaaa", 5);
+    DirArtifactCacheIndex second = DirArtifactCacheIndex.open(filesystem, Paths.get("."));
+    second.recordStore("bbbb", 7);
+
+    // Rewriting the journal keeps what the other index appended to it in the meantime, and the
+    // other index keeps appending to the rewritten journal.
+    first.replaceArtifacts(ImmutableMap.of("aaaa", 5L));
+    second.recordStore("cccc", 11);
+    first.close();
+    second.close();
+
+    DirArtifactCacheIndex index = DirArtifactCacheIndex.open(filesystem, Paths.get("."));
+    assertEquals(3, index.getArtifactCount());
+    assertEquals(23, index.getTotalBytes());
+    index.close();
+  }
+
   @Test
   public void testCacheStoreMultipleKeys() throws InterruptedException, IOException {
     Path cacheDir = tmpDir.newFolder();
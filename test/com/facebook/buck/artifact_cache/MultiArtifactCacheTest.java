@@ -306,4 +306,45 @@ public class MultiArtifactCacheTest {
 
     multiArtifactCache.close();
   }
+
+  @Test
+  public void multiFetchOnlyAsksLowerCachesForMisses() throws Exception {
+    RuleKey otherRuleKey = new RuleKey("1111111111111111111111111111111111111111");
+    InMemoryArtifactCache cache1 = new InMemoryArtifactCache();
+    AtomicReference<ImmutableList<RuleKey>> cache2Request = new AtomicReference<>();
+    InMemoryArtifactCache cache2 =
+        new InMemoryArtifactCache() {
+          @Override
+          public ImmutableList<CacheResult> multiFetch(
+              ImmutableList<RuleKey> ruleKeys, ImmutableList<LazyPath> outputs) {
+            cache2Request.set(ruleKeys);
+            return super.multiFetch(ruleKeys, outputs);
+          }
+        };
+    MultiArtifactCache multiArtifactCache =
+        new MultiArtifactCache(ImmutableList.of(cache1, cache2));
+
+    ImmutableMap<String, String> metadata = ImmutableMap.of("hello", "world");
+    cache1.store(ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(), new byte[0]);
+    cache2.store(
+        ArtifactInfo.builder().addRuleKeys(otherRuleKey).setMetadata(metadata).build(),
+        new byte[0]);
+
+    LazyPath output1 = LazyPath.ofInstance(tmp.newFile());
+    LazyPath output2 = LazyPath.ofInstance(tmp.newFile());
+    ImmutableList<CacheResult> results =
+        multiArtifactCache.multiFetch(
+            ImmutableList.of(dummyRuleKey, otherRuleKey), ImmutableList.of(output1, output2));
+
+    assertThat(results.get(0).getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(results.get(1).getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(cache2Request.get(), Matchers.equalTo(ImmutableList.of(otherRuleKey)));
+
+    // The hit from the lower cache is propagated to the higher one.
+    CacheResult result = cache1.fetch(otherRuleKey, output2);
+    assertThat(result.getType(), Matchers.equalTo(CacheResultType.HIT));
+    assertThat(result.getMetadata(), Matchers.equalTo(metadata));
+
+    multiArtifactCache.close();
+  }
 }
@@ -18,6 +18,7 @@ package com.facebook.buck.artifact_cache;
 
 import com.facebook.buck.artifact_cache.thrift.ArtifactMetadata;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheFetchResponse;
+import com.facebook.buck.artifact_cache.thrift.BuckCacheMultiFetchResponse;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheRequestType;
 import com.facebook.buck.artifact_cache.thrift.BuckCacheResponse;
 import com.facebook.buck.artifact_cache.thrift.PayloadInfo;
@@ -30,7 +31,10 @@ import com.facebook.buck.slb.HttpService;
 import com.facebook.buck.slb.ThriftException;
 import com.facebook.buck.slb.ThriftUtil;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.ByteArrayInputStream;
@@ -38,6 +42,8 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import javax.annotation.Nullable;
 import org.apache.thrift.TBase;
@@ -88,27 +94,8 @@ public class ThriftArtifactCacheTest {
   private void testWithMetadataAndPayloadInfo(
       @Nullable ArtifactMetadata artifactMetadata, boolean setPayloadInfo)
       throws InterruptedException, IOException {
-    HttpService storeClient = EasyMock.createNiceMock(HttpService.class);
     HttpService fetchClient = EasyMock.createMock(HttpService.class);
-    BuckEventBus eventBus = EasyMock.createNiceMock(BuckEventBus.class);
-    ProjectFilesystem filesystem = new ProjectFilesystem(tempPaths.getRoot());
-    ListeningExecutorService service = MoreExecutors.newDirectExecutorService();
-    NetworkCacheArgs networkArgs =
-        NetworkCacheArgs.builder()
-            .setCacheName("default_cache_name")
-            .setRepository("default_repository")
-            .setCacheReadMode(CacheReadMode.READONLY)
-            .setCacheMode(ArtifactCacheMode.thrift_over_http)
-            .setScheduleType("default_schedule_type")
-            .setProjectFilesystem(filesystem)
-            .setFetchClient(fetchClient)
-            .setStoreClient(storeClient)
-            .setBuckEventBus(eventBus)
-            .setHttpWriteExecutorService(service)
-            .setErrorTextTemplate("my super error msg")
-            .setDistributedBuildModeEnabled(false)
-            .setThriftEndpointPath("/nice_as_well")
-            .build();
+    NetworkCacheArgs networkArgs = createNetworkArgs(fetchClient);
 
     EasyMock.expect(fetchClient.makeRequest(EasyMock.anyString(), EasyMock.anyObject()))
         .andReturn(makeResponseWithCorruptedRuleKeys(artifactMetadata, setPayloadInfo))
@@ -131,6 +118,81 @@ public class ThriftArtifactCacheTest {
     EasyMock.verify(fetchClient);
   }
 
+  @Test
+  public void testMultiFetch() throws IOException, InterruptedException {
+    HttpService fetchClient = EasyMock.createMock(HttpService.class);
+    NetworkCacheArgs networkArgs = createNetworkArgs(fetchClient);
+
+    com.facebook.buck.rules.RuleKey missRuleKey =
+        new com.facebook.buck.rules.RuleKey(HashCode.fromInt(42));
+    com.facebook.buck.rules.RuleKey hitRuleKey =
+        new com.facebook.buck.rules.RuleKey(HashCode.fromInt(43));
+    byte[] payload = "artifact".getBytes(StandardCharsets.UTF_8);
+
+    ArtifactMetadata metadata = new ArtifactMetadata();
+    metadata.addToRuleKeys(new RuleKey().setHashString(hitRuleKey.toString()));
+    metadata.setMetadata(ImmutableMap.of("key", "value"));
+    metadata.setArtifactPayloadMd5(Hashing.md5().hashBytes(payload).toString());
+    BuckCacheResponse response =
+        new BuckCacheResponse()
+            .setWasSuccessful(true)
+            .setType(BuckCacheRequestType.MULTI_FETCH)
+            .setMultiFetchResponse(
+                new BuckCacheMultiFetchResponse()
+                    .setResults(
+                        ImmutableList.of(
+                            new BuckCacheFetchResponse().setArtifactExists(false),
+                            new BuckCacheFetchResponse()
+                                .setArtifactExists(true)
+                                .setMetadata(metadata))));
+    response.addToPayloads(new PayloadInfo().setSizeBytes(payload.length));
+
+    // Both keys are looked up with a single request.
+    EasyMock.expect(fetchClient.makeRequest(EasyMock.anyString(), EasyMock.anyObject()))
+        .andReturn(new InMemoryThriftResponse(response, payload))
+        .once();
+    fetchClient.close();
+    EasyMock.expectLastCall().once();
+    EasyMock.replay(fetchClient);
+
+    try (ThriftArtifactCache cache = new ThriftArtifactCache(networkArgs)) {
+      Path missPath = tempPaths.newFile().toAbsolutePath();
+      Path hitPath = tempPaths.newFile().toAbsolutePath();
+      ImmutableList<CacheResult> results =
+          cache.multiFetch(
+              ImmutableList.of(missRuleKey, hitRuleKey),
+              ImmutableList.of(LazyPath.ofInstance(missPath), LazyPath.ofInstance(hitPath)));
+      Assert.assertEquals(CacheResultType.MISS, results.get(0).getType());
+      Assert.assertEquals(CacheResultType.HIT, results.get(1).getType());
+      Assert.assertEquals(ImmutableMap.of("key", "value"), results.get(1).getMetadata());
+      Assert.assertArrayEquals(payload, Files.readAllBytes(hitPath));
+    }
+
+    EasyMock.verify(fetchClient);
+  }
+
+  private NetworkCacheArgs createNetworkArgs(HttpService fetchClient) throws InterruptedException {
+    HttpService storeClient = EasyMock.createNiceMock(HttpService.class);
+    BuckEventBus eventBus = EasyMock.createNiceMock(BuckEventBus.class);
+    ProjectFilesystem filesystem = new ProjectFilesystem(tempPaths.getRoot());
+    ListeningExecutorService service = MoreExecutors.newDirectExecutorService();
+    return NetworkCacheArgs.builder()
+        .setCacheName("default_cache_name")
+        .setRepository("default_repository")
+        .setCacheReadMode(CacheReadMode.READONLY)
+        .setCacheMode(ArtifactCacheMode.thrift_over_http)
+        .setScheduleType("default_schedule_type")
+        .setProjectFilesystem(filesystem)
+        .setFetchClient(fetchClient)
+        .setStoreClient(storeClient)
+        .setBuckEventBus(eventBus)
+        .setHttpWriteExecutorService(service)
+        .setErrorTextTemplate("my super error msg")
+        .setDistributedBuildModeEnabled(false)
+        .setThriftEndpointPath("/nice_as_well")
+        .build();
+  }
+
   private HttpResponse makeResponseWithCorruptedRuleKeys(
       @Nullable ArtifactMetadata artifactMetadata, boolean setPayloadInfo) {
     BuckCacheFetchResponse fetchResponse = new BuckCacheFetchResponse().setArtifactExists(true);
@@ -155,6 +217,10 @@ public class ThriftArtifactCacheTest {
     private byte[] response;
 
     public InMemoryThriftResponse(TBase<?, ?> payload) {
+      this(payload, new byte[0]);
+    }
+
+    public InMemoryThriftResponse(TBase<?, ?> payload, byte[] payloadData) {
       byte[] serializedThrift = null;
       try {
         serializedThrift = ThriftUtil.serialize(ThriftArtifactCache.PROTOCOL, payload);
@@ -162,10 +228,11 @@ public class ThriftArtifactCacheTest {
         throw new RuntimeException(e);
       }
 
-      ByteBuffer buffer = ByteBuffer.allocate(4 + serializedThrift.length);
+      ByteBuffer buffer = ByteBuffer.allocate(4 + serializedThrift.length + payloadData.length);
       buffer.order(ByteOrder.BIG_ENDIAN);
       buffer.putInt(serializedThrift.length);
       buffer.put(serializedThrift);
+      buffer.put(payloadData);
       response = buffer.array();
     }
 
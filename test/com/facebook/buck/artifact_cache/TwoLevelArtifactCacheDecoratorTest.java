@@ -26,8 +26,10 @@ import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.io.ProjectFilesystem;
 import com.facebook.buck.rules.RuleKey;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.Optional;
 import org.hamcrest.Matchers;
@@ -186,4 +188,37 @@ public class TwoLevelArtifactCacheDecoratorTest {
           Matchers.equalTo(CacheResultType.HIT));
     }
   }
+
+  @Test
+  public void testCacheMultiFetch() throws InterruptedException, IOException {
+    try (InMemoryArtifactCache inMemoryArtifactCache = new InMemoryArtifactCache();
+        TwoLevelArtifactCacheDecorator twoLevelCache =
+            new TwoLevelArtifactCacheDecorator(
+                inMemoryArtifactCache,
+                new ProjectFilesystem(tmp.getRoot()),
+                BuckEventBusForTests.newInstance(),
+                /* performTwoLevelStores */ true,
+                /* minimumTwoLevelStoredArtifactSize */ 0L,
+                /* maximumTwoLevelStoredArtifactSize */ Optional.empty())) {
+      LazyPath dummyFile = LazyPath.ofInstance(tmp.newFile());
+      Files.write(dummyFile.get(), "hello".getBytes(StandardCharsets.UTF_8));
+
+      twoLevelCache.store(
+          ArtifactInfo.builder().addRuleKeys(dummyRuleKey).build(),
+          BorrowablePath.notBorrowablePath(dummyFile.get()));
+
+      LazyPath output1 = LazyPath.ofInstance(tmp.newFile());
+      LazyPath output2 = LazyPath.ofInstance(tmp.newFile());
+      ImmutableList<CacheResult> results =
+          twoLevelCache.multiFetch(
+              ImmutableList.of(dummyRuleKey, dummyRuleKey2), ImmutableList.of(output1, output2));
+
+      assertThat(results.get(0).getType(), Matchers.equalTo(CacheResultType.HIT));
+      assertThat(results.get(0).twoLevelContentHashKey().isPresent(), Matchers.is(true));
+      assertThat(results.get(1).getType(), Matchers.equalTo(CacheResultType.MISS));
+      assertThat(
+          new String(Files.readAllBytes(output1.get()), StandardCharsets.UTF_8),
+          Matchers.equalTo("hello"));
+    }
+  }
 }
@@ -26,12 +26,17 @@ import static org.junit.Assert.assertEquals;
 
 import com.facebook.buck.artifact_cache.ArtifactCache;
 import com.facebook.buck.artifact_cache.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.CacheReadMode;
 import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.DirArtifactCacheIndex;
+import com.facebook.buck.artifact_cache.DirCacheEntry;
 import com.facebook.buck.io.LazyPath;
 import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
 import com.facebook.buck.testutil.TestConsole;
 import com.google.common.collect.ImmutableList;
 import java.io.IOException;
+import java.nio.file.Paths;
 import org.easymock.EasyMockSupport;
 import org.junit.Test;
 
@@ -99,4 +104,19 @@ public class CacheCommandTest extends EasyMockSupport {
     int exitCode = cacheCommand.run(commandRunnerParams);
     assertEquals(1, exitCode);
   }
+
+  @Test
+  public void testFormatDirCacheStatsOfUnindexedCache() {
+    DirCacheEntry entry =
+        DirCacheEntry.builder()
+            .setCacheDir(Paths.get("buck-cache"))
+            .setMaxSizeBytes(2048L)
+            .setCacheReadMode(CacheReadMode.READWRITE)
+            .build();
+    DirArtifactCacheIndex index =
+        DirArtifactCacheIndex.open(new FakeProjectFilesystem(), entry.getCacheDir());
+    assertEquals(
+        String.format("Dir cache buck-cache: 0 artifacts, 0.00 B of 2.00 KB\n  Not indexed yet.\n"),
+        CacheCommand.formatDirCacheStats(entry, index));
+  }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cli;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.parser.BuildFileSpec;
+import com.facebook.buck.parser.Parser;
+import com.facebook.buck.query.QueryBuildTarget;
+import com.facebook.buck.query.QueryEnvironment;
+import com.facebook.buck.query.QueryExpression;
+import com.facebook.buck.query.QueryTarget;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TestCellBuilder;
+import com.facebook.buck.util.WatchmanOverflowEvent;
+import com.facebook.buck.util.WatchmanPathEvent;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QueryResultCacheTest {
+
+  private Cell cell;
+  private Parser parser;
+  private QueryResultCache cache;
+  private BuildTarget target;
+  private ImmutableSet<QueryTarget> result;
+
+  @Before
+  public void setUp() throws Exception {
+    cell = new TestCellBuilder().build();
+    parser = createMock(Parser.class);
+    cache = new QueryResultCache(parser, cell);
+    target = BuildTargetFactory.newInstance(cell.getRoot(), "//foo:bar");
+    result = ImmutableSet.of(QueryBuildTarget.of(target));
+  }
+
+  @Test
+  public void resultsAreServedWhileBuildFilesAreUnchanged() throws Exception {
+    expect(parser.getCachedRawNodes(anyObject(), anyObject()))
+        .andStubReturn(Optional.of(rawNodes()));
+    BuckQueryEnvironment env = createEnvironment(1, ImmutableSet.of(), false);
+    replay(parser);
+
+    assertEquals(result, evaluate(env, "deps(//foo:bar)"));
+    assertEquals(result, evaluate(env, "deps( '//foo:bar' )"));
+
+    verify(env);
+    assertEquals(1, cache.getHitCount());
+    assertEquals(1, cache.getMissCount());
+  }
+
+  @Test
+  public void resultsAreReevaluatedWhenRawNodesChange() throws Exception {
+    // Equal, but not the same raw nodes, as the parser returns after invalidating a build file.
+    expect(parser.getCachedRawNodes(anyObject(), anyObject()))
+        .andReturn(Optional.of(rawNodes()))
+        .andStubReturn(Optional.of(rawNodes()));
+    BuckQueryEnvironment env = createEnvironment(2, ImmutableSet.of(), false);
+    replay(parser);
+
+    evaluate(env, "deps(//foo:bar)");
+    evaluate(env, "deps(//foo:bar)");
+
+    verify(env);
+    assertEquals(0, cache.getHitCount());
+    assertEquals(1, cache.getInvalidationCount());
+  }
+
+  @Test
+  public void changesToBuildFilesMatchedByPatternsInvalidateResults() throws Exception {
+    expect(parser.getCachedRawNodes(anyObject(), anyObject()))
+        .andStubReturn(Optional.of(rawNodes()));
+    BuildFileSpec spec = BuildFileSpec.fromRecursivePath(Paths.get("foo"), cell.getRoot());
+    BuckQueryEnvironment env = createEnvironment(1, ImmutableSet.of(spec), false);
+    replay(parser);
+
+    evaluate(env, "//foo/...");
+    cache.invalidateBasedOn(event(WatchmanPathEvent.Kind.MODIFY, Paths.get("bar/BUCK")));
+    cache.invalidateBasedOn(event(WatchmanPathEvent.Kind.MODIFY, Paths.get("foo/Foo.java")));
+    assertEquals(1, cache.getEntryCount());
+
+    cache.invalidateBasedOn(event(WatchmanPathEvent.Kind.MODIFY, Paths.get("foo/baz/BUCK")));
+    assertEquals(0, cache.getEntryCount());
+  }
+
+  @Test
+  public void addedFilesInvalidateResultsThatDependOnFilePaths() throws Exception {
+    expect(parser.getCachedRawNodes(anyObject(), anyObject()))
+        .andStubReturn(Optional.of(rawNodes()));
+    BuckQueryEnvironment env = createEnvironment(1, ImmutableSet.of(), true);
+    replay(parser);
+
+    evaluate(env, "owner(foo/Foo.java)");
+    cache.invalidateBasedOn(event(WatchmanPathEvent.Kind.MODIFY, Paths.get("foo/Foo.java")));
+    assertEquals(1, cache.getEntryCount());
+
+    cache.invalidateBasedOn(event(WatchmanPathEvent.Kind.CREATE, Paths.get("foo/Bar.java")));
+    assertEquals(0, cache.getEntryCount());
+  }
+
+  @Test
+  public void overflowInvalidatesAllResults() throws Exception {
+    expect(parser.getCachedRawNodes(anyObject(), anyObject()))
+        .andStubReturn(Optional.of(rawNodes()));
+    BuckQueryEnvironment env = createEnvironment(1, ImmutableSet.of(), false);
+    replay(parser);
+
+    evaluate(env, "deps(//foo:bar)");
+    cache.invalidateBasedOn(WatchmanOverflowEvent.of(cell.getRoot(), "too many changes"));
+
+    assertEquals(0, cache.getEntryCount());
+    assertEquals(1, cache.getInvalidationCount());
+  }
+
+  private BuckQueryEnvironment createEnvironment(
+      int evaluations, ImmutableSet<BuildFileSpec> specs, boolean resolvedFilePaths)
+      throws Exception {
+    QueryEnvironment.TargetEvaluator targetEvaluator =
+        createMock(QueryEnvironment.TargetEvaluator.class);
+    expect(targetEvaluator.getType()).andStubReturn(QueryEnvironment.TargetEvaluator.Type.LAZY);
+    BuckQueryEnvironment env = createMock(BuckQueryEnvironment.class);
+    expect(env.getFunctions()).andStubReturn(QueryEnvironment.DEFAULT_QUERY_FUNCTIONS);
+    expect(env.getTargetEvaluator()).andStubReturn(targetEvaluator);
+    expect(env.evaluateQuery(anyObject(QueryExpression.class)))
+        .andReturn(result)
+        .times(evaluations);
+    expect(env.getTouchedBuildTargets()).andStubReturn(ImmutableSet.of(target));
+    expect(env.getResolvedBuildFileSpecs()).andStubReturn(specs);
+    expect(env.hasResolvedFilePaths()).andStubReturn(resolvedFilePaths);
+    replay(targetEvaluator, env);
+    return env;
+  }
+
+  private ImmutableSet<QueryTarget> evaluate(BuckQueryEnvironment env, String query)
+      throws Exception {
+    return cache.evaluateQuery(env, QueryExpression.parse(query, env));
+  }
+
+  private WatchmanPathEvent event(WatchmanPathEvent.Kind kind, Path path) {
+    return WatchmanPathEvent.of(cell.getRoot(), kind, path);
+  }
+
+  private static ImmutableSet<Map<String, Object>> rawNodes() {
+    return ImmutableSet.of(ImmutableMap.of("name", "bar"));
+  }
+}
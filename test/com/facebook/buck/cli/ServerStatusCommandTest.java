@@ -77,4 +77,18 @@ public class ServerStatusCommandTest extends EasyMockSupport {
     command.run(params);
     assertEquals("{\"http.port\":9000}", console.getTextWrittenToStdOut().trim());
   }
+
+  @Test
+  public void testQueryCacheWithoutDaemon() throws IOException, InterruptedException {
+    replayAll();
+
+    ServerStatusCommand command = new ServerStatusCommand();
+    command.enableShowQueryCache();
+    command.run(params);
+    assertEquals(
+        String.format(
+            "query_cache.entries=-1%nquery_cache.hits=-1%nquery_cache.misses=-1%n"
+                + "query_cache.invalidations=-1"),
+        console.getTextWrittenToStdOut().trim());
+  }
 }
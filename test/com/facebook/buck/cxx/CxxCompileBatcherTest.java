@@ -0,0 +1,278 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.cxx;
+
+import static org.hamcrest.Matchers.instanceOf;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.TestExecutionContext;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.util.FakeProcessExecutor;
+import com.facebook.buck.util.ObjectMappers;
+import com.facebook.buck.util.ProcessExecutorParams;
+import com.facebook.buck.worker.WorkerJobResult;
+import com.facebook.buck.worker.WorkerProcess;
+import com.facebook.buck.worker.WorkerProcessParams;
+import com.facebook.buck.worker.WorkerProcessPool;
+import com.facebook.buck.worker.WorkerProcessPoolFactory;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.Uninterruptibles;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CxxCompileBatcherTest {
+
+  private static final ImmutableList<String> COMMAND = ImmutableList.of("compiler", "-O2");
+  private static final ImmutableMap<String, String> ENVIRONMENT = ImmutableMap.of("PWD", "/root");
+
+  private final List<JsonNode> jobs = Collections.synchronizedList(new ArrayList<>());
+  private final List<Thread> compilingThreads = Collections.synchronizedList(new ArrayList<>());
+  private final CountDownLatch slowCompilationsMayFinish = new CountDownLatch(1);
+  private ExecutionContext context;
+  private WorkerProcessParams workerParams;
+  private CxxCompileBatcher batcher;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() {
+    context = TestExecutionContext.newInstance();
+    workerParams =
+        WorkerProcessParams.of(
+            Paths.get("tmp"),
+            ImmutableList.of("compile_server"),
+            ImmutableMap.of(),
+            1,
+            1,
+            Optional.empty());
+    batcher =
+        new CxxCompileBatcher(
+            new WorkerProcessPoolFactory(new FakeProjectFilesystem()) {
+              @Override
+              public WorkerProcess createWorkerProcess(
+                  ProcessExecutorParams processParams,
+                  ExecutionContext context,
+                  Path tmpDir,
+                  int maxJobs)
+                  throws IOException {
+                return new FakeCompileServer();
+              }
+            },
+            workerParams,
+            16);
+    executor =
+        Executors.newCachedThreadPool(
+            runnable -> {
+              Thread thread = new Thread(runnable);
+              compilingThreads.add(thread);
+              return thread;
+            });
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void compilationsWaitingForAWorkerAreSentTogether() throws Exception {
+    batcher.compile(context, COMMAND, ENVIRONMENT, args("a.c"), env("a"));
+    assertEquals(1, jobs.size());
+    jobs.clear();
+
+    // Keep the only worker busy until both compilations are waiting for it.
+    WorkerProcessPool pool =
+        new WorkerProcessPoolFactory(new FakeProjectFilesystem())
+            .getWorkerProcessPool(context, workerParams);
+    WorkerProcess busyWorker = pool.borrowWorkerProcess();
+
+    Future<WorkerJobResult> first = compileInBackground("a.c", "a");
+    Future<WorkerJobResult> second = compileInBackground("fail.c", "b");
+    waitForCompilingThreads();
+    pool.returnWorkerProcess(busyWorker);
+
+    assertEquals(WorkerJobResult.of(0, Optional.empty(), Optional.of("a.c")), first.get());
+    assertEquals(WorkerJobResult.of(1, Optional.empty(), Optional.of("fail.c")), second.get());
+    assertEquals(1, jobs.size());
+    JsonNode job = jobs.get(0);
+    assertEquals("compiler", job.get("command").get(0).asText());
+    assertEquals("/root", job.get("environment").get("PWD").asText());
+    assertEquals(2, job.get("compilations").size());
+  }
+
+  @Test
+  public void compilationsOfABatchThatBroughtTheWorkerDownAreRetriedOneByOne() throws Exception {
+    batcher.compile(context, COMMAND, ENVIRONMENT, args("a.c"), env("a"));
+    jobs.clear();
+
+    WorkerProcessPool pool =
+        new WorkerProcessPoolFactory(new FakeProjectFilesystem())
+            .getWorkerProcessPool(context, workerParams);
+    WorkerProcess busyWorker = pool.borrowWorkerProcess();
+
+    Future<WorkerJobResult> first = compileInBackground("a.c", "a");
+    Future<WorkerJobResult> second = compileInBackground("crash.c", "b");
+    waitForCompilingThreads();
+    pool.returnWorkerProcess(busyWorker);
+
+    assertEquals(WorkerJobResult.of(0, Optional.empty(), Optional.of("a.c")), first.get());
+    try {
+      second.get();
+      fail("The compilation that crashes the worker should fail.");
+    } catch (ExecutionException e) {
+      assertThat(e.getCause(), instanceOf(IOException.class));
+    }
+    // The batch, then each of its compilations on its own.
+    assertEquals(3, jobs.size());
+    assertEquals(1, jobs.get(1).get("compilations").size());
+    assertEquals(1, jobs.get(2).get("compilations").size());
+  }
+
+  @Test
+  public void compilationsSentByAnotherThreadAreWaitedForEvenIfBorrowingFails() throws Exception {
+    batcher.compile(context, COMMAND, ENVIRONMENT, args("a.c"), env("a"));
+    jobs.clear();
+
+    WorkerProcessPool pool =
+        new WorkerProcessPoolFactory(new FakeProjectFilesystem())
+            .getWorkerProcessPool(context, workerParams);
+    WorkerProcess busyWorker = pool.borrowWorkerProcess();
+
+    Future<WorkerJobResult> first = compileInBackground("slow.c", "a");
+    Future<WorkerJobResult> second = compileInBackground("b.c", "b");
+    waitForCompilingThreads();
+    pool.returnWorkerProcess(busyWorker);
+
+    // One thread sends both compilations, the other one is still waiting for the worker when it
+    // is interrupted.
+    Thread borrowingThread = null;
+    while (borrowingThread == null) {
+      for (Thread thread : compilingThreads) {
+        if (!jobs.isEmpty() && thread.getState() == Thread.State.TIMED_WAITING) {
+          borrowingThread = thread;
+        }
+      }
+      Thread.yield();
+    }
+    borrowingThread.interrupt();
+    slowCompilationsMayFinish.countDown();
+
+    assertEquals(WorkerJobResult.of(0, Optional.empty(), Optional.of("slow.c")), first.get());
+    assertEquals(WorkerJobResult.of(0, Optional.empty(), Optional.of("b.c")), second.get());
+    assertEquals(1, jobs.size());
+  }
+
+  @Test
+  public void batchResultIsReportedForEachCompilationIfTheWorkerDidNotSplitIt() {
+    WorkerJobResult failure =
+        WorkerJobResult.of(3, Optional.of("garbage"), Optional.of("worker crashed"));
+    ImmutableList<WorkerJobResult> results = CxxCompileBatcher.splitResults(failure, 2);
+    assertEquals(2, results.size());
+    for (WorkerJobResult result : results) {
+      assertEquals(3, result.getExitCode());
+      assertEquals(Optional.of("worker crashed\nThe compiler worker failed."), result.getStderr());
+    }
+
+    WorkerJobResult unsplit = WorkerJobResult.of(0, Optional.of("[]"), Optional.empty());
+    assertEquals(1, CxxCompileBatcher.splitResults(unsplit, 1).get(0).getExitCode());
+  }
+
+  private void waitForCompilingThreads() {
+    for (Thread thread : compilingThreads) {
+      while (thread.getState() != Thread.State.WAITING
+          && thread.getState() != Thread.State.TIMED_WAITING) {
+        Thread.yield();
+      }
+    }
+  }
+
+  private Future<WorkerJobResult> compileInBackground(String input, String target) {
+    return executor.submit(
+        () -> batcher.compile(context, COMMAND, ENVIRONMENT, args(input), env(target)));
+  }
+
+  private static ImmutableList<String> args(String input) {
+    return ImmutableList.of("-c", input, "-o", input + ".o");
+  }
+
+  private static ImmutableMap<String, String> env(String target) {
+    return ImmutableMap.of("BUCK_BUILD_TARGET", "//:" + target);
+  }
+
+  /**
+   * Fails compilations of "fail.c", fails jobs compiling "crash.c", holds jobs compiling "slow.c"
+   * until they may finish, and reports each compilation's input as its errors.
+   */
+  private class FakeCompileServer extends WorkerProcess {
+
+    private FakeCompileServer() throws IOException {
+      super(
+          new FakeProcessExecutor(),
+          ProcessExecutorParams.builder().setCommand(ImmutableList.of()).build(),
+          new FakeProjectFilesystem(),
+          Paths.get("tmp").toAbsolutePath().normalize());
+    }
+
+    @Override
+    public boolean isAlive() {
+      return true;
+    }
+
+    @Override
+    public synchronized void ensureLaunchAndHandshake() throws IOException {}
+
+    @Override
+    public WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+      JsonNode job = ObjectMappers.READER.readTree(jobArgs);
+      jobs.add(job);
+      List<ImmutableMap<String, Object>> results = new ArrayList<>();
+      for (JsonNode compilation : job.get("compilations")) {
+        String input = compilation.get("arguments").get(1).asText();
+        if (input.equals("crash.c")) {
+          throw new IOException("The compiler worker crashed.");
+        }
+        if (input.equals("slow.c")) {
+          Uninterruptibles.awaitUninterruptibly(slowCompilationsMayFinish);
+        }
+        results.add(
+            ImmutableMap.of("exit_code", input.equals("fail.c") ? 1 : 0, "stderr", input));
+      }
+      return WorkerJobResult.of(
+          0, Optional.of(ObjectMappers.WRITER.writeValueAsString(results)), Optional.empty());
+    }
+
+    @Override
+    public void close() {}
+  }
+}
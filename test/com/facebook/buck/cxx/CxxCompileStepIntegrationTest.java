@@ -97,6 +97,7 @@ public class CxxCompileStepIntegrationTest {
             scratchDir,
             true,
             compiler,
+            Optional.empty(),
             Optional.empty());
 
     // Execute the archive step and verify it ran successfully.
@@ -167,6 +168,7 @@ public class CxxCompileStepIntegrationTest {
             scratchDir,
             true,
             compiler,
+            Optional.empty(),
             Optional.empty());
 
     // Execute the archive step and verify it ran successfully.
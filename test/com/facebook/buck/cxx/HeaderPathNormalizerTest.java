@@ -16,6 +16,7 @@
 
 package com.facebook.buck.cxx;
 
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 
 import com.facebook.buck.io.ProjectFilesystem;
@@ -134,4 +135,25 @@ public class HeaderPathNormalizerTest {
         normalizer.getSourcePathForAbsolutePath(pathResolver.getAbsolutePath(headerPath)),
         Matchers.equalTo(headerPath));
   }
+
+  @Test
+  public void absolutePathsAreOnlyLookedUpOnce() {
+    SourcePathResolver pathResolver =
+        DefaultSourcePathResolver.from(
+            new SourcePathRuleFinder(
+                new BuildRuleResolver(
+                    TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer())));
+    Path header = filesystem.getPath("foo/bar.h");
+    SourcePath headerDirPath = new PathSourcePath(filesystem, header.getParent());
+    HeaderPathNormalizer normalizer =
+        new HeaderPathNormalizer.Builder(pathResolver).addHeaderDir(headerDirPath).build();
+    Optional<Path> absolutePath =
+        normalizer.getAbsolutePathForUnnormalizedPath(filesystem.resolve(header));
+    assertThat(absolutePath, Matchers.equalTo(Optional.of(filesystem.resolve(header))));
+    assertSame(
+        absolutePath, normalizer.getAbsolutePathForUnnormalizedPath(filesystem.resolve(header)));
+    assertThat(
+        normalizer.getAbsolutePathForUnnormalizedPath(filesystem.resolve("baz/qux.h")),
+        Matchers.equalTo(Optional.empty()));
+  }
 }
@@ -25,6 +25,7 @@ import com.facebook.buck.rules.BuildRuleResolver;
 import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
 import com.facebook.buck.rules.TargetGraph;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSortedSet;
 import org.junit.Assert;
 import org.junit.Test;
@@ -85,6 +86,28 @@ public class BuildTargetsQueueTest {
     Assert.assertEquals(0, queue.dequeueZeroDependencyNodes(zeroDepTargets).size());
   }
 
+  @Test
+  public void testReadyTargetsAreOrderedByCriticalPath() throws NoSuchBuildTargetException {
+    BuildRuleResolver resolver = createDiamondDependencyResolver();
+    BuildTarget target = BuildTargetFactory.newInstance(TARGET_NAME);
+    BuildTargetsQueue queue =
+        BuildTargetsQueue.newQueue(
+            resolver,
+            ImmutableList.of(target),
+            ImmutableMap.of(TARGET_NAME + "_right", 100L, TARGET_NAME + "_left", 10L));
+
+    // Targets without a duration take as long as the average target with one.
+    Assert.assertEquals(55, queue.getCriticalPathMillis(TARGET_NAME));
+    Assert.assertEquals(155, queue.getCriticalPathMillis(TARGET_NAME + "_right"));
+    Assert.assertEquals(65, queue.getCriticalPathMillis(TARGET_NAME + "_left"));
+    Assert.assertEquals(210, queue.getCriticalPathMillis(TARGET_NAME + "_leaf"));
+
+    ImmutableList<String> zeroDepTargets = queue.dequeueZeroDependencyNodes(ImmutableList.of());
+    Assert.assertEquals(
+        ImmutableList.of(TARGET_NAME + "_right", TARGET_NAME + "_left"),
+        queue.dequeueZeroDependencyNodes(zeroDepTargets));
+  }
+
   private static BuildRuleResolver createSimpleResolver() throws NoSuchBuildTargetException {
     BuildRuleResolver resolver =
         new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
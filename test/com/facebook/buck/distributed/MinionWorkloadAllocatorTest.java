@@ -16,11 +16,16 @@
 
 package com.facebook.buck.distributed;
 
+import com.facebook.buck.jvm.java.JavaLibraryBuilder;
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.parser.NoSuchBuildTargetException;
+import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.TargetGraph;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -28,6 +33,7 @@ import org.junit.Test;
 public class MinionWorkloadAllocatorTest {
 
   private static final String MINION_ONE = "Super minion 1";
+  private static final String MINION_TWO = "Super minion 2";
 
   private BuildTargetsQueue queue;
   private BuildTarget target;
@@ -64,4 +70,53 @@ public class MinionWorkloadAllocatorTest {
 
     Assert.assertEquals(0, allocator.getTargetsToBuild(MINION_ONE).size());
   }
+
+  @Test
+  public void testTargetsUnlockedByAMinionAreReservedForIt() throws NoSuchBuildTargetException {
+    // Two independent chains: //foo:top1 -> //foo:mid1 and //foo:top2 -> //foo:mid2.
+    BuildRuleResolver resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    BuildTarget mid1 = BuildTargetFactory.newInstance("//foo:mid1");
+    BuildTarget mid2 = BuildTargetFactory.newInstance("//foo:mid2");
+    BuildTarget top1 = BuildTargetFactory.newInstance("//foo:top1");
+    BuildTarget top2 = BuildTargetFactory.newInstance("//foo:top2");
+    resolver.addAllToIndex(
+        ImmutableSortedSet.<BuildRule>of(
+            JavaLibraryBuilder.createBuilder(mid1).build(resolver),
+            JavaLibraryBuilder.createBuilder(mid2).build(resolver),
+            JavaLibraryBuilder.createBuilder(top1).addDep(mid1).build(resolver),
+            JavaLibraryBuilder.createBuilder(top2).addDep(mid2).build(resolver)));
+    MinionWorkloadAllocator allocator =
+        new MinionWorkloadAllocator(
+            BuildTargetsQueue.newQueue(resolver, ImmutableList.of(top1, top2)), 1);
+
+    Assert.assertEquals(
+        ImmutableList.of(mid1.getFullyQualifiedName()), allocator.getTargetsToBuild(MINION_ONE));
+    Assert.assertEquals(
+        ImmutableList.of(mid2.getFullyQualifiedName()), allocator.getTargetsToBuild(MINION_TWO));
+    allocator.finishedBuildingTargets(MINION_ONE);
+    allocator.finishedBuildingTargets(MINION_TWO);
+    Assert.assertEquals(2, allocator.getNumTargetsNotAssignedYet());
+    Assert.assertEquals(0, allocator.getNumBusyMinions());
+
+    // Each minion continues the chain it started, even though both targets are equally critical.
+    Assert.assertEquals(
+        ImmutableList.of(top2.getFullyQualifiedName()), allocator.getTargetsToBuild(MINION_TWO));
+    Assert.assertEquals(
+        ImmutableList.of(top1.getFullyQualifiedName()), allocator.getTargetsToBuild(MINION_ONE));
+    allocator.finishedBuildingTargets(MINION_ONE);
+    allocator.finishedBuildingTargets(MINION_TWO);
+    Assert.assertTrue(allocator.isBuildFinished());
+  }
+
+  @Test
+  public void testIdleMinionsTakeTargetsReservedForOthers() {
+    MinionWorkloadAllocator allocator = new MinionWorkloadAllocator(queue, 1);
+    allocator.getTargetsToBuild(MINION_ONE);
+    allocator.finishedBuildingTargets(MINION_ONE);
+
+    // Both _left and _right are reserved for MINION_ONE, but nothing else is left to build.
+    Assert.assertEquals(1, allocator.getTargetsToBuild(MINION_TWO).size());
+    Assert.assertEquals(1, allocator.getTargetsToBuild(MINION_ONE).size());
+  }
 }
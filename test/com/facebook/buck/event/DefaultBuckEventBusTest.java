@@ -24,8 +24,12 @@ import static org.junit.Assert.fail;
 
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.timing.SettableFakeClock;
+import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.Subscribe;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 
@@ -115,6 +119,93 @@ public class DefaultBuckEventBusTest {
     assertEquals(event.getNanoTime(), 64738);
   }
 
+  @Test
+  public void eachListenerGetsEventsInPostingOrder() throws IOException {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(),
+            true,
+            BuckEventBusForTests.BUILD_ID_FOR_TEST,
+            timeoutMillis,
+            /* listenerQueueCapacity */ 4,
+            /* coalesceEventsForSlowListeners */ false);
+    ProgressListener first = new ProgressListener();
+    ProgressListener second = new ProgressListener();
+    eb.register(first);
+    eb.register(second);
+    List<Double> expected = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      eb.post(ProgressEvent.buildProgressUpdated(i));
+      expected.add((double) i);
+    }
+    eb.close();
+    assertEquals(expected, first.getProgressValues());
+    assertEquals(expected, second.getProgressValues());
+  }
+
+  @Test
+  public void eventsPostedWithoutConfiguringAreDeliveredBeforePostingReturns() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    List<String> deliveries = new ArrayList<>();
+    eb.register(new RecordingListener("first", deliveries));
+    eb.register(new RecordingListener("second", deliveries));
+    for (int i = 0; i < 3; i++) {
+      ProgressEvent event = ProgressEvent.buildProgressUpdated(i);
+      eb.timestamp(event);
+      eb.postWithoutConfiguring(event);
+    }
+    assertEquals(
+        ImmutableList.of(
+            "first 0.0", "second 0.0", "first 1.0", "second 1.0", "first 2.0", "second 2.0"),
+        deliveries);
+    eb.close();
+  }
+
+  @Test
+  public void slowListenerDoesNotHoldBackOtherListeners() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(), true, BuckEventBusForTests.BUILD_ID_FOR_TEST, timeoutMillis);
+    BlockingListener slowListener = new BlockingListener();
+    ProgressListener fastListener = new ProgressListener();
+    eb.register(slowListener);
+    eb.register(fastListener);
+    eb.post(ProgressEvent.buildProgressUpdated(0));
+    eb.post(ProgressEvent.buildProgressUpdated(1));
+    slowListener.started.await();
+    while (fastListener.getProgressValues().size() < 2) {
+      Thread.sleep(1);
+    }
+    slowListener.release.countDown();
+    eb.close();
+    assertEquals(ImmutableList.of(0.0, 1.0), slowListener.getProgressValues());
+  }
+
+  @Test
+  public void slowListenerOnlyGetsLatestCoalescableEvents() throws Exception {
+    DefaultBuckEventBus eb =
+        new DefaultBuckEventBus(
+            new DefaultClock(),
+            true,
+            BuckEventBusForTests.BUILD_ID_FOR_TEST,
+            timeoutMillis,
+            /* listenerQueueCapacity */ 2,
+            /* coalesceEventsForSlowListeners */ true);
+    BlockingListener listener = new BlockingListener();
+    eb.register(listener);
+    eb.post(ProgressEvent.buildProgressUpdated(0));
+    listener.started.await();
+    for (int i = 1; i < 10; i++) {
+      eb.post(ProgressEvent.buildProgressUpdated(i));
+    }
+    listener.release.countDown();
+    eb.close();
+    assertEquals(ImmutableList.of(0.0, 1.0, 2.0, 9.0), listener.getProgressValues());
+    assertEquals(6, eb.getListenerQueues().get(0).getCoalescedEvents());
+  }
+
   private static class SleepEvent extends AbstractBuckEvent {
     public final long milliseconds;
 
@@ -141,6 +232,50 @@ public class DefaultBuckEventBusTest {
     }
   }
 
+  private static class ProgressListener {
+    private final List<Double> progressValues = new ArrayList<>();
+
+    @Subscribe
+    public void onProgress(ProgressEvent event) {
+      synchronized (progressValues) {
+        progressValues.add(event.getProgressValue());
+      }
+    }
+
+    public List<Double> getProgressValues() {
+      synchronized (progressValues) {
+        return ImmutableList.copyOf(progressValues);
+      }
+    }
+  }
+
+  private static class RecordingListener {
+    private final String name;
+    private final List<String> deliveries;
+
+    private RecordingListener(String name, List<String> deliveries) {
+      this.name = name;
+      this.deliveries = deliveries;
+    }
+
+    @Subscribe
+    public void onProgress(ProgressEvent event) {
+      // Deliveries happen on the posting thread, so the list needs no synchronization.
+      deliveries.add(name + " " + event.getProgressValue());
+    }
+  }
+
+  private static class BlockingListener extends ProgressListener {
+    private final CountDownLatch started = new CountDownLatch(1);
+    private final CountDownLatch release = new CountDownLatch(1);
+
+    @Subscribe
+    public void block(ProgressEvent event) throws InterruptedException {
+      started.countDown();
+      release.await();
+    }
+  }
+
   private static class TestEvent extends AbstractBuckEvent {
 
     public TestEvent() {
@@ -127,7 +127,8 @@ public class EventSerializationTest {
         "{%s,"
             + "\"buildTargets\":[{\"baseName\":\"//base\","
             + "\"shortName\":\"short\",\"flavor\":\"flv\"}],\"type\":\"ParseFinished\","
-            + "\"eventKey\":{\"value\":4242}, \"processedBytes\": 10}",
+            + "\"eventKey\":{\"value\":4242}, \"processedBytes\": 10,"
+            + "\"persistentCacheHits\":0,\"persistentCacheMisses\":0}",
         message);
   }
 
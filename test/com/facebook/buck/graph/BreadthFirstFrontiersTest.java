@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.graph.BreadthFirstFrontiers.Direction;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import java.util.BitSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Test;
+
+public class BreadthFirstFrontiersTest {
+
+  @Test
+  public void nextFollowsFrontierAndEdgeOrderWithoutDuplicates() {
+    ImmutableListMultimap<String, String> edges =
+        ImmutableListMultimap.of("a", "c", "a", "d", "b", "d", "b", "e");
+    CompactDirectedAcyclicGraph<String> compactGraph =
+        CompactDirectedAcyclicGraph.copyOf(
+            ImmutableList.of("a", "b", "c", "d", "e"), node -> edges.get(node).iterator());
+
+    assertArrayEquals(
+        new int[] {2, 3, 4},
+        BreadthFirstFrontiers.next(compactGraph, new int[] {0, 1}, Direction.OUTGOING, id -> true));
+    assertArrayEquals(
+        new int[] {4, 2},
+        BreadthFirstFrontiers.next(
+            compactGraph, new int[] {1, 0}, Direction.OUTGOING, id -> id != 3));
+    assertArrayEquals(
+        new int[] {0, 1},
+        BreadthFirstFrontiers.next(compactGraph, new int[] {3}, Direction.INCOMING, id -> true));
+  }
+
+  @Test
+  public void reachableIncludesRoots() {
+    MutableDirectedGraph<Integer> graph = new MutableDirectedGraph<>();
+    graph.addEdge(0, 1);
+    graph.addEdge(1, 2);
+    graph.addNode(3);
+    CompactDirectedAcyclicGraph<Integer> compactGraph =
+        CompactDirectedAcyclicGraph.copyOf(
+            ImmutableList.of(0, 1, 2, 3), node -> graph.getOutgoingNodesFor(node).iterator());
+
+    BitSet expected = new BitSet();
+    expected.set(1, 3);
+    assertEquals(
+        expected, BreadthFirstFrontiers.reachable(compactGraph, new int[] {1}, Direction.OUTGOING));
+    expected.set(0);
+    assertEquals(
+        expected, BreadthFirstFrontiers.reachable(compactGraph, new int[] {2}, Direction.INCOMING));
+  }
+
+  @Test
+  public void largeFrontiersExpandLikeSmallOnes() {
+    int width = 20000;
+    MutableDirectedGraph<Integer> graph = new MutableDirectedGraph<>();
+    for (int node = 0; node < width; node++) {
+      // Every node of the first level depends on two of the second level, shared with others.
+      graph.addEdge(node, width + (node * 7) % width);
+      graph.addEdge(node, width + (node * 13) % width);
+    }
+    CompactDirectedAcyclicGraph<Integer> compactGraph =
+        CompactDirectedAcyclicGraph.copyOf(
+            IntStream.range(0, 2 * width).boxed().collect(Collectors.toList()),
+            node -> graph.getOutgoingNodesFor(node).iterator());
+
+    int[] frontier = IntStream.range(0, width).map(i -> width - 1 - i).toArray();
+    Set<Integer> expected = new LinkedHashSet<>();
+    for (int id : frontier) {
+      for (int edge = 0; edge < compactGraph.getOutgoingEdgeCount(id); edge++) {
+        int neighbor = compactGraph.getOutgoingNodeId(id, edge);
+        if (neighbor % 3 != 0) {
+          expected.add(neighbor);
+        }
+      }
+    }
+
+    assertArrayEquals(
+        expected.stream().mapToInt(Integer::intValue).toArray(),
+        BreadthFirstFrontiers.next(
+            compactGraph, frontier, Direction.OUTGOING, id -> id % 3 != 0));
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CompactDirectedAcyclicGraphTest {
+
+  private MutableDirectedGraph<String> mutableGraph;
+  private CompactDirectedAcyclicGraph<String> graph;
+
+  @Before
+  public void setUp() {
+    // Creates the following graph:
+    //     A   E
+    //    / \ /
+    //   B   C
+    //    \ /
+    //     D
+    mutableGraph = new MutableDirectedGraph<>();
+    mutableGraph.addEdge("A", "B");
+    mutableGraph.addEdge("A", "C");
+    mutableGraph.addEdge("E", "C");
+    mutableGraph.addEdge("B", "D");
+    mutableGraph.addEdge("C", "D");
+    graph = CompactDirectedAcyclicGraph.copyOf(mutableGraph);
+  }
+
+  @Test
+  public void copyKeepsNodesAndEdges() {
+    assertEquals(5, graph.getNodeCount());
+    assertEquals(5, graph.getEdgeCount());
+    assertEquals(
+        ImmutableSet.copyOf(mutableGraph.getNodes()), ImmutableSet.copyOf(graph.getNodes()));
+    for (String node : mutableGraph.getNodes()) {
+      assertEquals(node, graph.getNode(graph.getNodeId(node)));
+      assertEquals(
+          ImmutableList.copyOf(mutableGraph.getOutgoingNodesFor(node)),
+          ImmutableList.copyOf(graph.getOutgoingNodesFor(node)));
+      assertEquals(
+          ImmutableSet.copyOf(mutableGraph.getIncomingNodesFor(node)),
+          ImmutableSet.copyOf(graph.getIncomingNodesFor(node)));
+    }
+    assertEquals(
+        ImmutableSet.of("A", "E"), ImmutableSet.copyOf(graph.getNodesWithNoIncomingEdges()));
+    assertEquals(ImmutableSet.of("D"), ImmutableSet.copyOf(graph.getNodesWithNoOutgoingEdges()));
+    assertEquals(-1, graph.getNodeId("F"));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void cyclesAreRejected() {
+    mutableGraph.addEdge("D", "A");
+    CompactDirectedAcyclicGraph.copyOf(mutableGraph);
+  }
+
+  @Test
+  public void topologicalSortMatchesGenericSort() {
+    assertEquals(ImmutableList.of("D", "B", "C", "A", "E"), TopologicalSort.sort(graph));
+    assertEquals(TopologicalSort.sort(mutableGraph), TopologicalSort.sort(graph));
+  }
+
+  @Test
+  public void postOrderTraversalMatchesGenericTraversal()
+      throws AcyclicDepthFirstPostOrderTraversal.CycleException {
+    ImmutableList<String> roots = ImmutableList.of("E", "A");
+    GraphTraversable<String> genericTraversable =
+        node -> mutableGraph.getOutgoingNodesFor(node).iterator();
+    assertEquals(
+        ImmutableList.copyOf(
+            new AcyclicDepthFirstPostOrderTraversal<>(genericTraversable).traverse(roots)),
+        ImmutableList.copyOf(new AcyclicDepthFirstPostOrderTraversal<>(graph).traverse(roots)));
+  }
+
+  @Test
+  public void bottomUpTraversalVisitsDepsFirst() {
+    List<String> visited = new ArrayList<>();
+    new AbstractBottomUpTraversal<String, RuntimeException>(graph) {
+      @Override
+      public void visit(String node) {
+        for (String dep : graph.getOutgoingNodesFor(node)) {
+          assertEquals(true, visited.contains(dep));
+        }
+        visited.add(node);
+      }
+    }.traverse();
+    assertEquals(5, visited.size());
+  }
+
+  @Test
+  public void breadthFirstTraversalMatchesGenericTraversal() {
+    List<String> genericOrder = new ArrayList<>();
+    AbstractBreadthFirstTraversal.<String>traverse(
+        ImmutableList.of("A"),
+        node -> {
+          genericOrder.add(node);
+          return graph.getOutgoingNodesFor(node);
+        });
+
+    List<String> compactOrder = new ArrayList<>();
+    AbstractBreadthFirstTraversal.traverse(graph, ImmutableList.of("A"), compactOrder::add);
+
+    assertEquals(4, compactOrder.size());
+    assertEquals(genericOrder, compactOrder);
+  }
+}
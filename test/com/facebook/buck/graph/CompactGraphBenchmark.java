@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares {@link CompactDirectedAcyclicGraph} with {@link DirectedAcyclicGraph} on a synthetic
+ * build-like DAG. Run with caliper's allocation instrument to compare the footprint of building
+ * each representation, and with the runtime instrument for traversal throughput.
+ */
+public class CompactGraphBenchmark {
+  @Param({"10000", "100000", "500000"})
+  private int nodeCount = 1000;
+
+  /** Each node depends on up to this many nodes created before it, keeping the graph acyclic. */
+  @Param({"8"})
+  private int maxDepsPerNode = 8;
+
+  private MutableDirectedGraph<Integer> mutableGraph;
+  private DirectedAcyclicGraph<Integer> graph;
+  private CompactDirectedAcyclicGraph<Integer> compactGraph;
+  private ImmutableList<Integer> roots;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    Random random = new Random(123);
+    mutableGraph = new MutableDirectedGraph<>();
+    for (int node = 0; node < nodeCount; node++) {
+      mutableGraph.addNode(node);
+      // Mostly depend on nearby nodes, like targets in the same package tend to do.
+      int deps = node == 0 ? 0 : random.nextInt(Math.min(node, maxDepsPerNode) + 1);
+      for (int i = 0; i < deps; i++) {
+        int window = Math.min(node, 1000);
+        mutableGraph.addEdge(node, node - 1 - random.nextInt(window));
+      }
+    }
+    graph = new DirectedAcyclicGraph<>(mutableGraph);
+    compactGraph = CompactDirectedAcyclicGraph.copyOf(mutableGraph);
+    roots = ImmutableList.copyOf(compactGraph.getNodesWithNoIncomingEdges());
+  }
+
+  @Test
+  public void topologicalSortsAgree() {
+    assertEquals(TopologicalSort.sort(graph), TopologicalSort.sort(compactGraph));
+  }
+
+  @Test
+  public void postOrderTraversalsAgree() throws Exception {
+    assertEquals(
+        ImmutableList.copyOf(traverse(node -> graph.getOutgoingNodesFor(node).iterator())),
+        ImmutableList.copyOf(traverse(compactGraph)));
+  }
+
+  @Benchmark
+  public int buildDirectedAcyclicGraph() {
+    return new DirectedAcyclicGraph<>(mutableGraph).getNodes().size();
+  }
+
+  @Benchmark
+  public int buildCompactGraph() {
+    return CompactDirectedAcyclicGraph.copyOf(mutableGraph).getNodeCount();
+  }
+
+  @Benchmark
+  public int topologicalSortDirectedAcyclicGraph() {
+    return TopologicalSort.sort(graph).size();
+  }
+
+  @Benchmark
+  public int topologicalSortCompactGraph() {
+    return TopologicalSort.sort(compactGraph).size();
+  }
+
+  @Benchmark
+  public int postOrderTraversalDirectedAcyclicGraph() throws Exception {
+    return Iterables.size(traverse(node -> graph.getOutgoingNodesFor(node).iterator()));
+  }
+
+  @Benchmark
+  public int postOrderTraversalCompactGraph() throws Exception {
+    return Iterables.size(traverse(compactGraph));
+  }
+
+  private Iterable<Integer> traverse(GraphTraversable<Integer> traversable)
+      throws AcyclicDepthFirstPostOrderTraversal.CycleException {
+    return new AcyclicDepthFirstPostOrderTraversal<>(traversable).traverse(roots);
+  }
+}
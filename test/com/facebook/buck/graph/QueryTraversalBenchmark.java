@@ -0,0 +1,196 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.graph.BreadthFirstFrontiers.Direction;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares the set based traversals behind {@code buck query}'s {@code deps}, {@code rdeps} and
+ * {@code allpaths} with the same traversals over {@link BreadthFirstFrontiers}, on a synthetic
+ * build-like DAG.
+ */
+public class QueryTraversalBenchmark {
+  @Param({"10000", "100000"})
+  private int nodeCount = 1000;
+
+  @Param({"DEPS", "RDEPS", "ALLPATHS"})
+  private String query = "ALLPATHS";
+
+  /** Each node depends on up to this many nodes created before it, keeping the graph acyclic. */
+  private static final int MAX_DEPS_PER_NODE = 8;
+
+  /** Number of nodes at the top and at the bottom of the graph the queries start from. */
+  private static final int ENDPOINT_COUNT = 10;
+
+  private MutableDirectedGraph<Integer> graph;
+  private CompactDirectedAcyclicGraph<Integer> compactGraph;
+  private List<Integer> top;
+  private List<Integer> bottom;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    Random random = new Random(123);
+    graph = new MutableDirectedGraph<>();
+    for (int node = 0; node < nodeCount; node++) {
+      graph.addNode(node);
+      int deps = node == 0 ? 0 : random.nextInt(Math.min(node, MAX_DEPS_PER_NODE) + 1);
+      for (int i = 0; i < deps; i++) {
+        graph.addEdge(node, node - 1 - random.nextInt(Math.min(node, 1000)));
+      }
+    }
+    compactGraph =
+        CompactDirectedAcyclicGraph.copyOf(
+            IntStream.range(0, nodeCount).boxed().collect(Collectors.toList()),
+            node -> graph.getOutgoingNodesFor(node).iterator());
+    top =
+        IntStream.range(nodeCount - ENDPOINT_COUNT, nodeCount)
+            .boxed()
+            .collect(Collectors.toList());
+    bottom = IntStream.range(0, ENDPOINT_COUNT).boxed().collect(Collectors.toList());
+  }
+
+  @Test
+  public void traversalsAgree() {
+    assertEquals(sets(), frontiers());
+  }
+
+  @Benchmark
+  public int sets() {
+    switch (query) {
+      case "DEPS":
+        return reachableWithSets(top).size();
+      case "RDEPS":
+        Set<Integer> universe = reachableWithSets(top);
+        Set<Integer> visited = new LinkedHashSet<>();
+        Collection<Integer> current = bottom;
+        while (!current.isEmpty()) {
+          List<Integer> next = new ArrayList<>();
+          for (Integer node : current) {
+            if (universe.contains(node) && visited.add(node)) {
+              graph.getIncomingNodesFor(node).forEach(next::add);
+            }
+          }
+          current = next;
+        }
+        return visited.size();
+      case "ALLPATHS":
+        Set<Integer> reachable = reachableWithSets(top);
+        Set<Integer> result = new LinkedHashSet<>(bottom);
+        result.retainAll(reachable);
+        Collection<Integer> worklist = new ArrayList<>(result);
+        while (!worklist.isEmpty()) {
+          List<Integer> next = new ArrayList<>();
+          for (Integer node : worklist) {
+            for (Integer rdep : graph.getIncomingNodesFor(node)) {
+              if (reachable.contains(rdep) && result.add(rdep)) {
+                next.add(rdep);
+              }
+            }
+          }
+          worklist = next;
+        }
+        return result.size();
+      default:
+        throw new IllegalArgumentException(query);
+    }
+  }
+
+  @Benchmark
+  public int frontiers() {
+    int[] topIds = top.stream().mapToInt(compactGraph::getNodeId).toArray();
+    int[] bottomIds = bottom.stream().mapToInt(compactGraph::getNodeId).toArray();
+    switch (query) {
+      case "DEPS":
+        return BreadthFirstFrontiers.reachable(compactGraph, topIds, Direction.OUTGOING)
+            .cardinality();
+      case "RDEPS":
+        BitSet universe =
+            BreadthFirstFrontiers.reachable(compactGraph, topIds, Direction.OUTGOING);
+        BitSet visited = new BitSet(compactGraph.getNodeCount());
+        int[] current = IntStream.of(bottomIds).filter(universe::get).toArray();
+        while (current.length > 0) {
+          for (int id : current) {
+            visited.set(id);
+          }
+          current =
+              BreadthFirstFrontiers.next(
+                  compactGraph,
+                  current,
+                  Direction.INCOMING,
+                  id -> universe.get(id) && !visited.get(id));
+        }
+        return visited.cardinality();
+      case "ALLPATHS":
+        BitSet reachable =
+            BreadthFirstFrontiers.reachable(compactGraph, topIds, Direction.OUTGOING);
+        BitSet result = new BitSet(compactGraph.getNodeCount());
+        int[] worklist = IntStream.of(bottomIds).filter(reachable::get).toArray();
+        while (worklist.length > 0) {
+          for (int id : worklist) {
+            result.set(id);
+          }
+          worklist =
+              BreadthFirstFrontiers.next(
+                  compactGraph,
+                  worklist,
+                  Direction.INCOMING,
+                  id -> reachable.get(id) && !result.get(id));
+        }
+        return result.cardinality();
+      default:
+        throw new IllegalArgumentException(query);
+    }
+  }
+
+  private Set<Integer> reachableWithSets(Collection<Integer> roots) {
+    Set<Integer> visited = new LinkedHashSet<>(roots);
+    Collection<Integer> current = roots;
+    while (!current.isEmpty()) {
+      List<Integer> next = new ArrayList<>();
+      for (Integer node : current) {
+        for (Integer dep : graph.getOutgoingNodesFor(node)) {
+          if (visited.add(dep)) {
+            next.add(dep);
+          }
+        }
+      }
+      current = next;
+    }
+    return visited;
+  }
+}
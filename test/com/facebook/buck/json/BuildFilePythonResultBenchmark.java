@@ -0,0 +1,99 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.bser.BserSerializer;
+import com.facebook.buck.util.ObjectMappers;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures how fast the parser decodes what buck.py writes for a synthetic build file with many
+ * rules, in each of the protocols that they can talk.
+ */
+public class BuildFilePythonResultBenchmark {
+  @Param({"10000"})
+  private int ruleCount = 1000;
+
+  @Param({"JSON", "BSER"})
+  private String protocol = "BSER";
+
+  private byte[] encodedResult;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    List<Map<String, Object>> rules = new ArrayList<>(ruleCount);
+    for (int i = 0; i < ruleCount; i++) {
+      rules.add(
+          ImmutableSortedMap.<String, Object>naturalOrder()
+              .put("buck.base_path", "java/com/example/pkg")
+              .put("buck.type", "java_library")
+              .put("name", "lib" + i)
+              .put("srcs", ImmutableList.of("Lib" + i + ".java", "Lib" + i + "Helper.java"))
+              .put("deps", ImmutableList.of(":lib" + (i + 1), "//third-party/java/guava:guava"))
+              .put("visibility", ImmutableList.of("PUBLIC"))
+              .put("source", "8")
+              .put("target", "8")
+              .put("exported_deps", ImmutableList.of())
+              .build());
+    }
+    Map<String, Object> result = ImmutableMap.of("values", rules);
+    if (protocol.equals("BSER")) {
+      ByteArrayOutputStream output = new ByteArrayOutputStream();
+      new BserSerializer().serializeToStream(result, output);
+      encodedResult = output.toByteArray();
+    } else {
+      encodedResult = ObjectMappers.WRITER.writeValueAsBytes(result);
+    }
+  }
+
+  @Test
+  public void decodesAllRules() throws Exception {
+    assertEquals(ruleCount, decode());
+  }
+
+  @Benchmark
+  public int decode() throws Exception {
+    BuildFilePythonResult result;
+    if (protocol.equals("BSER")) {
+      result =
+          new BuildFilePythonResultBserDeserializer()
+              .deserialize(new ByteArrayInputStream(encodedResult));
+    } else {
+      result = ObjectMappers.createParser(encodedResult).readValueAs(BuildFilePythonResult.class);
+    }
+    return result.getValues().size();
+  }
+}
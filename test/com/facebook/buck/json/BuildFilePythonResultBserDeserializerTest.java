@@ -0,0 +1,121 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.bser.BserSerializer;
+import com.facebook.buck.util.ObjectMappers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import org.junit.Test;
+
+/** Tests for {@link BuildFilePythonResultBserDeserializer}. */
+public final class BuildFilePythonResultBserDeserializerTest {
+  @Test
+  public void emptyParse() throws IOException {
+    assertThat(
+        deserialize(ImmutableMap.of()),
+        is(BuildFilePythonResult.of(ImmutableList.of(), ImmutableList.of(), Optional.empty())));
+  }
+
+  @Test
+  public void producesTheSameValuesAsTheJsonDeserializer() throws IOException {
+    Map<String, Object> rule = new LinkedHashMap<>();
+    rule.put("name", "foo");
+    rule.put("buck.type", "java_library");
+    rule.put("buck.foo", null);
+    rule.put("srcs", ImmutableList.of("Foo.java", "Bar.java"));
+    rule.put("timeout", 300000);
+    rule.put("ratio", 0.5);
+    rule.put("exported", true);
+    rule.put("options", ImmutableMap.of("z", ImmutableList.of(1, 2), "a", ImmutableMap.of()));
+    Map<String, Object> result =
+        ImmutableMap.of(
+            "values",
+            ImmutableList.of(rule, ImmutableMap.of("__includes", ImmutableList.of("/BUCK"))),
+            "diagnostics",
+            ImmutableList.of(ImmutableMap.of("message", "Oops", "level", "warning")),
+            "profile",
+            "this is a profile");
+
+    assertThat(
+        deserialize(result),
+        is(
+            ObjectMappers.readValue(
+                ObjectMappers.WRITER.writeValueAsString(result), BuildFilePythonResult.class)));
+  }
+
+  @Test
+  public void sortsKeysLikeTheJsonOutput() throws IOException {
+    BuildFilePythonResult result =
+        deserialize(
+            ImmutableMap.of("values", ImmutableList.of(ImmutableMap.of("srcs", 1, "name", 2))));
+    assertThat(result.getValues().get(0).keySet(), contains("name", "srcs"));
+  }
+
+  @Test
+  public void internsStrings() throws IOException {
+    BuildFilePythonResult result =
+        deserialize(
+            ImmutableMap.of(
+                "values",
+                ImmutableList.of(
+                    ImmutableMap.of("name", new String("foo")),
+                    ImmutableMap.of("name", new String("foo")))));
+    assertThat(
+        result.getValues().get(0).get("name"),
+        is(sameInstance(result.getValues().get(1).get("name"))));
+  }
+
+  @Test
+  public void readsConsecutiveResults() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    BserSerializer serializer = new BserSerializer();
+    serializer.serializeToStream(ImmutableMap.of("profile", "first"), output);
+    serializer.serializeToStream(ImmutableMap.of("profile", "second"), output);
+
+    BuildFilePythonResultBserDeserializer deserializer =
+        new BuildFilePythonResultBserDeserializer();
+    InputStream input = new ByteArrayInputStream(output.toByteArray());
+    assertThat(deserializer.deserialize(input).getProfile(), is(Optional.of("first")));
+    assertThat(deserializer.deserialize(input).getProfile(), is(Optional.of("second")));
+  }
+
+  @Test(expected = IOException.class)
+  public void unexpectedFieldIsAnError() throws IOException {
+    deserialize(ImmutableMap.of("rules", ImmutableList.of()));
+  }
+
+  private static BuildFilePythonResult deserialize(Map<String, Object> result)
+      throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new BserSerializer().serializeToStream(result, output);
+    return new BuildFilePythonResultBserDeserializer()
+        .deserialize(new ByteArrayInputStream(output.toByteArray()));
+  }
+}
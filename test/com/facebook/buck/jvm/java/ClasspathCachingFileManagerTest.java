@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.jvm.java;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Collectors;
+import java.util.stream.StreamSupport;
+import java.util.zip.ZipEntry;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import javax.tools.ToolProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class ClasspathCachingFileManagerTest {
+
+  @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+  private JavaCompiler compiler;
+  private ClasspathJarCache cache;
+  private Path libraryJar;
+
+  @Before
+  public void setUp() throws Exception {
+    compiler = ToolProvider.getSystemJavaCompiler();
+    cache = new ClasspathJarCache(Long.MAX_VALUE);
+    libraryJar = temp.getRoot().toPath().resolve("library.jar");
+    Path classes = temp.newFolder("library").toPath();
+    compile(
+        classes,
+        ImmutableList.of(),
+        "package com.example.library; public class Library { public static int answer() {"
+            + " return 42; } }");
+    writeJar(libraryJar, classes, "com/example/library/Library.class");
+  }
+
+  @Test
+  public void compilesAgainstCachedClasspathJars() throws Exception {
+    Path output = temp.newFolder("first").toPath();
+    assertThat(compile(output, ImmutableList.of(libraryJar), usingLibrary()), empty());
+    assertTrue(Files.exists(output.resolve("com/example/app/App.class")));
+
+    // A second compilation of the same classpath reuses the jar.
+    Path secondOutput = temp.newFolder("second").toPath();
+    assertThat(compile(secondOutput, ImmutableList.of(libraryJar), usingLibrary()), empty());
+    assertEquals(1, cache.getJarCount());
+  }
+
+  @Test
+  public void listsClassesWithJarUris() throws Exception {
+    try (ClasspathCachingFileManager fileManager = newFileManager()) {
+      fileManager.setLocation(StandardLocation.CLASS_PATH, ImmutableList.of(libraryJar.toFile()));
+      List<JavaFileObject> files =
+          ImmutableList.copyOf(
+              fileManager.list(
+                  StandardLocation.CLASS_PATH,
+                  "com.example.library",
+                  ImmutableSet.of(JavaFileObject.Kind.CLASS),
+                  false));
+
+      JavaFileObject file = Iterables.getOnlyElement(files);
+      assertEquals(
+          "com.example.library.Library",
+          fileManager.inferBinaryName(StandardLocation.CLASS_PATH, file));
+      assertEquals(
+          "jar:" + libraryJar.toUri() + "!/com/example/library/Library.class",
+          file.toUri().toString());
+      assertThat(
+          StreamSupport.stream(
+                  fileManager
+                      .list(
+                          StandardLocation.CLASS_PATH,
+                          "com",
+                          ImmutableSet.of(JavaFileObject.Kind.CLASS),
+                          true)
+                      .spliterator(),
+                  false)
+              .map(JavaFileObject::getName)
+              .collect(Collectors.toList()),
+          contains(libraryJar + "(com/example/library/Library.class)"));
+    }
+  }
+
+  @Test
+  public void jarsAreKeyedByContents() throws Exception {
+    assertEquals(
+        ClasspathJarCache.hashCentralDirectory(libraryJar),
+        ClasspathJarCache.hashCentralDirectory(libraryJar));
+
+    Path otherJar = temp.getRoot().toPath().resolve("other.jar");
+    writeJar(otherJar, temp.getRoot().toPath().resolve("library"), "com/example/library/");
+    assertNotEquals(
+        ClasspathJarCache.hashCentralDirectory(libraryJar),
+        ClasspathJarCache.hashCentralDirectory(otherJar));
+  }
+
+  @Test
+  public void evictedJarsStayUsableUntilReleased() throws Exception {
+    ClasspathJarCache tinyCache = new ClasspathJarCache(1);
+    ClasspathJarCache.CachedJar jar = tinyCache.acquire(libraryJar);
+    assertEquals(0, tinyCache.getJarCount());
+
+    List<JavaFileObject> files = new ArrayList<>();
+    jar.list("com.example.library", ImmutableSet.of(JavaFileObject.Kind.CLASS), false, files);
+    try (InputStream in = Iterables.getOnlyElement(files).openInputStream()) {
+      assertTrue(in.read() >= 0);
+    }
+    jar.release();
+  }
+
+  @Test
+  public void jarsAreOnlyOpenWhileCompilationsUseThem() throws Exception {
+    ClasspathJarCache.CachedJar jar = cache.acquire(libraryJar);
+    assertTrue(jar.isOpen());
+    jar.release();
+    assertFalse(jar.isOpen());
+    assertEquals(1, cache.getJarCount());
+
+    // The listing is kept, and the jar is opened again for the next compilation.
+    assertSame(jar, cache.acquire(libraryJar));
+    List<JavaFileObject> files = new ArrayList<>();
+    jar.list("com.example.library", ImmutableSet.of(JavaFileObject.Kind.CLASS), false, files);
+    try (InputStream in = Iterables.getOnlyElement(files).openInputStream()) {
+      assertTrue(in.read() >= 0);
+    }
+    jar.release();
+    assertFalse(jar.isOpen());
+  }
+
+  private ClasspathCachingFileManager newFileManager() {
+    return new ClasspathCachingFileManager(
+        compiler.getStandardFileManager(null, null, StandardCharsets.UTF_8), cache);
+  }
+
+  private static String usingLibrary() {
+    return "package com.example.app; public class App { int answer ="
+        + " com.example.library.Library.answer(); }";
+  }
+
+  private List<String> compile(Path output, List<Path> classpath, String source)
+      throws IOException {
+    String className = source.replaceAll("(?s).*public class (\\w+).*", "$1");
+    File sourceFile = temp.newFolder().toPath().resolve(className + ".java").toFile();
+    Files.write(sourceFile.toPath(), source.getBytes(StandardCharsets.UTF_8));
+
+    DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+    try (ClasspathCachingFileManager fileManager = newFileManager()) {
+      ImmutableList.Builder<String> options = ImmutableList.builder();
+      options.add("-d", output.toString());
+      if (!classpath.isEmpty()) {
+        options.add(
+            "-classpath",
+            classpath.stream().map(Path::toString).collect(Collectors.joining(File.pathSeparator)));
+      }
+      compiler
+          .getTask(
+              null,
+              fileManager,
+              diagnostics,
+              options.build(),
+              null,
+              fileManager.getJavaFileObjects(sourceFile))
+          .call();
+    }
+    return diagnostics
+        .getDiagnostics()
+        .stream()
+        .map(Object::toString)
+        .collect(Collectors.toList());
+  }
+
+  private static void writeJar(Path jar, Path root, String... entries) throws IOException {
+    try (JarOutputStream out = new JarOutputStream(Files.newOutputStream(jar))) {
+      for (String entry : entries) {
+        out.putNextEntry(new ZipEntry(entry));
+        if (!entry.endsWith("/")) {
+          Files.copy(root.resolve(entry), (OutputStream) out);
+        }
+        out.closeEntry();
+      }
+    }
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Test;
+
+public class BuildFileGlobsTest {
+
+  private static final Path ROOT = Paths.get("/repo").toAbsolutePath();
+
+  @Test
+  public void starDoesNotCrossDirectories() {
+    BuildFileGlobs globs = globs("pkg", ImmutableList.of("*.java"), ImmutableList.of(), false);
+    assertTrue(globs.matches(ROOT.resolve("pkg/Foo.java")));
+    assertFalse(globs.matches(ROOT.resolve("pkg/sub/Foo.java")));
+    assertFalse(globs.matches(ROOT.resolve("pkg/Foo.txt")));
+    assertFalse(globs.matches(ROOT.resolve("other/Foo.java")));
+  }
+
+  @Test
+  public void doubleStarMatchesAnyNumberOfDirectories() {
+    BuildFileGlobs globs =
+        globs("pkg", ImmutableList.of("src/**/*.java"), ImmutableList.of(), false);
+    assertTrue(globs.matches(ROOT.resolve("pkg/src/Foo.java")));
+    assertTrue(globs.matches(ROOT.resolve("pkg/src/a/b/Foo.java")));
+    assertFalse(globs.matches(ROOT.resolve("pkg/test/Foo.java")));
+  }
+
+  @Test
+  public void excludesAndDotfilesAreHonoured() {
+    BuildFileGlobs globs =
+        globs("pkg", ImmutableList.of("**/*"), ImmutableList.of("Test?.java", "[ab].txt"), false);
+    assertTrue(globs.matches(ROOT.resolve("pkg/Foo.java")));
+    assertFalse(globs.matches(ROOT.resolve("pkg/Test1.java")));
+    assertFalse(globs.matches(ROOT.resolve("pkg/a.txt")));
+    assertTrue(globs.matches(ROOT.resolve("pkg/c.txt")));
+    assertFalse(globs.matches(ROOT.resolve("pkg/.scratch.swp")));
+    assertFalse(globs.matches(ROOT.resolve("pkg/.git/index")));
+
+    assertTrue(
+        globs("pkg", ImmutableList.of("**/*"), ImmutableList.of(), true)
+            .matches(ROOT.resolve("pkg/.scratch.swp")));
+  }
+
+  @Test
+  public void patternsLeavingTheBaseMatchEverything() {
+    BuildFileGlobs globs = globs("pkg", ImmutableList.of("../*.java"), ImmutableList.of(), false);
+    assertTrue(globs.matches(ROOT.resolve("elsewhere/scratch.txt")));
+  }
+
+  @Test
+  public void searchRootsStopAtTheFirstWildcard() {
+    BuildFileGlobs globs =
+        globs(
+            "pkg",
+            ImmutableList.of("*.java", "res/*/*.xml", "src/**/*.java", "res/values/strings.xml"),
+            ImmutableList.of(),
+            false);
+    assertEquals(
+        ImmutableMap.of(
+            ROOT.resolve("pkg"), 1,
+            ROOT.resolve("pkg/res"), 2,
+            ROOT.resolve("pkg/src"), Integer.MAX_VALUE,
+            ROOT.resolve("pkg/res/values"), 1),
+        globs.getSearchRoots());
+  }
+
+  private static BuildFileGlobs globs(
+      String base,
+      ImmutableList<String> includes,
+      ImmutableList<String> excludes,
+      boolean includeDotfiles) {
+    return BuildFileGlobs.fromMetaRule(
+        ROOT,
+        ImmutableList.of(
+            ImmutableMap.of(
+                "base",
+                base,
+                "include",
+                includes,
+                "exclude",
+                excludes,
+                "include_dotfiles",
+                includeDotfiles)));
+  }
+}
@@ -18,6 +18,7 @@ package com.facebook.buck.parser;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.cli.BuckConfig;
 import com.facebook.buck.cli.FakeBuckConfig;
@@ -30,6 +31,7 @@ import com.facebook.buck.parser.PipelineNodeCache.Cache;
 import com.facebook.buck.rules.Cell;
 import com.facebook.buck.rules.TestCellBuilder;
 import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import java.io.IOException;
@@ -55,7 +57,8 @@ public class DaemonicCellStateTest {
                 "name", target.getShortName(),
                 "buck.base_path", MorePaths.pathWithUnixSeparators(target.getBasePath()))),
         ImmutableSet.of(),
-        ImmutableMap.of());
+        ImmutableMap.of(),
+        Optional.empty());
   }
 
   @Before
@@ -121,11 +124,51 @@ public class DaemonicCellStateTest {
                 "buck.base_path", "path/to",
                 "name", "target")),
         ImmutableSet.of(),
-        ImmutableMap.of());
+        ImmutableMap.of(),
+        Optional.empty());
     assertEquals("Still only one invalidated node", 1, childState.invalidatePath(targetPath));
     assertEquals(
         "Cell-named target should still be invalidated",
         Optional.empty(),
         cache.lookupComputedNode(childCell, target));
   }
+
+  @Test
+  public void onlyAddedOrRemovedPathsMatchingAGlobAffectABuildFile() {
+    Path buildFile = rootCell.getRoot().resolve("path/to/BUCK");
+    Path unknownBuildFile = rootCell.getRoot().resolve("path/other/BUCK");
+    state.putRawNodesIfNotPresentAndStripMetaEntries(
+        buildFile,
+        ImmutableSet.of(ImmutableMap.of("buck.base_path", "path/to", "name", "target")),
+        ImmutableSet.of(),
+        ImmutableMap.of(),
+        Optional.of(
+            BuildFileGlobs.fromMetaRule(
+                rootCell.getRoot(),
+                ImmutableList.of(
+                    ImmutableMap.of(
+                        "base",
+                        "path/to",
+                        "include",
+                        ImmutableList.of("**/*.java"),
+                        "exclude",
+                        ImmutableList.of(),
+                        "include_dotfiles",
+                        false)))));
+
+    assertTrue(
+        state.isAffectedByAddedOrRemovedPath(
+            buildFile, rootCell.getRoot().resolve("path/to/sub/Foo.java")));
+    assertFalse(
+        state.isAffectedByAddedOrRemovedPath(
+            buildFile, rootCell.getRoot().resolve("path/to/scratch.txt")));
+    assertTrue(
+        state.isAffectedByAddedOrRemovedPath(
+            unknownBuildFile, rootCell.getRoot().resolve("path/other/scratch.txt")));
+
+    state.invalidatePath(buildFile);
+    assertTrue(
+        state.isAffectedByAddedOrRemovedPath(
+            buildFile, rootCell.getRoot().resolve("path/to/scratch.txt")));
+  }
 }
@@ -187,7 +187,7 @@ public class ParserTest {
     Files.write(
         testBuildFile,
         ("include_defs('//java/com/facebook/includedByBuildFile')\n"
-                + "java_library(name = 'foo')\n"
+                + "java_library(name = 'foo', srcs = glob(['*.java']))\n"
                 + "java_library(name = 'bar')\n"
                 + "genrule(name = 'baz', out = '')\n")
             .getBytes(UTF_8));
@@ -836,6 +836,57 @@ public class ParserTest {
     assertEquals("Should have invalidated cache.", 2, counter.calls);
   }
 
+  @Test
+  public void whenNotifiedOfContainedFileAddNotMatchingAnyGlobThenCacheRulesAreNotInvalidated()
+      throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
+    // Call parseBuildFile to populate the cache.
+    getRawTargetNodes(parser, eventBus, cell, false, executorService, testBuildFile);
+
+    // Process event.
+    WatchmanPathEvent event =
+        WatchmanPathEvent.of(
+            filesystem.getRootPath(),
+            WatchmanPathEvent.Kind.CREATE,
+            Paths.get("java/com/facebook/notes.txt"));
+    parser.onFileSystemChange(event);
+
+    // Call parseBuildFile to request cached rules.
+    getRawTargetNodes(parser, eventBus, cell, false, executorService, testBuildFile);
+
+    // Test that the second parseBuildFile call did not repopulate the cache.
+    assertEquals("Should have not invalidated cache.", 1, counter.calls);
+  }
+
+  @Test
+  public void whenNotifiedOfContainedFileAddThenBuildFilesLookingAtTheFilesystemAreInvalidated()
+      throws BuildFileParseException, BuildTargetException, IOException, InterruptedException {
+    Files.write(
+        testBuildFile,
+        ("with allow_unsafe_import():\n"
+                + "    import os\n"
+                + "if os.path.exists('notes.txt'):\n"
+                + "    java_library(name = 'notes')\n"
+                + "java_library(name = 'foo', srcs = glob(['*.java']))\n")
+            .getBytes(UTF_8));
+
+    // Call parseBuildFile to populate the cache.
+    getRawTargetNodes(parser, eventBus, cell, false, executorService, testBuildFile);
+
+    // Process event.
+    WatchmanPathEvent event =
+        WatchmanPathEvent.of(
+            filesystem.getRootPath(),
+            WatchmanPathEvent.Kind.CREATE,
+            Paths.get("java/com/facebook/notes.txt"));
+    parser.onFileSystemChange(event);
+
+    // Call parseBuildFile to request cached rules.
+    getRawTargetNodes(parser, eventBus, cell, false, executorService, testBuildFile);
+
+    // The build file's globs don't match the new file, but it may have seen it anyway.
+    assertEquals("Should have invalidated cache.", 2, counter.calls);
+  }
+
   @Test
   public void whenNotifiedOfContainedFileAddCachedAncestorsAreInvalidatedWithoutBoundaryChecks()
       throws Exception {
@@ -852,7 +903,9 @@ public class ParserTest {
     Cell cell = new TestCellBuilder().setFilesystem(filesystem).setBuckConfig(config).build();
 
     Path testAncestorBuildFile = tempDir.newFile("java/BUCK").toRealPath();
-    Files.write(testAncestorBuildFile, "java_library(name = 'root')\n".getBytes(UTF_8));
+    Files.write(
+        testAncestorBuildFile,
+        "java_library(name = 'root', srcs = glob(['**/*.java']))\n".getBytes(UTF_8));
 
     // Call parseBuildFile to populate the cache.
     getRawTargetNodes(parser, eventBus, cell, false, executorService, testAncestorBuildFile);
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.parser;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.cli.FakeBuckConfig;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.rules.Cell;
+import com.facebook.buck.rules.TestCellBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PersistentRawNodeCacheTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private ProjectFilesystem filesystem;
+  private Path buildFile;
+  private ImmutableSet<Map<String, Object>> rawNodes;
+
+  @Before
+  public void setUp() throws InterruptedException, IOException {
+    filesystem = new ProjectFilesystem(tmp.getRoot().toPath());
+    filesystem.mkdirs(Paths.get("foo"));
+    filesystem.writeContentsToPath("java_library(name = 'foo')", Paths.get("foo/BUCK"));
+    filesystem.writeContentsToPath("class Foo {}", Paths.get("foo/Foo.java"));
+    filesystem.writeContentsToPath("FOO = 1", Paths.get("defs.bzl"));
+    buildFile = filesystem.resolve("foo/BUCK");
+    rawNodes =
+        ImmutableSet.of(
+            ImmutableMap.of(
+                "name",
+                "foo",
+                "buck.type",
+                "java_library",
+                "srcs",
+                ImmutableList.of("Foo.java")),
+            ImmutableMap.of(
+                "__includes",
+                ImmutableList.of(buildFile.toString(), filesystem.resolve("defs.bzl").toString())),
+            ImmutableMap.of("__env", ImmutableMap.of("FOO_HOME", "/opt/foo")),
+            ImmutableMap.of(
+                "__globs",
+                ImmutableList.of(
+                    ImmutableMap.of(
+                        "base",
+                        "foo",
+                        "include",
+                        ImmutableList.of("*.java"),
+                        "exclude",
+                        ImmutableList.of(),
+                        "include_dotfiles",
+                        false))));
+  }
+
+  @Test
+  public void storedRawNodesAreFoundByANewCache() throws InterruptedException, IOException {
+    Cell cell = createCell(ImmutableMap.of("FOO_HOME", "/opt/foo"));
+    new PersistentRawNodeCache().store(cell, buildFile, rawNodes);
+
+    PersistentRawNodeCache cache = new PersistentRawNodeCache();
+    assertEquals(Optional.of(rawNodes), cache.lookup(cell, buildFile));
+    assertEquals(1, cache.getHits());
+    assertEquals(0, cache.getMisses());
+  }
+
+  @Test
+  public void changingTheBuildFileIsAMiss() throws InterruptedException, IOException {
+    Cell cell = createCell(ImmutableMap.of("FOO_HOME", "/opt/foo"));
+    new PersistentRawNodeCache().store(cell, buildFile, rawNodes);
+
+    filesystem.writeContentsToPath("java_library(name = 'bar')", Paths.get("foo/BUCK"));
+    assertMiss(cell);
+  }
+
+  @Test
+  public void changingAnIncludeIsAMiss() throws InterruptedException, IOException {
+    Cell cell = createCell(ImmutableMap.of("FOO_HOME", "/opt/foo"));
+    new PersistentRawNodeCache().store(cell, buildFile, rawNodes);
+
+    filesystem.writeContentsToPath("FOO = 2", Paths.get("defs.bzl"));
+    assertMiss(cell);
+  }
+
+  @Test
+  public void addingAFileToThePackageIsAMiss() throws InterruptedException, IOException {
+    Cell cell = createCell(ImmutableMap.of("FOO_HOME", "/opt/foo"));
+    new PersistentRawNodeCache().store(cell, buildFile, rawNodes);
+
+    filesystem.writeContentsToPath("class Bar {}", Paths.get("foo/Bar.java"));
+    assertMiss(cell);
+  }
+
+  @Test
+  public void addingAFileThatNoGlobMatchesIsAHit() throws InterruptedException, IOException {
+    Cell cell = createCell(ImmutableMap.of("FOO_HOME", "/opt/foo"));
+    new PersistentRawNodeCache().store(cell, buildFile, rawNodes);
+
+    filesystem.writeContentsToPath("notes", Paths.get("foo/README"));
+    filesystem.mkdirs(Paths.get("foo/bar"));
+    filesystem.writeContentsToPath("class Bar {}", Paths.get("foo/bar/Bar.java"));
+    assertEquals(Optional.of(rawNodes), new PersistentRawNodeCache().lookup(cell, buildFile));
+  }
+
+  @Test
+  public void buildFilesThatLookedAtTheFilesystemAreNotStored()
+      throws InterruptedException, IOException {
+    Cell cell = createCell(ImmutableMap.of("FOO_HOME", "/opt/foo"));
+    new PersistentRawNodeCache().store(cell, buildFile, rawNodes);
+
+    // The build file now lists its package itself, so the parser leaves out its globs.
+    ImmutableSet.Builder<Map<String, Object>> withoutGlobs = ImmutableSet.builder();
+    for (Map<String, Object> rawNode : rawNodes) {
+      if (!rawNode.containsKey("__globs")) {
+        withoutGlobs.add(rawNode);
+      }
+    }
+    withoutGlobs.add(Collections.singletonMap("__globs", null));
+    new PersistentRawNodeCache().store(cell, buildFile, withoutGlobs.build());
+
+    assertMiss(cell);
+  }
+
+  @Test
+  public void entriesUnusedForAWeekArePruned() throws InterruptedException, IOException {
+    Cell cell = createCell(ImmutableMap.of("FOO_HOME", "/opt/foo"));
+    new PersistentRawNodeCache().store(cell, buildFile, rawNodes);
+    Path cacheDir = filesystem.getBuckPaths().getBuckOut().resolve("parse_cache");
+    FileTime eightDaysAgo =
+        FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(8));
+    for (Path entry : filesystem.getFilesUnderPath(cacheDir)) {
+      filesystem.setLastModifiedTime(entry, eightDaysAgo);
+    }
+
+    filesystem.writeContentsToPath("class Bar {}", Paths.get("foo/Bar.java"));
+    new PersistentRawNodeCache().store(cell, buildFile, rawNodes);
+    assertEquals(1, filesystem.getDirectoryContents(cacheDir.resolve("nodes")).size());
+  }
+
+  @Test
+  public void changingAnEnvironmentVariableThatWasReadIsAMiss()
+      throws InterruptedException, IOException {
+    new PersistentRawNodeCache()
+        .store(createCell(ImmutableMap.of("FOO_HOME", "/opt/foo")), buildFile, rawNodes);
+
+    assertMiss(createCell(ImmutableMap.of("FOO_HOME", "/opt/bar")));
+  }
+
+  @Test
+  public void changingAnEnvironmentVariableThatWasNotReadIsAHit()
+      throws InterruptedException, IOException {
+    new PersistentRawNodeCache()
+        .store(createCell(ImmutableMap.of("FOO_HOME", "/opt/foo")), buildFile, rawNodes);
+
+    PersistentRawNodeCache cache = new PersistentRawNodeCache();
+    Cell cell = createCell(ImmutableMap.of("FOO_HOME", "/opt/foo", "BAR_HOME", "/opt/bar"));
+    assertEquals(Optional.of(rawNodes), cache.lookup(cell, buildFile));
+  }
+
+  private Cell createCell(ImmutableMap<String, String> environment)
+      throws InterruptedException, IOException {
+    return new TestCellBuilder()
+        .setFilesystem(filesystem)
+        .setBuckConfig(
+            FakeBuckConfig.builder().setFilesystem(filesystem).setEnvironment(environment).build())
+        .build();
+  }
+
+  private void assertMiss(Cell cell) {
+    PersistentRawNodeCache cache = new PersistentRawNodeCache();
+    assertFalse(cache.lookup(cell, buildFile).isPresent());
+    assertEquals(0, cache.getHits());
+    assertEquals(1, cache.getMisses());
+  }
+}
@@ -27,6 +27,7 @@ import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
@@ -38,6 +39,7 @@ import java.nio.file.Paths;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
@@ -333,6 +335,87 @@ public class ProjectBuildFileParserPoolTest {
     }
   }
 
+  @Test
+  public void doesntStartMoreParsersWithoutSpareMemory() throws Exception {
+    Cell cell = EasyMock.createMock(Cell.class);
+    ListeningExecutorService executorService =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+    AtomicInteger createCount = new AtomicInteger(0);
+
+    try (ProjectBuildFileParserPool parserPool =
+        new ProjectBuildFileParserPool(
+            /* maxParsers */ 4,
+            input -> {
+              createCount.incrementAndGet();
+              return createMockParser(ImmutableList::of);
+            },
+            false,
+            () -> false)) {
+
+      Futures.allAsList(scheduleWork(cell, parserPool, executorService, 8)).get();
+      assertThat(createCount.get(), Matchers.equalTo(1));
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
+  @Test
+  public void routesBuildFilesToParsersThatLoadedTheirIncludes() throws Exception {
+    Cell cell = EasyMock.createMock(Cell.class);
+    ListeningExecutorService executorService =
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2));
+    AtomicInteger createCount = new AtomicInteger(0);
+    Map<Path, Integer> parserByBuildFile = new ConcurrentHashMap<>();
+    CountDownLatch bothParsersBusy = new CountDownLatch(2);
+
+    try (ProjectBuildFileParserPool parserPool =
+        createParserPool(
+            /* maxParsers */ 2,
+            input -> {
+              int parserId = createCount.getAndIncrement();
+              return createMockParser(
+                  () -> {
+                    Path buildFile = (Path) EasyMock.getCurrentArguments()[0];
+                    parserByBuildFile.put(buildFile, parserId);
+                    bothParsersBusy.countDown();
+                    bothParsersBusy.await(1, TimeUnit.SECONDS);
+                    String extension = buildFile.getName(0) + ".bzl";
+                    return ImmutableList.of(
+                        ImmutableMap.of(
+                            "__includes", ImmutableList.of(buildFile.toString(), extension)));
+                  });
+            })) {
+
+      Futures.allAsList(
+              parserPool.getAllRulesAndMetaRules(
+                  cell, Paths.get("a/BUCK"), new AtomicLong(), executorService),
+              parserPool.getAllRulesAndMetaRules(
+                  cell, Paths.get("b/BUCK"), new AtomicLong(), executorService))
+          .get();
+      assertThat(createCount.get(), Matchers.equalTo(2));
+
+      ListeningExecutorService directExecutor = MoreExecutors.newDirectExecutorService();
+      for (String buildFile : ImmutableList.of("b/sub/BUCK", "a/sub/BUCK", "b/sub/dir/BUCK")) {
+        parserPool
+            .getAllRulesAndMetaRules(cell, Paths.get(buildFile), new AtomicLong(), directExecutor)
+            .get();
+      }
+      assertThat(
+          parserByBuildFile.get(Paths.get("a/sub/BUCK")),
+          Matchers.equalTo(parserByBuildFile.get(Paths.get("a/BUCK"))));
+      assertThat(
+          parserByBuildFile.get(Paths.get("b/sub/BUCK")),
+          Matchers.equalTo(parserByBuildFile.get(Paths.get("b/BUCK"))));
+      assertThat(
+          parserByBuildFile.get(Paths.get("b/sub/dir/BUCK")),
+          Matchers.equalTo(parserByBuildFile.get(Paths.get("b/BUCK"))));
+      assertThat(parserPool.getAffinityRoutedRequests(), Matchers.equalTo(3L));
+      assertThat(parserPool.getParsersStarted(), Matchers.equalTo(2L));
+    } finally {
+      executorService.shutdown();
+    }
+  }
+
   private static ImmutableSet<ListenableFuture<?>> scheduleWork(
       Cell cell,
       ProjectBuildFileParserPool pool,
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.query;
+
+import static org.easymock.EasyMock.anyString;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.getCurrentArguments;
+import static org.easymock.EasyMock.makeThreadSafe;
+import static org.easymock.EasyMock.replay;
+import static org.hamcrest.Matchers.contains;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class ParallelQueryEvaluatorTest {
+
+  private static final QueryTarget A = QueryFileTarget.of(Paths.get("a"));
+  private static final QueryTarget B = QueryFileTarget.of(Paths.get("b"));
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private ListeningExecutorService executor;
+  private CountDownLatch bEvaluated;
+  private QueryEnvironment env;
+
+  @Before
+  public void setUp() throws Exception {
+    executor = MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    bEvaluated = new CountDownLatch(1);
+    Map<String, ImmutableSet<QueryTarget>> patterns =
+        ImmutableMap.of("//:a", ImmutableSet.of(A), "//:b", ImmutableSet.of(B));
+
+    QueryEnvironment.TargetEvaluator targetEvaluator =
+        createMock(QueryEnvironment.TargetEvaluator.class);
+    expect(targetEvaluator.getType()).andStubReturn(QueryEnvironment.TargetEvaluator.Type.LAZY);
+    env = createMock(QueryEnvironment.class);
+    expect(env.getFunctions()).andStubReturn(QueryEnvironment.DEFAULT_QUERY_FUNCTIONS);
+    expect(env.getTargetEvaluator()).andStubReturn(targetEvaluator);
+    expect(env.getTargetsMatchingPattern(anyString()))
+        .andStubAnswer(
+            () -> {
+              String pattern = (String) getCurrentArguments()[0];
+              if (pattern.equals("//:a")) {
+                // Only returns if //:b is evaluated on another thread in the meantime.
+                assertTrue(bEvaluated.await(10, TimeUnit.SECONDS));
+              } else if (pattern.equals("//:b")) {
+                bEvaluated.countDown();
+              } else {
+                throw new QueryException("No such target %s", pattern);
+              }
+              return patterns.get(pattern);
+            });
+    // Thread safe mocks serialize their calls, which would keep //:b from being evaluated.
+    makeThreadSafe(env, false);
+    replay(targetEvaluator, env);
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void operandsAreEvaluatedConcurrently() throws Exception {
+    assertThat(eval("//:a + //:b"), contains(A, B));
+  }
+
+  @Test
+  public void operandsAreCombinedInOrder() throws Exception {
+    assertThat(eval("//:a - //:b"), contains(A));
+    assertThat(eval("//:b + //:a"), contains(B, A));
+  }
+
+  @Test
+  public void errorInAnOperandIsPropagated() throws Exception {
+    thrown.expect(QueryException.class);
+    thrown.expectMessage("No such target //:c");
+    eval("//:b + //:c");
+  }
+
+  private ImmutableSet<QueryTarget> eval(String query) throws QueryException {
+    return new ParallelQueryEvaluator(executor).eval(QueryExpression.parse(query, env), env);
+  }
+}
@@ -18,6 +18,8 @@ package com.facebook.buck.rules;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
@@ -31,11 +33,13 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.rules.keys.ContentAgnosticRuleKeyFactory;
 import com.facebook.buck.rules.keys.RuleKeyFieldLoader;
+import com.facebook.buck.shell.ExportFileBuilder;
 import com.facebook.buck.testutil.TargetGraphFactory;
 import com.facebook.buck.testutil.integration.TemporaryPaths;
 import com.facebook.buck.timing.IncrementingFakeClock;
 import com.facebook.buck.util.WatchmanOverflowEvent;
 import com.facebook.buck.util.WatchmanPathEvent;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.eventbus.Subscribe;
 import java.io.IOException;
@@ -45,6 +49,7 @@ import java.util.Map;
 import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 import org.hamcrest.Matchers;
 import org.junit.Before;
 import org.junit.Rule;
@@ -58,6 +63,8 @@ public class ActionGraphCacheTest {
 
   private TargetNode<?, ?> nodeA;
   private TargetNode<?, ?> nodeB;
+  private TargetNode<?, ?> exportFileA;
+  private TargetNode<?, ?> exportFileB;
   private TargetGraph targetGraph;
   private BuckEventBus eventBus;
   private BroadcastEventListener broadcastEventListener;
@@ -243,6 +250,143 @@ public class ActionGraphCacheTest {
     assertEquals(countEventsOf(ActionGraphEvent.Cache.Miss.class), 4);
   }
 
+  @Test
+  public void incrementalLoadReusesRulesOfUnchangedTargets() {
+    TargetGraph exportFileGraph = createExportFileGraph();
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    ActionGraphAndResolver resultRun1 = getIncrementalActionGraph(cache, exportFileGraph);
+
+    // Only A exports another file, so B's rule should be carried over.
+    TargetNode<?, ?> nodeC = createExportFileNode("C", null);
+    ActionGraphAndResolver resultRun2 =
+        getIncrementalActionGraph(
+            cache,
+            TargetGraphFactory.newInstance(
+                createExportFileNode("A", nodeC), exportFileB, nodeC));
+
+    ActionGraphEvent.Cache.IncrementalLoad load = getOnlyIncrementalLoadEvent();
+    assertEquals(1, load.reusedTargetNodeCount);
+    assertEquals(2, load.newTargetNodeCount);
+    assertEquals(1, load.reusedBuildRuleCount);
+    assertSame(
+        resultRun1.getResolver().getRule(exportFileB.getBuildTarget()),
+        resultRun2.getResolver().getRule(exportFileB.getBuildTarget()));
+    assertNotSame(
+        resultRun1.getResolver().getRule(exportFileA.getBuildTarget()),
+        resultRun2.getResolver().getRule(exportFileA.getBuildTarget()));
+  }
+
+  @Test
+  public void incrementalLoadRecreatesDependentsOfChangedTargets() {
+    TargetGraph exportFileGraph = createExportFileGraph();
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    ActionGraphAndResolver resultRun1 = getIncrementalActionGraph(cache, exportFileGraph);
+
+    // A itself is unchanged, but its dep B is not.
+    TargetNode<?, ?> nodeC = createExportFileNode("C", null);
+    ActionGraphAndResolver resultRun2 =
+        getIncrementalActionGraph(
+            cache,
+            TargetGraphFactory.newInstance(exportFileA, createExportFileNode("B", nodeC), nodeC));
+
+    ActionGraphEvent.Cache.IncrementalLoad load = getOnlyIncrementalLoadEvent();
+    assertEquals(0, load.reusedTargetNodeCount);
+    assertEquals(3, load.newTargetNodeCount);
+    assertEquals(0, load.reusedBuildRuleCount);
+    assertNotSame(
+        resultRun1.getResolver().getRule(exportFileA.getBuildTarget()),
+        resultRun2.getResolver().getRule(exportFileA.getBuildTarget()));
+  }
+
+  @Test
+  public void fileCreationAndDeletionDropTheRulesToReuse() throws IOException {
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    Path file = tmpFilePath.newFile("foo.txt");
+
+    // Descriptions may have looked at the filesystem to create the rules of unchanged targets.
+    for (WatchmanPathEvent.Kind kind :
+        ImmutableList.of(WatchmanPathEvent.Kind.CREATE, WatchmanPathEvent.Kind.DELETE)) {
+      TargetGraph exportFileGraph = createExportFileGraph();
+      ActionGraphAndResolver resultRun1 = getIncrementalActionGraph(cache, exportFileGraph);
+      cache.invalidateBasedOn(WatchmanPathEvent.of(tmpFilePath.getRoot(), kind, file));
+      assertTrue(cache.isCacheEmpty());
+
+      ActionGraphAndResolver resultRun2 = getIncrementalActionGraph(cache, exportFileGraph);
+      assertEquals(0, countEventsOf(ActionGraphEvent.Cache.IncrementalLoad.class));
+      assertNotSame(
+          resultRun1.getResolver().getRule(exportFileA.getBuildTarget()),
+          resultRun2.getResolver().getRule(exportFileA.getBuildTarget()));
+      cache.invalidateBasedOn(WatchmanOverflowEvent.of(tmpFilePath.getRoot(), "testing"));
+    }
+  }
+
+  @Test
+  public void incrementalLoadRecreatesRulesNotMarkedReusable() {
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    ActionGraphAndResolver resultRun1 = getIncrementalActionGraph(cache, targetGraph);
+
+    // Java libraries keep a rule finder around, so B's rule must not be carried over even though
+    // B is unchanged.
+    TargetNode<?, ?> nodeC = createTargetNode("C");
+    ActionGraphAndResolver resultRun2 =
+        getIncrementalActionGraph(
+            cache,
+            TargetGraphFactory.newInstance(createTargetNode("A", nodeB, nodeC), nodeB, nodeC));
+
+    ActionGraphEvent.Cache.IncrementalLoad load = getOnlyIncrementalLoadEvent();
+    assertEquals(0, load.reusedBuildRuleCount);
+    BuildRule ruleB = resultRun1.getResolver().getRule(nodeB.getBuildTarget());
+    assertNotSame(ruleB, resultRun2.getResolver().getRule(nodeB.getBuildTarget()));
+    assertFalse(ActionGraphCache.isReusable(ruleB));
+  }
+
+  @Test
+  public void previousActionGraphIsOnlyKeptForIncrementalLoads() {
+    ActionGraphCache cache = new ActionGraphCache(broadcastEventListener);
+    cache.getActionGraph(
+        eventBus, CHECK_GRAPHS, /* skipActionGraphCache */ false, createExportFileGraph(), keySeed);
+
+    TargetNode<?, ?> nodeC = createExportFileNode("C", null);
+    getIncrementalActionGraph(
+        cache,
+        TargetGraphFactory.newInstance(createExportFileNode("A", nodeC), exportFileB, nodeC));
+    assertEquals(0, countEventsOf(ActionGraphEvent.Cache.IncrementalLoad.class));
+  }
+
+  private ActionGraphAndResolver getIncrementalActionGraph(
+      ActionGraphCache cache, TargetGraph targetGraph) {
+    return cache.getActionGraph(
+        eventBus,
+        CHECK_GRAPHS,
+        /* skipActionGraphCache */ false,
+        /* incrementalActionGraph */ true,
+        targetGraph,
+        keySeed);
+  }
+
+  private ActionGraphEvent.Cache.IncrementalLoad getOnlyIncrementalLoadEvent() {
+    assertEquals(1, countEventsOf(ActionGraphEvent.Cache.IncrementalLoad.class));
+    for (BuckEvent event : trackedEvents) {
+      if (event instanceof ActionGraphEvent.Cache.IncrementalLoad) {
+        return (ActionGraphEvent.Cache.IncrementalLoad) event;
+      }
+    }
+    throw new AssertionError();
+  }
+
+  /** Creates a graph like the one of {@link #setUp()}, out of exported files. */
+  private TargetGraph createExportFileGraph() {
+    exportFileB = createExportFileNode("B", null);
+    exportFileA = createExportFileNode("A", exportFileB);
+    return TargetGraphFactory.newInstance(exportFileA, exportFileB);
+  }
+
+  private TargetNode<?, ?> createExportFileNode(String name, @Nullable TargetNode<?, ?> src) {
+    return new ExportFileBuilder(BuildTargetFactory.newInstance("//export:" + name))
+        .setSrc(src == null ? null : new DefaultBuildTargetSourcePath(src.getBuildTarget()))
+        .build();
+  }
+
   private TargetNode<?, ?> createTargetNode(String name, TargetNode<?, ?>... deps) {
     BuildTarget buildTarget = BuildTargetFactory.newInstance("//foo:" + name);
     JavaLibraryBuilder targetNodeBuilder = JavaLibraryBuilder.createBuilder(buildTarget);
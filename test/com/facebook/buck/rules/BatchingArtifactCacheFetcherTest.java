@@ -0,0 +1,143 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import com.facebook.buck.artifact_cache.ArtifactCacheMode;
+import com.facebook.buck.artifact_cache.CacheResult;
+import com.facebook.buck.artifact_cache.CacheResultType;
+import com.facebook.buck.artifact_cache.NoopArtifactCache;
+import com.facebook.buck.io.LazyPath;
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import org.hamcrest.Matchers;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+public class BatchingArtifactCacheFetcherTest {
+
+  private static final LazyPath OUTPUT = LazyPath.ofInstance(Paths.get("output"));
+  private static final RuleKey BLOCKING_KEY = new RuleKey("aaaa");
+
+  @Rule public ExpectedException thrown = ExpectedException.none();
+
+  private ListeningExecutorService executor;
+
+  @Before
+  public void setUp() {
+    executor = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  /** Hits for every key, recording the batches it is asked for. */
+  private static class RecordingArtifactCache extends NoopArtifactCache {
+    private final List<ImmutableList<RuleKey>> batches = new CopyOnWriteArrayList<>();
+    private final CountDownLatch blockingFetchStarted = new CountDownLatch(1);
+    private final CountDownLatch releaseBlockingFetch = new CountDownLatch(1);
+
+    @Override
+    public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+      return multiFetch(ImmutableList.of(ruleKey), ImmutableList.of(output)).get(0);
+    }
+
+    @Override
+    public ImmutableList<CacheResult> multiFetch(
+        ImmutableList<RuleKey> ruleKeys, ImmutableList<LazyPath> outputs) {
+      batches.add(ruleKeys);
+      if (ruleKeys.contains(BLOCKING_KEY)) {
+        blockingFetchStarted.countDown();
+        try {
+          releaseBlockingFetch.await();
+        } catch (InterruptedException e) {
+          throw new RuntimeException(e);
+        }
+      }
+      ImmutableList.Builder<CacheResult> results = ImmutableList.builder();
+      for (RuleKey ignored : ruleKeys) {
+        results.add(CacheResult.hit("cache", ArtifactCacheMode.http));
+      }
+      return results.build();
+    }
+  }
+
+  @Test
+  public void singleFetchIsSentImmediately() {
+    RecordingArtifactCache cache = new RecordingArtifactCache();
+    BatchingArtifactCacheFetcher fetcher = new BatchingArtifactCacheFetcher(cache, executor, 10);
+
+    RuleKey ruleKey = new RuleKey("bbbb");
+    CacheResult result = fetcher.fetch(ruleKey, OUTPUT);
+
+    assertEquals(CacheResultType.HIT, result.getType());
+    assertEquals(ImmutableList.of(ImmutableList.of(ruleKey)), cache.batches);
+    assertEquals(0, fetcher.getPendingFetchCount());
+  }
+
+  @Test
+  public void fetchesAreNotHeldUpByAnInFlightBatch() throws Exception {
+    RecordingArtifactCache cache = new RecordingArtifactCache();
+    BatchingArtifactCacheFetcher fetcher = new BatchingArtifactCacheFetcher(cache, executor, 2);
+    try {
+      ListenableFuture<CacheResult> blocked =
+          executor.submit(() -> fetcher.fetch(BLOCKING_KEY, OUTPUT));
+      cache.blockingFetchStarted.await();
+
+      for (String key : ImmutableList.of("bbbb", "cccc", "dddd")) {
+        assertEquals(
+            CacheResultType.HIT,
+            executor.submit(() -> fetcher.fetch(new RuleKey(key), OUTPUT)).get().getType());
+      }
+      assertFalse(blocked.isDone());
+    } finally {
+      cache.releaseBlockingFetch.countDown();
+    }
+  }
+
+  @Test
+  public void cacheExceptionsReachTheCallerUnwrapped() {
+    IllegalStateException exception = new IllegalStateException("cache is down");
+    BatchingArtifactCacheFetcher fetcher =
+        new BatchingArtifactCacheFetcher(
+            new NoopArtifactCache() {
+              @Override
+              public CacheResult fetch(RuleKey ruleKey, LazyPath output) {
+                throw exception;
+              }
+            },
+            executor,
+            10);
+
+    thrown.expect(Matchers.sameInstance(exception));
+    fetcher.fetch(new RuleKey("bbbb"), OUTPUT);
+  }
+}
@@ -48,6 +48,7 @@ public class CachingBuildEngineFactory {
   private boolean logBuildRuleFailuresInline = true;
   private BuildInfoStoreManager buildInfoStoreManager;
   private FileHashCacheMode fileHashCacheMode = FileHashCacheMode.DEFAULT;
+  private Optional<RuleDurationHistory> ruleDurationHistory = Optional.empty();
 
   public CachingBuildEngineFactory(
       BuildRuleResolver buildRuleResolver, BuildInfoStoreManager buildInfoStoreManager) {
@@ -105,6 +106,11 @@ public class CachingBuildEngineFactory {
     return this;
   }
 
+  public CachingBuildEngineFactory setRuleDurationHistory(RuleDurationHistory ruleDurationHistory) {
+    this.ruleDurationHistory = Optional.of(ruleDurationHistory);
+    return this;
+  }
+
   public CachingBuildEngineFactory setLogBuildRuleFailuresInline(
       boolean logBuildRuleFailuresInline) {
     this.logBuildRuleFailuresInline = logBuildRuleFailuresInline;
@@ -130,7 +136,8 @@ public class CachingBuildEngineFactory {
           ruleKeyFactories.get(),
           resourceAwareSchedulingInfo,
           logBuildRuleFailuresInline,
-          fileHashCacheMode);
+          fileHashCacheMode,
+          ruleDurationHistory);
     }
 
     return new CachingBuildEngine(
@@ -153,7 +160,8 @@ public class CachingBuildEngineFactory {
             buildRuleResolver,
             inputFileSizeLimit,
             new DefaultRuleKeyCache<>()),
-        fileHashCacheMode);
+        fileHashCacheMode,
+        ruleDurationHistory);
   }
 
   private static WeightedListeningExecutorService toWeighted(ListeningExecutorService service) {
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.OptionalLong;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class CriticalPathTrackerTest {
+
+  private static final Path HISTORY_PATH = Paths.get("buck-out/rule_durations");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+  private RuleDepsCache ruleDeps;
+
+  private BuildRule ruleA;
+  private BuildRule ruleB;
+  private BuildRule ruleC;
+  private BuildRule ruleD;
+  private BuildRule ruleE;
+
+  // Visualisation of the action graph (rules depend on rules below them), with the durations
+  // recorded by a previous build:
+  //
+  //   a (10ms)   b (1ms)
+  //   |      \  /
+  //   c (100) d (unknown)
+  //   |
+  //   e (20)
+  @Before
+  public void setUp() throws InterruptedException, IOException {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+    BuildRuleResolver resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    ruleDeps = new RuleDepsCache(resolver);
+    ruleE = resolver.addToIndex(new FakeBuildRule("//:e"));
+    ruleD = resolver.addToIndex(new FakeBuildRule("//:d"));
+    ruleC = resolver.addToIndex(new FakeBuildRule("//:c", ruleE));
+    ruleB = resolver.addToIndex(new FakeBuildRule("//:b", ruleD));
+    ruleA = resolver.addToIndex(new FakeBuildRule("//:a", ruleC, ruleD));
+
+    RuleDurationHistory history = new RuleDurationHistory(filesystem, HISTORY_PATH);
+    history.recordDurationMillis(ruleA.getBuildTarget(), 10);
+    history.recordDurationMillis(ruleB.getBuildTarget(), 1);
+    history.recordDurationMillis(ruleC.getBuildTarget(), 100);
+    history.recordDurationMillis(ruleE.getBuildTarget(), 20);
+    history.save();
+  }
+
+  @Test
+  public void priorityIsLongestPathOfDependents() {
+    CriticalPathTracker tracker = createTracker();
+    tracker.computePriorities(ImmutableList.of(ruleA, ruleB));
+
+    assertEquals(10, tracker.getPriority(ruleA));
+    assertEquals(1, tracker.getPriority(ruleB));
+    assertEquals(110, tracker.getPriority(ruleC));
+    // d has no history, so it is assumed to take as long as the average rule: 131 / 4 = 32ms.
+    assertEquals(42, tracker.getPriority(ruleD));
+    assertEquals(130, tracker.getPriority(ruleE));
+    assertEquals(
+        ImmutableList.of(ruleE, ruleC, ruleD, ruleA, ruleB),
+        tracker.sortByPriority(ImmutableList.of(ruleA, ruleB, ruleC, ruleD, ruleE)));
+  }
+
+  @Test
+  public void rulesOutsideOfTheBuildHaveNoPriority() {
+    CriticalPathTracker tracker = createTracker();
+    tracker.computePriorities(ImmutableList.of(ruleB));
+
+    assertEquals(0, tracker.getPriority(ruleA));
+    // The average only covers the rules of the build, here just b.
+    assertEquals(2, tracker.getPriority(ruleD));
+  }
+
+  @Test
+  public void recordingBuildReportsBothPathsAndUpdatesHistory() throws IOException {
+    RuleDurationHistory history = new RuleDurationHistory(filesystem, HISTORY_PATH);
+    CriticalPathTracker tracker = new CriticalPathTracker(ruleDeps, history);
+    tracker.computePriorities(ImmutableList.of(ruleA, ruleB));
+
+    ImmutableMap<BuildRule, Long> actualDurations =
+        ImmutableMap.of(ruleA, 10L, ruleB, 1L, ruleC, 100L, ruleD, 500L, ruleE, 30L);
+    String report = tracker.recordBuild(actualDurations::get, rule -> rule != ruleB);
+
+    assertThat(report, containsString("Predicted critical path: 3 rules, 130ms predicted, 140ms"));
+    assertThat(report, containsString("//:e: 20ms predicted, 30ms actual"));
+    assertThat(report, containsString("Actual critical path: 2 rules, 510ms."));
+    assertThat(report, containsString("//:d: 500ms"));
+
+    history.save();
+    RuleDurationHistory reloaded = new RuleDurationHistory(filesystem, HISTORY_PATH);
+    assertEquals(OptionalLong.of(25), reloaded.getDurationMillis(ruleE.getBuildTarget()));
+    assertEquals(OptionalLong.of(500), reloaded.getDurationMillis(ruleD.getBuildTarget()));
+    assertEquals(OptionalLong.of(1), reloaded.getDurationMillis(ruleB.getBuildTarget()));
+  }
+
+  @Test
+  public void historyPersistsAveragedDurations() throws IOException {
+    RuleDurationHistory history = new RuleDurationHistory(filesystem, HISTORY_PATH);
+    assertEquals(OptionalLong.of(100), history.getDurationMillis(ruleC.getBuildTarget()));
+    assertEquals(OptionalLong.empty(), history.getDurationMillis(ruleD.getBuildTarget()));
+
+    history.recordDurationMillis(ruleC.getBuildTarget(), 300);
+    history.recordDurationMillis(ruleD.getBuildTarget(), 7);
+    history.save();
+
+    RuleDurationHistory reloaded = new RuleDurationHistory(filesystem, HISTORY_PATH);
+    assertEquals(OptionalLong.of(200), reloaded.getDurationMillis(ruleC.getBuildTarget()));
+    assertEquals(OptionalLong.of(7), reloaded.getDurationMillis(ruleD.getBuildTarget()));
+    assertEquals(OptionalLong.of(10), reloaded.getDurationMillis(ruleA.getBuildTarget()));
+  }
+
+  private CriticalPathTracker createTracker() {
+    return new CriticalPathTracker(ruleDeps, new RuleDurationHistory(filesystem, HISTORY_PATH));
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.artifact_cache.NoopArtifactCache;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.timing.IncrementingFakeClock;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.cache.StackedFileHashCache;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures rule key throughput of {@link CachingBuildEngine} on a synthetic action graph as the
+ * number of worker threads grows.
+ */
+public class RuleKeyCalculationBenchmark {
+  @Param({"50000"})
+  private int ruleCount = 1000;
+
+  @Param({"1", "2", "4", "8", "16"})
+  private int threadCount = 4;
+
+  private static final int MAX_DEPS_PER_RULE = 4;
+
+  private final FakeProjectFilesystem filesystem = new FakeProjectFilesystem();
+  private List<BuildRule> rules;
+  private BuildRuleResolver resolver;
+  private ListeningExecutorService executor;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    Random random = new Random(12345);
+    resolver =
+        new BuildRuleResolver(TargetGraph.EMPTY, new DefaultTargetNodeToBuildRuleTransformer());
+    rules = new ArrayList<>(ruleCount);
+    for (int i = 0; i < ruleCount; i++) {
+      // Each rule depends on a handful of rules created before it, which keeps the graph acyclic
+      // while still producing long chains and lots of shared deps.
+      ImmutableSortedSet.Builder<BuildRule> deps = ImmutableSortedSet.naturalOrder();
+      int depCount = i == 0 ? 0 : random.nextInt(MAX_DEPS_PER_RULE + 1);
+      for (int j = 0; j < depCount; j++) {
+        deps.add(rules.get(random.nextInt(i)));
+      }
+      BuildRule rule =
+          new FakeBuildRule(
+              BuildTargetFactory.newInstance(String.format("//pkg%d:rule%d", i % 100, i)),
+              filesystem,
+              TestBuildRuleParams.create().withDeclaredDeps(deps.build()));
+      resolver.addToIndex(rule);
+      rules.add(rule);
+    }
+    // A work-stealing pool, so that dep key wiring queued by one worker is picked up by idle ones.
+    executor = MoreExecutors.listeningDecorator(new ForkJoinPool(threadCount));
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void calculateAllRuleKeys() throws Exception {
+    assertEquals(ruleCount, calculateRuleKeys());
+  }
+
+  @Benchmark
+  public int calculateRuleKeys() throws Exception {
+    CachingBuildEngine engine =
+        new CachingBuildEngineFactory(resolver, new BuildInfoStoreManager())
+            .setCachingBuildEngineDelegate(
+                new LocalCachingBuildEngineDelegate(
+                    StackedFileHashCache.createDefaultHashCaches(
+                        filesystem, FileHashCacheMode.DEFAULT)))
+            .setExecutorService(executor)
+            .build();
+    BuildEngineBuildContext buildContext =
+        BuildEngineBuildContext.builder()
+            .setBuildContext(FakeBuildContext.NOOP_CONTEXT)
+            .setArtifactCache(new NoopArtifactCache())
+            .setBuildId(new BuildId())
+            .setClock(new IncrementingFakeClock())
+            .build();
+    List<ListenableFuture<RuleKey>> keys = new ArrayList<>(rules.size());
+    for (BuildRule rule : rules) {
+      keys.add(engine.calculateRuleKey(rule, buildContext));
+    }
+    return Futures.allAsList(keys).get().size();
+  }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.MoreFiles;
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableMap;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures how fast {@link SQLiteBuildInfoStore} takes the metadata writes and reads that {@link
+ * BuildInfoRecorder} and the build engine issue for each rule, with many build threads at once.
+ */
+public class SQLiteBuildInfoStoreBenchmark {
+  @Param({"100000"})
+  private int targetCount = 1000;
+
+  @Param({"1", "8", "32"})
+  private int threadCount = 4;
+
+  private Path root;
+  private ProjectFilesystem filesystem;
+  private List<BuildTarget> targets;
+  private ExecutorService executor;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("build-info-store-benchmark");
+    filesystem = new ProjectFilesystem(root);
+    targets = new ArrayList<>(targetCount);
+    for (int i = 0; i < targetCount; i++) {
+      targets.add(BuildTargetFactory.newInstance(String.format("//pkg%d:rule%d", i % 100, i)));
+    }
+    executor = Executors.newFixedThreadPool(threadCount);
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() throws Exception {
+    executor.shutdownNow();
+    MoreFiles.deleteRecursively(root);
+  }
+
+  @Test
+  public void metadataIsReadableAfterReopening() throws Exception {
+    assertEquals(targetCount, writeAndReadMetadata());
+    try (SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem)) {
+      for (BuildTarget target : targets) {
+        assertEquals(
+            Optional.of(target.getShortName()),
+            store.readMetadata(target, BuildInfo.MetadataKey.RULE_KEY));
+        assertEquals(Optional.empty(), store.readMetadata(target, "stale"));
+      }
+    }
+  }
+
+  @Benchmark
+  public int writeAndReadMetadata() throws Exception {
+    int readBack = 0;
+    try (SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem)) {
+      List<Future<Integer>> results = new ArrayList<>(threadCount);
+      for (int thread = 0; thread < threadCount; thread++) {
+        int firstTarget = thread;
+        results.add(
+            executor.submit(
+                () -> {
+                  int count = 0;
+                  for (int i = firstTarget; i < targetCount; i += threadCount) {
+                    // The same sequence of calls as a rule being built locally.
+                    BuildTarget target = targets.get(i);
+                    store.updateMetadata(target, ImmutableMap.of("stale", "value"));
+                    store.deleteMetadata(target);
+                    store.updateMetadata(
+                        target,
+                        ImmutableMap.of(
+                            BuildInfo.MetadataKey.RULE_KEY, target.getShortName(),
+                            BuildInfo.MetadataKey.TARGET, target.getFullyQualifiedName()));
+                    if (store.readMetadata(target, BuildInfo.MetadataKey.RULE_KEY).isPresent()) {
+                      count++;
+                    }
+                  }
+                  return count;
+                }));
+      }
+      for (Future<Integer> result : results) {
+        readBack += result.get();
+      }
+    }
+    return readBack;
+  }
+}
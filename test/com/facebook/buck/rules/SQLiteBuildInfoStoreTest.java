@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Optional;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class SQLiteBuildInfoStoreTest {
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private static final BuildTarget TARGET = BuildTargetFactory.newInstance("//foo:bar");
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() throws InterruptedException, IOException {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+  }
+
+  @Test
+  public void writesCanBeReadBackRightAway() throws IOException {
+    SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem, 1);
+    store.updateMetadata(TARGET, ImmutableMap.of("a", "1", "b", "2"));
+    store.updateMetadata(TARGET, ImmutableMap.of("b", "3"));
+    assertEquals(Optional.of("1"), store.readMetadata(TARGET, "a"));
+    assertEquals(Optional.of("3"), store.readMetadata(TARGET, "b"));
+    assertEquals(Optional.empty(), store.readMetadata(TARGET, "c"));
+    store.close();
+
+    store = new SQLiteBuildInfoStore(filesystem, 1);
+    assertEquals(Optional.of("1"), store.readMetadata(TARGET, "a"));
+    assertEquals(Optional.of("3"), store.readMetadata(TARGET, "b"));
+    store.close();
+  }
+
+  @Test
+  public void deletingHidesStoredMetadataButNotLaterWrites() throws IOException {
+    SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem, 1);
+    store.updateMetadata(TARGET, ImmutableMap.of("a", "1"));
+    store.close();
+
+    store = new SQLiteBuildInfoStore(filesystem, 1);
+    store.deleteMetadata(TARGET);
+    assertEquals(Optional.empty(), store.readMetadata(TARGET, "a"));
+    store.updateMetadata(TARGET, ImmutableMap.of("b", "2"));
+    assertEquals(Optional.empty(), store.readMetadata(TARGET, "a"));
+    assertEquals(Optional.of("2"), store.readMetadata(TARGET, "b"));
+    store.close();
+
+    store = new SQLiteBuildInfoStore(filesystem, 1);
+    assertEquals(Optional.empty(), store.readMetadata(TARGET, "a"));
+    assertEquals(Optional.of("2"), store.readMetadata(TARGET, "b"));
+    store.close();
+  }
+
+  @Test
+  public void failedCommitsAreRetried() throws Exception {
+    SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem, 1);
+    // Make commits fail until the table is back.
+    try (Connection connection = openDatabase()) {
+      connection.createStatement().executeUpdate("DROP TABLE metadata");
+    }
+    store.updateMetadata(TARGET, ImmutableMap.of("a", "1"));
+    while (store.getFailedCommits() == 0) {
+      Thread.sleep(1);
+    }
+    // The failed write is still seen by this build.
+    assertEquals(Optional.of("1"), store.readMetadata(TARGET, "a"));
+
+    try (Connection connection = openDatabase()) {
+      connection
+          .createStatement()
+          .executeUpdate(
+              "CREATE TABLE metadata (target TEXT, key TEXT, value TEXT, "
+                  + "PRIMARY KEY (target, key)) WITHOUT ROWID");
+    }
+    store.close();
+
+    store = new SQLiteBuildInfoStore(filesystem, 1);
+    assertEquals(Optional.of("1"), store.readMetadata(TARGET, "a"));
+    store.close();
+  }
+
+  @Test
+  public void closingCommitsAllWrites() throws IOException {
+    SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem, 1);
+    for (int i = 0; i < 1000; i++) {
+      store.updateMetadata(
+          BuildTargetFactory.newInstance("//foo:bar" + i), ImmutableMap.of("i", "" + i));
+    }
+    store.close();
+
+    store = new SQLiteBuildInfoStore(filesystem, 1);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(
+          Optional.of("" + i),
+          store.readMetadata(BuildTargetFactory.newInstance("//foo:bar" + i), "i"));
+    }
+    store.close();
+  }
+
+  @Test
+  public void writesAfterClosingFail() throws IOException {
+    SQLiteBuildInfoStore store = new SQLiteBuildInfoStore(filesystem, 1);
+    store.close();
+    try {
+      store.updateMetadata(TARGET, ImmutableMap.of("a", "1"));
+      fail("Writes after closing the store would be lost.");
+    } catch (IOException e) {
+      // Expected.
+    }
+  }
+
+  private Connection openDatabase() throws SQLException {
+    return DriverManager.getConnection(
+        "jdbc:sqlite:"
+            + filesystem.resolve(filesystem.getBuckPaths().getScratchDir().resolve("metadata.db")));
+  }
+}
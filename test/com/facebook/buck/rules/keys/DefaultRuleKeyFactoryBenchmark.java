@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.cxx.CxxBinaryBuilder;
+import com.facebook.buck.jvm.java.JavaLibraryBuilder;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.AbstractNodeBuilder;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleResolver;
+import com.facebook.buck.rules.DefaultSourcePathResolver;
+import com.facebook.buck.rules.DefaultTargetNodeToBuildRuleTransformer;
+import com.facebook.buck.rules.PathSourcePath;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.SourcePath;
+import com.facebook.buck.rules.SourcePathResolver;
+import com.facebook.buck.rules.SourcePathRuleFinder;
+import com.facebook.buck.rules.SourceWithFlags;
+import com.facebook.buck.rules.TargetGraph;
+import com.facebook.buck.rules.TargetNode;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.testutil.TargetGraphFactory;
+import com.facebook.buck.util.cache.FileHashCache;
+import com.facebook.buck.util.cache.FileHashCacheMode;
+import com.facebook.buck.util.cache.StackedFileHashCache;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSortedSet;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures {@link DefaultRuleKeyFactory#build} throughput over the rules created for a set of java
+ * libraries and C++ binaries, reading {@link com.facebook.buck.rules.AddToRuleKey} fields through
+ * {@link MethodHandleValueExtractor}s or through {@link FieldValueExtractor}s.
+ */
+public class DefaultRuleKeyFactoryBenchmark {
+  @Param({"100", "1000"})
+  private int targetCount = 20;
+
+  @Param({"true", "false"})
+  private boolean methodHandles = true;
+
+  private static final int SOURCES_PER_TARGET = 4;
+
+  private FakeProjectFilesystem filesystem;
+  private ImmutableList<BuildRule> rules;
+  private FileHashCache hashCache;
+  private SourcePathRuleFinder ruleFinder;
+  private SourcePathResolver pathResolver;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    filesystem = new FakeProjectFilesystem();
+    List<AbstractNodeBuilder<?, ?, ?, ?>> builders = new ArrayList<>();
+    BuildTarget previousLibrary = null;
+    for (int i = 0; i < targetCount; i++) {
+      BuildTarget library = BuildTargetFactory.newInstance(String.format("//java/lib%d:lib", i));
+      JavaLibraryBuilder libraryBuilder = JavaLibraryBuilder.createBuilder(library, filesystem);
+      for (Path source : createSources(library, "Source%d.java")) {
+        libraryBuilder.addSrc(source);
+      }
+      if (previousLibrary != null) {
+        libraryBuilder.addDep(previousLibrary);
+      }
+      builders.add(libraryBuilder);
+      previousLibrary = library;
+
+      BuildTarget binary = BuildTargetFactory.newInstance(String.format("//cxx/bin%d:bin", i));
+      ImmutableSortedSet.Builder<SourceWithFlags> sources = ImmutableSortedSet.naturalOrder();
+      for (Path source : createSources(binary, "source%d.cpp")) {
+        sources.add(SourceWithFlags.of(new PathSourcePath(filesystem, source)));
+      }
+      ImmutableSortedSet.Builder<SourcePath> headers = ImmutableSortedSet.naturalOrder();
+      for (Path header : createSources(binary, "header%d.h")) {
+        headers.add(new PathSourcePath(filesystem, header));
+      }
+      builders.add(
+          new CxxBinaryBuilder(binary).setSrcs(sources.build()).setHeaders(headers.build()));
+    }
+
+    List<TargetNode<?, ?>> nodes = new ArrayList<>();
+    for (AbstractNodeBuilder<?, ?, ?, ?> builder : builders) {
+      nodes.add(builder.build());
+    }
+    TargetGraph targetGraph = TargetGraphFactory.newInstance(nodes);
+    BuildRuleResolver resolver =
+        new BuildRuleResolver(targetGraph, new DefaultTargetNodeToBuildRuleTransformer());
+    for (AbstractNodeBuilder<?, ?, ?, ?> builder : builders) {
+      builder.build(resolver, filesystem, targetGraph);
+    }
+    rules = ImmutableList.copyOf(resolver.getBuildRules());
+    ruleFinder = new SourcePathRuleFinder(resolver);
+    pathResolver = DefaultSourcePathResolver.from(ruleFinder);
+    hashCache = StackedFileHashCache.createDefaultHashCaches(filesystem, FileHashCacheMode.DEFAULT);
+
+    AlterRuleKeys.setUseMethodHandles(methodHandles);
+  }
+
+  @After
+  @AfterExperiment
+  public void tearDown() {
+    AlterRuleKeys.setUseMethodHandles(true);
+  }
+
+  @Test
+  public void methodHandleExtractorsProduceTheSameKeysAsReflection() throws Exception {
+    AlterRuleKeys.setUseMethodHandles(true);
+    List<RuleKey> methodHandle = buildAllRuleKeys();
+    AlterRuleKeys.setUseMethodHandles(false);
+    List<RuleKey> reflective = buildAllRuleKeys();
+
+    assertEquals(rules.size(), methodHandle.size());
+    assertEquals(reflective, methodHandle);
+  }
+
+  @Benchmark
+  public int buildRuleKeys() {
+    return buildAllRuleKeys().size();
+  }
+
+  private List<RuleKey> buildAllRuleKeys() {
+    // A new factory each time, so no rule key is served from its cache.
+    DefaultRuleKeyFactory factory =
+        new DefaultRuleKeyFactory(0, hashCache, pathResolver, ruleFinder);
+    List<RuleKey> keys = new ArrayList<>(rules.size());
+    for (BuildRule rule : rules) {
+      keys.add(factory.build(rule));
+    }
+    return keys;
+  }
+
+  private List<Path> createSources(BuildTarget target, String nameFormat) throws Exception {
+    List<Path> sources = new ArrayList<>(SOURCES_PER_TARGET);
+    for (int i = 0; i < SOURCES_PER_TARGET; i++) {
+      Path source = target.getBasePath().resolve(String.format(nameFormat, i));
+      filesystem.writeContentsToPath(target + " source " + i, source);
+      sources.add(source);
+    }
+    return sources;
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.buck.rules.AddToRuleKey;
+import com.facebook.buck.rules.AddsToRuleKey;
+import com.facebook.buck.rules.RuleKeyObjectSink;
+import com.google.common.collect.ImmutableList;
+import java.lang.reflect.Field;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import javax.annotation.Nullable;
+import org.junit.Test;
+
+public class MethodHandleValueExtractorTest {
+
+  @Test
+  public void readsPrivateFieldsOfAnyType() throws Exception {
+    Appendable appendable = new Appendable();
+    for (String name : ImmutableList.of("string", "number", "flag", "list", "absent", "CONSTANT")) {
+      Field field = Appendable.class.getDeclaredField(name);
+      field.setAccessible(true);
+      ValueExtractor methodHandle = new MethodHandleValueExtractor(field);
+
+      ValueExtractor reflective = new FieldValueExtractor(field);
+      assertEquals(reflective.getName(), methodHandle.getName());
+      assertEquals(reflective.getFullyQualifiedName(), methodHandle.getFullyQualifiedName());
+      assertEquals(reflective.getValue(appendable), methodHandle.getValue(appendable));
+    }
+  }
+
+  @Test
+  public void readsNullFields() throws Exception {
+    Field field = Appendable.class.getDeclaredField("absent");
+    field.setAccessible(true);
+    assertNull(new MethodHandleValueExtractor(field).getValue(new Appendable()));
+  }
+
+  @Test
+  public void amendsKeysWithTheFieldsOfEachClassInOrder() throws Exception {
+    assertEquals(
+        ImmutableList.of(
+            "number=7",
+            "stringified=Optional[stringified]",
+            "CONSTANT=constant",
+            "absent=null",
+            "flag=true",
+            "list=[a, b]",
+            "number=42",
+            "string=value"),
+        amendKey(new SubAppendable()));
+  }
+
+  private static List<String> amendKey(AddsToRuleKey appendable) {
+    List<String> values = new ArrayList<>();
+    AlterRuleKeys.amendKey(
+        new RuleKeyObjectSink() {
+          @Override
+          public RuleKeyObjectSink setReflectively(String key, @Nullable Object val) {
+            values.add(key + "=" + val);
+            return this;
+          }
+
+          @Override
+          public RuleKeyObjectSink setPath(Path absolutePath, Path ideallyRelative) {
+            throw new UnsupportedOperationException();
+          }
+        },
+        appendable);
+    return values;
+  }
+
+  @SuppressWarnings("unused")
+  private static class Appendable implements AddsToRuleKey {
+    @AddToRuleKey private static final String CONSTANT = "constant";
+    @AddToRuleKey private final String string = "value";
+    @AddToRuleKey private final int number = 42;
+    @AddToRuleKey private final boolean flag = true;
+    @AddToRuleKey private final ImmutableList<String> list = ImmutableList.of("a", "b");
+    @AddToRuleKey @Nullable private final String absent = null;
+  }
+
+  @SuppressWarnings("unused")
+  private static class SubAppendable extends Appendable {
+    @AddToRuleKey private final long number = 7L;
+
+    @AddToRuleKey(stringify = true)
+    private final Optional<String> stringified = Optional.of("stringified");
+  }
+}
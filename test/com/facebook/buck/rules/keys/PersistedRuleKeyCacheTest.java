@@ -0,0 +1,179 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.testutil.FakeFileHashCache;
+import com.facebook.buck.testutil.FakeProjectFilesystem;
+import com.facebook.buck.timing.SettableFakeClock;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PersistedRuleKeyCacheTest {
+
+  private static final Path STORE_PATH = Paths.get("buck-out/rule_key_cache");
+  private static final HashCode SETTINGS = HashCode.fromInt(1);
+  private static final RuleKey RULE_KEY = new RuleKey(Hashing.sha1().hashInt(1));
+
+  private FakeProjectFilesystem filesystem;
+  private SettableFakeClock clock;
+  private BuildRule dep;
+  private BuildRule rule;
+  private Path input;
+  private Map<Path, HashCode> fileHashes;
+  private Map<BuildTarget, HashCode> targetHashes;
+  private RuleKey depKey;
+
+  @Before
+  public void setUp() {
+    filesystem = new FakeProjectFilesystem();
+    clock = new SettableFakeClock(0, 0);
+    dep = new FakeBuildRule(BuildTargetFactory.newInstance("//:dep"), filesystem);
+    rule = new FakeBuildRule(BuildTargetFactory.newInstance("//:rule#flavor"), filesystem, dep);
+    input = Paths.get("input");
+    fileHashes = new HashMap<>();
+    fileHashes.put(filesystem.resolve(input), HashCode.fromInt(42));
+    targetHashes = new HashMap<>();
+    targetHashes.put(BuildTargetFactory.newInstance("//:dep"), HashCode.fromInt(3));
+    targetHashes.put(BuildTargetFactory.newInstance("//:rule"), HashCode.fromInt(4));
+    depKey = new RuleKey(Hashing.sha1().hashInt(2));
+  }
+
+  @Test
+  public void storedKeysAreServedByANewCache() throws Exception {
+    PersistedRuleKeyCache first = newCache(SETTINGS);
+    assertEquals(RULE_KEY, first.get(rule, r -> computeKey(first, r)));
+    assertEquals(2, first.getPersistedStats().missCount());
+    first.save();
+
+    PersistedRuleKeyCache second = newCache(SETTINGS);
+    assertEquals(
+        RULE_KEY,
+        second.get(
+            rule,
+            r -> {
+              throw new IllegalStateException("Stored key should have been used for " + r);
+            }));
+    assertEquals(2, second.getPersistedStats().hitCount());
+    assertEquals(0, second.getPersistedStats().missCount());
+  }
+
+  @Test
+  public void changedInputIsAMiss() throws Exception {
+    PersistedRuleKeyCache first = newCache(SETTINGS);
+    first.get(rule, r -> computeKey(first, r));
+    first.save();
+
+    fileHashes.put(filesystem.resolve(input), HashCode.fromInt(43));
+    PersistedRuleKeyCache second = newCache(SETTINGS);
+    second.get(rule, r -> computeKey(second, r));
+    assertEquals(1, second.getPersistedStats().hitCount());
+    assertEquals(1, second.getPersistedStats().missCount());
+    assertEquals(1, second.getPersistedStats().evictionCount());
+  }
+
+  @Test
+  public void changedDepKeyIsAMiss() throws Exception {
+    PersistedRuleKeyCache first = newCache(SETTINGS);
+    first.get(rule, r -> computeKey(first, r));
+    first.save();
+
+    targetHashes.put(BuildTargetFactory.newInstance("//:dep"), HashCode.fromInt(5));
+    depKey = new RuleKey(Hashing.sha1().hashInt(3));
+    PersistedRuleKeyCache second = newCache(SETTINGS);
+    second.get(rule, r -> computeKey(second, r));
+    assertEquals(0, second.getPersistedStats().hitCount());
+    assertEquals(2, second.getPersistedStats().missCount());
+    assertEquals(2, second.getPersistedStats().evictionCount());
+  }
+
+  @Test
+  public void keysStoredWithOtherSettingsAreIgnored() throws Exception {
+    PersistedRuleKeyCache first = newCache(SETTINGS);
+    first.get(rule, r -> computeKey(first, r));
+    first.save();
+
+    PersistedRuleKeyCache second = newCache(HashCode.fromInt(2));
+    second.get(rule, r -> computeKey(second, r));
+    assertEquals(0, second.getPersistedStats().hitCount());
+    assertEquals(0, second.getPersistedStats().evictionCount());
+  }
+
+  @Test
+  public void keysUnusedForTooLongAreDropped() throws Exception {
+    PersistedRuleKeyCache first = newCache(SETTINGS);
+    first.get(rule, r -> computeKey(first, r));
+    first.save();
+
+    // Only the dep's key is used, and recorded as such.
+    clock.setCurrentTimeMillis(TimeUnit.DAYS.toMillis(PersistedRuleKeyCache.MAX_UNUSED_DAYS - 1));
+    PersistedRuleKeyCache second = newCache(SETTINGS);
+    second.get(dep, r -> computeKey(second, r));
+    assertEquals(1, second.getPersistedStats().hitCount());
+    second.save();
+
+    clock.setCurrentTimeMillis(TimeUnit.DAYS.toMillis(PersistedRuleKeyCache.MAX_UNUSED_DAYS + 1));
+    PersistedRuleKeyCache third = newCache(SETTINGS);
+    third.get(dep, r -> computeKey(third, r));
+    assertEquals(1, third.getPersistedStats().hitCount());
+    third.save();
+
+    PersistedRuleKeyCache fourth = newCache(SETTINGS);
+    fourth.get(rule, r -> computeKey(fourth, r));
+    assertEquals(1, fourth.getPersistedStats().hitCount());
+    assertEquals(1, fourth.getPersistedStats().missCount());
+    assertEquals(0, fourth.getPersistedStats().evictionCount());
+  }
+
+  private PersistedRuleKeyCache newCache(HashCode settings) {
+    return new PersistedRuleKeyCache(
+        new DefaultRuleKeyCache<>(),
+        filesystem,
+        STORE_PATH,
+        settings,
+        () -> ImmutableMap.copyOf(targetHashes),
+        () -> ImmutableList.of(dep, rule),
+        new FakeFileHashCache(fileHashes),
+        ImmutableList.of(filesystem),
+        clock);
+  }
+
+  /** Computes keys the way a {@link DefaultRuleKeyFactory} would, looking up deps' keys first. */
+  private RuleKeyResult<RuleKey> computeKey(RuleKeyCache<RuleKey> cache, BuildRule buildRule) {
+    if (buildRule == dep) {
+      return new RuleKeyResult<>(depKey, ImmutableList.of(), ImmutableList.of());
+    }
+    cache.get(dep, r -> computeKey(cache, r));
+    return new RuleKeyResult<>(
+        RULE_KEY, ImmutableList.of(dep), ImmutableList.of(RuleKeyInput.of(filesystem, input)));
+  }
+}
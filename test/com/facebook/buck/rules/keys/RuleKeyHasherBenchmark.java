@@ -0,0 +1,109 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.RuleKey;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.function.Supplier;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures the cost of hashing the values a typical rule adds to its rule key. Run with caliper's
+ * allocation instrument to compare the garbage produced by each hasher, too.
+ */
+public class RuleKeyHasherBenchmark {
+  @Param({"10", "100"})
+  private int fieldCount = 10;
+
+  @Param({"GUAVA", "SHA1"})
+  private HasherType hasherType = HasherType.SHA1;
+
+  private String[] keys;
+  private String[] strings;
+  private Path[] paths;
+  private HashCode[] fileHashes;
+  private BuildTarget[] targets;
+  private RuleKey[] ruleKeys;
+
+  @Before
+  public void setUpTest() {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() {
+    keys = new String[fieldCount];
+    strings = new String[fieldCount];
+    paths = new Path[fieldCount];
+    fileHashes = new HashCode[fieldCount];
+    targets = new BuildTarget[fieldCount];
+    ruleKeys = new RuleKey[fieldCount];
+    for (int i = 0; i < fieldCount; i++) {
+      keys[i] = "field" + i;
+      strings[i] = "-DSOME_PREPROCESSOR_FLAG=" + i;
+      paths[i] = Paths.get(String.format("some/package/path/Source%d.java", i));
+      fileHashes[i] = Hashing.sha1().hashInt(i);
+      targets[i] = BuildTargetFactory.newInstance(String.format("//some/package%d:target", i));
+      ruleKeys[i] = new RuleKey(Hashing.sha1().hashLong(i));
+    }
+  }
+
+  @Test
+  public void hashersAgree() {
+    hasherType = HasherType.GUAVA;
+    HashCode guava = hashFields();
+    hasherType = HasherType.SHA1;
+    assertEquals(guava, hashFields());
+  }
+
+  @Benchmark
+  public HashCode hashFields() {
+    RuleKeyHasher<HashCode> hasher = hasherType.supplier.get();
+    for (int i = 0; i < fieldCount; i++) {
+      hasher.putString(strings[i]).putKey(keys[i]);
+      hasher.putPath(paths[i], fileHashes[i]).putKey(keys[i]);
+      hasher.putBuildTarget(targets[i]).putKey(keys[i]);
+      hasher.putRuleKey(ruleKeys[i]).putWrapper(RuleKeyHasher.Wrapper.BUILD_RULE);
+      hasher.putNumber(i).putBoolean(i % 2 == 0);
+      hasher.putContainer(RuleKeyHasher.Container.LIST, 4).putKey(keys[i]);
+    }
+    return hasher.hash();
+  }
+
+  private enum HasherType {
+    GUAVA(() -> new GuavaRuleKeyHasher(Hashing.sha1().newHasher())),
+    SHA1(Sha1RuleKeyHasher::new),
+    ;
+
+    private final Supplier<RuleKeyHasher<HashCode>> supplier;
+
+    HasherType(Supplier<RuleKeyHasher<HashCode>> supplier) {
+      this.supplier = supplier;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules.keys;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.ArchiveMemberPath;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRuleType;
+import com.facebook.buck.rules.DefaultBuildTargetSourcePath;
+import com.facebook.buck.rules.ExplicitBuildTargetSourcePath;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.rules.SourceRoot;
+import com.facebook.buck.util.sha1.Sha1HashCode;
+import com.google.common.base.Strings;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.nio.file.Paths;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
+import org.junit.Test;
+
+public class Sha1RuleKeyHasherTest extends AbstractRuleKeyHasherTest<HashCode> {
+
+  @Override
+  protected Sha1RuleKeyHasher newHasher() {
+    return new Sha1RuleKeyHasher();
+  }
+
+  @Test
+  public void hashesLikeGuavaSha1() {
+    Consumer<RuleKeyHasher<HashCode>> values =
+        hasher ->
+            hasher
+                .putKey("key")
+                .putNull()
+                .putBoolean(true)
+                .putBoolean(false)
+                .putNumber(42)
+                .putNumber(42L)
+                .putNumber((short) 42)
+                .putNumber((byte) 42)
+                .putNumber(4.2f)
+                .putNumber(4.2)
+                .putString("")
+                .putString("n\u00e4\u00efve \u2603")
+                .putBytes(new byte[] {4, 2})
+                .putPattern(Pattern.compile("4.*2"))
+                .putSha1(Sha1HashCode.of("a002b39af204cdfaa5fdb67816b13867c32ac52c"))
+                .putPath(Paths.get("some/path"), HashCode.fromInt(42))
+                .putArchiveMemberPath(
+                    ArchiveMemberPath.of(Paths.get("a.jar"), Paths.get("b.class")),
+                    HashCode.fromLong(42))
+                .putNonHashingPath("non/hashing")
+                .putSourceRoot(new SourceRoot("root"))
+                .putRuleKey(new RuleKey("b67816b13867c32ac52ca002b39af204cdfaa5fd"))
+                .putBuildRuleType(BuildRuleType.of("java_library"))
+                .putBuildTarget(BuildTargetFactory.newInstance("//foo:bar"))
+                .putBuildTargetSourcePath(
+                    new ExplicitBuildTargetSourcePath(
+                        BuildTargetFactory.newInstance("//foo:bar"), Paths.get("out")))
+                .putBuildTargetSourcePath(
+                    new DefaultBuildTargetSourcePath(BuildTargetFactory.newInstance("//foo:baz")))
+                .putContainer(RuleKeyHasher.Container.LIST, 3)
+                .putWrapper(RuleKeyHasher.Wrapper.OPTIONAL);
+
+    assertEquals(hash(new GuavaRuleKeyHasher(Hashing.sha1().newHasher()), values), hash(values));
+  }
+
+  @Test
+  public void hashesValuesLargerThanTheBufferLikeGuavaSha1() {
+    String longString = Strings.repeat("0123456789abcdef", 2048);
+    Consumer<RuleKeyHasher<HashCode>> values =
+        hasher -> {
+          for (int i = 0; i < 8; i++) {
+            hasher.putString(longString.substring(i)).putNumber(i);
+          }
+          hasher.putBytes(new byte[64 * 1024]).putString(longString + "\u2603");
+        };
+
+    assertEquals(hash(new GuavaRuleKeyHasher(Hashing.sha1().newHasher()), values), hash(values));
+  }
+
+  @Test
+  public void nestedHashersDoNotShareBuffers() {
+    HashCode expected = hash(hasher -> hasher.putKey("outer").putString("value"));
+
+    RuleKeyHasher<HashCode> outer = newHasher().putKey("outer");
+    // Hash a few keys in between, as deps are while a rule's own key is being built.
+    for (int i = 0; i < 3; i++) {
+      hash(hasher -> hasher.putKey("inner").putString(Strings.repeat("x", 10000)));
+    }
+    assertEquals(expected, outer.putString("value").hash());
+    assertEquals(expected, hash(hasher -> hasher.putKey("outer").putString("value")));
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void hashCanOnlyBeCalledOnce() {
+    RuleKeyHasher<HashCode> hasher = newHasher();
+    hasher.hash();
+    hasher.hash();
+  }
+
+  private HashCode hash(Consumer<RuleKeyHasher<HashCode>> values) {
+    return hash(newHasher(), values);
+  }
+
+  private static HashCode hash(
+      RuleKeyHasher<HashCode> hasher, Consumer<RuleKeyHasher<HashCode>> values) {
+    values.accept(hasher);
+    return hasher.hash();
+  }
+}
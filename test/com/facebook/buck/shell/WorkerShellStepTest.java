@@ -19,6 +19,7 @@ package com.facebook.buck.shell;
 import static java.lang.Thread.sleep;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.facebook.buck.event.BuckEvent;
 import com.facebook.buck.event.BuckEventBusForTests;
@@ -33,6 +34,7 @@ import com.facebook.buck.util.ProcessExecutorParams;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
 import com.facebook.buck.worker.FakeWorkerProcess;
+import com.facebook.buck.worker.WorkerJobFailedException;
 import com.facebook.buck.worker.WorkerJobParams;
 import com.facebook.buck.worker.WorkerJobResult;
 import com.facebook.buck.worker.WorkerProcess;
@@ -45,14 +47,18 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
+import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
@@ -118,6 +124,7 @@ public class WorkerShellStepTest {
             startupCommand,
             startupEnv,
             maxWorkers,
+            1,
             persistentWorkerKey == null || workerHash == null
                 ? Optional.empty()
                 : Optional.of(WorkerProcessIdentity.of(persistentWorkerKey, workerHash))));
@@ -421,7 +428,10 @@ public class WorkerShellStepTest {
             new WorkerProcessPoolFactory(new FakeProjectFilesystem()) {
               @Override
               public WorkerProcess createWorkerProcess(
-                  ProcessExecutorParams processParams, ExecutionContext context, Path tmpDir)
+                  ProcessExecutorParams processParams,
+                  ExecutionContext context,
+                  Path tmpDir,
+                  int maxJobs)
                   throws IOException {
                 try {
                   sleep(5);
@@ -466,6 +476,80 @@ public class WorkerShellStepTest {
     assertThat(pool.getCapacity(), Matchers.equalTo(2));
   }
 
+  @Test
+  public void testFailedJobDoesNotTakeDownOtherJobsOfASharedWorker() throws Exception {
+    CountDownLatch okJobStarted = new CountDownLatch(1);
+    CountDownLatch failingJobDone = new CountDownLatch(1);
+    List<WorkerProcess> workers = new ArrayList<>();
+    WorkerProcessPoolFactory factory =
+        new WorkerProcessPoolFactory(new FakeProjectFilesystem()) {
+          @Override
+          public WorkerProcess createWorkerProcess(
+              ProcessExecutorParams processParams,
+              ExecutionContext context,
+              Path tmpDir,
+              int maxJobs)
+              throws IOException {
+            WorkerProcess worker =
+                new FakeWorkerProcess(ImmutableMap.of()) {
+                  @Override
+                  public WorkerJobResult submitAndWaitForJob(String jobArgs) throws IOException {
+                    if (jobArgs.equals("failingJob")) {
+                      throw new WorkerJobFailedException("failingJob failed");
+                    }
+                    okJobStarted.countDown();
+                    Uninterruptibles.awaitUninterruptibly(failingJobDone);
+                    if (!isAlive()) {
+                      throw new IOException("The worker was destroyed while running okJob.");
+                    }
+                    return WorkerJobResult.of(0, Optional.of(""), Optional.of(""));
+                  }
+                };
+            workers.add(worker);
+            return worker;
+          }
+        };
+    ExecutionContext context =
+        TestExecutionContext.newBuilder()
+            .setPlatform(Platform.LINUX)
+            .setConsole(new TestConsole(Verbosity.ALL))
+            .setBuckEventBus(BuckEventBusForTests.newInstance())
+            .build();
+    WorkerJobParams okJobParams =
+        WorkerJobParams.of(
+            "okJob",
+            WorkerProcessParams.of(
+                Paths.get("tmp").toAbsolutePath().normalize(),
+                ImmutableList.of(startupCommand, startupArg),
+                ImmutableMap.of(),
+                1,
+                2,
+                Optional.empty()));
+    WorkerShellStep okStep =
+        new WorkerShellStep(Optional.of(okJobParams), Optional.empty(), Optional.empty(), factory);
+    WorkerShellStep failingStep =
+        new WorkerShellStep(
+            Optional.of(okJobParams.withJobArgs("failingJob")),
+            Optional.empty(),
+            Optional.empty(),
+            factory);
+
+    Future<Integer> okExitCode =
+        Executors.newSingleThreadExecutor()
+            .submit(() -> okStep.execute(context).getExitCode());
+    okJobStarted.await();
+    try {
+      failingStep.execute(context);
+      fail("Expected the job to fail.");
+    } catch (WorkerJobFailedException e) {
+      failingJobDone.countDown();
+    }
+
+    assertThat(okExitCode.get(), Matchers.equalTo(0));
+    assertThat(workers.size(), Matchers.equalTo(1));
+    assertTrue(workers.get(0).isAlive());
+  }
+
   @Test
   public void testWarningIsPrintedForIdenticalWorkerToolsWithDifferentCapacity() throws Exception {
     int existingPoolSize = 2;
@@ -54,4 +54,9 @@ public class WorkerToolBuilder
     getArgForPopulating().setMaxWorkers(maxWorkers);
     return this;
   }
+
+  public WorkerToolBuilder setMaxJobsPerWorker(int maxJobsPerWorker) {
+    getArgForPopulating().setMaxJobsPerWorker(maxJobsPerWorker);
+    return this;
+  }
 }
@@ -38,6 +38,7 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
 import java.util.jar.JarOutputStream;
@@ -315,4 +316,41 @@ public class DefaultFileHashCacheTest {
     assertFalse(cache.willGet(filesystem.getPath("buck-out/file.txt")));
     assertTrue(cache.willGet(filesystem.getPath("file.txt")));
   }
+
+  @Test
+  public void persistentCacheReusesHashesOfPreviousRun() throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot());
+    Path path = Paths.get("file.txt");
+    filesystem.writeContentsToPath("data", path);
+    filesystem.setLastModifiedTime(path, FileTime.fromMillis(0));
+    DefaultFileHashCache cache =
+        DefaultFileHashCache.createPersistentFileHashCache(filesystem, FILE_HASH_CACHE_MODE);
+    HashCode hashCode = cache.get(path);
+    cache.savePersistentStore();
+
+    DefaultFileHashCache nextRunCache =
+        DefaultFileHashCache.createPersistentFileHashCache(filesystem, FILE_HASH_CACHE_MODE);
+    assertEquals(hashCode, nextRunCache.get(path));
+  }
+
+  @Test
+  public void persistentCacheRehashesFilesModifiedWhileTheyWereHashed()
+      throws IOException, InterruptedException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot());
+    Path path = Paths.get("file.txt");
+    filesystem.writeContentsToPath("data", path);
+    FileTime modifiedTime = filesystem.getLastModifiedTime(path);
+    DefaultFileHashCache cache =
+        DefaultFileHashCache.createPersistentFileHashCache(filesystem, FILE_HASH_CACHE_MODE);
+    cache.get(path);
+    cache.savePersistentStore();
+
+    // Changed within the same modification time granule as the hashed contents.
+    filesystem.writeContentsToPath("DATA", path);
+    filesystem.setLastModifiedTime(path, modifiedTime);
+    DefaultFileHashCache nextRunCache =
+        DefaultFileHashCache.createPersistentFileHashCache(filesystem, FILE_HASH_CACHE_MODE);
+    assertEquals(
+        Hashing.sha1().hashString("DATA", StandardCharsets.UTF_8), nextRunCache.get(path));
+  }
 }
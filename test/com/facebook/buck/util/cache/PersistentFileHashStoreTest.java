@@ -0,0 +1,190 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util.cache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.io.ProjectFilesystem;
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class PersistentFileHashStoreTest {
+
+  private static final Path STORE_PATH = Paths.get("buck-out/file_hashes");
+  private static final Path JOURNAL_PATH = Paths.get("buck-out/file_hashes.journal");
+
+  @Rule public TemporaryPaths tmp = new TemporaryPaths();
+
+  private ProjectFilesystem filesystem;
+
+  @Before
+  public void setUp() throws InterruptedException {
+    filesystem = new ProjectFilesystem(tmp.getRoot());
+  }
+
+  @Test
+  public void hashesAreReusedAfterReload() throws IOException {
+    Path foo = writeFile("foo.txt", "foo");
+    Path bar = writeFile("dir/bar.txt", "bar");
+
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, STORE_PATH);
+    assertEquals(sha1("foo"), store.get(foo, () -> sha1("foo")));
+    assertEquals(sha1("bar"), store.get(bar, () -> sha1("bar")));
+    store.save();
+
+    PersistentFileHashStore reloaded = new PersistentFileHashStore(filesystem, STORE_PATH);
+    assertEquals(sha1("foo"), reloaded.get(foo, PersistentFileHashStoreTest::failToLoad));
+    assertEquals(sha1("bar"), reloaded.get(bar, PersistentFileHashStoreTest::failToLoad));
+  }
+
+  @Test
+  public void changedFilesAreRehashed() throws IOException {
+    Path foo = writeFile("foo.txt", "foo");
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, STORE_PATH);
+    store.get(foo, () -> sha1("foo"));
+    store.save();
+
+    writeFile("foo.txt", "changed");
+    PersistentFileHashStore reloaded = new PersistentFileHashStore(filesystem, STORE_PATH);
+    assertEquals(sha1("changed"), reloaded.get(foo, () -> sha1("changed")));
+  }
+
+  @Test
+  public void invalidatedPathsAreDroppedOnSave() throws IOException {
+    Path foo = writeFile("foo.txt", "foo");
+    Path bar = writeFile("bar.txt", "bar");
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, STORE_PATH);
+    store.get(foo, () -> sha1("foo"));
+    store.get(bar, () -> sha1("bar"));
+    store.save();
+
+    PersistentFileHashStore reloaded = new PersistentFileHashStore(filesystem, STORE_PATH);
+    reloaded.invalidate(foo);
+    reloaded.save();
+
+    PersistentFileHashStore reloadedAgain = new PersistentFileHashStore(filesystem, STORE_PATH);
+    assertEquals(sha1("bar"), reloadedAgain.get(bar, PersistentFileHashStoreTest::failToLoad));
+    assertEquals(sha1("foo"), reloadedAgain.get(foo, () -> sha1("foo")));
+  }
+
+  @Test
+  public void recentlyModifiedFilesAreNotPersisted() throws IOException {
+    Path foo = Paths.get("foo.txt");
+    filesystem.writeContentsToPath("foo", foo);
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, STORE_PATH);
+    store.get(foo, () -> sha1("foo"));
+    store.save();
+
+    PersistentFileHashStore reloaded = new PersistentFileHashStore(filesystem, STORE_PATH);
+    assertEquals(sha1("reloaded"), reloaded.get(foo, () -> sha1("reloaded")));
+  }
+
+  @Test
+  public void malformedStoreIsIgnored() throws IOException {
+    Path foo = writeFile("foo.txt", "foo");
+    filesystem.createParentDirs(STORE_PATH);
+    filesystem.writeContentsToPath("not a file hash store", STORE_PATH);
+
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, STORE_PATH);
+    assertEquals(sha1("foo"), store.get(foo, () -> sha1("foo")));
+    store.save();
+
+    PersistentFileHashStore reloaded = new PersistentFileHashStore(filesystem, STORE_PATH);
+    assertEquals(sha1("foo"), reloaded.get(foo, PersistentFileHashStoreTest::failToLoad));
+  }
+
+  @Test
+  public void savingOnlyAppendsToTheJournal() throws IOException {
+    Path foo = writeFile("foo.txt", "foo");
+    Path bar = writeFile("bar.txt", "bar");
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, STORE_PATH, 1);
+    store.get(foo, () -> sha1("foo"));
+    store.save();
+    assertFalse(filesystem.exists(STORE_PATH));
+    long journalSize = filesystem.getFileSize(JOURNAL_PATH);
+
+    store.get(bar, () -> sha1("bar"));
+    store.save();
+    assertFalse(filesystem.exists(STORE_PATH));
+    assertTrue(filesystem.getFileSize(JOURNAL_PATH) > journalSize);
+  }
+
+  @Test
+  public void journalIsCompactedWhenTheStoreIsOpened() throws IOException {
+    Path foo = writeFile("foo.txt", "foo");
+    Path bar = writeFile("bar.txt", "bar");
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, STORE_PATH, 1);
+    store.get(foo, () -> sha1("foo"));
+    store.get(bar, () -> sha1("bar"));
+    store.save();
+    store.invalidate(foo);
+    store.save();
+
+    PersistentFileHashStore reloaded = new PersistentFileHashStore(filesystem, STORE_PATH, 1);
+    assertTrue(filesystem.exists(STORE_PATH));
+    assertFalse(filesystem.exists(JOURNAL_PATH));
+    assertEquals(sha1("bar"), reloaded.get(bar, PersistentFileHashStoreTest::failToLoad));
+    assertEquals(sha1("foo"), reloaded.get(foo, () -> sha1("foo")));
+  }
+
+  @Test
+  public void truncatedJournalRecordIsIgnored() throws IOException {
+    Path foo = writeFile("foo.txt", "foo");
+    PersistentFileHashStore store = new PersistentFileHashStore(filesystem, STORE_PATH);
+    store.get(foo, () -> sha1("foo"));
+    store.save();
+    Files.write(
+        filesystem.resolve(JOURNAL_PATH), new byte[] {'P', 0, 0}, StandardOpenOption.APPEND);
+
+    PersistentFileHashStore reloaded = new PersistentFileHashStore(filesystem, STORE_PATH);
+    assertEquals(sha1("foo"), reloaded.get(foo, PersistentFileHashStoreTest::failToLoad));
+  }
+
+  private Path writeFile(String name, String contents) throws IOException {
+    Path path = Paths.get(name);
+    filesystem.createParentDirs(path);
+    filesystem.writeContentsToPath(contents, path);
+    // Back-date the file, so that it is not considered to be still changing.
+    filesystem.setLastModifiedTime(
+        path, FileTime.fromMillis(System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(1)));
+    return path;
+  }
+
+  private static HashCode sha1(String contents) {
+    return Hashing.sha1().hashString(contents, StandardCharsets.UTF_8);
+  }
+
+  private static HashCode failToLoad() {
+    fail("Expected the hash to come from the store.");
+    throw new AssertionError();
+  }
+}
@@ -206,6 +206,34 @@ public class ListeningMultiSemaphoreTest {
     return new ListeningMultiSemaphore(values, ResourceAllocationFairness.FAIR);
   }
 
+  @Test
+  public void testPendingItemsAreProcessedInPriorityOrder() {
+    ListeningMultiSemaphore semaphore = getFairListeningMultiSemaphore(amountsOfCpu(1));
+    semaphore.acquire(amountsOfCpu(1));
+
+    ListenableFuture<Void> low = semaphore.acquire(amountsOfCpu(1), 1);
+    ListenableFuture<Void> high = semaphore.acquire(amountsOfCpu(1), 10);
+    ListenableFuture<Void> firstMedium = semaphore.acquire(amountsOfCpu(1), 5);
+    ListenableFuture<Void> secondMedium = semaphore.acquire(amountsOfCpu(1), 5);
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(4));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(high.isDone(), Matchers.equalTo(true));
+    assertThat(firstMedium.isDone(), Matchers.equalTo(false));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(firstMedium.isDone(), Matchers.equalTo(true));
+    assertThat(secondMedium.isDone(), Matchers.equalTo(false));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(secondMedium.isDone(), Matchers.equalTo(true));
+    assertThat(low.isDone(), Matchers.equalTo(false));
+
+    semaphore.release(amountsOfCpu(1));
+    assertThat(low.isDone(), Matchers.equalTo(true));
+    assertThat(semaphore.getQueueLength(), Matchers.equalTo(0));
+  }
+
   private static ResourceAmounts amountsOfCpu(int cpu) {
     return amountsOfCpuAndMemory(cpu, 0);
   }
@@ -27,6 +27,7 @@ import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import org.hamcrest.Matchers;
 import org.junit.Test;
 
@@ -130,6 +131,70 @@ public class WorkerProcessPoolTest {
         Matchers.allOf(Matchers.greaterThan(0), Matchers.lessThanOrEqualTo(numThreads)));
   }
 
+  @Test
+  public void sharesWorkersThatRunSeveralJobsAtOnce() throws Exception {
+    final WorkerProcessPool pool = createPool(2, 3);
+    final Set<WorkerProcess> createdWorkers = concurrentSet();
+
+    Thread[] tasks = new Thread[2 * 3 + 1];
+    for (int i = 0; i < tasks.length; i++) {
+      tasks[i] = new Thread(new BorrowWorkerProcessWithoutReturning(pool, createdWorkers));
+    }
+    for (Thread thread : tasks) {
+      thread.start();
+    }
+    int finished = 0;
+    for (Thread thread : tasks) {
+      thread.join(100);
+      finished += thread.isAlive() ? 0 : 1;
+    }
+
+    assertThat(createdWorkers.size(), Matchers.is(2));
+    assertThat(finished, Matchers.is(2 * 3));
+  }
+
+  @Test
+  public void destroyingASharedWorkerTakesAllOfItsJobSlots() throws Exception {
+    final WorkerProcessPool pool = createPool(1, 2);
+    final WorkerProcess first = pool.borrowWorkerProcess();
+    final WorkerProcess second = pool.borrowWorkerProcess();
+    assertThat(second, Matchers.is(first));
+
+    pool.destroyWorkerProcess(first);
+    // The other borrower finds out about the failure afterwards.
+    pool.returnWorkerProcess(second);
+
+    final WorkerProcess replacement = pool.borrowWorkerProcess();
+    assertThat(replacement, Matchers.not(first));
+    pool.returnWorkerProcess(replacement);
+    pool.close();
+  }
+
+  @Test
+  public void borrowersWaitingWhenTheLastWorkerIsDestroyedGetANewOne() throws Exception {
+    final WorkerProcessPool pool = createPool(1);
+    final WorkerProcess first = pool.borrowWorkerProcess();
+    final AtomicReference<WorkerProcess> borrowed = new AtomicReference<>();
+    Thread t =
+        new Thread(
+            () -> {
+              try {
+                borrowed.set(pool.borrowWorkerProcess());
+              } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+              }
+            });
+    t.start();
+
+    // Nothing is ever returned to the pool, the waiting borrower has to create a worker itself.
+    pool.destroyWorkerProcess(first);
+    t.join(10_000);
+
+    assertThat(borrowed.get(), Matchers.allOf(Matchers.notNullValue(), Matchers.not(first)));
+    pool.returnWorkerProcess(borrowed.get());
+    pool.close();
+  }
+
   @Test
   public void destroysProcessOnFailure() throws InterruptedException {
     final WorkerProcessPool pool = createPool(1);
@@ -185,10 +250,17 @@ public class WorkerProcessPoolTest {
   }
 
   private static WorkerProcessPool createPool(int maxWorkers) {
-    return new WorkerProcessPool(maxWorkers, Hashing.sha1().hashLong(0)) {
+    return createPool(maxWorkers, 1);
+  }
+
+  private static WorkerProcessPool createPool(int maxWorkers, int maxJobsPerWorker) {
+    return new WorkerProcessPool(maxWorkers, maxJobsPerWorker, Hashing.sha1().hashLong(0)) {
       @Override
       protected WorkerProcess startWorkerProcess() throws IOException {
-        return new FakeWorkerProcess(ImmutableMap.of());
+        // Like WorkerProcessPoolFactory, as shared workers are lent out again straight away.
+        WorkerProcess process = new FakeWorkerProcess(ImmutableMap.of());
+        process.ensureLaunchAndHandshake();
+        return process;
       }
     };
   }
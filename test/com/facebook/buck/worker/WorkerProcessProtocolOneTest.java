@@ -0,0 +1,187 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.worker;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.integration.TemporaryPaths;
+import com.facebook.buck.util.HumanReadableException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.channels.Channels;
+import java.nio.channels.Pipe;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+public class WorkerProcessProtocolOneTest {
+
+  @Rule public TemporaryPaths temporaryPaths = new TemporaryPaths();
+
+  private WorkerProcessProtocolOne.CommandSender sender;
+  private WorkerProcessProtocolOne.CommandReceiver receiver;
+  private AtomicBoolean senderClosed;
+  private ExecutorService executor;
+
+  @Before
+  public void setUp() throws IOException {
+    Pipe toWorker = Pipe.open();
+    Pipe fromWorker = Pipe.open();
+    senderClosed = new AtomicBoolean(false);
+    sender =
+        new WorkerProcessProtocolOne.CommandSender(
+            Channels.newOutputStream(toWorker.sink()),
+            Channels.newInputStream(fromWorker.source()),
+            temporaryPaths.newFile("stderr"),
+            () -> senderClosed.set(true),
+            4);
+    receiver =
+        new WorkerProcessProtocolOne.CommandReceiver(
+            Channels.newOutputStream(fromWorker.sink()),
+            Channels.newInputStream(toWorker.source()),
+            2);
+    executor = Executors.newCachedThreadPool();
+  }
+
+  @After
+  public void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  public void handshakeAgreesOnTheSmallerNumberOfJobs() throws Exception {
+    Future<Integer> workerJobs = executor.submit(receiver::handshake);
+    sender.handshake(0);
+
+    assertEquals(2, (int) workerJobs.get());
+    assertEquals(2, sender.getAcceptedJobs());
+  }
+
+  @Test
+  public void responsesAreMatchedUpWithConcurrentJobs() throws Exception {
+    handshake();
+    sender.send(1, command("1"));
+    sender.send(2, command("2"));
+
+    WorkerProcessProtocolOne.Message first = receiver.receiveMessage();
+    WorkerProcessProtocolOne.Message second = receiver.receiveMessage();
+    assertEquals(1, first.getId());
+    assertEquals(command("1"), first.getCommand().get());
+    assertEquals(command("2"), second.getCommand().get());
+
+    // Answer the jobs in the opposite order to the one they were sent in.
+    Future<Integer> firstResult = executor.submit(() -> sender.receiveCommandResponse(1));
+    receiver.sendResponse(2, false, 42);
+    assertEquals(42, sender.receiveCommandResponse(2));
+    assertFalse(firstResult.isDone());
+    receiver.sendResponse(1, false, 1);
+    assertEquals(1, (int) firstResult.get());
+  }
+
+  @Test
+  public void errorResponsesFailTheJob() throws Exception {
+    handshake();
+    sender.send(1, command("1"));
+    assertEquals(1, receiver.receiveMessage().getId());
+
+    receiver.sendResponse(1, true, 2);
+    try {
+      sender.receiveCommandResponse(1);
+      throw new AssertionError("Expected the job to fail.");
+    } catch (HumanReadableException e) {
+      assertThat(e.getMessage(), containsString("failed job 1 with exit code 2"));
+    }
+  }
+
+  @Test
+  public void interruptedJobsAreCancelled() throws Exception {
+    handshake();
+    sender.send(1, command("1"));
+    assertEquals(1, receiver.receiveMessage().getId());
+
+    Thread waiter = Thread.currentThread();
+    Future<?> worker =
+        executor.submit(
+            () -> {
+              WorkerProcessProtocolOne.Message message = receiver.receiveMessage();
+              assertTrue(message.isCancel());
+              assertEquals(1, message.getId());
+              // A late response for a cancelled job is dropped.
+              receiver.sendResponse(1, false, 0);
+              return null;
+            });
+    executor.submit(
+        () -> {
+          Thread.sleep(100);
+          waiter.interrupt();
+          return null;
+        });
+
+    try {
+      sender.receiveCommandResponse(1);
+      throw new AssertionError("Expected the wait to be interrupted.");
+    } catch (InterruptedIOException e) {
+      assertTrue(Thread.interrupted());
+    }
+    worker.get();
+  }
+
+  @Test
+  public void closeAsksTheWorkerToClose() throws Exception {
+    handshake();
+    Future<Boolean> workerClosed =
+        executor.submit(
+            () -> {
+              boolean isClose = receiver.receiveMessage().isClose();
+              receiver.close();
+              return isClose;
+            });
+
+    sender.close();
+    assertTrue(workerClosed.get());
+    assertTrue(senderClosed.get());
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void jobsFailWhenTheWorkerGoesAway() throws Exception {
+    handshake();
+    sender.send(1, command("1"));
+    receiver.close();
+    sender.receiveCommandResponse(1);
+  }
+
+  private void handshake() throws Exception {
+    Future<Integer> workerJobs = executor.submit(receiver::handshake);
+    sender.handshake(0);
+    workerJobs.get();
+  }
+
+  private static WorkerProcessCommand command(String name) {
+    return WorkerProcessCommand.of(
+        Paths.get(name + ".args"), Paths.get(name + ".out"), Paths.get(name + ".err"));
+  }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.io.MoreFiles;
+import com.google.caliper.AfterExperiment;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Compares sequential and parallel extraction of archives shaped like cached build artifacts:
+ * either lots of small files (e.g. a java library's classes) or a few large ones (e.g. native
+ * libraries), each stored or deflated.
+ */
+public class UnzipBenchmark {
+  public enum Shape {
+    MANY_SMALL_FILES(10000, 4 * 1024),
+    FEW_LARGE_FILES(8, 32 * 1024 * 1024),
+    ;
+
+    private final int files;
+    private final int fileSize;
+
+    Shape(int files, int fileSize) {
+      this.files = files;
+      this.fileSize = fileSize;
+    }
+  }
+
+  @Param({"MANY_SMALL_FILES", "FEW_LARGE_FILES"})
+  private Shape shape = Shape.MANY_SMALL_FILES;
+
+  @Param({"true", "false"})
+  private boolean compressed = true;
+
+  private Path root;
+  private Path zipFile;
+  private Path output;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @After
+  public void tearDownTest() throws Exception {
+    tearDownBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    root = Files.createTempDirectory("unzip-benchmark");
+    zipFile = root.resolve("archive.zip");
+    output = root.resolve("output");
+
+    Random random = new Random(123);
+    byte[] contents = new byte[shape.fileSize];
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(zipFile.toFile())) {
+      for (int i = 0; i < shape.files; i++) {
+        // Half random, half zeros, so that deflating has some work to do.
+        random.nextBytes(contents);
+        ZipArchiveEntry entry = new ZipArchiveEntry(String.format("pkg%d/file%d", i % 100, i));
+        if (!compressed) {
+          entry.setMethod(ZipEntry.STORED);
+          entry.setSize(contents.length);
+        }
+        zip.putArchiveEntry(entry);
+        zip.write(contents, 0, contents.length / 2);
+        zip.write(new byte[contents.length - contents.length / 2]);
+        zip.closeArchiveEntry();
+      }
+    }
+  }
+
+  @AfterExperiment
+  public void tearDownBenchmark() throws IOException {
+    MoreFiles.deleteRecursivelyIfExists(root);
+  }
+
+  @Test
+  public void sequentialAndParallelExtractionAgree() throws Exception {
+    ImmutableList<Path> sequential = extractSequentially();
+    assertEquals(shape.files, sequential.size());
+    assertEquals(sequential, extractInParallel());
+  }
+
+  @Benchmark
+  public ImmutableList<Path> extractSequentially() throws Exception {
+    return Unzip.extractZipFile(
+        zipFile, output, Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+  }
+
+  @Benchmark
+  public ImmutableList<Path> extractInParallel() throws Exception {
+    return Unzip.extractZipFileInParallel(
+        zipFile, output, Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+  }
+}
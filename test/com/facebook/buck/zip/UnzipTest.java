@@ -16,7 +16,9 @@
 
 package com.facebook.buck.zip;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assume.assumeThat;
@@ -33,6 +35,7 @@ import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
 import java.util.zip.ZipEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
 import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
@@ -219,4 +222,42 @@ public class UnzipTest {
     assertTrue(Files.exists(extractFolder.toAbsolutePath().resolve("foo")));
     assertTrue(Files.exists(extractFolder.toAbsolutePath().resolve("foo/bar")));
   }
+
+  @Test
+  public void testExtractZipFileInParallel() throws InterruptedException, IOException {
+    try (ZipArchiveOutputStream zip = new ZipArchiveOutputStream(zipFile.toFile())) {
+      zip.putArchiveEntry(new ZipArchiveEntry("dir0/"));
+      zip.closeArchiveEntry();
+      for (int i = 0; i < 100; i++) {
+        ZipArchiveEntry entry = new ZipArchiveEntry(String.format("dir%d/%d.bin", i % 7, i));
+        // Mix stored and deflated entries.
+        if (i % 2 == 0) {
+          entry.setMethod(ZipEntry.STORED);
+          entry.setSize(DUMMY_FILE_CONTENTS.length + i);
+        }
+        zip.putArchiveEntry(entry);
+        zip.write(DUMMY_FILE_CONTENTS);
+        zip.write(new byte[i]);
+        zip.closeArchiveEntry();
+      }
+    }
+
+    Path extractFolder = tmpFolder.newFolder();
+    Files.createDirectories(extractFolder.resolve("dir0"));
+    Files.write(extractFolder.resolve("dir0/stale.bin"), DUMMY_FILE_CONTENTS);
+    ImmutableList<Path> result =
+        Unzip.extractZipFileInParallel(
+            zipFile.toAbsolutePath(),
+            extractFolder.toAbsolutePath(),
+            Unzip.ExistingFileMode.OVERWRITE_AND_CLEAN_DIRECTORIES);
+
+    assertEquals(100, result.size());
+    assertFalse(Files.exists(extractFolder.resolve("dir0/stale.bin")));
+    for (int i = 0; i < 100; i++) {
+      byte[] contents =
+          Files.readAllBytes(extractFolder.resolve(String.format("dir%d/%d.bin", i % 7, i)));
+      assertEquals(DUMMY_FILE_CONTENTS.length + i, contents.length);
+      assertArrayEquals(DUMMY_FILE_CONTENTS, Arrays.copyOf(contents, DUMMY_FILE_CONTENTS.length));
+    }
+  }
 }
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2017-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.zip;
+
+import static org.junit.Assert.assertArrayEquals;
+
+import com.facebook.buck.timing.FakeClock;
+import com.facebook.buck.zip.ZipOutputStreams.HandleDuplicates;
+import com.google.caliper.BeforeExperiment;
+import com.google.caliper.Benchmark;
+import com.google.caliper.Param;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Measures how fast jars shaped like fat jars and APK inputs (lots of class-sized entries) can be
+ * written, deflating entries on one thread or several.
+ */
+public class ZipOutputStreamBenchmark {
+  @Param({"1000", "20000"})
+  private int entryCount = 1000;
+
+  @Param({"8192"})
+  private int averageEntrySize = 8192;
+
+  @Param({"1", "2", "4", "8"})
+  private int parallelism = 4;
+
+  private byte[][] contents;
+
+  @Before
+  public void setUpTest() throws Exception {
+    setUpBenchmark();
+  }
+
+  @BeforeExperiment
+  public void setUpBenchmark() throws Exception {
+    Random random = new Random(123);
+    contents = new byte[entryCount][];
+    for (int i = 0; i < entryCount; i++) {
+      // Class files compress to about a half, so mix a few symbols with runs of zeros.
+      contents[i] = new byte[random.nextInt(2 * averageEntrySize)];
+      for (int j = 0; j < contents[i].length; j += 2) {
+        contents[i][j] = (byte) random.nextInt(64);
+      }
+    }
+  }
+
+  @Test
+  public void outputDoesNotDependOnParallelism() throws IOException {
+    assertArrayEquals(write(1), write(parallelism));
+  }
+
+  @Benchmark
+  public int writeZip() throws IOException {
+    return write(parallelism).length;
+  }
+
+  private byte[] write(int parallelism) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (CustomZipOutputStream out =
+        ZipOutputStreams.newOutputStream(
+            bytes, HandleDuplicates.THROW_EXCEPTION, new FakeClock(0), parallelism)) {
+      for (int i = 0; i < entryCount; i++) {
+        out.putNextEntry(new CustomZipEntry(String.format("com/example/Class%d.class", i)));
+        out.write(contents[i]);
+        out.closeEntry();
+      }
+    }
+    return bytes.toByteArray();
+  }
+}
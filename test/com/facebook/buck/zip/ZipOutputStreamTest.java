@@ -35,6 +35,7 @@ import static org.junit.Assert.assertTrue;
 
 import com.facebook.buck.io.MorePosixFilePermissions;
 import com.facebook.buck.testutil.Zip;
+import com.facebook.buck.timing.FakeClock;
 import com.google.common.collect.ImmutableList;
 import com.google.common.hash.Hashing;
 import com.google.common.io.ByteStreams;
@@ -53,6 +54,8 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipInputStream;
@@ -488,6 +491,78 @@ public class ZipOutputStreamTest {
     }
   }
 
+  public static class ParallelismTests {
+
+    @Test
+    public void parallelOutputIsIdenticalToSerialOutput() throws IOException {
+      Path serial = writeMixedArchive(1);
+      Path parallel = writeMixedArchive(4);
+
+      assertArrayEquals(Files.readAllBytes(serial), Files.readAllBytes(parallel));
+      assertEquals(getExtractedEntries(serial), getExtractedEntries(parallel));
+
+      ZipScrubber.scrubZip(serial);
+      ZipScrubber.scrubZip(parallel);
+      assertArrayEquals(Files.readAllBytes(serial), Files.readAllBytes(parallel));
+    }
+
+    @Test(expected = ZipException.class)
+    public void writingTheSameFileMoreThanOnceIsAnErrorInParallel() throws IOException {
+      Path output = Files.createTempFile("example", ".zip");
+      try (CustomZipOutputStream out =
+          ZipOutputStreams.newOutputStream(Files.newOutputStream(output), THROW_EXCEPTION, 4)) {
+        out.putNextEntry(new ZipEntry("example.txt"));
+        out.putNextEntry(new ZipEntry("example.txt"));
+      }
+    }
+
+    private static Path writeMixedArchive(int parallelism) throws IOException {
+      Path output = Files.createTempFile("example", ".zip");
+      Random random = new Random(42);
+      try (CustomZipOutputStream out =
+          ZipOutputStreams.newOutputStream(
+              Files.newOutputStream(output), APPEND_TO_ZIP, new FakeClock(0), parallelism)) {
+        for (int i = 0; i < 200; i++) {
+          CustomZipEntry dir = new CustomZipEntry(String.format("dir%d/", i));
+          out.putNextEntry(dir);
+          out.closeEntry();
+
+          // Compressible contents of varying size, written in uneven chunks.
+          byte[] bytes = new byte[random.nextInt(64 * 1024)];
+          for (int j = 0; j < bytes.length; j++) {
+            bytes[j] = (byte) (random.nextInt(16) + 'a');
+          }
+          CustomZipEntry entry = new CustomZipEntry(String.format("dir%d/file.txt", i));
+          entry.setCompressionLevel(i % 3 == 0 ? BEST_COMPRESSION : Deflater.BEST_SPEED);
+          if (i % 5 == 0) {
+            entry.setCompressionLevel(NO_COMPRESSION);
+            entry.setSize(bytes.length);
+            entry.setCompressedSize(bytes.length);
+            entry.setCrc(calcCrc(bytes));
+          }
+          out.putNextEntry(entry);
+          for (int off = 0; off < bytes.length; off += 1000) {
+            out.write(bytes, off, Math.min(1000, bytes.length - off));
+          }
+          out.closeEntry();
+        }
+
+        // Too big to be buffered.
+        byte[] large = new byte[20 * 1024 * 1024];
+        random.nextBytes(large);
+        Arrays.fill(large, 0, large.length / 2, (byte) 0);
+        out.putNextEntry(new CustomZipEntry("large.bin"));
+        out.write(large);
+        out.closeEntry();
+
+        out.putNextEntry(new CustomZipEntry("last.txt"));
+        out.write("last".getBytes(UTF_8));
+        out.closeEntry();
+      }
+      return output;
+    }
+  }
+
   private static List<NameAndContent> getExtractedEntries(Path zipFile) throws IOException {
     List<NameAndContent> entries = new ArrayList<>();
     try (ZipInputStream in = new ZipInputStream(Files.newInputStream(zipFile))) {